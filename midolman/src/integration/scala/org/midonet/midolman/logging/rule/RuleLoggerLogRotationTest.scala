@@ -28,11 +28,11 @@ class RuleLoggerLogRotationTest extends RuleLoggerTestBase {
 
     feature("FileRuleLogger") {
         scenario("Handles log rotation") {
-            // 8 byte header + (170 bytes per event * 6 events) = 858. This is
-            // greater than 854 (1024 - 170), so there should be five events per
-            // 1024-byte log file.
+            // 8 byte header + (182 bytes per event * 6 events) = 1100. This is
+            // greater than 1024, so there should be five events per 1024-byte
+            // log file.
             val headerSize = 8
-            val recordSize = 170
+            val recordSize = 182
             val (chain, rule, logger) =
                 makeLogger(metadata = defaultMetadata())
 
@@ -75,7 +75,7 @@ class RuleLoggerLogRotationTest extends RuleLoggerTestBase {
 
         scenario("Recovers from exception after one minute.") {
             val headerSize = 8
-            val recordSize = 170
+            val recordSize = 182
             val (chain, rule, logger) =
                 makeLogger(metadata = defaultMetadata())
 
@@ -43,17 +43,14 @@ public class NativeFlowControllerJNI {
     public static native void flowTagIndexerIndexFlowTags(
             long indexer, long id, long[] tag);
     public static native void flowTagIndexerRemoveFlow(long indexer, long id);
-    public static native long flowTagIndexerInvalidate(long indexer, long tag);
-    public static native long flowTagIndexerInvalidFlowsCount(long invalids);
-    public static native long flowTagIndexerInvalidFlowsGet(long invalids,
-                                                            int index);
-    public static native void flowTagIndexerInvalidFlowsFree(long invalids);
+    public static native long[] flowTagIndexerInvalidate(long indexer,
+                                                         long tag);
 
     public static native long createFlowExpirationIndexer();
     public static native void flowExpirationIndexerEnqueueFlowExpiration(
             long expirer, long id, long expiration, int expirationType);
-    public static native long flowExpirationIndexerPollForExpired(
-            long expirer, long expiration);
+    public static native int flowExpirationIndexerPollForExpired(
+            long expirer, long expiration, long[] expired);
     public static native long flowExpirationIndexerEvictFlow(
             long expirer);
 
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.layer3;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.midonet.packets.IPv4Addr;
+import org.midonet.packets.IPv4Subnet;
+
+/**
+ * An immutable IPv4 routing table, implemented as a persistent version of the
+ * compressed destination prefix trie of the {@link RoutesTrie}. Adding or
+ * removing a route returns a new table that shares with the previous one all
+ * trie nodes except those on the path to the route's destination prefix, such
+ * that an update costs O(prefix length) regardless of the number of routes in
+ * the table.
+ *
+ * Since a table never changes once built, it can be read concurrently by any
+ * number of threads without synchronization, while the owner of the table
+ * publishes new versions.
+ */
+public final class PersistentRoutingTable {
+
+    private final static Logger log =
+        LoggerFactory.getLogger("org.midonet.devices.router");
+
+    private static final Route[] NO_ROUTES = new Route[0];
+
+    public static final PersistentRoutingTable EMPTY =
+        new PersistentRoutingTable(null, 0);
+
+    private static final class TrieNode {
+        final int bitlen;
+        final int addr;
+        final TrieNode left;
+        final TrieNode right;
+        final Route[] routes;
+
+        TrieNode(int bitlen, int addr, TrieNode left, TrieNode right,
+                 Route[] routes) {
+            this.bitlen = bitlen;
+            this.addr = addr;
+            this.left = left;
+            this.right = right;
+            this.routes = routes;
+        }
+
+        TrieNode withLeft(TrieNode left) {
+            return new TrieNode(bitlen, addr, left, right, routes);
+        }
+
+        TrieNode withRight(TrieNode right) {
+            return new TrieNode(bitlen, addr, left, right, routes);
+        }
+
+        TrieNode withRoutes(Route[] routes) {
+            return new TrieNode(bitlen, addr, left, right, routes);
+        }
+    }
+
+    private final TrieNode root;
+    private final int size;
+
+    private PersistentRoutingTable(TrieNode root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * @return The number of routes in this table.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return A table that contains the routes of this table and the given
+     * route, or this table if it already contains the route.
+     */
+    public PersistentRoutingTable add(Route rt) {
+        TrieNode newRoot = insert(root, rt);
+        return newRoot == root ? this
+                               : new PersistentRoutingTable(newRoot, size + 1);
+    }
+
+    /**
+     * @return A table that contains the routes of this table except the given
+     * route, or this table if it does not contain the route.
+     */
+    public PersistentRoutingTable remove(Route rt) {
+        TrieNode newRoot = delete(root, rt);
+        return newRoot == root ? this
+                               : new PersistentRoutingTable(newRoot, size - 1);
+    }
+
+    /**
+     * @return A table with the given routes added and then the given routes
+     * removed.
+     */
+    public PersistentRoutingTable update(Iterable<Route> added,
+                                         Iterable<Route> removed) {
+        PersistentRoutingTable table = this;
+        for (Route rt : added)
+            table = table.add(rt);
+        for (Route rt : removed)
+            table = table.remove(rt);
+        return table;
+    }
+
+    public List<Route> lookup(IPv4Addr src, IPv4Addr dst) {
+        return lookup(src.toInt(), dst.toInt(), log);
+    }
+
+    public List<Route> lookup(IPv4Addr src, IPv4Addr dst, Logger logger) {
+        return lookup(src.toInt(), dst.toInt(), logger);
+    }
+
+    /**
+     * Returns the routes with the longest destination prefix matching the
+     * destination address that also match the source address, with the
+     * minimum weight. This has the same semantics as
+     * {@link RoutingTable#lookup(int, int, Logger)}.
+     */
+    List<Route> lookup(int src, int dst, Logger logger) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("lookup: src %s dst %s in table with %d routes",
+                                       IPv4Addr.intToString(src),
+                                       IPv4Addr.intToString(dst),
+                                       size));
+        }
+
+        List<Route> ret = new ArrayList<>();
+        lookup(root, src, dst, ret);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("lookup: return %s for src %s dst %s",
+                                       ret.toString(),
+                                       IPv4Addr.intToString(src),
+                                       IPv4Addr.intToString(dst)));
+        }
+        return ret;
+    }
+
+    private static boolean lookup(TrieNode node, int src, int dst,
+                                  List<Route> ret) {
+        if (null == node || !IPv4Subnet.addrMatch(dst, node.addr, node.bitlen))
+            return false;
+        // Prefer the routes of the longest matching prefix, and fall back to
+        // the routes of this node when none of the descendants match.
+        if (lookup(isLeft(dst, node.bitlen) ? node.left : node.right,
+                   src, dst, ret))
+            return true;
+
+        int minWeight = Integer.MAX_VALUE;
+        for (Route rt : node.routes) {
+            if (IPv4Subnet.addrMatch(src, rt.srcNetworkAddr, rt.srcNetworkLength)) {
+                if (rt.weight < minWeight) {
+                    ret.clear();
+                    ret.add(rt);
+                    minWeight = rt.weight;
+                } else if (rt.weight == minWeight)
+                    ret.add(rt);
+            }
+        }
+        return !ret.isEmpty();
+    }
+
+    private static boolean isLeft(int addr, int bitlen) {
+        return 0 == (addr & (0x80000000 >>> bitlen));
+    }
+
+    private static TrieNode insert(TrieNode node, Route rt) {
+        int rt_dst = rt.dstNetworkAddr;
+        int rt_len = rt.dstNetworkLength;
+
+        if (null == node)
+            return new TrieNode(rt_len, rt_dst, null, null, new Route[] { rt });
+
+        if (rt_len >= node.bitlen
+            && IPv4Subnet.addrMatch(rt_dst, node.addr, node.bitlen)) {
+            if (rt_len == node.bitlen) {
+                Route[] routes = addRoute(node.routes, rt);
+                return routes == node.routes ? node : node.withRoutes(routes);
+            }
+            if (isLeft(rt_dst, node.bitlen)) {
+                TrieNode left = insert(node.left, rt);
+                return left == node.left ? node : node.withLeft(left);
+            } else {
+                TrieNode right = insert(node.right, rt);
+                return right == node.right ? node : node.withRight(right);
+            }
+        }
+
+        // The route diverges from this node: see RoutesTrie.addRoute for the
+        // two possible cases.
+        int diffBit = RoutesTrie.findMSB(node.addr ^ rt_dst);
+        if (diffBit < node.bitlen && diffBit < rt_len) {
+            TrieNode newNode =
+                new TrieNode(rt_len, rt_dst, null, null, new Route[] { rt });
+            return isLeft(rt_dst, diffBit)
+                   ? new TrieNode(diffBit, rt_dst, newNode, node, NO_ROUTES)
+                   : new TrieNode(diffBit, rt_dst, node, newNode, NO_ROUTES);
+        } else {
+            return isLeft(node.addr, rt_len)
+                   ? new TrieNode(rt_len, rt_dst, node, null, new Route[] { rt })
+                   : new TrieNode(rt_len, rt_dst, null, node, new Route[] { rt });
+        }
+    }
+
+    private static TrieNode delete(TrieNode node, Route rt) {
+        int rt_dst = rt.dstNetworkAddr;
+        int rt_len = rt.dstNetworkLength;
+
+        if (null == node || rt_len < node.bitlen
+            || !IPv4Subnet.addrMatch(rt_dst, node.addr, node.bitlen))
+            return node;
+
+        if (rt_len == node.bitlen) {
+            Route[] routes = removeRoute(node.routes, rt);
+            return routes == node.routes ? node
+                                         : compact(node.withRoutes(routes));
+        }
+        if (isLeft(rt_dst, node.bitlen)) {
+            TrieNode left = delete(node.left, rt);
+            return left == node.left ? node : compact(node.withLeft(left));
+        } else {
+            TrieNode right = delete(node.right, rt);
+            return right == node.right ? node : compact(node.withRight(right));
+        }
+    }
+
+    /**
+     * Removes a node without routes and with at most one child.
+     */
+    private static TrieNode compact(TrieNode node) {
+        if (node.routes.length > 0)
+            return node;
+        if (null == node.left)
+            return node.right;
+        if (null == node.right)
+            return node.left;
+        return node;
+    }
+
+    private static Route[] addRoute(Route[] routes, Route rt) {
+        for (Route route : routes) {
+            if (route.equals(rt))
+                return routes;
+        }
+        Route[] newRoutes = new Route[routes.length + 1];
+        System.arraycopy(routes, 0, newRoutes, 0, routes.length);
+        newRoutes[routes.length] = rt;
+        return newRoutes;
+    }
+
+    private static Route[] removeRoute(Route[] routes, Route rt) {
+        for (int index = 0; index < routes.length; index++) {
+            if (routes[index].equals(rt)) {
+                if (routes.length == 1)
+                    return NO_ROUTES;
+                Route[] newRoutes = new Route[routes.length - 1];
+                System.arraycopy(routes, 0, newRoutes, 0, index);
+                System.arraycopy(routes, index + 1, newRoutes, index,
+                                 routes.length - index - 1);
+                return newRoutes;
+            }
+        }
+        return routes;
+    }
+
+    @Override
+    public String toString() {
+        return "PersistentRoutingTable [size=" + size + "]";
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.management;
+
+import java.beans.ConstructorProperties;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * The simulation cost of a virtual device, aggregated over the profiled
+ * packets: the number of times the simulation entered the device, and the
+ * time spent in the device in nanoseconds.
+ */
+public final class DeviceCost implements Serializable {
+
+    private final String deviceId;
+    private final String deviceType;
+    private final long invocations;
+    private final long nanos;
+
+    @ConstructorProperties({"deviceId", "deviceType", "invocations", "nanos"})
+    public DeviceCost(String deviceId, String deviceType, long invocations,
+                      long nanos) {
+        this.deviceId = deviceId;
+        this.deviceType = deviceType;
+        this.invocations = invocations;
+        this.nanos = nanos;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public String getDeviceType() {
+        return deviceType;
+    }
+
+    public long getInvocations() {
+        return invocations;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null) return false;
+        if (o == this) return true;
+        if (!(o instanceof DeviceCost)) return false;
+        DeviceCost that = (DeviceCost)o;
+        return invocations == that.invocations && nanos == that.nanos &&
+               Objects.equals(deviceId, that.deviceId) &&
+               Objects.equals(deviceType, that.deviceType);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(deviceId, deviceType, invocations, nanos);
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceCost{deviceId=" + deviceId +
+               ", deviceType=" + deviceType +
+               ", invocations=" + invocations +
+               ", nanos=" + nanos + '}';
+    }
+}
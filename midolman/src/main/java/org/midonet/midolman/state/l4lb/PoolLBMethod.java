@@ -24,7 +24,8 @@ import static org.midonet.cluster.models.Topology.Pool;
 
 @ZoomEnum(clazz = Topology.Pool.PoolLBMethod.class)
 public enum PoolLBMethod {
-    @ZoomEnumValue("ROUND_ROBIN") ROUND_ROBIN;
+    @ZoomEnumValue("ROUND_ROBIN") ROUND_ROBIN,
+    @ZoomEnumValue("CONSISTENT_HASH") CONSISTENT_HASH;
 
     public static PoolLBMethod fromProto(Pool.PoolLBMethod proto) {
         return PoolLBMethod.valueOf(proto.toString());
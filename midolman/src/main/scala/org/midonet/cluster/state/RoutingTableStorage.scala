@@ -41,6 +41,18 @@ object RoutingTableStorage {
         new RoutingTableStorage(store)
     }
 
+    /** Serializes a [[NextHop.PORT]] route stored in the state table of the
+      * specified port. */
+    private def serializePortRoute(route: Route, portId: UUID): String = {
+        route.nextHop match {
+            case NextHop.PORT =>
+                serialize(route, portId != route.nextHopPort)
+            case _ =>
+                throw new IllegalArgumentException(
+                    s"Route next hop ${route.nextHop} not supported")
+        }
+    }
+
     /**
      * Serialize route with nextHopPort.
      *
@@ -222,6 +234,31 @@ class RoutingTableStorage(val store: StateStorage) extends AnyVal {
         }
     }
 
+    /** Adds a batch of [[NextHop.PORT]] routes as state values to the
+      * specified port. The routes are written with a single storage
+      * operation where supported by the underlying state storage.
+      *
+      * @param routes the routes to add
+      * @param portId the port to add the routes to
+      */
+    def addRoutes(routes: Seq[Route], portId: UUID): Observable[StateResult] = {
+        store.addValues(classOf[Port], portId, RoutesKey,
+                        routes.map(serializePortRoute(_, portId)))
+    }
+
+    /** Removes a batch of [[NextHop.PORT]] routes from the state table of the
+      * specified port. The routes are removed with a single storage operation
+      * where supported by the underlying state storage.
+      *
+      * @param routes the routes to remove
+      * @param portId the port to remove the routes from
+      */
+    def removeRoutes(routes: Seq[Route], portId: UUID)
+    : Observable[StateResult] = {
+        store.removeValues(classOf[Port], portId, RoutesKey,
+                           routes.map(serializePortRoute(_, portId)))
+    }
+
     /** Fetches the set of routes from the state key of the given port using
       * the state for the specified host. */
     def getPortRoutes(portId: UUID, hostId: UUID): Observable[Set[Route]] = {
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLongArray}
+import java.util.concurrent.locks.LockSupport
+import java.util.concurrent.{ArrayBlockingQueue, TimeUnit}
+
+import org.midonet.midolman.PacketWorkflow.PacketRef
+import org.midonet.midolman.logging.MidolmanLogging
+import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
+import org.midonet.odp.Packet
+import org.midonet.packets._
+
+object FairPacketQueue {
+
+    private final val DhcpServerPort = 67
+    private final val DhcpClientPort = 68
+    private final val Dhcpv6ClientPort = 546
+    private final val Dhcpv6ServerPort = 547
+
+    /**
+      * Indicates whether the packet is latency sensitive, because it is
+      * likely the first packet of a conversation: ARP, DHCP and the TCP SYN
+      * opening a connection.
+      */
+    def isExpress(packet: Packet): Boolean = {
+        val eth = packet.getEthernet
+        if (eth eq null) {
+            return false
+        }
+        if (eth.getEtherType == ARP.ETHERTYPE) {
+            return true
+        }
+        eth.getPayload match {
+            case ip: IPv4 => isExpressTransport(ip.getPayload)
+            case ip: IPv6 => isExpressTransport(ip.getPayload)
+            case _ => false
+        }
+    }
+
+    private def isExpressTransport(packet: IPacket): Boolean = packet match {
+        case udp: UDP =>
+            val port = udp.getDestinationPort
+            port == DhcpServerPort || port == DhcpClientPort ||
+            port == Dhcpv6ServerPort || port == Dhcpv6ClientPort
+        case tcp: TCP =>
+            tcp.getFlag(TCP.Flag.Syn) && !tcp.getFlag(TCP.Flag.Ack)
+        case _ => false
+    }
+
+}
+
+/**
+  * A multi-producer, single-consumer packet queue that schedules the packets
+  * of different input ports fairly, such that a flood of upcalls from one
+  * port does not delay the packets from the other ports.
+  *
+  * The packets are assigned to one of `buckets` sub-queues by hashing their
+  * input port, or their tunnel key for the packets received from a tunnel,
+  * and the consumer serves the non-empty sub-queues using deficit round
+  * robin: every sub-queue receives a credit of `quantum` packets per round,
+  * and a sub-queue that becomes empty forfeits its remaining credit. Hence,
+  * a packet waits at most for `quantum` packets of every other active
+  * sub-queue, regardless of their depth.
+  *
+  * Every sub-queue has an express band for the packets that start a
+  * conversation (see [[FairPacketQueue.isExpress]]), which is served before
+  * the other packets of the same sub-queue, such that they do not wait behind
+  * a flood from their own port. Both bands are bounded to `depth` packets,
+  * and the packets exceeding this bound are rejected.
+  *
+  * The sub-queues are pre-allocated and queueing a packet does not allocate.
+  * Since the packets of different sub-queues are not served in the order
+  * they were added, the queue tracks the number of packets added to and
+  * completed from every band, such that [[fence]] can determine when all the
+  * packets added before a given point have been processed.
+  */
+final class FairPacketQueue(buckets: Int, depth: Int, quantum: Int) {
+
+    import FairPacketQueue._
+
+    require(buckets > 0, "The number of buckets must be positive")
+    require(depth > 0, "The queue depth must be positive")
+    require(quantum > 0, "The quantum must be positive")
+
+    private val queues = Array.fill(buckets)(new ArrayBlockingQueue[Packet](depth))
+    private val expressQueues =
+        Array.fill(buckets)(new ArrayBlockingQueue[Packet](depth))
+    private val deficits = Array.fill(buckets)(quantum)
+
+    // The counters are incremented after a packet is added and decremented
+    // after a packet is removed, such that a non-zero size guarantees that
+    // the consumer finds at least one packet.
+    private val count = new AtomicInteger
+    private val expressCount = new AtomicInteger
+
+    // The number of packets added to, removed from and completed from every
+    // band, indexed by 2 * bucket for the normal band and 2 * bucket + 1 for
+    // the express band. The removed counts are confined to the consumer,
+    // which publishes them as completed once the packets are processed.
+    private val added = new AtomicLongArray(2 * buckets)
+    private val removed = new Array[Long](2 * buckets)
+    private val published = new Array[Long](2 * buckets)
+    private val completed = new AtomicLongArray(2 * buckets)
+
+    private var current = 0
+
+    /** Adds a packet to the queue. Returns `false` if the sub-queue of the
+      * packet is full, in which case the packet is not added. */
+    def offer(packet: Packet): Boolean = {
+        val bucket = bucketOf(packet)
+        if (isExpress(packet)) {
+            if (expressQueues(bucket).offer(packet)) {
+                added.incrementAndGet(2 * bucket + 1)
+                expressCount.incrementAndGet()
+                count.incrementAndGet()
+                true
+            } else false
+        } else if (queues(bucket).offer(packet)) {
+            added.incrementAndGet(2 * bucket)
+            count.incrementAndGet()
+            true
+        } else false
+    }
+
+    /** Removes and returns the next packet according to the deficit round
+      * robin order, or `null` if the queue is empty. This method must only be
+      * called by the consumer thread. */
+    def poll(): Packet = {
+        if (count.get == 0) {
+            return null
+        }
+        var visited = 0
+        while (visited <= buckets) {
+            val bucket = current
+            var packet = expressQueues(bucket).poll()
+            if (packet ne null) {
+                expressCount.decrementAndGet()
+                removed(2 * bucket + 1) += 1
+            } else {
+                packet = queues(bucket).poll()
+                if (packet ne null) {
+                    removed(2 * bucket) += 1
+                }
+            }
+            if (packet ne null) {
+                count.decrementAndGet()
+                deficits(bucket) -= 1
+                if (deficits(bucket) == 0) {
+                    deficits(bucket) = quantum
+                    advance()
+                }
+                return packet
+            }
+            deficits(bucket) = quantum
+            advance()
+            visited += 1
+        }
+        null
+    }
+
+    /** The number of packets in the queue. */
+    def size: Int = count.get
+
+    /** The number of packets in the express bands of the queue. */
+    def expressSize: Int = expressCount.get
+
+    def isEmpty: Boolean = count.get == 0
+
+    /** Marks all the packets removed so far as completed. This method must
+      * only be called by the consumer thread, after processing the packets. */
+    def complete(): Unit = {
+        var index = 0
+        while (index < removed.length) {
+            if (published(index) != removed(index)) {
+                published(index) = removed(index)
+                completed.lazySet(index, removed(index))
+            }
+            index += 1
+        }
+    }
+
+    /** Returns a fence that is reached when all the packets added to the
+      * queue so far have been completed. */
+    def fence(): () => Boolean = {
+        val fence = new Array[Long](added.length)
+        var index = 0
+        while (index < fence.length) {
+            fence(index) = added.get(index)
+            index += 1
+        }
+        () => {
+            var index = 0
+            while (index < fence.length &&
+                   completed.get(index) >= fence(index)) {
+                index += 1
+            }
+            index == fence.length
+        }
+    }
+
+    /** Returns the sub-queue for the specified packet. */
+    private[midolman] def bucketOf(packet: Packet): Int = {
+        val fmatch = packet.getMatch
+        // Reading the match fields must not affect the flow wildcards.
+        fmatch.doNotTrackSeenFields()
+        val key = try {
+            if (fmatch.isFromTunnel) fmatch.getTunnelKey
+            else fmatch.getInputPortNumber.toLong
+        } finally {
+            fmatch.doTrackSeenFields()
+        }
+        var hash = (key ^ (key >>> 32)).toInt * 0x9E3779B9
+        hash ^= hash >>> 16
+        (hash & Int.MaxValue) % buckets
+    }
+
+    private def advance(): Unit = {
+        current += 1
+        if (current == buckets) {
+            current = 0
+        }
+    }
+
+}
+
+object FairPacketWorker {
+    val WaitTimeoutNanos = TimeUnit.MICROSECONDS.toNanos(
+        DisruptorPacketWorker.WaitTimeoutMicros)
+    val MaxBatchSize = 256
+}
+
+/**
+  * A packet worker that queues the upcall packets in a [[FairPacketQueue]]
+  * instead of a Disruptor ring buffer, such that the packets from different
+  * input ports are processed fairly and the first packets of a conversation
+  * are not delayed by a flood of upcalls.
+  *
+  * The worker thread hands the packets to the packet workflow in batches,
+  * where a batch ends when the queue becomes empty or after
+  * [[FairPacketWorker.MaxBatchSize]] packets, and it calls the timeout
+  * handler of the workflow when the queue is idle, similar to the Disruptor
+  * event processor. An idle worker parks until a producer submits a packet.
+  */
+class FairPacketWorker(packetWorkflow: PacketWorkflow,
+                       metrics: PacketPipelineMetrics,
+                       index: Int,
+                       buckets: Int,
+                       depth: Int,
+                       quantum: Int)
+        extends PacketWorkerThread(s"packet-worker-$index")
+        with MidolmanLogging {
+
+    import FairPacketWorker._
+
+    override def logSource = s"org.midonet.packet-worker.packet-worker-$index"
+
+    setDaemon(true)
+
+    val queue = new FairPacketQueue(buckets, depth, quantum)
+
+    @volatile private var waiting = false
+    @volatile private var running = false
+    @volatile private var halted = false
+
+    metrics.registerQueueDepth("expressDepth", queue.expressSize)
+
+    override def submit(packet: Packet): Boolean = {
+        if (queue.offer(packet)) {
+            if (waiting) {
+                LockSupport.unpark(this)
+            }
+            true
+        } else {
+            log.debug("Fair packet queue full, packet dropped")
+            metrics.workerQueueOverflow.mark()
+            false
+        }
+    }
+
+    override def queueDepth: Int = queue.size
+
+    override def fence(bucket: Int): PacketWorker.Fence = {
+        // The completed packets are published after the batch, and therefore
+        // after the workflow has postponed the packets of the batch. The
+        // queue is fenced as a whole, since its bands are per input port and
+        // not per hash bucket, but only the postponed packets of the fenced
+        // bucket are waited for.
+        val completed = queue.fence()
+        new PacketWorker.Fence {
+            override def isReached: Boolean =
+                completed() && packetWorkflow.postponedPackets(bucket) == 0
+        }
+    }
+
+    override def isRunning(): Boolean = running
+
+    override def shutdown(): Unit = {
+        halted = true
+        LockSupport.unpark(this)
+    }
+
+    override def shutdownNow(): Unit = {
+        shutdown()
+        interrupt()
+    }
+
+    override def run(): Unit = {
+        running = true
+        try {
+            process()
+        } catch {
+            case e: Throwable =>
+                log.error("Packet worker crashed with exception, killing " +
+                          "process", e)
+                Midolman.exitAsync(
+                    Midolman.MIDOLMAN_ERROR_CODE_PACKET_WORKER_DIED)
+        } finally {
+            running = false
+        }
+    }
+
+    private def process(): Unit = {
+        val ref = new PacketRef(null)
+        var sequence = 0L
+        var batch = 0
+        while (!halted) {
+            val packet = queue.poll()
+            if (packet ne null) {
+                ref.packet = packet
+                batch += 1
+                val endOfBatch = queue.isEmpty || batch >= MaxBatchSize
+                if (endOfBatch) {
+                    batch = 0
+                }
+                packetWorkflow.onEvent(ref, sequence, endOfBatch)
+                ref.packet = null
+                sequence += 1
+                if (endOfBatch) {
+                    queue.complete()
+                }
+            } else {
+                // Producers unpark the worker only while it is waiting, and
+                // the queue is checked again after setting the flag such that
+                // a packet submitted meanwhile is not missed.
+                waiting = true
+                if (queue.isEmpty && !halted) {
+                    LockSupport.parkNanos(this, WaitTimeoutNanos)
+                }
+                waiting = false
+                if (queue.isEmpty) {
+                    packetWorkflow.onTimeout(sequence)
+                }
+            }
+        }
+    }
+
+}
@@ -17,7 +17,7 @@ package org.midonet.midolman
 
 import java.net.{DatagramPacket, DatagramSocket, InetAddress}
 import java.nio.ByteBuffer
-import java.util.concurrent.Executors.newSingleThreadExecutor
+import java.util.concurrent.Executors.newFixedThreadPool
 import java.util.{UUID, HashMap => JHashMap, HashSet => JHashSet, Map => JMap, Set => JSet}
 
 import scala.concurrent.{ExecutionContext, Future}
@@ -100,8 +100,12 @@ class HostRequestProxy(hostId: UUID,
     private val belt = new ConveyorBelt(_ => {})
     private var subscription: Subscription = null
 
+    // The flow state of the ports is requested in parallel, since each
+    // request blocks for the whole transfer of a port.
+    private val tcpClientExecutor =
+        newFixedThreadPool(flowStateConfig.transferParallelism)
     private val tcpClientExecutionContext =
-        ExecutionContext.fromExecutor(newSingleThreadExecutor)
+        ExecutionContext.fromExecutor(tcpClientExecutor)
 
     private val tcpClient: FlowStateInternalClient =
         new FlowStateInternalClient(flowStateConfig)
@@ -115,6 +119,7 @@ class HostRequestProxy(hostId: UUID,
             subscription.unsubscribe()
             subscription = null
         }
+        tcpClientExecutor.shutdown()
     }
 
     /* Used for sending flow state messages to minion. TODO: do a common
@@ -142,17 +147,26 @@ class HostRequestProxy(hostId: UUID,
     private def requestStateForPort(portInfo: (UUID, UUID)): Future[FlowStateBatch] = {
         val (port, previousOwnerId) = portInfo
 
+        // Import the state in chunks while it is transferred, such that
+        // the packets of the port find the state of the connections
+        // before the whole state of the port is received.
+        def importChunk(chunk: FlowStateBatch): Unit = {
+            log debug s"Importing ${chunk.size()} pieces of flow state for " +
+                      s"port $port"
+            backChannel tell chunk
+        }
+
         Future {
             if (previousOwnerId == null || previousOwnerId == hostId) {
                 log debug s"Requesting local flow state for port: $port"
-                tcpClient.internalFlowStateFrom(port)
+                tcpClient.internalFlowStateFrom(port, importChunk)
             } else {
                 log debug s"Requesting remote flow state for port: $port"
                 val ip = resolveHostIp(previousOwnerId)
 
                 ip match {
                     case Some(hostIp) =>
-                        tcpClient.remoteFlowStateFrom(hostIp, port)
+                        tcpClient.remoteFlowStateFrom(hostIp, port, importChunk)
                     case None =>
                         log.debug(
                             s"Host $previousOwnerId is not registered in" +
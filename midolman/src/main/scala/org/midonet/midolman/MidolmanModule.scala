@@ -47,7 +47,7 @@ import org.midonet.midolman.host.services.{HostService, QosService, TcRequestHan
 import org.midonet.midolman.io._
 import org.midonet.midolman.logging.rule.{DisruptorRuleLogEventChannel, RuleLogEventChannel}
 import org.midonet.midolman.logging.{FlowTracingAppender, FlowTracingSchema}
-import org.midonet.midolman.management.{JmxConnectorServer, MeteringHTTPHandler, PrometheusMetricsHTTPHandler, SimpleHTTPServerService}
+import org.midonet.midolman.management.{DeviceProfilingHTTPHandler, JmxConnectorServer, MeteringHTTPHandler, PrometheusMetricsHTTPHandler, SimpleHTTPServerService}
 import org.midonet.midolman.monitoring.metrics.{DatapathMetrics, PacketExecutorMetrics}
 import org.midonet.midolman.openstack.metadata.{DatapathInterface, Plumber}
 import org.midonet.midolman.services._
@@ -184,7 +184,8 @@ class MidolmanModule(config: MidolmanConfig,
                                                         metricRegistry,
                                                         insights,
                                                         counter, as,
-                                                        flowTablePreallocation)
+                                                        flowTablePreallocation,
+                                                        policy)
         bind(classOf[PacketWorkersService]).toInstance(workersService)
 
         val dpConnectionManager = upcallDatapathConnectionManager(
@@ -320,7 +321,8 @@ class MidolmanModule(config: MidolmanConfig,
     }
 
     protected def ruleLogEventChannel(capacity: Int): RuleLogEventChannel = {
-        DisruptorRuleLogEventChannel(capacity, config.ruleLogging)
+        DisruptorRuleLogEventChannel(capacity, config.ruleLogging,
+                                     metricRegistry)
     }
 
     protected def upcallDatapathConnectionManager(
@@ -367,13 +369,14 @@ class MidolmanModule(config: MidolmanConfig,
                                              insights: Insights,
                                              counter: StatisticalCounter,
                                              actorSystem: ActorSystem,
-                                             flowTablePreallocation: FlowTablePreallocation)
+                                             flowTablePreallocation: FlowTablePreallocation,
+                                             tbPolicy: TokenBucketPolicy)
             : PacketWorkersService =
         new PacketWorkersServiceImpl(config, hostIdProvider, dpChannel, dpState,
                                      flowProcessor, natBlockAllocator, peerResolver,
                                      backChannel, vt, clock, backend,
                                      metricsRegistry, insights, counter, actorSystem,
-                                     flowTablePreallocation, cbRegistry)
+                                     flowTablePreallocation, cbRegistry, tbPolicy)
 
     protected def connectionPool(): DatapathConnectionPool =
         new OneToOneConnectionPool(
@@ -406,7 +409,9 @@ class MidolmanModule(config: MidolmanConfig,
         new SimpleHTTPServerService(
             config.statsHttpServerPort,
                 Lists.newArrayList(new MeteringHTTPHandler,
-                                   new PrometheusMetricsHTTPHandler))
+                                   new PrometheusMetricsHTTPHandler(
+                                       metricRegistry),
+                                   new DeviceProfilingHTTPHandler))
     }
 
     protected def bindHostService(): Unit =
@@ -471,7 +476,7 @@ class MidolmanModule(config: MidolmanConfig,
             backend,
             config,
             simBackChannel,
-            ruleLogEventChannel(1 << 12), // TODO: Make capacity configurable
+            ruleLogEventChannel(config.ruleLogging.bufferCapacity),
             metricRegistry,
             vtExecutor,
             ioExecutor,
@@ -25,8 +25,52 @@ import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
 import org.midonet.odp.Packet
 import org.midonet.Util
 
+object PacketWorker {
+
+    /** A point in the sequence of packets submitted to a worker. */
+    trait Fence {
+        /** Indicates whether the worker has processed all the packets
+          * submitted before the fence, including those of the fenced hash
+          * bucket it had postponed. */
+        def isReached: Boolean
+    }
+
+    /** A fence for the workers that cannot track their progress. */
+    val UnreachableFence = new Fence {
+        override def isReached = false
+    }
+}
+
 trait PacketWorker {
     def submit(packet: Packet): Boolean
+
+    /**
+      * @return The number of packets waiting in the worker queue.
+      */
+    def queueDepth: Int = 0
+
+    /**
+      * @return A fence for the packets submitted to the worker so far, and
+      *         for the postponed packets of the given hash bucket of the
+      *         [[org.midonet.midolman.io.PacketWorkerBalancer]]. The packets
+      *         submitted concurrently with this call may not be covered by
+      *         the fence.
+      */
+    def fence(bucket: Int): PacketWorker.Fence =
+        PacketWorker.UnreachableFence
+}
+
+/**
+  * A [[PacketWorker]] running on its own thread, managed by the
+  * [[PacketWorkersService]].
+  */
+abstract class PacketWorkerThread(name: String) extends Thread(name)
+                                                with PacketWorker {
+    def isRunning(): Boolean
+
+    def shutdown(): Unit
+
+    def shutdownNow(): Unit
 }
 
 object DisruptorPacketWorker {
@@ -38,9 +82,8 @@ object DisruptorPacketWorker {
 class DisruptorPacketWorker(packetWorkflow: PacketWorkflow,
                             metrics: PacketPipelineMetrics,
                             index: Int)
-        extends Thread(s"packet-worker-${index}")
-        with ExceptionHandler
-        with PacketWorker with MidolmanLogging {
+        extends PacketWorkerThread(s"packet-worker-${index}")
+        with ExceptionHandler with MidolmanLogging {
     override def logSource = s"org.midonet.packet-worker.packet-worker-$index"
 
     setDaemon(true)
@@ -73,12 +116,29 @@ class DisruptorPacketWorker(packetWorkflow: PacketWorkflow,
         }
     }
 
-    def isRunning() = eventProcessor.isRunning
+    override def queueDepth: Int =
+        (ringBuffer.getBufferSize - ringBuffer.remainingCapacity()).toInt
+
+    override def fence(bucket: Int): PacketWorker.Fence = {
+        // The processor sequence is updated after the batch, and therefore
+        // after the workflow has postponed the packets of the batch. Only the
+        // postponed packets of the fenced bucket are waited for, such that a
+        // packet of another bucket waiting for the topology does not stall
+        // the move.
+        val cursor = ringBuffer.getCursor
+        new PacketWorker.Fence {
+            override def isReached: Boolean =
+                eventProcessor.getSequence.get >= cursor &&
+                packetWorkflow.postponedPackets(bucket) == 0
+        }
+    }
+
+    override def isRunning() = eventProcessor.isRunning
 
-    def shutdown(): Unit =
+    override def shutdown(): Unit =
         eventProcessor.halt()
 
-    def shutdownNow(): Unit = {
+    override def shutdownNow(): Unit = {
         shutdown()
         interrupt()
     }
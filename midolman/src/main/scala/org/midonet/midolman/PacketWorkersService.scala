@@ -19,6 +19,7 @@ package org.midonet.midolman
 import java.util.concurrent.CountDownLatch
 
 import scala.collection.IndexedSeq
+import scala.collection.mutable.ArrayBuffer
 
 import akka.actor.ActorSystem
 
@@ -31,8 +32,10 @@ import org.midonet.cluster.services.MidonetBackend
 import org.midonet.insights.Insights
 import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.datapath.{DatapathChannel, FlowProcessor}
+import org.midonet.midolman.io.{PacketWorkerBalancer, TokenBucketPolicy}
 import org.midonet.midolman.logging.MidolmanLogging
-import org.midonet.midolman.monitoring.{FlowRecorder, FlowSenderWorker}
+import org.midonet.midolman.management.DeviceProfiling
+import org.midonet.midolman.monitoring.{DeviceProfiler, FlowRecorder, FlowSenderWorker}
 import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
 import org.midonet.midolman.services.HostIdProvider
 import org.midonet.midolman.state.ConnTrackState.{ConnTrackKey, ConnTrackValue}
@@ -79,7 +82,8 @@ class PacketWorkersServiceImpl(config: MidolmanConfig,
                                counter: StatisticalCounter,
                                actorSystem: ActorSystem,
                                flowTablePreallocation: FlowTablePreallocation,
-                               cbRegistry: CallbackRegistry)
+                               cbRegistry: CallbackRegistry,
+                               tbPolicy: TokenBucketPolicy = null)
         extends PacketWorkersService with Runnable with MidolmanLogging {
 
     override def logSource = "org.midonet.packet-worker.packet-worker-supervisor"
@@ -105,16 +109,29 @@ class PacketWorkersServiceImpl(config: MidolmanConfig,
     }
     val traceStateTable = new OnHeapShardedFlowStateTable[TraceKey, TraceContext](clock)
 
+    // The workers adopt the state of the other shards only when the packets
+    // are balanced across the workers, and a connection may change worker.
+    if (PacketWorkerBalancer.isEnabled(config, numWorkers)) {
+        connTrackStateTable.adoptsSharedEntries = true
+        natStateTable.adoptsSharedEntries = true
+        traceStateTable.adoptsSharedEntries = true
+    }
+
     val supervisorThread = new Thread(this, "packet-worker-supervisor")
     supervisorThread.setDaemon(true)
     val shutdownLatch = new CountDownLatch(1)
 
     private val flowSenderWorker = FlowSenderWorker(config, backend)
 
-    val workers: IndexedSeq[DisruptorPacketWorker] =
+    // The device profilers of the workflows, which are exposed through JMX
+    // while the service is running.
+    private val deviceProfilers = new ArrayBuffer[DeviceProfiler]
+
+    val workers: IndexedSeq[PacketWorkerThread] =
         0 until numWorkers map createWorker
 
     override def doStart(): Unit = {
+        DeviceProfiling.registerAsMXBean(deviceProfilers: _*)
         flowSenderWorker.startAsync().awaitRunning()
         supervisorThread.start()
     }
@@ -145,6 +162,7 @@ class PacketWorkersServiceImpl(config: MidolmanConfig,
         }
 
         flowSenderWorker.stopAsync().awaitTerminated()
+        DeviceProfiling.unregister(deviceProfilers: _*)
 
         notifyStopped()
     }
@@ -152,7 +170,7 @@ class PacketWorkersServiceImpl(config: MidolmanConfig,
     private def shardLogger(t: AnyRef) =
         Logger(LoggerFactory.getLogger("org.midonet.state.table"))
 
-    protected def createWorker(index: Int): DisruptorPacketWorker = {
+    protected def createWorker(index: Int): PacketWorkerThread = {
         val cookieGen = new CookieGenerator(index, numWorkers)
         val connTrackShard = connTrackStateTable.addShard(
             log = shardLogger(connTrackStateTable))
@@ -178,8 +196,19 @@ class PacketWorkersServiceImpl(config: MidolmanConfig,
             vt, counter.addAndGet(index, _: Int),
             flowTablePreallocation,
             cbRegistry,
-            insights)
-
-        new DisruptorPacketWorker(workflow, metrics, index)
+            insights,
+            tbPolicy)
+        deviceProfilers += workflow.deviceProfiler
+
+        val worker = if (config.workerFairQueues > 0) {
+            new FairPacketWorker(workflow, metrics, index,
+                                 config.workerFairQueues,
+                                 config.workerFairQueueDepth,
+                                 config.workerFairQuantum)
+        } else {
+            new DisruptorPacketWorker(workflow, metrics, index)
+        }
+        metrics.registerQueueDepth("depth", worker.queueDepth)
+        worker
     }
 }
@@ -19,16 +19,19 @@ package org.midonet.midolman
 import java.lang.{Integer => JInteger}
 import java.util.{ArrayDeque, UUID}
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicIntegerArray
 
 import scala.concurrent.duration._
 import scala.concurrent.{ExecutionContext, Future}
 import scala.util.Failure
 import scala.util.control.NonFatal
 
+import com.codahale.metrics.Timer
 import com.lmax.disruptor._
 
 import org.slf4j.{LoggerFactory, MDC}
 
+import org.midonet.Util
 import org.midonet.insights.Insights
 import org.midonet.midolman.HostRequestProxy.FlowStateBatch
 import org.midonet.midolman.SimulationBackChannel.BackChannelMessage
@@ -37,10 +40,11 @@ import org.midonet.midolman.datapath.FlowProcessor.{DuplicateFlow, FlowError}
 import org.midonet.midolman.datapath.{DatapathChannel, FlowProcessor}
 import org.midonet.midolman.flows.FlowExpirationIndexer.Expiration
 import org.midonet.midolman.flows.{FlowExpirationIndexer, NativeFlowController}
+import org.midonet.midolman.io.{PacketWorkerBalancer, TokenBucketPolicy}
 import org.midonet.midolman.logging.{FlowTracingContext, MidolmanLogging}
 import org.midonet.midolman.management.{Metering, PacketTracing}
 import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
-import org.midonet.midolman.monitoring.{FlowRecorder, MeterRegistry}
+import org.midonet.midolman.monitoring.{DeviceProfiler, FlowRecorder, MeterRegistry}
 import org.midonet.midolman.openstack.metadata.MetadataServiceWorkflow
 import org.midonet.midolman.routingprotocols.RoutingWorkflow
 import org.midonet.midolman.simulation.Simulator.Fip64Action
@@ -240,7 +244,8 @@ class PacketWorkflow(
             val packetOut: Int => Unit,
             val preallocation: FlowTablePreallocation,
             val cbRegistry: CallbackRegistry,
-            val insights: Insights)
+            val insights: Insights,
+            val tbPolicy: TokenBucketPolicy = null)
         extends EventHandler[PacketWorkflow.PacketRef]
         with TimeoutHandler
         with DisruptorBackChannel
@@ -264,6 +269,35 @@ class PacketWorkflow(
     private var lastExpiration = System.nanoTime()
     private val maxWithoutExpiration = (5 seconds) toNanos
 
+    // The number of upcall packets received by this worker, used to sample
+    // the packets: the cookies are strided by the number of workers, and
+    // therefore cannot select the packets of every worker.
+    private var received = 0L
+
+    // Mask applied to the received count to select the packets for which the
+    // pipeline stages are timed, or -1 if stage timing is disabled.
+    private val stageSamplingMask =
+        if (config.packetStageSampling > 0)
+            Util.findNextPositivePowerOfTwo(
+                config.packetStageSampling) - 1
+        else -1L
+
+    // Mask applied to the received count to select the packets for which the
+    // simulation cost of the virtual devices is profiled, or -1 if device
+    // profiling is disabled.
+    private val deviceSamplingMask =
+        if (config.deviceProfilingSampling > 0)
+            Util.findNextPositivePowerOfTwo(
+                config.deviceProfilingSampling) - 1
+        else -1L
+    private[midolman] val deviceProfiler =
+        new DeviceProfiler(config.deviceProfilingMaxDevices)
+
+    // The simulation time charged as one HTB token to the input port of a
+    // packet, or zero if the HTB does not account for the simulation cost.
+    private val simulationCostNanos =
+        if (tbPolicy ne null) config.datapath.htbSimulationCost else 0L
+
     protected val datapathId = dpState.datapath.getIndex
     private val meters = if (config.offHeapTables) {
         MeterRegistry.newOffHeap()
@@ -337,6 +371,39 @@ class PacketWorkflow(
       */
     def waitingRoomCount: Int = waitingRoom.count
 
+    // The number of packets postponed in the waiting room for every hash
+    // bucket of the packet worker balancer, for the threads that fence a
+    // bucket of the worker when moving it to another worker.
+    private val postponedByBucket =
+        new AtomicIntegerArray(PacketWorkerBalancer.bucketCount(numWorkers))
+
+    /**
+      * @return The number of packets of the given hash bucket of the packet
+      *         worker balancer postponed in the waiting room. This method is
+      *         thread-safe.
+      */
+    def postponedPackets(bucket: Int): Int = postponedByBucket.get(bucket)
+
+    private def enterWaitingRoom(pktCtx: PacketContext): Unit = {
+        if (waitingRoom enter pktCtx) {
+            val bucket = pktCtx.packet.workerBucket
+            if (bucket >= 0 && bucket < postponedByBucket.length)
+                postponedByBucket.incrementAndGet(bucket)
+        }
+    }
+
+    private def leaveWaitingRoom(pktCtx: PacketContext): Unit = {
+        if (waitingRoom leave pktCtx) {
+            leftWaitingRoom(pktCtx)
+        }
+    }
+
+    private def leftWaitingRoom(pktCtx: PacketContext): Unit = {
+        val bucket = pktCtx.packet.workerBucket
+        if (bucket >= 0 && bucket < postponedByBucket.length)
+            postponedByBucket.decrementAndGet(bucket)
+    }
+
     // We need to expire leftover flows if no expiration has happened in
     // maxWithoutExpiration nanoseconds
     private def shouldExpire =
@@ -388,8 +455,21 @@ class PacketWorkflow(
         lastExpiration = System.nanoTime()
     }
 
-    protected def packetContext(packet: Packet): PacketContext =
-        initialize(cookieGen.next, packet, packet.getMatch, null, null)
+    protected def packetContext(packet: Packet): PacketContext = {
+        val context = initialize(cookieGen.next, packet, packet.getMatch,
+                                 null, null)
+        received += 1
+        if (stageSamplingMask >= 0 && (received & stageSamplingMask) == 0) {
+            context.stageTimed = true
+            metrics.workerQueueLatency.update(
+                NanoClock.DEFAULT.tick - packet.startTimeNanos,
+                TimeUnit.NANOSECONDS)
+        }
+        if (deviceSamplingMask >= 0 && (received & deviceSamplingMask) == 0) {
+            context.deviceProfiled = true
+        }
+        context
+    }
 
     protected def generatedPacketContext(p: GeneratedPacket) = {
         log.debug(s"Executing generated packet $p")
@@ -448,6 +528,8 @@ class PacketWorkflow(
      */
     private def postponeOn(pktCtx: PacketContext, f: Future[_]): Unit = {
         val cookie = pktCtx.cookie
+        recordStage(metrics.simulationLatency, pktCtx)
+        pktCtx.beginStage()
         pktCtx.postpone()
         f.onComplete { res =>
             val error = res match {
@@ -459,12 +541,13 @@ class PacketWorkflow(
             }
         }(ExecutionContext.callingThread)
         metrics.packetPostponed()
-        waitingRoom enter pktCtx
+        enterWaitingRoom(pktCtx)
     }
 
     private def restart(cookie: Long, pktCtx: PacketContext, error: Throwable): Unit =
         if (pktCtx.cookie == cookie && pktCtx.idle) {
             metrics.packetsOnHold.dec()
+            recordStage(metrics.waitingRoomLatency, pktCtx)
             pktCtx.log.debug("Restarting workflow")
             MDC.put("cookie", pktCtx.cookieStr)
             if (error eq null) {
@@ -476,9 +559,11 @@ class PacketWorkflow(
             FlowTracingContext.clearContext()
         } // Else the packet may have already been expired and dropped
 
-    private val giveUpWorkflow: PacketContext => Unit = context =>
+    private val giveUpWorkflow: PacketContext => Unit = context => {
+        leftWaitingRoom(context)
         if (context.idle)
             drop(context)
+    }
 
     private def drop(context: PacketContext): Unit =
         try {
@@ -501,9 +586,11 @@ class PacketWorkflow(
 
     private def complete(pktCtx: PacketContext, simRes: SimulationResult): Unit = {
         pktCtx.log.debug("Packet processed")
+        recordStage(metrics.simulationLatency, pktCtx)
         if (pktCtx.runs > 1)
-            waitingRoom leave pktCtx
+            leaveWaitingRoom(pktCtx)
 
+        pktCtx.beginStage()
         handoff(pktCtx)
 
         if (pktCtx.ingressed) {
@@ -514,6 +601,18 @@ class PacketWorkflow(
         recordPacket(pktCtx, simRes)
     }
 
+    /**
+      * Records the duration of the current pipeline stage, if the packet is
+      * timed.
+      */
+    @inline
+    private def recordStage(timer: Timer,
+                            pktCtx: PacketContext): Unit = {
+        val latency = pktCtx.endStage()
+        if (latency >= 0)
+            timer.update(latency, TimeUnit.NANOSECONDS)
+    }
+
     protected def recordPacket(pktCtx: PacketContext, simRes: SimulationResult): Unit = {
         pktCtx.log.debug("Recording packet")
         meters.recordPacket(pktCtx.packet.packetLen, pktCtx.flowTags)
@@ -536,7 +635,7 @@ class PacketWorkflow(
     private def handleErrorOn(pktCtx: PacketContext, ex: Throwable,
                               waiting: Boolean): Unit = {
         if (waiting)
-            waitingRoom leave pktCtx
+            leaveWaitingRoom(pktCtx)
         ex match {
             case ArpTimeoutException(router, ip) =>
                 pktCtx.log.debug(s"ARP timeout at router $router for address $ip")
@@ -547,17 +646,39 @@ class PacketWorkflow(
         drop(pktCtx)
     }
 
-    protected def startWorkflow(context: PacketContext): Unit =
+    protected def startWorkflow(context: PacketContext): Unit = {
+        val startTime = if (simulationCostNanos > 0) NanoClock.DEFAULT.tick else 0L
         try {
             MDC.put("cookie", context.cookieStr)
             context.log.debug(s"New cookie for new match ${context.origMatch}")
             runWorkflow(context)
         } finally {
             if (context.ingressed)
-                packetOut(1)
+                packetOut(1 + chargeSimulationCost(context, startTime))
             MDC.remove("cookie")
             FlowTracingContext.clearContext()
         }
+    }
+
+    /**
+      * Charges the HTB bucket of the packet's input port with one token for
+      * every [[simulationCostNanos]] of simulation time, in addition to the
+      * token consumed when the packet was received. Returns the number of
+      * charged tokens, which are also returned to the HTB root such that they
+      * are shared among all ports.
+      */
+    private def chargeSimulationCost(context: PacketContext,
+                                     startTime: Long): Int = {
+        if (simulationCostNanos <= 0 ||
+            !context.origMatch.isUsed(Field.InputPortNumber)) {
+            return 0
+        }
+        val cost = (NanoClock.DEFAULT.tick - startTime) / simulationCostNanos
+        if (cost > 0) {
+            tbPolicy.charge(context.origMatch.getInputPortNumber,
+                            Math.min(cost, Int.MaxValue).toInt)
+        } else 0
+    }
 
     protected def runWorkflow(pktCtx: PacketContext): Unit =
         try {
@@ -597,11 +718,17 @@ class PacketWorkflow(
 
     protected[midolman] def start(context: PacketContext): SimulationResult = {
         context.prepareForSimulation()
+        context.beginStage()
         context.log.debug(s"Initiating processing, attempt: ${context.runs}")
-        if (context.ingressed)
-            handlePacketIngress(context)
-        else
-            handlePacketEgress(context)
+        try {
+            if (context.ingressed)
+                handlePacketIngress(context)
+            else
+                handlePacketEgress(context)
+        } finally {
+            if (context.deviceProfiled)
+                deviceProfiler.record(context)
+        }
     }
 
     protected def addTranslatedFlow(context: PacketContext,
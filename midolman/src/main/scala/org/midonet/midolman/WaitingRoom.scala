@@ -57,8 +57,17 @@ class WaitingRoom[W](val timeout: Long = TimeUnit.SECONDS.toNanos(3)) {
         }
     }
 
-    def leave(w: W): Unit = {
-        waiters.remove(w)
+    /**
+     * Removes a waiter from the room, and returns whether the waiter was in
+     * the room.
+     */
+    def leave(w: W): Boolean = {
+        if (waiters.containsKey(w)) {
+            waiters.remove(w)
+            true
+        } else {
+            false
+        }
     }
 
     def doExpirations(f: W => Unit): Unit = {
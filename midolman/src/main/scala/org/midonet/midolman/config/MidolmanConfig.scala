@@ -95,6 +95,28 @@ class MidolmanConfig(config: Config, val schema: Config = ConfigFactory.empty(),
     def statsHttpServerPort: Int =
         getInt(s"$PREFIX.midolman.stats_http_server_port")
 
+    def packetStageSampling: Int =
+        getInt(s"$PREFIX.midolman.packet_stage_sampling")
+
+    def deviceProfilingSampling: Int =
+        getInt(s"$PREFIX.midolman.device_profiling_sampling")
+
+    def deviceProfilingMaxDevices: Int =
+        getInt(s"$PREFIX.midolman.device_profiling_max_devices")
+
+    def workerRebalanceInterval =
+        getDuration(s"$PREFIX.midolman.worker_rebalance_interval",
+                    TimeUnit.MILLISECONDS) millis
+    def workerRebalanceThreshold: Int =
+        getInt(s"$PREFIX.midolman.worker_rebalance_threshold")
+
+    def workerFairQueues: Int =
+        getInt(s"$PREFIX.midolman.worker_fair_queues")
+    def workerFairQueueDepth: Int =
+        getInt(s"$PREFIX.midolman.worker_fair_queue_depth")
+    def workerFairQuantum: Int =
+        getInt(s"$PREFIX.midolman.worker_fair_quantum")
+
     val bridge = new BridgeConfig(conf, schema)
     val router = new RouterConfig(conf, schema)
     val zookeeper =
@@ -135,11 +157,18 @@ class InitialStorageCacheConfig(val conf: Config, val schema: Config)
     def ttlMs = getInt(s"$PREFIX.ttl_ms")
     def snapshotRetries = getInt(s"$PREFIX.snapshot_retries")
     def snapshotTimeoutMs = getInt(s"$PREFIX.snapshot_timeout_ms")
+    def warmupEnabled = getBoolean(s"$PREFIX.warmup_enabled")
+    def warmupTimeoutMs = getInt(s"$PREFIX.warmup_timeout_ms")
+    def warmupMaxDevices = getInt(s"$PREFIX.warmup_max_devices")
+    def persistentPath = getString(s"$PREFIX.persistent_path")
+    def persistentMaxAgeMs = getInt(s"$PREFIX.persistent_max_age_ms")
 }
 
 class HostConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
     def waitTimeForUniqueId: Long = Try(getDuration("agent.host.wait_time_gen_id", TimeUnit.MILLISECONDS)).getOrElse(1000L)
     def retriesForUniqueId = Try(getInt("agent.host.retries_gen_id")).getOrElse(300)
+    def interfacesUpdateDelay = getDuration("agent.host.interfaces_update_delay",
+                                            TimeUnit.MILLISECONDS) millis
 }
 
 class BridgeConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
@@ -150,6 +179,8 @@ class RouterConfig(val conf: Config, val schema: Config) extends TypeFailureFall
     val PREFIX = "agent.router"
     def maxBgpPeerRoutes = conf.getInt(s"$PREFIX.max_bgp_peer_routes")
     def bgpZookeeperHoldtime = conf.getDuration(s"$PREFIX.bgp_zookeeper_holdtime", TimeUnit.SECONDS)
+    def bgpRouteBatchSize = conf.getInt(s"$PREFIX.bgp_route_batch_size")
+    def bgpRouteBatchDelay = conf.getDuration(s"$PREFIX.bgp_route_batch_delay", TimeUnit.MILLISECONDS) millis
 }
 
 class DatapathConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
@@ -173,6 +204,7 @@ class DatapathConfig(val conf: Config, val schema: Config) extends TypeFailureFa
     def vmIncomingBurstCapacity = getInt(s"$PREFIX.vm_incoming_burst_capacity")
     def tunnelIncomingBurstCapacity = getInt(s"$PREFIX.tunnel_incoming_burst_capacity")
     def vtepIncomingBurstCapacity = getInt(s"$PREFIX.vtep_incoming_burst_capacity")
+    def htbSimulationCost = getDuration(s"$PREFIX.htb_simulation_cost", TimeUnit.NANOSECONDS)
 
     def controlPacketTos: Byte = getInt(s"$PREFIX.control_packet_tos").toByte
     def setTosOnTunnelHeader: Boolean = getBoolean(s"$PREFIX.set_tos_on_tunnel_header")
@@ -229,6 +261,8 @@ class MetadataConfig(val conf: Config, val schema: Config)
     def novaMetadataUrl =
         getString("agent.openstack.metadata.nova_metadata_url")
     def sharedSecret = getString("agent.openstack.metadata.shared_secret")
+    def cacheTtl = getDuration("agent.openstack.metadata.cache_ttl",
+                               TimeUnit.MILLISECONDS) millis
 }
 
 class FlowHistoryConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
@@ -300,6 +334,10 @@ class FlowStateConfig(val conf: Config, val schema: Config)
     def localPushState: Boolean = getBoolean(s"$prefix.local_push_state")
     def connectionTimeout: Int = getDuration(s"$prefix.connection_timeout",
                                         TimeUnit.MILLISECONDS).toInt
+    def transferParallelism: Int =
+        Math.max(getInt(s"$prefix.transfer_parallelism"), 1)
+    def transferChunkSize: Int =
+        Math.max(getInt(s"$prefix.transfer_chunk_size"), 1)
 }
 
 class BindingApiConfig(val conf: Config, val schema: Config)
@@ -319,6 +357,9 @@ class RuleLoggingConfig(val conf: Config, val schema: Config)
     def maxFiles = getInt(s"$prefix.max_files")
     def logDirectory = getString(s"$prefix.log_directory")
     def rotationFrequency = getString(s"$prefix.rotation_frequency")
+    def aggregationInterval = getDuration(s"$prefix.aggregation_interval",
+                                          TimeUnit.MILLISECONDS) millis
+    def bufferCapacity = getInt(s"$prefix.buffer_capacity")
 }
 
 class Fip64Config(val conf: Config, val schema: Config) {
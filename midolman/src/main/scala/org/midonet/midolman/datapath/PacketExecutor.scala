@@ -186,9 +186,20 @@ sealed class PacketExecutor(dpState: DatapathState,
             val packet = context.packet
             if (actions.size > 0 && packet.getReason != Packet.Reason.FlowActionUserspace) {
                 try {
+                    val queueLatency = context.endStage()
+                    if (queueLatency >= 0) {
+                        metrics.executorQueueLatency.update(
+                            queueLatency, TimeUnit.NANOSECONDS)
+                        context.beginStage()
+                    }
                     clampMss(context, log)
                     maybeExecuteStatePacket(datapathId, context)
                     executePacket(datapathId, packet, actions)
+                    val writeLatency = context.endStage()
+                    if (writeLatency >= 0) {
+                        metrics.netlinkWriteLatency.update(
+                            writeLatency, TimeUnit.NANOSECONDS)
+                    }
                     val latency = NanoClock.DEFAULT.tick - packet.startTimeNanos
                     metrics.packetsExecuted.update(latency.toInt,
                                                    TimeUnit.NANOSECONDS)
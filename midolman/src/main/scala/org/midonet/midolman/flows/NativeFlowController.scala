@@ -36,6 +36,10 @@ import org.midonet.sdn.flows.FlowTagger.FlowTag
 import org.midonet.util.concurrent.NanoClock
 
 object NativeFlowController {
+    /** The maximum number of expired flows returned by a single call to the
+      * native expiration indexer. */
+    final val ExpirationBatchSize = 256
+
     var loaded = false
     def loadNativeLibrary() = synchronized {
         if (!loaded) {
@@ -63,6 +67,7 @@ class NativeFlowController(config: MidolmanConfig,
     private val flowTable = JNI.createFlowTable(maxFlows)
     private val indexer = JNI.createFlowTagIndexer()
     private val expirer = JNI.createFlowExpirationIndexer()
+    private val expired = new Array[Long](NativeFlowController.ExpirationBatchSize)
     private val deleter = new FlowControllerDeleterImpl(flowProcessor,
                                                         datapathId,
                                                         meters,
@@ -125,17 +130,12 @@ class NativeFlowController(config: MidolmanConfig,
     }
 
     override def invalidateFlowsFor(tag: FlowTag): Unit = {
+        // The native indexer returns all invalidated flows in one call.
         val invalid = JNI.flowTagIndexerInvalidate(indexer, tag.toLongHash)
-        try {
-            val count = JNI.flowTagIndexerInvalidFlowsCount(invalid)
-            var i = 0
-            while (i < count) {
-                val id = JNI.flowTagIndexerInvalidFlowsGet(invalid, i)
-                removeFlow(id)
-                i += 1
-            }
-        } finally {
-            JNI.flowTagIndexerInvalidFlowsFree(invalid)
+        var i = 0
+        while (i < invalid.length) {
+            removeFlow(invalid(i))
+            i += 1
         }
     }
 
@@ -144,10 +144,17 @@ class NativeFlowController(config: MidolmanConfig,
     override def process(): Unit = {
         deleter.processCompletedFlowOperations()
         val now = clock.tick
-        var flowId = JNI.flowExpirationIndexerPollForExpired(expirer, now)
-        while (flowId != ManagedFlow.NoFlow) {
-            removeFlow(flowId)
-            flowId = JNI.flowExpirationIndexerPollForExpired(expirer, now)
+        // Expired flows are polled in batches, to cross the JNI boundary
+        // once per batch rather than once per flow.
+        var count = expired.length
+        while (count == expired.length) {
+            count = JNI.flowExpirationIndexerPollForExpired(expirer, now,
+                                                            expired)
+            var i = 0
+            while (i < count) {
+                removeFlow(expired(i))
+                i += 1
+            }
         }
     }
 
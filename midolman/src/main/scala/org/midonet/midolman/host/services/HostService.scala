@@ -17,7 +17,7 @@
 package org.midonet.midolman.host.services
 
 import java.net.{InetAddress, UnknownHostException}
-import java.util.concurrent.atomic.AtomicReference
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicReference}
 import java.util.concurrent.{CountDownLatch, TimeUnit, TimeoutException}
 import java.util.{UUID, ConcurrentModificationException}
 import javax.annotation.Nullable
@@ -104,6 +104,18 @@ class HostService (config: MidolmanConfig,
     @volatile private var currentInterfaces: Set[InterfaceDescription] = null
     @volatile private var oldInterfaces: Set[InterfaceDescription] = null
 
+    private val interfacesUpdateDelay = config.host.interfacesUpdateDelay
+    private val interfacesUpdateScheduled = new AtomicBoolean(false)
+    @volatile private var publishedInterfaces: String = null
+    private val interfacesUpdateTask = new Runnable {
+        override def run(): Unit = {
+            interfacesUpdateScheduled.set(false)
+            if (aliveState.get == OwnershipState.Acquired) {
+                publishInterfaces()
+            }
+        }
+    }
+
     private val aliveState = new AtomicReference(OwnershipState.Released)
     @volatile private var aliveSubscription: Subscription = null
     private val aliveObserver = new Observer[StateKey] {
@@ -161,7 +173,7 @@ class HostService (config: MidolmanConfig,
                         (aliveState.get != OwnershipState.Acquired)) {
                         return
                     }
-                    updateInterfaces()
+                    scheduleInterfacesUpdate()
                 }
             })
             identifyHost()
@@ -363,10 +375,69 @@ class HostService (config: MidolmanConfig,
             .subscribe(aliveObserver)
     }
 
+    /**
+     * Schedules the publication of the current interfaces after the interface
+     * update delay, unless a publication is already scheduled. The changes
+     * reported by the scanner during the delay are coalesced into a single
+     * write, such that a burst of interface changes (e.g. several VMs booting
+     * at the same time) does not rewrite the host state for every change.
+     */
+    private def scheduleInterfacesUpdate(): Unit = {
+        if (interfacesUpdateScheduled.compareAndSet(false, true)) {
+            reactor.schedule(interfacesUpdateTask,
+                             interfacesUpdateDelay.toMillis,
+                             TimeUnit.MILLISECONDS)
+        }
+    }
+
+    /**
+     * Publishes the current set of interfaces in V2.x storage without waiting
+     * for the write to complete. The write is skipped if the host state has
+     * not changed since the last publication.
+     */
+    private def publishInterfaces(): Unit = {
+        val interfaces = getInterfaces
+        if (interfaces == publishedInterfaces) {
+            log.debug("Network interfaces unchanged: skipping update")
+            return
+        }
+        logInterfaces()
+        publishedInterfaces = interfaces
+        stateStore.addValue(classOf[Host], hostId, HostKey, interfaces)
+            .subscribe(new Observer[StateResult] {
+                override def onNext(result: StateResult): Unit = { }
+                override def onCompleted(): Unit = { }
+                override def onError(e: Throwable): Unit = {
+                    log.error("Failed to update network interfaces for " +
+                              "host {}", hostId, e)
+                    // Publish again on the next change.
+                    publishedInterfaces = null
+                }
+            })
+    }
+
     /**
      * Updates the host with the current set of interfaces in V2.x storage.
      */
     private def updateInterfaces(): Unit = {
+        logInterfaces()
+        try {
+            val interfaces = getInterfaces
+            stateStore.addValue(classOf[Host], hostId, HostKey, interfaces)
+                .await(timeout)
+            publishedInterfaces = interfaces
+        } catch {
+            case NonFatal(e) =>
+                log.error("Failed to update network interfaces for host {}",
+                          hostId, e)
+                publishedInterfaces = null
+        }
+    }
+
+    private def logInterfaces(): Unit = {
+        if (!log.underlying.isDebugEnabled) {
+            return
+        }
         def upOrDown(iface: InterfaceDescription) =
                 if (iface.isUp) "UP" else "DOWN"
         def pluggedOrNot(iface: InterfaceDescription) =
@@ -376,15 +447,6 @@ class HostService (config: MidolmanConfig,
             s"${i.getName}<${upOrDown(i)},${pluggedOrNot(i)},${i.getMtu}>"
         }
         log.debug("Updating network interfaces: {}", ifdescs.mkString(", "))
-
-        try {
-            stateStore.addValue(classOf[Host], hostId, HostKey, getInterfaces)
-                .await(timeout)
-        } catch {
-            case NonFatal(e) =>
-                log.error("Failed to update network interfaces for host {}",
-                          hostId, e)
-        }
     }
 
     @Nullable
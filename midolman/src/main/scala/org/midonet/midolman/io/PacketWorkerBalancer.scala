@@ -0,0 +1,401 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.io
+
+import java.util.ArrayDeque
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicIntegerArray, AtomicLong}
+import java.util.concurrent.locks.LockSupport
+import java.util.concurrent.{RejectedExecutionException, ScheduledExecutorService, TimeUnit}
+
+import scala.collection.IndexedSeq
+
+import org.midonet.Util
+import org.midonet.midolman.PacketWorker
+import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.midolman.logging.MidolmanLogging
+import org.midonet.odp.Packet
+import org.midonet.util.concurrent.NanoClock
+
+object PacketWorkerBalancer {
+    /** The number of hash buckets per packet worker. */
+    final val BucketsPerWorker = 64
+    /** The number of rebalancing intervals during which a moved bucket
+      * cannot be moved again. */
+    final val CooldownIntervals = 8
+    /** The maximum time to complete the move of a bucket, after which the
+      * move is cancelled. */
+    final val MaxMoveNanos = TimeUnit.MILLISECONDS.toNanos(100)
+    /** The maximum number of packets held while moving a bucket. */
+    final val MaxHeldPackets = 4096
+    /** The period of the timer that advances the move of a bucket. */
+    final val MoveTimerNanos = TimeUnit.MILLISECONDS.toNanos(1)
+    /** The maximum number of attempts to find the move of a moving bucket
+      * when holding a packet, after which the packet is dropped. */
+    final val MaxHoldAttempts = 1024
+    /** The back-off between two attempts to hold a packet. */
+    final val HoldBackoffNanos = TimeUnit.MICROSECONDS.toNanos(1)
+
+    /** The worker of a bucket that is being moved. */
+    private final val Moving = -1
+
+    /**
+      * @return The number of hash buckets for the given number of workers.
+      */
+    def bucketCount(workers: Int): Int =
+        Util.findNextPositivePowerOfTwo(workers * BucketsPerWorker)
+
+    /**
+      * @return Whether the upcall packets are submitted to the given number
+      *         of workers through a balancer for the given configuration.
+      */
+    def isEnabled(config: MidolmanConfig, workers: Int): Boolean =
+        workers > 1 && config.workerRebalanceInterval.toNanos > 0
+}
+
+/**
+  * Maps the connection hash of the upcall packets to the packet workers
+  * through an indirection table of hash buckets, and periodically moves
+  * buckets from the worker with the deepest queue to the worker with the
+  * shallowest queue, such that a few heavy connections hashed to the same
+  * worker do not saturate that worker while others are idle.
+  *
+  * The connection tracking, NAT and trace shards are single-writer: only the
+  * worker that owns a connection may write its state. Therefore, a bucket is
+  * handed off to the new worker in the following steps, during which the
+  * packets of the bucket are held by the balancer:
+  *  1. The bucket is marked as moving, and the balancer waits for the upcall
+  *     threads that may have read the previous owner to finish submitting
+  *     their packets.
+  *  2. The balancer takes a [[PacketWorker.Fence]] of the previous owner for
+  *     the bucket, and waits until the previous owner has processed all the
+  *     packets queued before the fence, including the packets of the bucket
+  *     it had postponed.
+  *  3. The held packets are submitted in order to the new worker, and only
+  *     then the bucket is assigned to the new worker.
+  * If the fence is not reached within [[PacketWorkerBalancer.MaxMoveNanos]],
+  * the move is cancelled and the held packets are returned to the previous
+  * owner. Both directions of a connection have the same connection hash, and
+  * are therefore always moved together.
+  *
+  * After the hand-off, the new worker reads the state created by the previous
+  * owner from the other shards, and adopts it in its own shard when its flows
+  * reference it, while the previous owner releases its entries when its flows
+  * expire.
+  *
+  * Rebalancing is driven by the upcall threads through [[maybeRebalance]].
+  * A move in progress is also advanced by the `timer`, if any, such that the
+  * move completes when the upcalls stop. Only one thread rebalances or moves
+  * a bucket at a time.
+  */
+class PacketWorkerBalancer(workers: IndexedSeq[PacketWorker],
+                           intervalNanos: Long,
+                           queueThreshold: Int,
+                           timer: ScheduledExecutorService = null,
+                           clock: NanoClock = NanoClock.DEFAULT)
+    extends MidolmanLogging {
+
+    import PacketWorkerBalancer._
+
+    override def logSource = "org.midonet.packet-worker.balancer"
+
+    /** The move of a bucket from the `source` worker to the `target`
+      * worker. */
+    private final class Move(val bucket: Int, val source: Int,
+                             val target: Int, val deadline: Long) {
+        // The held packets and the destination are guarded by the move, such
+        // that the packets are released in the order they were held.
+        private val held = new ArrayDeque[Packet]
+        // Set when the move completes, to the new worker of the bucket.
+        @volatile var destination = Moving
+        var fence: PacketWorker.Fence = null
+
+        def hold(packet: Packet): Boolean = synchronized {
+            if (destination != Moving) {
+                workers(destination).submit(packet)
+            } else if (held.size < MaxHeldPackets) {
+                held.offer(packet)
+            } else {
+                false
+            }
+        }
+
+        def complete(worker: Int): Unit = synchronized {
+            destination = worker
+            val target = workers(worker)
+            var packet = held.poll()
+            while (packet ne null) {
+                target.submit(packet)
+                packet = held.poll()
+            }
+        }
+    }
+
+    private val bucketCount = PacketWorkerBalancer.bucketCount(workers.length)
+    private val bucketMask = bucketCount - 1
+
+    private val buckets = new AtomicIntegerArray(bucketCount)
+    private val hits = new AtomicIntegerArray(bucketCount)
+    private val submitting = new AtomicIntegerArray(bucketCount)
+    private val movedAt = new Array[Long](bucketCount)
+    private val depths = new Array[Int](workers.length)
+    private val nextRebalance = new AtomicLong(0L)
+    private val busy = new AtomicBoolean
+    private var interval = 0L
+
+    // The last move, which is replaced only after it has completed.
+    @volatile private var move: Move = null
+
+    private val advanceTask = new Runnable {
+        override def run(): Unit = {
+            try advanceMove(clock.tick)
+            finally if (isMoving) scheduleAdvance()
+        }
+    }
+
+    {
+        var bucket = 0
+        while (bucket < bucketCount) {
+            buckets.set(bucket, bucket % workers.length)
+            movedAt(bucket) = -CooldownIntervals
+            bucket += 1
+        }
+    }
+
+    /**
+      * Submits the packet with the given connection hash to its worker.
+      *
+      * @return False if the packet was dropped.
+      */
+    def submit(hash: Int, packet: Packet): Boolean = {
+        val bucket = hash & bucketMask
+        packet.workerBucket = bucket
+        hits.incrementAndGet(bucket)
+        // The counter of submitting threads is incremented before reading the
+        // worker of the bucket, such that the balancer can wait for the
+        // threads that have read the previous worker of a moving bucket.
+        submitting.incrementAndGet(bucket)
+        try {
+            val worker = buckets.get(bucket)
+            if (worker != Moving) workers(worker).submit(packet)
+            else hold(bucket, packet)
+        } finally {
+            submitting.decrementAndGet(bucket)
+        }
+    }
+
+    /**
+      * @return The index of the worker for the given connection hash, or
+      *         -1 if the bucket of the hash is being moved.
+      */
+    def workerFor(hash: Int): Int = buckets.get(hash & bucketMask)
+
+    /**
+      * Advances the move of a bucket, if any, and otherwise rebalances the
+      * buckets if the rebalancing interval has elapsed at the given time. Does
+      * nothing if another thread is rebalancing.
+      */
+    def maybeRebalance(nowNanos: Long): Unit = {
+        val current = move
+        val moving = (current ne null) && current.destination == Moving
+        val next = nextRebalance.get
+        if ((moving || nowNanos >= next) && busy.compareAndSet(false, true)) {
+            try {
+                if (moving) {
+                    advance(current, nowNanos)
+                } else if (nextRebalance.compareAndSet(
+                               next, nowNanos + intervalNanos)) {
+                    rebalance(nowNanos)
+                }
+            } finally {
+                busy.set(false)
+            }
+        }
+    }
+
+    /**
+      * Advances the move of a bucket, if any, at the given time. Does nothing
+      * if another thread is rebalancing.
+      */
+    protected[io] def advanceMove(nowNanos: Long): Unit = {
+        val current = move
+        if ((current ne null) && current.destination == Moving &&
+            busy.compareAndSet(false, true)) {
+            try advance(current, nowNanos)
+            finally busy.set(false)
+        }
+    }
+
+    /**
+      * Starts moving at most one bucket from the worker with the deepest queue
+      * to the worker with the shallowest queue. The bucket is chosen such that
+      * its packet count is as close as possible to half the difference between
+      * the two workers, and is smaller than this difference, such that the
+      * move does not simply move the hot spot to the other worker.
+      */
+    protected[io] def rebalance(nowNanos: Long): Unit = {
+        interval += 1
+        try {
+            val current = move
+            if ((current ne null) && current.destination == Moving) {
+                return
+            }
+            var index = 0
+            while (index < workers.length) {
+                depths(index) = workers(index).queueDepth
+                index += 1
+            }
+            var hot = 0
+            var cold = 0
+            index = 1
+            while (index < workers.length) {
+                if (depths(index) > depths(hot)) hot = index
+                if (depths(index) < depths(cold)) cold = index
+                index += 1
+            }
+            if (hot == cold || depths(hot) < queueThreshold ||
+                depths(hot) - depths(cold) < queueThreshold / 2) {
+                return
+            }
+
+            var hotLoad = 0L
+            var coldLoad = 0L
+            var bucket = 0
+            while (bucket < bucketCount) {
+                val worker = buckets.get(bucket)
+                if (worker == hot) hotLoad += hits.get(bucket)
+                else if (worker == cold) coldLoad += hits.get(bucket)
+                bucket += 1
+            }
+
+            val difference = hotLoad - coldLoad
+            var candidate = -1
+            var candidateDistance = Long.MaxValue
+            bucket = 0
+            while (bucket < bucketCount) {
+                val count = hits.get(bucket)
+                if (buckets.get(bucket) == hot && count > 0 &&
+                    count < difference &&
+                    interval - movedAt(bucket) >= CooldownIntervals) {
+                    val distance = Math.abs(2L * count - difference)
+                    if (distance < candidateDistance) {
+                        candidate = bucket
+                        candidateDistance = distance
+                    }
+                }
+                bucket += 1
+            }
+
+            if (candidate >= 0) {
+                log.debug(s"Moving hash bucket $candidate with " +
+                          s"${hits.get(candidate)} packets from worker $hot " +
+                          s"(queue ${depths(hot)}) to worker $cold " +
+                          s"(queue ${depths(cold)})")
+                move = new Move(candidate, hot, cold,
+                                nowNanos + Math.min(intervalNanos, MaxMoveNanos))
+                buckets.set(candidate, Moving)
+                movedAt(candidate) = interval
+                scheduleAdvance()
+            }
+        } finally {
+            var bucket = 0
+            while (bucket < bucketCount) {
+                hits.set(bucket, 0)
+                bucket += 1
+            }
+        }
+    }
+
+    /**
+      * Advances the move of a bucket: takes the fence of the previous worker
+      * once no thread is submitting to it, and completes the move once the
+      * fence is reached, or cancels the move after its deadline.
+      */
+    private def advance(current: Move, nowNanos: Long): Unit = {
+        if ((current.fence eq null) &&
+            submitting.get(current.bucket) == 0) {
+            current.fence = workers(current.source).fence(current.bucket)
+        }
+        if ((current.fence ne null) && current.fence.isReached) {
+            complete(current, current.target)
+        } else if (nowNanos - current.deadline >= 0) {
+            log.debug(s"Moving hash bucket ${current.bucket} from worker " +
+                      s"${current.source} to worker ${current.target} timed " +
+                      "out: move cancelled")
+            complete(current, current.source)
+        }
+    }
+
+    /**
+      * Completes the move of a bucket to the given worker. The held packets
+      * are released before the bucket is assigned to the worker, such that
+      * they are not reordered with the packets submitted directly.
+      */
+    private def complete(current: Move, worker: Int): Unit = {
+        current.complete(worker)
+        buckets.set(current.bucket, worker)
+    }
+
+    /** Schedules the timer that advances the current move, if any. */
+    private def scheduleAdvance(): Unit = {
+        if ((timer ne null) && !timer.isShutdown) {
+            try timer.schedule(advanceTask, MoveTimerNanos,
+                               TimeUnit.NANOSECONDS)
+            catch {
+                case e: RejectedExecutionException =>
+                    log.debug("Move timer rejected the task", e)
+            }
+        }
+    }
+
+    /** Holds a packet of a moving bucket. */
+    private def hold(bucket: Int, packet: Packet): Boolean = {
+        // The move is set before the bucket is marked as moving, and it is
+        // replaced only after the bucket is assigned to a worker, such that
+        // the loop only retries while the move is being published.
+        var attempts = 0
+        while (attempts < MaxHoldAttempts) {
+            val current = move
+            if ((current ne null) && current.bucket == bucket) {
+                return current.hold(packet)
+            }
+            val worker = buckets.get(bucket)
+            if (worker != Moving) {
+                return workers(worker).submit(packet)
+            }
+            attempts += 1
+            LockSupport.parkNanos(HoldBackoffNanos)
+        }
+        log.debug(s"No move found for hash bucket $bucket: packet dropped")
+        false
+    }
+
+    /**
+      * @return Whether a bucket is being moved, for testing.
+      */
+    protected[io] def isMoving: Boolean = {
+        val current = move
+        (current ne null) && current.destination == Moving
+    }
+
+    /**
+      * @return The index of the worker currently assigned to the bucket,
+      *         for testing.
+      */
+    protected[io] def workerOfBucket(bucket: Int): Int = buckets.get(bucket)
+
+    protected[io] def bucketOf(hash: Int): Int = hash & bucketMask
+}
@@ -16,6 +16,7 @@
 
 package org.midonet.midolman.io
 
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.locks.ReentrantLock
 
 import scala.collection.mutable
@@ -30,6 +31,11 @@ import org.midonet.util.{Bucket, TokenBucketFillRate, TokenBucket}
  * This class contains a policy to assign token buckets to datapath ports.
  * Depending on the port type, token buckets are linked at different levels
  * in the hierarchy.
+ *
+ * When the simulation cost is enabled, the packet workers charge the bucket
+ * of the input port with additional tokens according to the simulation time
+ * of each packet, such that ports are throttled in proportion to the work
+ * they cause.
  */
 class TokenBucketPolicy(config: MidolmanConfig,
                         tbRate: TokenBucketFillRate,
@@ -47,6 +53,7 @@ class TokenBucketPolicy(config: MidolmanConfig,
     private val vmBuckets = root.link(0, "vms")
 
     private val tokenBuckets = mutable.Map[String, Bucket]()
+    private val portNoBuckets = new ConcurrentHashMap[Integer, Bucket]()
     private val lock = new ReentrantLock
 
     def calculateMinimumSystemTokens: Int =
@@ -86,11 +93,30 @@ class TokenBucketPolicy(config: MidolmanConfig,
         }
     }
 
+    /**
+     * Associates the bucket linked for the given port with the port's
+     * datapath number, such that the packets received from the port can be
+     * charged to the bucket.
+     */
+    def bind(port: DpPort): Unit = {
+        lock.lock()
+        try {
+            tokenBuckets.get(port.getName) match {
+                case Some(tb) if port.getPortNo ne null =>
+                    portNoBuckets.put(port.getPortNo, tb)
+                case _ =>
+            }
+        } finally {
+            lock.unlock()
+        }
+    }
+
     def unlink(port: DpPort): Unit = {
         lock.lock()
         try {
             tokenBuckets.remove(port.getName) match {
                 case Some(tb) =>
+                    portNoBuckets.values().remove(tb)
                     val tokens = tb.underlyingTokenBucket().unlink()
                     val newMax = calculateMinimumSystemTokens
                     if (newMax >= adjust(config.datapath.globalIncomingBurstCapacity))
@@ -108,5 +134,24 @@ class TokenBucketPolicy(config: MidolmanConfig,
         }
     }
 
+    /**
+     * Charges the bucket of the given datapath port with the specified
+     * amount of additional tokens, measured in packets, limited to the
+     * capacity of the bucket. Returns the amount of charged tokens, which is
+     * zero if the port has no bucket.
+     */
+    def charge(portNo: Int, tokens: Int): Int = {
+        val bucket = portNoBuckets.get(portNo)
+        if ((bucket eq null) || (bucket.underlyingTokenBucket() eq null) ||
+            tokens <= 0) {
+            0
+        } else {
+            val charged = Math.min(tokens, multiplier *
+                bucket.underlyingTokenBucket().getCapacity)
+            bucket.charge(charged)
+            charged
+        }
+    }
+
     private def adjust(tokens: Int): Int = Math.max(1, tokens / multiplier)
 }
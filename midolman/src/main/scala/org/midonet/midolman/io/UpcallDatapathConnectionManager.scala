@@ -16,7 +16,7 @@
 package org.midonet.midolman.io
 
 import java.nio.ByteBuffer
-import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.{ConcurrentHashMap, Executors}
 import java.util.concurrent.locks.ReentrantLock
 
 import scala.collection.IndexedSeq
@@ -37,7 +37,7 @@ import org.midonet.netlink.exceptions.NetlinkException
 import org.midonet.odp._
 import org.midonet.odp.protos.OvsDatapathConnection
 import org.midonet.packets._
-import org.midonet.util.concurrent.NanoClock
+import org.midonet.util.concurrent.{NamedThreadFactory, NanoClock}
 import org.midonet.util.eventloop.SelectLoop
 import org.midonet.util.{BatchCollector, Bucket}
 
@@ -86,6 +86,25 @@ abstract class UpcallDatapathConnectionManagerBase(
 
     protected def makeBufferPool() = new BufferPool(1, 8, 8*1024)
 
+    // The worker balancer is shared by all upcall handlers, such that the
+    // packets of a connection are sent to the same worker regardless of the
+    // input channel.
+    private var workerBalancer: PacketWorkerBalancer = null
+
+    private def balancerFor(workers: IndexedSeq[PacketWorker])
+    : PacketWorkerBalancer = synchronized {
+        if ((workerBalancer eq null) &&
+            PacketWorkerBalancer.isEnabled(config, workers.length)) {
+            workerBalancer = new PacketWorkerBalancer(
+                workers, config.workerRebalanceInterval.toNanos,
+                config.workerRebalanceThreshold,
+                Executors.newSingleThreadScheduledExecutor(
+                    new NamedThreadFactory("packet-worker-balancer",
+                                           isDaemon = true)))
+        }
+        workerBalancer
+    }
+
     def getDispatcher()(implicit as: ActorSystem) =
         NetlinkCallbackDispatcher.makeBatchCollector()
 
@@ -156,6 +175,7 @@ abstract class UpcallDatapathConnectionManagerBase(
         } andThen {
             case Success((createdPort, _)) =>
                 log.debug(s"Successfully created or reclaimed port $createdPort")
+                tbPolicy.bind(createdPort)
             case Failure(e) =>
                 log.error(s"Failed to create or reclaim datapath port ${port.getName}", e)
                 stopConnection(conn)
@@ -230,6 +250,8 @@ abstract class UpcallDatapathConnectionManagerBase(
 
             val NUM_WORKERS = workers.length
 
+            private val balancer = balancerFor(workers)
+
             override def endBatch() {
                 // noop
             }
@@ -264,9 +286,16 @@ abstract class UpcallDatapathConnectionManagerBase(
                     submitted
                 } else {
                     val hash = getConnectionHash(data)
-                    val worker = Math.abs(hash % NUM_WORKERS)
-                    log.debug(s"Connection hash: $hash -> going to worker $worker")
-                    workers(worker).submit(data)
+                    if (balancer eq null) {
+                        val worker = Math.abs(hash % NUM_WORKERS)
+                        log.debug(s"Connection hash: $hash -> going to worker $worker")
+                        workers(worker).submit(data)
+                    } else {
+                        balancer.maybeRebalance(data.startTimeNanos)
+                        log.debug(s"Connection hash: $hash -> going to worker " +
+                                  s"${balancer.workerFor(hash)}")
+                        balancer.submit(hash, data)
+                    }
                 }
             }
 
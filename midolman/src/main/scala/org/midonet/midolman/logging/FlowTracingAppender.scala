@@ -17,24 +17,55 @@
 package org.midonet.midolman.logging
 
 import java.util.UUID
+import java.util.concurrent.atomic.AtomicLong
 
 import scala.concurrent.Future
 import scala.util.control.NonFatal
 import scala.util.{Failure, Success}
 
 import ch.qos.logback.classic.spi.ILoggingEvent
-import ch.qos.logback.core.AppenderBase
+import ch.qos.logback.core.UnsynchronizedAppenderBase
+import com.datastax.driver.core.Session
 import com.datastax.driver.core.exceptions.DriverException
-import com.datastax.driver.core.{Session, Statement}
-import org.jctools.queues.SpmcArrayQueue
+import com.lmax.disruptor._
 import org.slf4j.LoggerFactory
 
 import org.midonet.conf.HostIdGenerator
+import org.midonet.midolman.logging.FlowTracingAppender.TraceRecord
+import org.midonet.midolman.logging.FlowTracingContext.Context
 import org.midonet.util.concurrent.CallingThreadExecutionContext
-import org.midonet.util.concurrent.WakerUpper.Parkable
 
+object FlowTracingAppender {
+
+    val RingSize = 65536
+
+    /**
+      * A trace record in the ring buffer. The record references the flow
+      * tracing context of the packet, which is immutable, and the message,
+      * such that recording an event does not copy or format any of the
+      * fields of the trace context.
+      */
+    final class TraceRecord(var context: Context, var message: String)
+
+    object Factory extends EventFactory[TraceRecord] {
+        override def newInstance(): TraceRecord = new TraceRecord(null, null)
+    }
+}
+
+/**
+  * A logback appender that writes the trace messages of the traced packets
+  * to Cassandra. The packet processing threads only record the trace context
+  * and the message of each event in a preallocated ring buffer, without
+  * taking any lock and without parsing or formatting the trace context. A
+  * dedicated thread drains the ring buffer, and binds and executes the
+  * Cassandra statements, in the same order as the events were emitted by
+  * the simulation thread (within a given simulation). When the ring buffer
+  * is full, the events are dropped.
+  */
 class FlowTracingAppender(sessionFuture: Future[Session])
-        extends AppenderBase[ILoggingEvent] {
+        extends UnsynchronizedAppenderBase[ILoggingEvent] {
+
+    import FlowTracingAppender._
 
     val log = LoggerFactory.getLogger(classOf[FlowTracingAppender])
     val hostId = try {
@@ -50,20 +81,26 @@ class FlowTracingAppender(sessionFuture: Future[Session])
 
     var schema: FlowTracingSchema = null
 
-    /* Dedicated thread that sends messages to Cassandra in the same order as
-     * they are emitted by the simulation thread (within a given simulation).
-     */
-    private val sender = new Thread("flow-tracing-appender") with Parkable {
-        override def run(): Unit = while (true) {
+    private val droppedRecords = new AtomicLong
+
+    private val ringBuffer = RingBuffer.createMultiProducer(
+        Factory, RingSize, new SleepingWaitStrategy)
+
+    private val handler = new EventHandler[TraceRecord] {
+        // The context of the last record written, for which the flow rows
+        // are already in Cassandra.
+        private var lastContext: Context = null
+
+        override def onEvent(record: TraceRecord, sequence: Long,
+                             endOfBatch: Boolean): Unit = {
+            val context = record.context
+            val message = record.message
+            record.context = null
+            record.message = null
             try {
-                queue.poll() match {
-                    case null => park()
-                    case st => session execute st
-                }
+                write(context, message, writeFlow = context ne lastContext)
+                lastContext = context
             } catch {
-                case NonFatal(t: InterruptedException) =>
-                    log.warn("Interrupted")
-                    interrupt()
                 case NonFatal(t: DriverException) =>
                     log.warn("Failed to send log message to Cassandra " +
                              s"${t.getMessage}")
@@ -71,18 +108,19 @@ class FlowTracingAppender(sessionFuture: Future[Session])
                     log.error("Unexpected error", t)
             }
         }
-        override def shouldWakeUp(): Boolean = queue.peek() != null
     }
 
-    val QueueSize = 100000
-    private val queue = new SpmcArrayQueue[Statement](QueueSize)
+    private val processor = new BatchEventProcessor[TraceRecord](
+        ringBuffer, ringBuffer.newBarrier(), handler)
+    ringBuffer.addGatingSequences(processor.getSequence)
 
     override def start(): Unit = {
-        sender.setDaemon(true)
         sessionFuture.onComplete {
             case Success(s) =>
                 schema = new FlowTracingSchema(s)
                 session = s
+                val sender = new Thread(processor, "flow-tracing-appender")
+                sender.setDaemon(true)
                 sender.start()
             case Failure(t) =>
                 log.warn(s"Failed to start session to Cassandra: ${t.getMessage}")
@@ -90,54 +128,59 @@ class FlowTracingAppender(sessionFuture: Future[Session])
         super.start()
     }
 
-    override def append(event: ILoggingEvent): Unit = if (schema != null) {
-        import FlowTracingContext._
-        val mdc = event.getMDCPropertyMap
-
-        val requestIds = mdc.get(TraceRequestIdKey).split(",")
-        var i = requestIds.length - 1
-
-        while (i >= 0) {
-            val traceId = UUID.fromString(requestIds(i))
-            val flowTraceId = UUID.fromString(mdc.get(FlowTraceIdKey))
-
-            try {
+    override def stop(): Unit = {
+        processor.halt()
+        super.stop()
+    }
 
-                val st1 = schema.bindFlowInsertStatement(
-                    traceId, flowTraceId,
-                    mdc.get(EthSrcKey), mdc.get(EthDstKey),
-                    intOrVal(mdc.get(EtherTypeKey), 0),
-                    mdc.get(NetworkSrcKey), mdc.get(NetworkDstKey),
-                    intOrVal(mdc.get(NetworkProtoKey), 0),
-                    intOrVal(mdc.get(SrcPortKey), 0),
-                    intOrVal(mdc.get(DstPortKey), 0))
-
-                val st2 = schema.bindDataInsertStatement(
-                    traceId, flowTraceId,
-                    hostId, event.getFormattedMessage)
-
-                if (!queue.offer(st1) || !queue.offer(st2)) {
-                    log.info("Backpressure triggered on queue of flow " +
-                             "tracing events emitted to Cassandra (curr. " +
-                             s"bound: $QueueSize)")
+    override def append(event: ILoggingEvent): Unit = if (session ne null) {
+        val context = FlowTracingContext.context
+        if (context eq null)
+            return
+
+        // Messages without arguments need no formatting. The arguments may
+        // be mutable objects owned by the packet context, so the messages
+        // with arguments are formatted before leaving the simulation thread.
+        val message =
+            if (event.getArgumentArray eq null) event.getMessage
+            else event.getFormattedMessage
+
+        val seq = try ringBuffer.tryNext() catch {
+            case e: InsufficientCapacityException =>
+                val dropped = droppedRecords.incrementAndGet()
+                if ((dropped & (dropped - 1)) == 0) {
+                    log.info("Backpressure triggered on the ring buffer of " +
+                             "flow tracing events emitted to Cassandra " +
+                             s"(bound: $RingSize, dropped: $dropped)")
                 }
-            } catch {
-                case e: Throwable =>
-                    log.error("Error building statements", e)
-            }
-            i -= 1
+                return
         }
+        val record = ringBuffer.get(seq)
+        record.context = context
+        record.message = message
+        ringBuffer.publish(seq)
     }
 
-    private def intOrVal(s: String, default: Int): Int = {
-        if (s == null) {
-            default
-        } else {
-            try {
-                s.toInt
-            } catch {
-                case e: NumberFormatException => default
+    private def write(context: Context, message: String,
+                      writeFlow: Boolean): Unit = {
+        val key = context.key
+        var i = context.traceRequestIds.length - 1
+        while (i >= 0) {
+            val traceId = context.traceRequestIds(i)
+            if (writeFlow) {
+                session execute schema.bindFlowInsertStatement(
+                    traceId, context.flowTraceId,
+                    stringOrNull(key.ethSrc), stringOrNull(key.ethDst),
+                    key.etherType.toInt,
+                    stringOrNull(key.networkSrc), stringOrNull(key.networkDst),
+                    key.networkProto.toInt, key.srcPort, key.dstPort)
             }
+            session execute schema.bindDataInsertStatement(
+                traceId, context.flowTraceId, hostId, message)
+            i -= 1
         }
     }
+
+    private def stringOrNull(value: AnyRef): String =
+        if (value eq null) null else value.toString
 }
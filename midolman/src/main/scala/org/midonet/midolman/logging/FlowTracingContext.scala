@@ -17,62 +17,41 @@
 package org.midonet.midolman.logging
 
 import java.util.{List, UUID}
-import com.google.common.base.Joiner
-
-import org.slf4j.MDC
 
 import org.midonet.midolman.state.TraceState.TraceKey
 
 object FlowTracingContext {
-    val TraceRequestIdKey = "traceRequestId"
-    val FlowTraceIdKey = "flowTraceId"
-    val EthSrcKey = "ethSrc"
-    val EthDstKey = "ethDst"
-    val EtherTypeKey = "etherType"
-    val NetworkSrcKey = "networkSrc"
-    val NetworkDstKey = "networkDst"
-    val NetworkProtoKey = "networkProto"
-    val SrcPortKey = "srcPort"
-    val DstPortKey = "dstPort"
+
+    /**
+      * The flow tracing context of a traced packet. The context is an
+      * immutable snapshot created once per traced packet, such that the
+      * trace records of the packet can reference it from the trace ring
+      * without copying or formatting any of its fields.
+      */
+    final class Context(val traceRequestIds: Array[UUID],
+                        val flowTraceId: UUID,
+                        val key: TraceKey)
+
+    private val current = new ThreadLocal[Context]
 
     def updateContext(traceRequestIds: List[UUID], flowTraceId: UUID,
                       key: TraceKey): Unit = {
-        // HACK ALERT: MDC can only store strings. A better solution would
-        // be to use a logging facade for flow tracing, and not rely on MDC
-        // for the context, but that'd a larger change, so just passing
-        // a string for now.
-        MDC.put(TraceRequestIdKey, Joiner.on(",").join(traceRequestIds))
-        if (flowTraceId != null) {
-            MDC.put(FlowTraceIdKey, flowTraceId.toString)
-        }
-        if (key.ethSrc != null) {
-            MDC.put(EthSrcKey, key.ethSrc.toString)
+        val ids = new Array[UUID](traceRequestIds.size)
+        var i = 0
+        while (i < ids.length) {
+            ids(i) = traceRequestIds.get(i)
+            i += 1
         }
-        if (key.ethDst != null) {
-            MDC.put(EthDstKey, key.ethDst.toString)
-        }
-        MDC.put(EtherTypeKey, key.etherType.toString)
-        if (key.networkSrc != null) {
-            MDC.put(NetworkSrcKey, key.networkSrc.toString)
-        }
-        if (key.networkDst != null) {
-            MDC.put(NetworkDstKey, key.networkDst.toString)
-        }
-        MDC.put(NetworkProtoKey, key.networkProto.toString)
-        MDC.put(SrcPortKey, key.srcPort.toString)
-        MDC.put(DstPortKey, key.dstPort.toString)
+        current.set(new Context(ids, flowTraceId, key))
     }
 
+    /**
+      * Returns the flow tracing context of the packet processed by the
+      * current thread, or null if the packet is not traced.
+      */
+    def context: Context = current.get
+
     def clearContext(): Unit = {
-        MDC.remove(TraceRequestIdKey)
-        MDC.remove(FlowTraceIdKey)
-        MDC.remove(EthSrcKey)
-        MDC.remove(EthDstKey)
-        MDC.remove(EtherTypeKey)
-        MDC.remove(NetworkSrcKey)
-        MDC.remove(NetworkDstKey)
-        MDC.remove(NetworkProtoKey)
-        MDC.remove(SrcPortKey)
-        MDC.remove(DstPortKey)
+        current.set(null)
     }
 }
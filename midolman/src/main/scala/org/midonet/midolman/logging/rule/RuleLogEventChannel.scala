@@ -17,7 +17,10 @@
 package org.midonet.midolman.logging.rule
 
 import java.util.UUID
+import java.util.concurrent.TimeUnit
 
+import com.codahale.metrics.MetricRegistry
+import com.codahale.metrics.MetricRegistry.name
 import com.google.common.util.concurrent.AbstractService
 import com.lmax.disruptor._
 
@@ -62,16 +65,25 @@ object DisruptorRuleLogEventChannel {
             new RuleLogEvent(null, 0, null, null, null, null, 0, 0, null)
     }
 
-    def apply(capacity: Int, config: RuleLoggingConfig)
-    : DisruptorRuleLogEventChannel = {
+    def apply(capacity: Int, config: RuleLoggingConfig,
+              metrics: MetricRegistry): DisruptorRuleLogEventChannel = {
+        // When aggregating, the processor wakes up at least once per
+        // aggregation interval to write the aggregated records of idle
+        // loggers.
+        val aggregationInterval = config.aggregationInterval.toMillis
+        val waitStrategy =
+            if (aggregationInterval > 0)
+                new TimeoutBlockingWaitStrategy(aggregationInterval,
+                                                TimeUnit.MILLISECONDS)
+            else new BlockingWaitStrategy
         val ringBuffer = RingBuffer
-            .createMultiProducer(Factory, capacity)
+            .createMultiProducer(Factory, capacity, waitStrategy)
         val barrier = ringBuffer.newBarrier()
 
         val eventHandler = if (config.logDirectory == "") {
-            new FileRuleLogEventHandler(config)
+            new FileRuleLogEventHandler(config, metrics)
         } else {
-            new FileRuleLogEventHandler(config, config.logDirectory)
+            new FileRuleLogEventHandler(config, metrics, config.logDirectory)
         }
 
         val batchProcessor =
@@ -80,16 +92,29 @@ object DisruptorRuleLogEventChannel {
         ringBuffer.addGatingSequences(batchProcessor.getSequence)
 
         new DisruptorRuleLogEventChannel(ringBuffer, batchProcessor,
-                                         eventHandler)
+                                         eventHandler, metrics)
     }
 }
 
+/**
+  * Hands off the rule log events of the simulation threads to the rule
+  * logging thread. The simulation threads never block on the rule logging:
+  * when the ring buffer is full, the event is dropped and counted in the
+  * `events.dropped` metric. The aggregation of the events by the handler
+  * keeps the rule logging thread ahead of bursts of identical events.
+  */
 class DisruptorRuleLogEventChannel(
         private val ringBuffer: RingBuffer[RuleLogEvent],
         private val processor: EventProcessor,
-        private val eventHandler: RuleLogEventHandler)
+        private val eventHandler: RuleLogEventHandler,
+        metrics: MetricRegistry)
     extends RuleLogEventChannel with MidolmanLogging {
 
+    private val droppedEvents = metrics.counter(
+        name(classOf[RuleLogEventChannel], "events", "dropped"))
+    private val handedOffEvents = metrics.counter(
+        name(classOf[RuleLogEventChannel], "events", "handedOff"))
+
     override def doStart(): Unit = {
         log.debug("Starting DisruptorRuleLogEventChannel")
         val t = new Thread(processor, "rule-event-logger")
@@ -111,7 +136,7 @@ class DisruptorRuleLogEventChannel(
                          result: Result): Long = {
         val seq = try ringBuffer.tryNext() catch {
             case ex: InsufficientCapacityException =>
-                // TODO: Increment metric
+                droppedEvents.inc()
                 log.debug("Dropping rule log event due to insufficient " +
                           "buffer capacity.")
                 return -1
@@ -127,6 +152,7 @@ class DisruptorRuleLogEventChannel(
         event.dstPort = dstPort
         event.result = result
         ringBuffer.publish(seq)
+        handedOffEvents.inc()
         seq
     }
 
@@ -18,17 +18,21 @@ package org.midonet.midolman.logging.rule
 
 import java.io.OutputStream
 import java.nio.ByteBuffer
+import java.util
+import java.util.UUID
 
 import scala.concurrent.duration.Duration
 import scala.util.Try
 import scala.util.control.NonFatal
 
-import com.lmax.disruptor.{EventHandler, ExceptionHandler, LifecycleAware}
+import com.codahale.metrics.MetricRegistry
+import com.codahale.metrics.MetricRegistry.name
+import com.lmax.disruptor.{EventHandler, ExceptionHandler, LifecycleAware, TimeoutHandler}
 
 import org.agrona.concurrent.UnsafeBuffer
 
 import org.midonet.logging.rule.RuleLogEventBinarySerialization._
-import org.midonet.logging.rule.{MessageHeaderEncoder, RuleLogEventEncoder}
+import org.midonet.logging.rule.{MessageHeaderEncoder, Result, RuleLogEventEncoder}
 import org.midonet.midolman.config.RuleLoggingConfig
 import org.midonet.midolman.logging.MidolmanLogging
 import org.midonet.midolman.logging.rule.DisruptorRuleLogEventChannel.RuleLogEvent
@@ -37,10 +41,41 @@ import org.midonet.packets.{IPAddr, IPv4Addr, IPv6Addr}
 import org.midonet.util.UnixClock
 import org.midonet.util.logging.{RollingOutputStream, SizeBasedRollingStaticHeaderBufferedOutputStream, TimeBasedRollingStaticHeaderBufferedOutputStream}
 
-abstract class RuleLogEventHandler extends EventHandler[RuleLogEvent]
-                                           with LifecycleAware
-                                           with MidolmanLogging
-                                           with ExceptionHandler {
+object RuleLogEventHandler {
+    /** The maximum number of aggregated records, above which the records
+      * are written before the end of the aggregation interval. */
+    final val MaxAggregatedRecords = 16384
+
+    private case class AggregationKey(loggerId: UUID, chainId: UUID,
+                                      ruleId: UUID, nwProto: Byte,
+                                      srcIp: IPAddr, dstIp: IPAddr,
+                                      srcPort: Int, dstPort: Int,
+                                      result: Result)
+
+    private class AggregatedRecord(val event: RuleLogEvent,
+                                   val firstTime: Long,
+                                   var lastTime: Long,
+                                   var count: Long)
+}
+
+/**
+  * Writes the rule log events as binary records. When the aggregation
+  * interval is positive, the events with the same logger, chain, rule,
+  * 5-tuple and result are merged during the interval into a single record
+  * with the number of events and the time of the first and last event, such
+  * that a burst of identical packets results in one record per interval
+  * instead of one record per packet. Otherwise, every event is written as a
+  * record with a count of one.
+  */
+abstract class RuleLogEventHandler(aggregationInterval: Long,
+                                   metrics: MetricRegistry)
+    extends EventHandler[RuleLogEvent]
+            with TimeoutHandler
+            with LifecycleAware
+            with MidolmanLogging
+            with ExceptionHandler {
+
+    import RuleLogEventHandler._
 
     protected val headerEncoder = new MessageHeaderEncoder
     protected val eventEncoder = new RuleLogEventEncoder
@@ -57,10 +92,87 @@ abstract class RuleLogEventHandler extends EventHandler[RuleLogEvent]
 
     protected val clock = UnixClock()
 
+    private val aggregates =
+        new util.LinkedHashMap[AggregationKey, AggregatedRecord]()
+    private var windowStart = 0L
+
+    private val aggregatedEvents = metrics.counter(
+        name(classOf[RuleLogEventHandler], "events", "aggregated"))
+    private val writtenRecords = metrics.counter(
+        name(classOf[RuleLogEventHandler], "records", "written"))
+
     override def onEvent(event: RuleLogEvent, sequence: Long,
-                         endOfBatch: Boolean): Unit = {
+                         endOfBatch: Boolean): Unit = synchronized {
         log.debug("RuleLogEventHandler received {}", event)
 
+        val now = clock.time
+        if (aggregationInterval <= 0) {
+            writeRecord(event, now, now, 1)
+        } else {
+            aggregate(event, now)
+            if (now - windowStart >= aggregationInterval ||
+                aggregates.size >= MaxAggregatedRecords) {
+                writeAggregates(now)
+            }
+        }
+    }
+
+    /**
+      * Writes the aggregated records when the ring buffer has no events for
+      * the duration of the aggregation interval.
+      */
+    override def onTimeout(sequence: Long): Unit = synchronized {
+        val now = clock.time
+        if (now - windowStart >= aggregationInterval) {
+            writeAggregates(now)
+        }
+    }
+
+    private def aggregate(event: RuleLogEvent, now: Long): Unit = {
+        val key = AggregationKey(event.loggerId, event.chain.id, event.rule.id,
+                                 event.nwProto, event.srcIp, event.dstIp,
+                                 event.srcPort, event.dstPort, event.result)
+        val record = aggregates.get(key)
+        if (record eq null) {
+            // The ring buffer reuses the event instances, so copy them.
+            val copy = new RuleLogEvent(event.loggerId, event.nwProto,
+                                        event.chain, event.rule,
+                                        event.srcIp, event.dstIp,
+                                        event.srcPort, event.dstPort,
+                                        event.result)
+            if (aggregates.isEmpty) {
+                windowStart = now
+            }
+            aggregates.put(key, new AggregatedRecord(copy, now, now, 1))
+        } else {
+            record.lastTime = now
+            record.count += 1
+            aggregatedEvents.inc()
+        }
+    }
+
+    /**
+      * Writes and clears the aggregated records.
+      */
+    protected def writeAggregates(now: Long): Unit = synchronized {
+        windowStart = now
+        if (aggregates.isEmpty) {
+            return
+        }
+        try {
+            val iterator = aggregates.values.iterator()
+            while (iterator.hasNext) {
+                val record = iterator.next()
+                writeRecord(record.event, record.firstTime, record.lastTime,
+                            record.count)
+            }
+        } finally {
+            aggregates.clear()
+        }
+    }
+
+    private def writeRecord(event: RuleLogEvent, firstTime: Long,
+                            lastTime: Long, count: Long): Unit = {
         // Skip if logging is disabled.
         val now = clock.time
         if (disabledUntil > now) {
@@ -86,7 +198,9 @@ abstract class RuleLogEventHandler extends EventHandler[RuleLogEvent]
         eventEncoder.ruleId(1, event.rule.id.getLeastSignificantBits)
         eventEncoder.loggerId(0, event.loggerId.getMostSignificantBits)
         eventEncoder.loggerId(1, event.loggerId.getLeastSignificantBits)
-        eventEncoder.time(clock.time)
+        eventEncoder.time(firstTime)
+        eventEncoder.count(count)
+        eventEncoder.lastTime(lastTime)
 
         // Src/dst IP
         fillIpBuffer(event.srcIp)
@@ -97,6 +211,7 @@ abstract class RuleLogEventHandler extends EventHandler[RuleLogEvent]
         eventEncoder.putMetadata(chain.metadata, 0, chain.metadata.length)
 
         os.write(eventBuffer.byteArray, 0, eventEncoder.limit)
+        writtenRecords.inc()
 
         // Flush on every statement when debug is enabled.
         if (log.underlying.isDebugEnabled)
@@ -117,8 +232,9 @@ abstract class RuleLogEventHandler extends EventHandler[RuleLogEvent]
         log.debug("Starting RuleLogEventHandler")
     }
 
-    override def onShutdown(): Unit = {
+    override def onShutdown(): Unit = synchronized {
         log.debug("Stopping RuleLogEventHandler")
+        writeAggregates(clock.time)
         if (os != null) {
             log.debug("Closing RuleLogEventHandler's output stream.")
             os.close()
@@ -161,8 +277,9 @@ object FileRuleLogEventHandler {
 }
 
 class FileRuleLogEventHandler(config: RuleLoggingConfig,
+                              metrics: MetricRegistry,
                               logDir: String = FileRuleLogEventHandler.LogDir)
-    extends RuleLogEventHandler {
+    extends RuleLogEventHandler(config.aggregationInterval.toMillis, metrics) {
     import FileRuleLogEventHandler.SizePrefixes
 
     val logPath = logDir.stripSuffix("/") + '/' + config.logFileName
@@ -203,7 +320,8 @@ class FileRuleLogEventHandler(config: RuleLoggingConfig,
         buf.byteArray()
     }
 
-    override def flush(): Unit = {
+    override def flush(): Unit = synchronized {
+        writeAggregates(clock.time)
         if (os != null)
             os.flush()
     }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.management
+
+import java.io.BufferedWriter
+import java.lang.management.ManagementFactory
+import java.util.{ArrayList, Collections, Comparator, UUID, HashMap => JHashMap}
+import javax.management.ObjectName
+
+import com.typesafe.scalalogging.Logger
+import org.slf4j.LoggerFactory
+
+import org.midonet.midolman.monitoring.DeviceProfiler
+import org.midonet.util.StringUtil
+
+/**
+  * Exposes the simulation cost of the virtual devices aggregated by the
+  * device profilers of all packet workers, as a table of the most expensive
+  * devices sorted by the total simulation time.
+  */
+object DeviceProfiling extends DeviceProfilingMXBean {
+    private val Log =
+        Logger(LoggerFactory.getLogger("org.midonet.midolman.management"))
+
+    final val DefaultTopDevices = 50
+
+    @volatile private var profilers = List[DeviceProfiler]()
+    private var registered = false
+
+    private val ByNanos = new Comparator[DeviceCost] {
+        override def compare(a: DeviceCost, b: DeviceCost): Int =
+            java.lang.Long.compare(b.getNanos, a.getNanos)
+    }
+
+    override def getTopDevices(count: Int): Array[DeviceCost] = {
+        val costs = consolidate()
+        Collections.sort(costs, ByNanos)
+        val size = Math.max(0, Math.min(count, costs.size))
+        costs.subList(0, size).toArray(new Array[DeviceCost](size))
+    }
+
+    override def getDevices: Array[DeviceCost] =
+        getTopDevices(Int.MaxValue)
+
+    override def reset(): Unit = {
+        profilers.foreach(_.reset())
+    }
+
+    /** Merges the device costs of all packet workers. */
+    private def consolidate(): ArrayList[DeviceCost] = {
+        val costs = new JHashMap[UUID, DeviceCost]()
+        for (profiler <- profilers) {
+            val it = profiler.devices.iterator()
+            while (it.hasNext) {
+                val stats = it.next()
+                val cost = costs.get(stats.deviceId)
+                costs.put(stats.deviceId, if (cost eq null) {
+                    new DeviceCost(stats.deviceId.toString, stats.deviceType,
+                                   stats.invocations, stats.nanos)
+                } else {
+                    new DeviceCost(cost.getDeviceId, cost.getDeviceType,
+                                   cost.getInvocations + stats.invocations,
+                                   cost.getNanos + stats.nanos)
+                })
+            }
+        }
+        new ArrayList[DeviceCost](costs.values())
+    }
+
+    /** Adds the given profilers to the aggregated costs, and registers the
+      * JMX bean the first time. */
+    def registerAsMXBean(added: DeviceProfiler*): Unit = this.synchronized {
+        try {
+            profilers ++= added
+            if (!registered) {
+                ManagementFactory.getPlatformMBeanServer.registerMBean(this,
+                    new ObjectName(DeviceProfilingMXBean.NAME))
+                registered = true
+            }
+        } catch {
+            case e: Exception =>
+                Log.error("Failed to register device profiling JMX bean", e)
+        }
+    }
+
+    /** Removes the given profilers from the aggregated costs, such that the
+      * profilers of a stopped packet workers service are not retained. */
+    def unregister(removed: DeviceProfiler*): Unit = this.synchronized {
+        profilers = profilers.filterNot(p => removed.exists(_ eq p))
+    }
+
+    def unregisterAll(): Unit = this.synchronized {
+        profilers = List()
+    }
+
+    def toTextTable(writer: BufferedWriter, count: Int = DefaultTopDevices,
+                    delim: Char = '\t'): Unit = {
+        val costs = getTopDevices(count)
+        var i = 0
+        while (i < costs.length) {
+            val cost = costs(i)
+            writer.append(cost.getDeviceType).append(delim)
+            writer.append(cost.getDeviceId).append(delim)
+            StringUtil.append(writer, cost.getInvocations).append(delim)
+            StringUtil.append(writer, cost.getNanos).append(delim)
+            StringUtil.append(writer, cost.getNanos /
+                                      Math.max(cost.getInvocations, 1L))
+                .append('\n')
+            i += 1
+        }
+    }
+}
+
+class DeviceProfilingHTTPHandler extends SimpleHTTPServer.Handler {
+    override def path: String = "/device_costs"
+    def writeResponse(writer: BufferedWriter): Unit = {
+        DeviceProfiling.toTextTable(writer)
+    }
+}
@@ -22,11 +22,13 @@ import java.util.Map.Entry
 import java.util.function.Consumer
 import javax.management._
 
+import com.codahale.metrics.{Metric, MetricFilter, MetricRegistry, Timer}
 import com.google.common.annotations.VisibleForTesting
 import com.typesafe.scalalogging.Logger
 import org.slf4j.LoggerFactory
 import org.midonet.management.{FlowMeters, FlowStats, MeteringMXBean}
 import org.midonet.midolman.monitoring.MeterRegistry
+import org.midonet.midolman.monitoring.metrics.PacketPipelineHistogram
 import org.midonet.util.StringUtil
 
 trait PrometheusMetering {
@@ -86,6 +88,64 @@ trait PrometheusMetering {
     }
 }
 
+/**
+  * Exports the packet pipeline latency histograms from a metric registry
+  * as Prometheus summaries, with the latency in seconds.
+  */
+object PrometheusPacketPipelineMetering {
+
+    private final val MetricsName = "midonet_packet_pipeline_latency_seconds"
+    private final val Prefix = classOf[PacketPipelineHistogram].getName + "."
+    private final val Quantiles = Array(0.5, 0.9, 0.99, 0.999)
+    private final val NanosPerSecond = 1000000000d
+
+    private final val Filter = new MetricFilter {
+        override def matches(name: String, metric: Metric): Boolean =
+            name.startsWith(Prefix)
+    }
+
+    def toPrometheusMetrics(registry: MetricRegistry,
+                            writer: BufferedWriter): Unit = {
+        writer.append("# HELP ")
+        writer.append(MetricsName)
+        writer.append(" Latency of the packet pipeline stages.\n")
+        writer.append("# TYPE ")
+        writer.append(MetricsName)
+        writer.append(" summary\n")
+
+        val timers = registry.getTimers(Filter).entrySet().iterator()
+        while (timers.hasNext) {
+            val entry = timers.next()
+            val metric = entry.getKey.substring(Prefix.length)
+            val timer: Timer = entry.getValue
+            // The HdrHistogram reservoir takes percentiles rather than
+            // quantiles.
+            val snapshot = timer.getSnapshot
+
+            // produce lines like:
+            //   midonet_packet_pipeline_latency_seconds{metric="worker-0.stages.simulation",quantile="0.99"} 1.2E-5
+            var i = 0
+            while (i < Quantiles.length) {
+                writer.append(MetricsName)
+                writer.append("{metric=\"")
+                writer.append(metric)
+                writer.append("\",quantile=\"")
+                writer.append(java.lang.Double.toString(Quantiles(i)))
+                writer.append("\"} ")
+                writer.append(java.lang.Double.toString(
+                    snapshot.getValue(Quantiles(i) * 100) / NanosPerSecond))
+                writer.append('\n')
+                i += 1
+            }
+            writer.append(MetricsName)
+            writer.append("_count{metric=\"")
+            writer.append(metric)
+            writer.append("\"} ")
+            StringUtil.append(writer, timer.getCount).append('\n')
+        }
+    }
+}
+
 object Metering extends PrometheusMetering with MeteringMXBean {
     private val Log =
         Logger(LoggerFactory.getLogger("org.midonet.midolman.management"))
@@ -202,9 +262,12 @@ class MeteringHTTPHandler extends SimpleHTTPServer.Handler {
     }
 }
 
-class PrometheusMetricsHTTPHandler extends SimpleHTTPServer.Handler {
+class PrometheusMetricsHTTPHandler(registry: MetricRegistry)
+    extends SimpleHTTPServer.Handler {
+
     override def path: String = "/metrics"
     def writeResponse(writer: BufferedWriter): Unit = {
         Metering.toPrometheusMetrics(writer)
+        PrometheusPacketPipelineMetering.toPrometheusMetrics(registry, writer)
     }
 }
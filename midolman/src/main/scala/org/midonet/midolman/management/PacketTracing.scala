@@ -25,51 +25,130 @@ import org.midonet.odp.FlowMatch
 import org.slf4j.LoggerFactory
 
 import org.midonet.midolman.simulation.PacketContext
+import org.midonet.packets.{IPAddr, MAC}
 import org.midonet.util.logging.Logger
 
 object PacketTracing extends PacketTracingMXBean {
     val log = Logger(LoggerFactory.getLogger("org.midonet.midolman.management"))
 
+    private final val EtherTypeBit = 0x01
+    private final val SrcMacBit = 0x02
+    private final val DstMacBit = 0x04
+    private final val IpProtoBit = 0x08
+    private final val IpSrcBit = 0x10
+    private final val IpDstBit = 0x20
+    private final val SrcPortBit = 0x40
+    private final val DstPortBit = 0x80
+
+    /**
+      * A packet tracer compiled for the packet processing threads: the
+      * match fields are unboxed and parsed once, and a bit mask indicates
+      * which fields are set, such that matching a flow only reads the
+      * fields of the flow match that are relevant to the tracer. This also
+      * means the tracer does not add the unset fields to the seen fields
+      * of the flow match.
+      */
+    private final class CompiledTracer(val tracer: PacketTracer) {
+        private var mask = 0
+        private val etherType: Short =
+            if (tracer.etherType ne null) { mask |= EtherTypeBit; tracer.etherType }
+            else 0
+        private val srcMac: MAC =
+            if (tracer.srcMac ne null) { mask |= SrcMacBit; MAC.fromString(tracer.srcMac) }
+            else null
+        private val dstMac: MAC =
+            if (tracer.dstMac ne null) { mask |= DstMacBit; MAC.fromString(tracer.dstMac) }
+            else null
+        private val ipProto: Byte =
+            if (tracer.ipProto ne null) { mask |= IpProtoBit; tracer.ipProto }
+            else 0
+        private val ipSrc: IPAddr =
+            if (tracer.ipSrc ne null) { mask |= IpSrcBit; IPAddr.fromString(tracer.ipSrc) }
+            else null
+        private val ipDst: IPAddr =
+            if (tracer.ipDst ne null) { mask |= IpDstBit; IPAddr.fromString(tracer.ipDst) }
+            else null
+        private val srcPort: Int =
+            if (tracer.srcPort ne null) { mask |= SrcPortBit; tracer.srcPort }
+            else 0
+        private val dstPort: Int =
+            if (tracer.dstPort ne null) { mask |= DstPortBit; tracer.dstPort }
+            else 0
+
+        val logger: Logger = tracer.level match {
+            case LogLevel.DEBUG => PacketContext.debugLog
+            case LogLevel.TRACE => PacketContext.traceLog
+        }
+
+        @inline private def isSet(bit: Int): Boolean = (mask & bit) != 0
+
+        def matches(wmatch: FlowMatch): Boolean = {
+            tracer.isAlive &&
+            (!isSet(EtherTypeBit) || etherType == wmatch.getEtherType) &&
+            (!isSet(IpProtoBit) || ipProto == wmatch.getNetworkProto) &&
+            (!isSet(SrcPortBit) || srcPort == wmatch.getSrcPort) &&
+            (!isSet(DstPortBit) || dstPort == wmatch.getDstPort) &&
+            (!isSet(SrcMacBit) || srcMac == wmatch.getEthSrc) &&
+            (!isSet(DstMacBit) || dstMac == wmatch.getEthDst) &&
+            (!isSet(IpSrcBit) || ipSrc == wmatch.getNetworkSrcIP) &&
+            (!isSet(IpDstBit) || ipDst == wmatch.getNetworkDstIP)
+        }
+    }
+
     @volatile
     var tracers: List[PacketTracer] = List.empty
 
+    /* The tracers compiled for the packet processing threads, rebuilt
+     * whenever the list of tracers changes. The array is never modified
+     * after being published, such that the packet processing threads read
+     * it with a single volatile read and without synchronization. */
+    @volatile
+    private var compiled = Array.empty[CompiledTracer]
+
+    private def update(newTracers: List[PacketTracer]): Unit = {
+        tracers = newTracers
+        compiled = newTracers.map(new CompiledTracer(_)).toArray
+    }
+
     override def getLiveTracers = tracers.filter(_.isAlive).toArray
 
     override def getTracers = tracers.toArray
 
-    override def addTracer(tracer: PacketTracer) {
-        tracers ::= tracer
+    override def addTracer(tracer: PacketTracer): Unit = synchronized {
+        update(tracer :: tracers)
     }
 
-    override def removeTracer(tracer: PacketTracer) = {
+    override def removeTracer(tracer: PacketTracer) = synchronized {
         val oldSize = tracers.size
-        tracers = tracers filterNot { _ == tracer }
+        update(tracers filterNot { _ == tracer })
         oldSize - tracers.size
     }
 
-    override def flush() = {
+    override def flush() = synchronized {
         val num = tracers.size
-        tracers = List.empty
+        update(List.empty)
         num
     }
 
-    override def flushDeadTracers() = {
+    override def flushDeadTracers() = synchronized {
         val oldSize = tracers.size
-        tracers = tracers filter { _.isAlive }
+        update(tracers filter { _.isAlive })
         oldSize - tracers.size
     }
 
     def loggerFor(wcmatch: FlowMatch): Logger = {
-        val it = tracers.iterator
-        while (it.hasNext) {
-            val tracer = it.next()
+        val tracers = compiled
+        if (tracers.length == 0)
+            return PacketContext.defaultLog
+
+        var i = 0
+        while (i < tracers.length) {
+            val tracer = tracers(i)
             if (tracer.matches(wcmatch)) {
-                tracer.matched()
-                return tracer.level match {
-                    case LogLevel.DEBUG => PacketContext.debugLog
-                    case LogLevel.TRACE => PacketContext.traceLog
-                }
+                tracer.tracer.matched()
+                return tracer.logger
             }
+            i += 1
         }
 
         PacketContext.defaultLog
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.monitoring
+
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+
+import org.midonet.midolman.simulation.PacketContext
+import org.midonet.sdn.flows.FlowTagger.DeviceTag
+
+object DeviceProfiler {
+
+    /**
+      * The aggregated cost of a virtual device. The counters are only
+      * written by the packet worker that owns the profiler, and they are
+      * volatile such that they can be read by the management threads.
+      */
+    final class DeviceStats(val deviceId: UUID, val deviceType: String) {
+        @volatile var invocations = 0L
+        @volatile var nanos = 0L
+    }
+
+    /** Returns the device type for a device tag, e.g. `Bridge` for a
+      * `BridgeDeviceTag`. */
+    def deviceType(tag: DeviceTag): String = {
+        val name = tag.getClass.getSimpleName
+        if (name.endsWith("DeviceTag") && name.length > 9)
+            name.substring(0, name.length - 9)
+        else name
+    }
+}
+
+/**
+  * Aggregates the simulation cost of the virtual devices for the packets
+  * profiled by a packet worker. During the simulation of a profiled packet,
+  * the [[PacketContext]] records the time at which the simulation enters
+  * each device, using the device tags that the devices add to the packet.
+  * The time between entering a device and entering the next device, or the
+  * end of the simulation, is attributed to the device, such that the cost of
+  * a device excludes the cost of the devices it forwards the packet to.
+  *
+  * The profiler is written only by the packet worker that owns it, without
+  * locking, and it tracks at most `maxDevices` devices.
+  */
+class DeviceProfiler(maxDevices: Int) {
+
+    import DeviceProfiler._
+
+    private val stats = new ConcurrentHashMap[UUID, DeviceStats]()
+
+    /**
+      * Records the device costs for the last simulation of a profiled packet.
+      */
+    def record(context: PacketContext): Unit = {
+        if (!context.deviceProfiled)
+            return
+        var index = 0
+        while (index < context.profiledCount) {
+            record(context.profiledDevices(index),
+                   context.profiledNanos(index + 1) -
+                   context.profiledNanos(index))
+            index += 1
+        }
+        context.profiledCount = 0
+    }
+
+    /**
+      * Records one invocation of a device with the given duration.
+      */
+    def record(tag: DeviceTag, nanos: Long): Unit = {
+        var deviceStats = stats.get(tag.device)
+        if (deviceStats eq null) {
+            if (stats.size >= maxDevices)
+                return
+            deviceStats = new DeviceStats(tag.device, deviceType(tag))
+            stats.put(tag.device, deviceStats)
+        }
+        deviceStats.invocations += 1
+        deviceStats.nanos += nanos
+    }
+
+    def devices: java.util.Collection[DeviceStats] = stats.values()
+
+    def reset(): Unit = stats.clear()
+}
@@ -23,6 +23,19 @@ import com.codahale.metrics.MetricRegistry.name
 
 import org.midonet.util.metrics.HdrHistogramSlidingTimeWindowReservoir
 
+object PacketPipelineMetrics {
+
+    /**
+      * Creates a timer backed by a sliding time window HdrHistogram, used
+      * for the latency of the packet pipeline.
+      */
+    def latencyTimer(): Timer = {
+        new Timer(new HdrHistogramSlidingTimeWindowReservoir(
+                      5, TimeUnit.MINUTES, 10, TimeUnit.SECONDS,
+                      Clock.defaultClock))
+    }
+}
+
 class PacketPipelineMetrics(val registry: MetricRegistry, workerId: Int) {
     val workerTag = s"worker-$workerId"
 
@@ -49,9 +62,25 @@ class PacketPipelineMetrics(val registry: MetricRegistry, workerId: Int) {
 
     val packetsProcessed = registry.register(
         name(classOf[PacketPipelineHistogram], workerTag, "packetsProcessed"),
-        new Timer(new HdrHistogramSlidingTimeWindowReservoir(
-                      5, TimeUnit.MINUTES, 10, TimeUnit.SECONDS,
-                      Clock.defaultClock)))
+        PacketPipelineMetrics.latencyTimer())
+
+    // The latency of the pipeline stages for the sampled packets: the time
+    // from the upcall until the packet is dequeued by the worker, the time
+    // of each simulation run and the time spent in the waiting room.
+    val workerQueueLatency = registry.register(
+        name(classOf[PacketPipelineHistogram], workerTag, "stages",
+             "workerQueue"),
+        PacketPipelineMetrics.latencyTimer())
+
+    val simulationLatency = registry.register(
+        name(classOf[PacketPipelineHistogram], workerTag, "stages",
+             "simulation"),
+        PacketPipelineMetrics.latencyTimer())
+
+    val waitingRoomLatency = registry.register(
+        name(classOf[PacketPipelineHistogram], workerTag, "stages",
+             "waitingRoom"),
+        PacketPipelineMetrics.latencyTimer())
 
     val currentDpFlowsMetric = registry.register(
         name(classOf[FlowTablesGauge], workerTag, "currentDatapathFlows"),
@@ -69,6 +98,18 @@ class PacketPipelineMetrics(val registry: MetricRegistry, workerId: Int) {
     val workerQueueOverflow = registry.meter(
         name(classOf[PacketPipelineMeter], workerTag, "packetQueue", "overflow"))
 
+    /**
+      * Registers a gauge for the number of packets waiting in a queue of the
+      * worker, where `queue` identifies the queue.
+      */
+    def registerQueueDepth(queue: String, depth: => Int): Unit = {
+        registry.register(
+            name(classOf[PacketPipelineGauge], workerTag, "packetQueue", queue),
+            new Gauge[Long] {
+                override def getValue: Long = depth
+            })
+    }
+
     def packetPostponed() {
         packetsPostponed.mark()
         packetsOnHold.inc()
@@ -80,7 +121,18 @@ class PacketExecutorMetrics(val registry: MetricRegistry, executorId: Int) {
 
     val packetsExecuted = registry.register(
         name(classOf[PacketPipelineHistogram], executorTag, "packetsExecuted"),
-        new Timer(new HdrHistogramSlidingTimeWindowReservoir(
-                      5, TimeUnit.MINUTES, 10, TimeUnit.SECONDS,
-                      Clock.defaultClock)))
+        PacketPipelineMetrics.latencyTimer())
+
+    // The latency of the pipeline stages for the sampled packets: the time
+    // from the worker handoff until the packet is dequeued by the executor,
+    // and the time to write the packet to the datapath.
+    val executorQueueLatency = registry.register(
+        name(classOf[PacketPipelineHistogram], executorTag, "stages",
+             "executorQueue"),
+        PacketPipelineMetrics.latencyTimer())
+
+    val netlinkWriteLatency = registry.register(
+        name(classOf[PacketPipelineHistogram], executorTag, "stages",
+             "netlinkWrite"),
+        PacketPipelineMetrics.latencyTimer())
 }
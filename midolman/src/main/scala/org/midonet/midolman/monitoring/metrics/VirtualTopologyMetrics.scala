@@ -100,6 +100,11 @@ class VirtualTopologyMetrics(registry: MetricRegistry,
     val deviceLifetimeHistogram =
         registry.histogram(name(classOf[VirtualTopologyHistogram], "deviceLifetime"))
 
+    val warmupDeviceCounter =
+        registry.counter(name(classOf[VirtualTopologyCounter], "warmupDevices"))
+    val warmupTimeHistogram =
+        registry.histogram(name(classOf[VirtualTopologyHistogram], "warmupTime"))
+
     val deviceClasses: Map[Class[_], DeviceClassMetrics] =
         classes.map { case c => c -> new DeviceClassMetrics(registry, c) }.toMap
 
@@ -154,6 +159,11 @@ class VirtualTopologyMetrics(registry: MetricRegistry,
         }
     }
 
+    def warmup(devices: Int, time: Long): Unit = {
+        warmupDeviceCounter.inc(devices)
+        warmupTimeHistogram.update(time)
+    }
+
     private def gauge(f: => Long): Gauge[Long] = {
         new Gauge[Long] { override def getValue = f }
     }
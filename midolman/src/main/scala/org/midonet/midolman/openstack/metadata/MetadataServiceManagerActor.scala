@@ -16,6 +16,7 @@
 
 package org.midonet.midolman.openstack.metadata
 
+import com.codahale.metrics.MetricRegistry
 import com.google.inject.Inject
 
 import rx.Subscription
@@ -38,7 +39,8 @@ class MetadataServiceManagerActor @Inject() (
             private val backend: MidonetBackend,
             private val config: MidolmanConfig,
             private val plumber: Plumber,
-            private val datapathInterface: DatapathInterface
+            private val datapathInterface: DatapathInterface,
+            private val metrics: MetricRegistry
         ) extends ReactiveActor[LocalPortActive] with ActorLogWithoutPath {
     import context.system
 
@@ -55,7 +57,7 @@ class MetadataServiceManagerActor @Inject() (
         store = new StorageClient(backend.store)
         mdInfo = datapathInterface.init
         MetadataServiceWorkflow.mdInfo = mdInfo
-        Proxy start config
+        Proxy.start(config, metrics)
     }
 
     override def postStop(): Unit = {
@@ -102,6 +104,7 @@ class MetadataServiceManagerActor @Inject() (
 
                     plumber.unplumb(remoteAddr, info, mdInfo)
                     InstanceInfoMap removeByPortId portId
+                    Proxy invalidate info
                 case _ =>
                     log debug s"Non-compute port: $portId"
             }
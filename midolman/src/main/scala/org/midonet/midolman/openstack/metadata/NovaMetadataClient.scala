@@ -17,7 +17,15 @@
 package org.midonet.midolman.openstack.metadata
 
 import java.io.InputStream
+import java.util.concurrent.ConcurrentHashMap
 
+import scala.concurrent.duration._
+import scala.concurrent.{Await, Promise}
+import scala.util.control.NonFatal
+
+import com.codahale.metrics.MetricRegistry.name
+import com.codahale.metrics.RatioGauge.Ratio
+import com.codahale.metrics.{MetricRegistry, RatioGauge}
 import com.sun.jersey.api.client.config.DefaultClientConfig
 import com.sun.jersey.api.client.{Client, ClientResponse, UniformInterfaceException}
 import com.sun.jersey.core.impl.provider.entity.ByteArrayProvider
@@ -59,26 +67,90 @@ class NovaMetadataClientException(message: String)
 
 object NovaMetadataClient {
 
-    import Conv._
+    /** Timeout of the requests to the Nova metadata API, and of the wait
+      * of the requests coalesced with an in-flight request. */
+    final val RequestTimeout = 30 seconds
+
+    /** The maximum number of cached responses, above which the expired
+      * responses are evicted. */
+    final val MaxCachedResponses = 4096
+
+    private case class CacheKey(info: InstanceInfo, path: String)
+
+    private case class CachedResponse(data: String, expiresAt: Long)
 
     private def signInstanceId(sharedSecret: String,
                                instanceId: String): String =
         Hmac.hmac(sharedSecret, instanceId)
 
     private def readAll(stream: InputStream) = IOUtils.toByteArray(stream)
+}
+
+/**
+  * Proxies the metadata requests of the instances to the Nova metadata API.
+  *
+  * All requests share a single Jersey client, and the responses are always
+  * consumed and closed such that the connections to the Nova endpoint are
+  * kept alive and reused. Concurrent GET requests of the same instance for
+  * the same path are coalesced into a single upstream request, and the GET
+  * responses are cached for `cacheTtl`. The cache is keyed by the
+  * [[InstanceInfo]] found in the [[InstanceInfoMap]], such that an address
+  * reassigned to a different instance never sees the responses of the
+  * previous one, and the entries of an instance are dropped when its port
+  * becomes inactive. A zero TTL disables the cache.
+  */
+class NovaMetadataClient(novaMetadataUrl: String,
+                         sharedSecret: String,
+                         cacheTtl: Duration,
+                         metrics: MetricRegistry) {
+
+    import Conv._
+    import NovaMetadataClient._
+
+    private val client = {
+        val c = Client.create(new DefaultClientConfig(classOf[ByteArrayProvider]))
+        c.setConnectTimeout(RequestTimeout.toMillis.toInt)
+        c.setReadTimeout(RequestTimeout.toMillis.toInt)
+        c
+    }
+
+    private val cacheTtlNanos = cacheTtl.toNanos
+    private val cache = new ConcurrentHashMap[CacheKey, CachedResponse]
+    private val inFlight = new ConcurrentHashMap[CacheKey, Promise[String]]
+
+    private val cacheHits =
+        metrics.meter(name(classOf[NovaMetadataClient], "cache", "hits"))
+    private val cacheMisses =
+        metrics.meter(name(classOf[NovaMetadataClient], "cache", "misses"))
+    private val coalescedRequests =
+        metrics.meter(name(classOf[NovaMetadataClient], "requests", "coalesced"))
+    private val upstreamLatency =
+        metrics.timer(name(classOf[NovaMetadataClient], "upstream", "latency"))
+    private val hitRatioName =
+        name(classOf[NovaMetadataClient], "cache", "hitRatio")
+
+    metrics.remove(hitRatioName)
+    metrics.register(hitRatioName, new RatioGauge {
+        override def getRatio: Ratio = {
+            val hits = cacheHits.getOneMinuteRate
+            Ratio.of(hits, hits + cacheMisses.getOneMinuteRate)
+        }
+    })
 
     def proxyRequest(method: String,
                      path: String,
                      content: InputStream,
-                     remoteAddr: String,
-                     novaMetadataUrl: String,
-                     sharedSecret: String): String = {
+                     remoteAddr: String): String = {
         Log debug s"$method request from $remoteAddr for path $path"
         InstanceInfoMap getByAddr remoteAddr match {
             case Some(info) =>
                 Log debug s"Request matches instance $info"
-                proxyRequest(method, path, content,
-                             info, novaMetadataUrl, sharedSecret)
+                method match {
+                    case "GET" => get(CacheKey(info, path))
+                    case _ =>
+                        cache.remove(CacheKey(info, path))
+                        request(method, path, content, info)
+                }
             case None =>
                 /*
                  * This shouldn't happen normally as datapath flows are
@@ -90,15 +162,75 @@ object NovaMetadataClient {
         }
     }
 
-    private def proxyRequest(method: String,
-                     path: String,
-                     content: InputStream,
-                     info: InstanceInfo,
-                     novaMetadataUrl: String,
-                     sharedSecret: String): String = {
+    /**
+      * Drops the cached responses of the given instance.
+      */
+    def invalidate(info: InstanceInfo): Unit = {
+        val iterator = cache.keySet.iterator()
+        while (iterator.hasNext) {
+            if (iterator.next().info == info) iterator.remove()
+        }
+    }
+
+    def close(): Unit = {
+        metrics.remove(hitRatioName)
+        cache.clear()
+        client.destroy()
+    }
+
+    private def get(key: CacheKey): String = {
+        if (cacheTtlNanos > 0) {
+            val cached = cache.get(key)
+            if ((cached ne null) && cached.expiresAt - System.nanoTime() > 0) {
+                cacheHits.mark()
+                return cached.data
+            }
+            cacheMisses.mark()
+        }
+
+        val promise = Promise[String]()
+        val existing = inFlight.putIfAbsent(key, promise)
+        if (existing ne null) {
+            coalescedRequests.mark()
+            Log debug s"Coalescing request for instance:" +
+                      s"${key.info.instanceId} path:${key.path}"
+            return Await.result(existing.future, RequestTimeout)
+        }
+
+        try {
+            val data = request("GET", key.path, null, key.info)
+            if (cacheTtlNanos > 0) {
+                if (cache.size >= MaxCachedResponses) evictExpired()
+                cache.put(key, CachedResponse(data,
+                                              System.nanoTime() + cacheTtlNanos))
+            }
+            promise.success(data)
+            data
+        } catch {
+            case NonFatal(e) =>
+                promise.failure(e)
+                throw e
+        } finally {
+            inFlight.remove(key, promise)
+        }
+    }
+
+    private def evictExpired(): Unit = {
+        val now = System.nanoTime()
+        val iterator = cache.values.iterator()
+        while (iterator.hasNext) {
+            if (iterator.next().expiresAt - now <= 0) iterator.remove()
+        }
+        if (cache.size >= MaxCachedResponses) {
+            cache.clear()
+        }
+    }
+
+    private def request(method: String,
+                        path: String,
+                        content: InputStream,
+                        info: InstanceInfo): String = {
         val instanceIdSig = signInstanceId(sharedSecret, info.instanceId)
-        val cc = new DefaultClientConfig(classOf[ByteArrayProvider])
-        val client = Client.create(cc)
         val url = novaMetadataUrl + path
         Log debug s"$method request from instance:${info.instanceId} to $url"
 
@@ -107,8 +239,10 @@ object NovaMetadataClient {
             .header("X-Instance-ID", info.instanceId)
             .header("X-Instance-ID-Signature", instanceIdSig)
             .header("X-Forwarded-For", info.address)
+        val context = upstreamLatency.time()
+        var response: ClientResponse = null
         try {
-            val response = method match {
+            response = method match {
                 case "GET" => resource.get(classOf[ClientResponse])
                 // POST is used by nova blueprint get-password
                 // https://blueprints.launchpad.net/nova/+spec/get-password
@@ -138,6 +272,11 @@ object NovaMetadataClient {
                 Log error s"Unexpected HTTP response: $e for request: " +
                           s"$url $info"
                 throw e
+        } finally {
+            context.stop()
+            // Closing the response returns the connection to the keep-alive
+            // pool of the underlying HTTP client.
+            if (response ne null) response.close()
         }
     }
 }
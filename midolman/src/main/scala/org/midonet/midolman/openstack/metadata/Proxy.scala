@@ -20,6 +20,8 @@ import java.net.{InetAddress, InetSocketAddress}
 
 import scala.util.control.NonFatal
 
+import com.codahale.metrics.MetricRegistry
+
 import org.eclipse.jetty.server.Server
 
 import org.midonet.midolman.config.MidolmanConfig
@@ -32,18 +34,35 @@ object Proxy {
     final val Address = InetAddress getByName MetadataApi.Address
     final val Port = 9697  // REVISIT(yamamoto): should be a config?
     private var server: Server = _
+    @volatile private var client: NovaMetadataClient = _
 
-    def start(config: MidolmanConfig): Unit = {
+    def start(config: MidolmanConfig, metrics: MetricRegistry): Unit = {
         val sa = new InetSocketAddress(Address, Port)
         Log info s"Starting metadata proxy on $sa"
+        val c = new NovaMetadataClient(config.openstack.metadata.novaMetadataUrl,
+                                       config.openstack.metadata.sharedSecret,
+                                       config.openstack.metadata.cacheTtl,
+                                       metrics)
         val s = new Server(sa)
-        s.setHandler(new ProxyHandler(config))
+        s.setHandler(new ProxyHandler(c))
         try {
             s.start()
             server = s
+            client = c
         } catch {
             case NonFatal(e) =>
                 Log.error("Failed to start metadata proxy", e)
+                c.close()
+        }
+    }
+
+    /**
+      * Drops the cached metadata responses of the given instance.
+      */
+    def invalidate(info: InstanceInfo): Unit = {
+        val c = client
+        if (c ne null) {
+            c invalidate info
         }
     }
 
@@ -53,6 +72,8 @@ object Proxy {
             server.stop()
             server.join()
             server = null
+            client.close()
+            client = null
         }
     }
 }
@@ -23,21 +23,16 @@ import com.sun.jersey.api.client.UniformInterfaceException
 import org.eclipse.jetty.server.Request
 import org.eclipse.jetty.server.handler.AbstractHandler
 
-import org.midonet.midolman.config.MidolmanConfig
-
-class ProxyHandler(val config: MidolmanConfig) extends AbstractHandler {
+class ProxyHandler(val client: NovaMetadataClient) extends AbstractHandler {
 
     def handle(target: String, baseReq: Request, request: HttpServletRequest,
                response: HttpServletResponse) = {
         baseReq setHandled true
         try {
-            val result = NovaMetadataClient.proxyRequest(
-                                request.getMethod,
-                                request.getPathInfo,
-                                request.getInputStream,
-                                request.getRemoteAddr,
-                                config.openstack.metadata.novaMetadataUrl,
-                                config.openstack.metadata.sharedSecret)
+            val result = client.proxyRequest(request.getMethod,
+                                             request.getPathInfo,
+                                             request.getInputStream,
+                                             request.getRemoteAddr)
             response.getWriter print result
         } catch {
             case e: UniformInterfaceException =>
@@ -18,8 +18,7 @@ package org.midonet.midolman.routingprotocols
 import java.io.File
 import java.util.UUID
 
-import scala.collection.{breakOut, mutable}
-import scala.collection.mutable.ArrayBuffer
+import scala.collection.mutable
 import scala.concurrent.Future
 import scala.concurrent.duration._
 import scala.util.Try
@@ -115,6 +114,7 @@ object RoutingHandler {
     // BgpdProcess will notify via these messages
     case object FetchBgpdStatus
     case object SyncPeerRoutes
+    case object FlushLearnedRoutes
 
     case class PeerRoute(destination: IPv4Subnet, gateway: IPv4Addr)
 
@@ -292,6 +292,13 @@ abstract class RoutingHandler(var routerPort: RouterPort,
     protected final val bgpVtyPort = 2605 + bgpIdx
 
     private val peerRoutes = mutable.Map[Route, Route]()
+
+    // The changes to the learned routes that have not yet been written to
+    // storage. They are written as a batch when the number of pending routes
+    // reaches the batch size, or after the batch delay.
+    private val pendingGainedRoutes = mutable.LinkedHashSet[Route]()
+    private val pendingLostRoutes = mutable.LinkedHashSet[Route]()
+    private var scheduledFlush: Cancellable = null
     private var bgpConfig: BgpRouter = BgpRouter(-1)
     private var bgpPeerIds: Set[UUID] = Set.empty
 
@@ -375,6 +382,11 @@ abstract class RoutingHandler(var routerPort: RouterPort,
             syncPeerRoutes()
             Future.successful(true)
 
+        case FlushLearnedRoutes =>
+            scheduledFlush = null
+            flushLearnedRoutes()
+            Future.successful(true)
+
         /*
          * Publishes routes to a prefix.
          *
@@ -425,9 +437,12 @@ abstract class RoutingHandler(var routerPort: RouterPort,
             routesToDelete.headOption match {
                 case Some(route) => peerRoutes.remove(route) match {
                     case None => // route missing
+                    case Some(null) if pendingGainedRoutes.contains(route) =>
+                        forgetLearnedRoute(route) // route not yet written
                     case Some(null) => // route not published
                     case Some(r) =>
-                        handleLearnedRouteError(forgetLearnedRoute(r))
+                        forgetLearnedRoute(r)
+                        scheduleFlush()
                 }
                 case None =>
                     log.debug("No routes to delete. This is unexpected as " +
@@ -512,7 +527,9 @@ abstract class RoutingHandler(var routerPort: RouterPort,
             .getOrElse(checkBgpdHealth())
     }
 
-    private def forgetLearnedRoute(route: Route): Future[Route] = {
+    /** Forgets a learned route, which is removed from storage with the next
+      * batch. */
+    private def forgetLearnedRoute(route: Route): Unit = {
         log.debug(s"Forgetting learned route: " +
                   s"${route.getDstNetworkAddr}/${route.dstNetworkLength} " +
                   s"via ${route.getNextHopGateway}")
@@ -520,7 +537,10 @@ abstract class RoutingHandler(var routerPort: RouterPort,
             s"${route.getDstNetworkAddr}/${route.dstNetworkLength}")
         val nextHop = IPv4Addr.fromString(route.getNextHopGateway)
         peerRouteToPort.remove(PeerRoute(destination, nextHop))
-        routingStorage.removeRoute(route, routerPort.id)
+        // A route that was not yet written to storage is simply discarded.
+        if (!pendingGainedRoutes.remove(route)) {
+            pendingLostRoutes += route
+        }
     }
 
     private def makeRoute(destination: IPv4Subnet, path: ZebraPath): Route = {
@@ -555,16 +575,18 @@ abstract class RoutingHandler(var routerPort: RouterPort,
              if route.dstNetworkAddr == destination.getAddress.toInt &&
                  route.dstNetworkLength == destination.getPrefixLen &&
                  !newRoutes.contains(route) &&
-                 (peerRoutes(route) ne null)) {
-            lostRoutes.append(peerRoutes(route))
-            peerRoutes.remove(route)
+                 ((peerRoutes(route) ne null) ||
+                  pendingGainedRoutes.contains(route))) {
+            lostRoutes.append(route)
         }
 
-        val gainedRoutes = mutable.Buffer[Route]()
+        for (lost <- lostRoutes) {
+            peerRoutes.remove(lost)
+            forgetLearnedRoute(lost)
+        }
         for (gained <- newRoutes if !peerRoutes.contains(gained)) {
             if (peerRoutes.size < config.router.maxBgpPeerRoutes) {
-                gainedRoutes.append(gained)
-                peerRoutes.put(gained, null)
+                publishLearnedRoute(gained)
             } else {
                 log.warn("Max number of peer routes reached " +
                          s"(${config.router.maxBgpPeerRoutes}), please check " +
@@ -572,30 +594,80 @@ abstract class RoutingHandler(var routerPort: RouterPort,
             }
         }
 
-        handleLearnedRouteError {
-            val futures = new ArrayBuffer[Future[Route]]()
-            for (gained <- gainedRoutes) {
-                futures += publishLearnedRoute(gained)
-            }
-            for (lost <- lostRoutes) {
-                futures += forgetLearnedRoute(lost)
-            }
-            Future.sequence(futures)(breakOut, singleThreadExecutionContext)
-        }
-
-
+        scheduleFlush()
     }
 
-    private def publishLearnedRoute(route: Route): Future[Route] = {
+    /** Publishes a learned route, which is added to storage with the next
+      * batch. */
+    private def publishLearnedRoute(route: Route): Unit = {
         log.debug(s"Publishing learned route: " +
                   s"${route.getDstNetworkAddr}/${route.dstNetworkLength} " +
                   s"via ${route.getNextHopGateway}")
 
-        peerRoutes.put(route, null)
-        routingStorage.addRoute(route, routerPort.id).map { _ =>
+        if (pendingLostRoutes.remove(route)) {
+            // The route was not yet removed from storage.
             peerRoutes.put(route, route)
-            route
+        } else {
+            peerRoutes.put(route, null)
+            pendingGainedRoutes += route
+        }
+    }
+
+    /** Writes the pending learned routes immediately if the batch is full or
+      * if batching is disabled, or otherwise schedules writing them after the
+      * batch delay. */
+    private def scheduleFlush(): Unit = {
+        val pending = pendingGainedRoutes.size + pendingLostRoutes.size
+        if (pending == 0) {
+            return
+        }
+        val delay = config.router.bgpRouteBatchDelay
+        if (pending >= config.router.bgpRouteBatchSize || delay.length <= 0) {
+            flushLearnedRoutes()
+        } else if (scheduledFlush eq null) {
+            scheduledFlush = context.system.scheduler.scheduleOnce(
+                delay, self, FlushLearnedRoutes)(context.dispatcher)
+        }
+    }
+
+    /** Writes the pending learned routes to storage. */
+    private def flushLearnedRoutes(): Unit = {
+        if (scheduledFlush ne null) {
+            scheduledFlush.cancel()
+            scheduledFlush = null
+        }
+        if (pendingGainedRoutes.isEmpty && pendingLostRoutes.isEmpty) {
+            return
+        }
+        val gained = pendingGainedRoutes.toList
+        val lost = pendingLostRoutes.toList
+        pendingGainedRoutes.clear()
+        pendingLostRoutes.clear()
+
+        log.debug(s"Writing ${gained.size} gained and ${lost.size} lost " +
+                  "learned routes")
+        handleLearnedRouteError {
+            writeLearnedRoutes(gained, lost)
+        }
+    }
+
+    private def writeLearnedRoutes(gained: Seq[Route], lost: Seq[Route])
+    : Future[Seq[Seq[Route]]] = {
+        val added = routingStorage.addRoutes(gained, routerPort.id).map { routes =>
+            for (route <- routes) {
+                if (peerRoutes.contains(route)) {
+                    peerRoutes.put(route, route)
+                } else {
+                    // The route was withdrawn while being written.
+                    pendingLostRoutes += route
+                }
+            }
+            scheduleFlush()
+            routes
         }(singleThreadExecutionContext)
+        val removed = routingStorage.removeRoutes(lost, routerPort.id)
+        Future.sequence(Seq(added, removed))(implicitly,
+                                             singleThreadExecutionContext)
     }
 
     private def syncPeerRoutes(): Unit = {
@@ -603,17 +675,15 @@ abstract class RoutingHandler(var routerPort: RouterPort,
             routingStorage.learnedRoutes(routerPort.deviceId, routerPort.id, routerPort.hostId)
                           .flatMap {
                 learnedRoutes =>
-                val futures = new ArrayBuffer[Future[Route]]()
-                // Delete routes we don't have anymore
-                for (route <- learnedRoutes if !peerRoutes.contains(route)) {
-                    futures += forgetLearnedRoute(route)
-                }
-                // Add routes that were not published
-                for ((routeKey, routeValue) <- peerRoutes
-                     if routeValue eq null) {
-                    futures += publishLearnedRoute(routeKey)
-                }
-                Future.sequence(futures)(breakOut, singleThreadExecutionContext)
+                // Delete routes we don't have anymore, and add routes that
+                // were not published, including the pending ones.
+                val lost = learnedRoutes.filterNot(peerRoutes.contains).toSeq
+                val gained = peerRoutes.collect {
+                    case (routeKey, routeValue) if routeValue eq null => routeKey
+                }.toSeq
+                pendingGainedRoutes.clear()
+                pendingLostRoutes --= lost
+                writeLearnedRoutes(gained, lost)
             }(singleThreadExecutionContext)
         }
     }
@@ -824,14 +894,12 @@ abstract class RoutingHandler(var routerPort: RouterPort,
         log.debug("Stopping BGP daemon")
         bgpd.stop()
         invalidateFlows()
-        handleLearnedRouteError {
-            val futures = new ArrayBuffer[Future[Route]]()
-            for (route <- peerRoutes.values) {
-                futures += forgetLearnedRoute(route)
-            }
-            Future.sequence(futures)(breakOut, singleThreadExecutionContext)
+        for (route <- peerRoutes.values if route ne null) {
+            forgetLearnedRoute(route)
         }
         peerRoutes.clear()
+        pendingGainedRoutes.clear()
+        flushLearnedRoutes()
         removeDpPort()
     }
 
@@ -17,6 +17,7 @@ package org.midonet.midolman.routingprotocols
 
 import java.util.UUID
 
+import scala.collection.JavaConverters._
 import scala.collection.mutable
 import scala.concurrent.{ExecutionContext, Future, Promise}
 import scala.concurrent.duration._
@@ -27,12 +28,12 @@ import akka.util.Timeout
 
 import com.google.inject.Inject
 
-import rx.Subscription
+import rx.{Observable, Subscription}
 import rx.subscriptions.CompositeSubscription
 
 import org.midonet.cluster.backend.zookeeper.ZkConnectionProvider.BGP_ZK_INFRA
 import org.midonet.cluster.backend.zookeeper.{ZkConnection, ZkConnectionAwareWatcher, ZkConnectionProvider}
-import org.midonet.cluster.data.storage.StateStorage
+import org.midonet.cluster.data.storage.{StateResult, StateStorage}
 import org.midonet.cluster.models.Topology.{Port, ServiceContainer}
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.services.MidonetBackend.BgpKey
@@ -50,7 +51,7 @@ import org.midonet.midolman.topology.devices._
 import org.midonet.midolman.topology.{VirtualToPhysicalMapper, VirtualTopology}
 import org.midonet.midolman.{DatapathState, Referenceable, SimulationBackChannel}
 import org.midonet.util.concurrent.ReactiveActor._
-import org.midonet.util.concurrent.{ReactiveActor, toFutureOps}
+import org.midonet.util.concurrent.{CallingThreadExecutionContext, ReactiveActor, toFutureOps}
 import org.midonet.util.eventloop.{Reactor, SelectLoop}
 import org.midonet.util.functors._
 import org.midonet.util.reactivex._
@@ -63,15 +64,41 @@ object RoutingManagerActor extends Referenceable {
     case class BgpContainerReady(portId: UUID)
     case class StopBgpHandlers()
 
+    private final val MaxConcurrentBatches = 8
+
     private[routingprotocols] trait RoutingStorage {
         def setStatus(portId: UUID, status: String): Future[UUID]
         def addRoute(route: Route, portId: UUID): Future[Route]
         def removeRoute(route: Route, portId: UUID): Future[Route]
         def learnedRoutes(routerId: UUID, portId: UUID, hostId: UUID)
         : Future[Set[Route]]
+
+        /** Adds a batch of routes to the specified port. The default
+          * implementation adds the routes one at a time. */
+        def addRoutes(routes: Seq[Route], portId: UUID): Future[Seq[Route]] = {
+            Future.sequence(routes.map(addRoute(_, portId)))(
+                implicitly, CallingThreadExecutionContext)
+        }
+
+        /** Removes a batch of routes from the specified port. The default
+          * implementation removes the routes one at a time. */
+        def removeRoutes(routes: Seq[Route], portId: UUID): Future[Seq[Route]] = {
+            Future.sequence(routes.map(removeRoute(_, portId)))(
+                implicitly, CallingThreadExecutionContext)
+        }
     }
 
-    private[routingprotocols] class RoutingStorageImpl(storage: StateStorage)
+    /**
+      * Implements the [[RoutingStorage]] using the state storage. The batch
+      * operations split the routes in batches of at most `batchSize` routes,
+      * and write every batch to storage with a single multi-operation, such
+      * that a batch requires one write to the storage quorum instead of one
+      * write per route. At most [[MaxConcurrentBatches]] batches are written
+      * concurrently, such that a large number of routes does not flood the
+      * storage with requests.
+      */
+    private[routingprotocols] class RoutingStorageImpl(storage: StateStorage,
+                                                       batchSize: Int)
         extends RoutingStorage {
         override def setStatus(portId: UUID, status: String): Future[UUID] = {
             storage.addValue(classOf[Port], portId, BgpKey, status)
@@ -92,6 +119,31 @@ object RoutingManagerActor extends Referenceable {
         : Future[Set[Route]] = {
             storage.getPortRoutes(portId, hostId).asFuture
         }
+        override def addRoutes(routes: Seq[Route], portId: UUID)
+        : Future[Seq[Route]] = {
+            batch(routes) { routes =>
+                storage.addRoutes(routes, portId)
+            }
+        }
+        override def removeRoutes(routes: Seq[Route], portId: UUID)
+        : Future[Seq[Route]] = {
+            batch(routes) { routes =>
+                storage.removeRoutes(routes, portId)
+            }
+        }
+
+        private def batch(routes: Seq[Route])
+                         (op: Seq[Route] => Observable[StateResult])
+        : Future[Seq[Route]] = {
+            val writes = Observable.from(
+                routes.grouped(batchSize).map[Observable[Seq[Route]]] { routes =>
+                    op(routes).map[Seq[Route]](makeFunc1(_ => routes))
+                }.toSeq.asJava)
+            Observable.merge[Seq[Route]](writes, MaxConcurrentBatches)
+                      .toList
+                      .map[Seq[Route]](makeFunc1(_.asScala.flatten))
+                      .asFuture
+        }
     }
 
     private case class HandlerStop(portId: UUID, value: Boolean)
@@ -297,7 +349,8 @@ class RoutingManagerActor extends ReactiveActor[AnyRef]
     override def preStart(): Unit = {
         super.preStart()
         selfRefPromise trySuccess self
-        routingStorage = new RoutingStorageImpl(backend.stateStore)
+        routingStorage = new RoutingStorageImpl(backend.stateStore,
+                                                config.router.bgpRouteBatchSize)
 
         portsSubscription add VirtualToPhysicalMapper.portsActive.subscribe(this)
     }
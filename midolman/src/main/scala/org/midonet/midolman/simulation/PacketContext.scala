@@ -38,10 +38,11 @@ import org.midonet.odp.flows.FlowActions._
 import org.midonet.odp.flows.{FlowAction, FlowActions, FlowKeys}
 import org.midonet.packets._
 import org.midonet.packets.util.PacketBuilder._
-import org.midonet.sdn.flows.FlowTagger.{FlowStateTag, FlowTag}
+import org.midonet.sdn.flows.FlowTagger.{DeviceTag, FlowStateTag, FlowTag}
 import org.midonet.sdn.flows.VirtualAction.{Decap, Encap}
 import org.midonet.util.Clearable
 import org.midonet.util.collection.ArrayListUtil
+import org.midonet.util.concurrent.NanoClock
 import org.midonet.util.functors.Callback0
 import org.midonet.util.logging.Logger
 
@@ -384,6 +385,99 @@ trait Fip64TranslationContext extends Clearable {
     }
 }
 
+trait StageTimingContext extends Clearable {
+    // Indicates whether the duration of the pipeline stages is measured for
+    // this packet. Only a sample of the packets is timed, such that the cost
+    // for the other packets is a single branch.
+    var stageTimed = false
+    // The timestamp at the beginning of the current pipeline stage.
+    var stageStartNanos = 0L
+
+    /**
+      * Marks the beginning of a pipeline stage, if this packet is timed.
+      */
+    def beginStage(): Unit = {
+        if (stageTimed)
+            stageStartNanos = NanoClock.DEFAULT.tick
+    }
+
+    /**
+      * Returns the duration in nanoseconds of the current pipeline stage, or
+      * -1 if this packet is not timed.
+      */
+    def endStage(): Long = {
+        if (stageTimed) NanoClock.DEFAULT.tick - stageStartNanos
+        else -1L
+    }
+
+    def resetStageTimingContext(): Unit = {
+        stageTimed = false
+        stageStartNanos = 0L
+    }
+}
+
+object DeviceProfilingContext {
+    final val MaxProfiledDevices = 64
+}
+
+trait DeviceProfilingContext extends Clearable {
+    import DeviceProfilingContext._
+
+    // Indicates whether the simulation cost of the virtual devices is
+    // profiled for this packet. Only a sample of the packets is profiled,
+    // such that the cost for the other packets is a single branch.
+    var deviceProfiled = false
+    // Indicates whether the simulation of a profiled packet is running.
+    var deviceProfiling = false
+
+    // The device tags in the order the devices were traversed during the
+    // last simulation, and the time at which each device was entered.
+    val profiledDevices = new Array[DeviceTag](MaxProfiledDevices)
+    val profiledNanos = new Array[Long](MaxProfiledDevices + 1)
+    var profiledCount = 0
+
+    /**
+      * Marks the beginning of a simulation, if this packet is profiled.
+      */
+    def beginDeviceProfile(): Unit = {
+        if (deviceProfiled) {
+            deviceProfiling = true
+            profiledCount = 0
+        }
+    }
+
+    /**
+      * Records that the simulation entered a virtual device, identified by
+      * its device tag.
+      */
+    def profileDevice(tag: DeviceTag): Unit = {
+        if (profiledCount < MaxProfiledDevices) {
+            profiledDevices(profiledCount) = tag
+            profiledNanos(profiledCount) = NanoClock.DEFAULT.tick
+            profiledCount += 1
+        }
+    }
+
+    /**
+      * Marks the end of a simulation, such that the time after the last
+      * device was entered is attributed to that device.
+      */
+    def endDeviceProfile(): Unit = {
+        if (deviceProfiling) {
+            deviceProfiling = false
+            profiledNanos(profiledCount) = NanoClock.DEFAULT.tick
+        }
+    }
+
+    def resetDeviceProfilingContext(): Unit = {
+        deviceProfiled = false
+        deviceProfiling = false
+        Arrays.fill(profiledDevices.asInstanceOf[Array[AnyRef]], 0,
+                    profiledCount, null)
+        profiledCount = 0
+    }
+}
+
 /**
  * The PacketContext represents the simulation of a packet traversing the
  * virtual topology. Since a simulation runs-to-completion, always in the
@@ -396,6 +490,8 @@ class PacketContext extends Clearable
         with RedirectContext
         with Fip64TranslationContext
         with RecordedContext
+        with StageTimingContext
+        with DeviceProfilingContext
         with StateContext {
     var log = PacketContext.defaultLog
 
@@ -449,6 +545,14 @@ class PacketContext extends Clearable
 
     def cookieStr = s"[cookie:$cookie]"
 
+    override def addFlowTag(tag: FlowTag): Unit = {
+        flowTags.add(tag)
+        if (deviceProfiling) tag match {
+            case deviceTag: DeviceTag => profileDevice(deviceTag)
+            case _ =>
+        }
+    }
+
     def prepare(cookie: Long,
                 packet: Packet,
                 origMatch: FlowMatch,
@@ -482,6 +586,8 @@ class PacketContext extends Clearable
         resetRecordedContext()
         resetStateContext()
         resetFip64TranslationContext()
+        resetStageTimingContext()
+        resetDeviceProfilingContext()
 
         this.log = PacketContext.defaultLog
         this.idle = true
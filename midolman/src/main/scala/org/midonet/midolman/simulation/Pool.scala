@@ -22,10 +22,11 @@ import java.util.{Objects, UUID}
 import org.midonet.midolman.state.NatState.NatKey
 import org.midonet.midolman.state.l4lb.{PoolLBMethod, SessionPersistence}
 import org.midonet.midolman.topology.VirtualTopology.VirtualDevice
+import org.midonet.odp.FlowMatch
 import org.midonet.packets.{ICMP, IPAddr}
 import org.midonet.packets.NatState
 import org.midonet.sdn.flows.FlowTagger
-import org.midonet.util.collection.WeightedSelector
+import org.midonet.util.collection.{MaglevSelector, WeightedSelector}
 
 object Pool {
     def findPoolMember(ip: IPAddr, port: Int, pmArray: Array[PoolMember])
@@ -39,6 +40,23 @@ object Pool {
         }
         false
     }
+
+    /**
+     * Computes the hash used to select a pool member with the consistent
+     * hash method. The hash only depends on packet fields, such that any
+     * agent selects the same member for the same connection, or for the
+     * same source IP address when the pool uses sticky source IP.
+     */
+    def connectionHash(fmatch: FlowMatch, stickySourceIP: Boolean): Int = {
+        var hash = fmatch.getNetworkSrcIP.hashCode
+        if (!stickySourceIP) {
+            hash = 31 * hash + fmatch.getNetworkDstIP.hashCode
+            hash = 31 * hash + fmatch.getNetworkProto
+            hash = 31 * hash + fmatch.getSrcPort
+            hash = 31 * hash + fmatch.getDstPort
+        }
+        hash
+    }
 }
 
 final class Pool(val id: UUID, val adminStateUp: Boolean,
@@ -56,8 +74,15 @@ final class Pool(val id: UUID, val adminStateUp: Boolean,
 
     val isUp = adminStateUp && activePoolMembers.nonEmpty
 
-    private val memberSelector = if (!isUp) null
-                                 else WeightedSelector(activePoolMembers)
+    private val isConsistentHash = lbMethod == PoolLBMethod.CONSISTENT_HASH
+
+    private val memberSelector =
+        if (!isUp || isConsistentHash) null
+        else WeightedSelector(activePoolMembers)
+
+    private val memberHashSelector =
+        if (!isUp || !isConsistentHash) null
+        else MaglevSelector(activePoolMembers, (m: PoolMember) => m.id)
 
     /**
      * Choose an active pool member and apply DNAT to the packetContext
@@ -66,6 +91,11 @@ final class Pool(val id: UUID, val adminStateUp: Boolean,
      * If an existing NAT mapping is present, we respect that instead of mapping
      * to a new backend, in order to maintain existing connections.
      *
+     * With the consistent hash method, the pool member is a function of the
+     * connection 5-tuple (or of the source IP for sticky source IP), such
+     * that connections are preserved even when the NAT mapping is lost, for
+     * example after the failover to another agent.
+     *
      * Return action based on outcome: ACCEPT if loadbalanced successfully,
      * DROP if no active pool member is available.
      */
@@ -76,7 +106,12 @@ final class Pool(val id: UUID, val adminStateUp: Boolean,
         context.addFlowTag(deviceTag)
 
         if (isUp) {
-            val member = memberSelector.select()
+            val member =
+                if (isConsistentHash)
+                    memberHashSelector.select(
+                        Pool.connectionHash(context.wcmatch, stickySourceIP))
+                else
+                    memberSelector.select()
             if (context.log.underlying.isDebugEnabled) {
                 context.log.debug(s"Selected member $member out of {}",
                                   activePoolMembers.mkString(", "))
@@ -61,10 +61,15 @@ object Simulator {
     def simulate(context: PacketContext): Result = {
         context.log.debug("Simulating packet")
         SimulationStashes.reUpStashes()
-        if (context.ingressed)
-            tryGet(classOf[Port], context.inputPort).ingress(context)
-        else
-            tryGet(classOf[Port], context.egressPort).egress(context)
+        context.beginDeviceProfile()
+        try {
+            if (context.ingressed)
+                tryGet(classOf[Port], context.inputPort).ingress(context)
+            else
+                tryGet(classOf[Port], context.egressPort).egress(context)
+        } finally {
+            context.endDeviceProfile()
+        }
     }
 
 }
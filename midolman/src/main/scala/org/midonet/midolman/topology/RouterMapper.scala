@@ -25,16 +25,17 @@ import scala.collection.JavaConverters._
 import scala.collection.mutable
 
 import rx.Observable
-import rx.subjects.{PublishSubject, Subject}
+import rx.subjects.{BehaviorSubject, PublishSubject, Subject}
 
 import org.midonet.cluster.data.ZoomConvert
+import org.midonet.cluster.data.storage.ObjectUpdates
 import org.midonet.cluster.models.Commons.IPVersion
 import org.midonet.cluster.models.Topology.{Route => TopologyRoute, Router => TopologyRouter}
 import org.midonet.cluster.state.RoutingTableStorage._
 import org.midonet.cluster.util.UUIDUtil._
 import org.midonet.midolman.CallbackRegistry
 import org.midonet.midolman.CallbackRegistry.{CallbackSpec, SerializableCallback}
-import org.midonet.midolman.layer3.{IPv4RoutingTable, Route}
+import org.midonet.midolman.layer3.{PersistentRoutingTable, Route}
 import org.midonet.midolman.simulation.Router.{Config, RoutingTable, TagManager}
 import org.midonet.midolman.simulation.{Chain, LoadBalancer, Mirror, RouterPort, Router => SimulationRouter}
 import org.midonet.midolman.SimulationBackChannel.{BackChannelMessage, Broadcast}
@@ -79,14 +80,12 @@ object RouterMapper {
         @Nullable private var currentPort: RouterPort = null
         private val mark = PublishSubject.create[RouteUpdates]
 
-        private val routes = new mutable.HashMap[UUID, RouteState]
-        private val routesSubject = PublishSubject
-            .create[Observable[RouteUpdates]]
+        private val routes = new RoutesState(vt, log)
 
-        // Caches the current routes for this port. Each route state emits route
-        // updates that include both the added and removed route. The routes
-        // cache merge these updates into the set of current routes for this
-        // port.
+        // Caches the current routes for this port. The routes state emits
+        // route updates that include both the added and removed routes. The
+        // routes cache merge these updates into the set of current routes for
+        // this port.
         private val routesCache = new mutable.HashSet[Route]
 
         private val portStateSubject = PublishSubject.create[UUID]
@@ -95,8 +94,7 @@ object RouterMapper {
         private val portObservable = VirtualTopology
             .observable(classOf[RouterPort], portId)
             .map[RouteUpdates](makeFunc1(portUpdated))
-        private val routesObservable = Observable
-            .merge(routesSubject)
+        private val routesObservable = routes.observable
             .map[RouteUpdates](makeFunc1(routeUpdated))
         private val learnedRoutesObservable = vt.stateStore
             .portRoutesObservable(portId, portStateSubject)
@@ -113,7 +111,7 @@ object RouterMapper {
         //             +-------------+                     |
         //                    | route added/removed        |
         //                    |          +--------------+  |
-        //              routesSubject -> | routeUpdated |--+-> route updates
+        //        Store[Routes batch] -> | routeUpdated |--+-> route updates
         //                               +--------------+  |
         //                                                 |
         //                        +----------------------+ |
@@ -132,16 +130,14 @@ object RouterMapper {
         def complete(): RouteUpdates = {
             if ((currentPort ne null) && currentPort.isL2)
                 vniMap.remove(currentPort.vni)
-            routes.foreach(_._2.complete())
-            routesSubject.onCompleted()
+            routes.complete()
             mark.onCompleted()
 
             RouteUpdates(EmptyRouteSet, publishedRoutes)
         }
         /** Indicates whether the port state has received the port data. */
         def isReady: Boolean = {
-            (currentPort ne null) && portStateReady &&
-            routes.forall(_._2.isReady)
+            (currentPort ne null) && portStateReady && routes.isReady
         }
 
         /**
@@ -175,37 +171,18 @@ object RouterMapper {
 
             currentPort = port
 
-            val removedRoutes = new mutable.HashSet[Route]
             val currentRoutesSet = routesCache.toSet
 
-            // Remove the state for the routes that are no longer part of this
-            // port.
-            for ((routeId, routeState) <- routes.toList
-                 if !port.routeIds.contains(routeId)) {
-                routes -= routeId
-                if (routeState.isReady && (routeState.route ne Route6)) {
-                    removedRoutes += routeState.route
-                    routesCache -= routeState.route
-                }
-                routeState.complete()
-            }
-
-            // Add the state for the new routes of this port, and notify its
-            // observable on the routes observable.
-            val addedRoutes = new mutable.MutableList[RouteState]
-            for (routeId <- port.routeIds if !routes.contains(routeId)) {
-                val routeState = new RouteState(routeId, vt, log)
-                routes += routeId -> routeState
-                addedRoutes += routeState
-            }
-            for (routeState <- addedRoutes) {
-                routesSubject onNext routeState.observable
-            }
+            // Update the routes of this port: the routes no longer part of
+            // the port are removed, and the new routes are added to the
+            // routes observable.
+            val removedRoutes = routes.request(port.routeIds)
+            routesCache --= removedRoutes
 
             if (oldPublish && newPublish) {
                 // If the port previously published the updates, publish only
                 // the difference.
-                RouteUpdates(EmptyRouteSet, removedRoutes.toSet)
+                RouteUpdates(EmptyRouteSet, removedRoutes)
             } else if (!oldPublish && newPublish) {
                 // If the port did not previously publish routes, but does so
                 // now publish all routes.
@@ -214,7 +191,7 @@ object RouterMapper {
                 // If the port did previously publish routes, but does not now,
                 // remove all routes.
                 RouteUpdates(EmptyRouteSet,
-                             currentRoutesSet ++ removedRoutes.toSet)
+                             currentRoutesSet ++ removedRoutes)
             } else {
                 // The port does not publishes routes.
                 EmptyRouteUpdates
@@ -281,61 +258,104 @@ object RouterMapper {
     }
 
     /**
-     * Stores the state for a route, and exposes an [[Observable]] that emits
-     * updates when the route has changed. The observable completes either when
-     * the route is deleted, or when calling the complete() method, which is
-     * used to signal that the route is no longer used by the router or port.
+     * Stores the state for the routes of a router or a router port, and
+     * exposes an [[Observable]] that emits route updates when any of these
+     * routes has changed. Instead of subscribing to one observable per route,
+     * the routes are tracked with a single storage observable for the whole
+     * set, which coalesces the notifications of all routes into batches
+     * emitted on the VT scheduler, such that a router with a large number of
+     * routes processes one routing table update per batch. The observable
+     * completes when calling the complete() method.
      */
-    private class RouteState(val routeId: UUID, vt: VirtualTopology,
-                             log: Logger) {
+    private class RoutesState(vt: VirtualTopology, log: Logger) {
 
-        @Nullable private var currentRoute: Route = null
-        private val mark = PublishSubject.create[RouteUpdates]
+        // Maps the route identifiers to the last route published for each
+        // route, or null if the route was not received yet. IPv6 routes and
+        // ignored routes are mapped to the Route6 sentinel.
+        private val routes = new mutable.HashMap[UUID, Route]
+        private val idsSubject = BehaviorSubject.create[Set[UUID]](Set.empty)
 
-        val observable = vt.store.observable(classOf[TopologyRoute], routeId)
-            .observeOn(vt.vtScheduler)
-            .flatMap[RouteUpdates](makeFunc1(routeUpdated))
-            .onErrorResumeNext(makeFunc1(routeError))
-            .takeUntil(mark)
+        val observable = vt.store
+            .objectsObservable(classOf[TopologyRoute], idsSubject,
+                               vt.vtScheduler)
+            .map[RouteUpdates](makeFunc1(routesUpdated))
 
-        /** Completes the observable corresponding to this route state. */
-        def complete(): Unit = mark.onCompleted()
-        /** Gets the last route published by this route state. */
-        @Nullable def route: Route = currentRoute
-        /** Indicates whether the route state has received the route data. */
-        def isReady: Boolean = currentRoute ne null
-
-        /** Generates a route update when the route changes. */
-        private def routeUpdated(tr: TopologyRoute): Observable[RouteUpdates] = {
-            if (!isIp4(tr)) {
-                log.debug(s"Route $routeId is IPv6: ignoring")
-                currentRoute = Route6
-                return Observable.just(EmptyRouteUpdates)
+        /** Completes the observable corresponding to this routes state. */
+        def complete(): Unit = idsSubject.onCompleted()
+
+        /** Indicates whether the routes state has received all routes. */
+        def isReady: Boolean = routes.forall(_._2 ne null)
+
+        /** Updates the set of routes, and returns the routes no longer part of
+          * the set that were previously published. */
+        def request(routeIds: Set[UUID]): Set[Route] = {
+            val removed = new mutable.HashSet[Route]
+            for ((routeId, route) <- routes.toList
+                 if !routeIds.contains(routeId)) {
+                routes -= routeId
+                if ((route ne null) && (route ne Route6)) {
+                    removed += route
+                }
             }
+            for (routeId <- routeIds if !routes.contains(routeId)) {
+                routes += routeId -> null
+            }
+            idsSubject onNext routeIds
+            removed.toSet
+        }
 
-            val route = ZoomConvert.fromProto(tr, classOf[Route])
-            log.debug("Route updated: {}", route)
+        /** Generates the route updates for a batch of route notifications.
+          * The routes whose observable emitted an error are removed, if
+          * previously published, and are ignored afterwards. */
+        private def routesUpdated(updates: ObjectUpdates[TopologyRoute])
+        : RouteUpdates = {
+            vt.assertThread()
 
-            val updateObservable =
-                if (route != currentRoute)
-                    Observable.just(RouteUpdates(routeAsSet(route),
-                                                 routeAsSet(currentRoute)))
-                else Observable.empty[RouteUpdates]
+            val added = new mutable.HashSet[Route]
+            val removed = new mutable.HashSet[Route]
 
-            currentRoute = route
+            def replace(routeId: UUID, route: Route): Unit = {
+                routes.get(routeId) match {
+                    case Some(currentRoute) if currentRoute != route =>
+                        if ((currentRoute ne null) && (currentRoute ne Route6))
+                            removed += currentRoute
+                        if (route ne Route6)
+                            added += route
+                        routes.update(routeId, route)
+                    case _ =>
+                }
+            }
 
-            updateObservable
-        }
+            for ((id, tr) <- updates.updated) {
+                val routeId = id.asInstanceOf[UUID]
+                if (isIp4(tr)) {
+                    val route = ZoomConvert.fromProto(tr, classOf[Route])
+                    log.debug("Route updated: {}", route)
+                    replace(routeId, route)
+                } else {
+                    log.debug(s"Route $routeId is IPv6: ignoring")
+                    replace(routeId, Route6)
+                }
+            }
+            // A deleted route is removed when it is removed from the route
+            // identifiers of its router or port.
+            for (id <- updates.deleted) {
+                log.debug(s"Route $id deleted")
+            }
+            for ((id, e) <- updates.failed) {
+                val routeId = id.asInstanceOf[UUID]
+                log.warn(s"Update stream emitted error for route $routeId: " +
+                         s"the route will be ignored", e)
+                if (routes.get(routeId).exists(_ ne null)) {
+                    replace(routeId, Route6)
+                }
+            }
 
-        /** Handles the error emitted by the route observable by filtering
-          * all errors, logging the error, and if the route is ready advertise
-          * its removal. */
-        private def routeError(e: Throwable): Observable[RouteUpdates] = {
-            log.warn(s"Update stream emitted error for route $routeId: the " +
-                     s"route will be ignored", e)
-            if (isReady) Observable.just(RouteUpdates(EmptyRouteSet,
-                                                      routeAsSet(currentRoute)))
-            else Observable.empty()
+            // A route that changed within the batch is both removed and added.
+            val unchanged = added intersect removed
+            if (added.isEmpty && removed.isEmpty) EmptyRouteUpdates
+            else RouteUpdates(added.toSet -- unchanged,
+                              removed.toSet -- unchanged)
         }
 
         /**
@@ -382,17 +402,13 @@ object RouterMapper {
 
     /**
      * Provides an implementation for a router's [[RoutingTable]], wrapping an
-     * underlying IPv4 routing table.
+     * immutable IPv4 routing table. Since the table never changes, the router
+     * devices built from different versions of the table do not share any
+     * mutable state.
      */
-    private class RouterRoutingTable(routes: mutable.Set[Route])
+    private class RouterRoutingTable(ipv4RoutingTable: PersistentRoutingTable)
         extends RoutingTable {
 
-        private val ipv4RoutingTable = new IPv4RoutingTable()
-
-        for (route <- routes) {
-            ipv4RoutingTable.addRoute(route)
-        }
-
         override def lookup(flowMatch: FlowMatch): java.util.List[Route] = {
             ipv4RoutingTable.lookup(
                 flowMatch.getNetworkSrcIP.asInstanceOf[IPv4Addr],
@@ -406,12 +422,6 @@ object RouterMapper {
                 log.underlying)
         }
     }
-
-    /** Converts a nullable route to a [[Set]]. */
-    @inline
-    private def routeAsSet(route: Route) = {
-        if (route ne null) Set(route) else EmptyRouteSet
-    }
 }
 
 /**
@@ -441,10 +451,11 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
     private val ports = new mutable.HashMap[UUID, PortState]
     private var loadBalancer: LoadBalancerState = null
     // Stores all routes received via notifications from the replicated routing
-    // table.
-    private val routes = new mutable.HashSet[Route]
+    // table. The table is immutable and updated incrementally, such that each
+    // route update only copies the trie nodes on the path to the route.
+    private var routingTable = PersistentRoutingTable.EMPTY
     // Stores routes received via the router's configuration in storage.
-    private val localRoutes = new mutable.HashMap[UUID, RouteState]
+    private val localRoutes = new RoutesState(vt, log)
     private var arpCache: ArpCache = null
     private var traceChain: Option[UUID] = None
     private val vniToPort = new mutable.HashMap[Int, UUID]
@@ -467,8 +478,6 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
         PublishSubject.create[Config]
     private lazy val portRoutesSubject =
         PublishSubject.create[Observable[RouteUpdates]]
-    private lazy val routesSubject =
-        PublishSubject.create[Observable[RouteUpdates]]
     private lazy val loadBalancerSubject =
         PublishSubject.create[Observable[LoadBalancer]]
 
@@ -481,8 +490,7 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
     private lazy val portRoutesObservable = Observable
         .merge(portRoutesSubject)
         .map[Config](makeFunc1(routingTableUpdated))
-    private lazy val routesObservable = Observable
-        .merge(routesSubject)
+    private lazy val routesObservable = localRoutes.observable
         .map[Config](makeFunc1(routingTableUpdated))
     private lazy val arpTableObservable = ArpCache
         .createAsObservable(vt, routerId, log)
@@ -504,7 +512,7 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
     //         Add/remove routes                      |    |  |  |           |
     //         +-------------------------------------------+  |  |           |
     //         |              +--------------------+  |       |  |           |
-    // Obs[Obs[RouteUpdate]]->| map(routesUpdated) |--+       |  |           |
+    // Store[Routes batch]--->| map(routesUpdated) |--+       |  |           |
     //                        +--------------------+  |       |  |           |
     //         Add/remove load balancer               |       |  |           |
     //         +----------------------------------------------+  |           |
@@ -548,7 +556,7 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
         ready = (config ne null) &&
                 (arpCache ne null) &&
                 (if (loadBalancer ne null) loadBalancer.isReady else true) &&
-                ports.forall(_._2.isReady) && localRoutes.forall(_._2.isReady) &&
+                ports.forall(_._2.isReady) && localRoutes.isReady &&
                 chainsTracker.areRefsReady && mirrorsTracker.areRefsReady && isTracingReady
         log.debug("Router ready: {} ", Boolean.box(ready))
         ready
@@ -670,26 +678,11 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
             loadBalancerSubject onNext loadBalancer.observable
         }
 
-        // Remove any local routes no longer part of the router's configuration
-        for ((routeId, routeState) <- localRoutes.toList
-             if !routeIds.contains(routeId)) {
-            localRoutes -= routeId
-            if (routeState.isReady) {
-                routingTableUpdated(RouteUpdates(EmptyRouteSet,
-                                                 Set(routeState.route)))
-            }
-            routeState.complete()
-        }
-        // Add any routes present in the router's configuration, and not part of
-        // the local routes map.
-        val addedRoutes = new mutable.MutableList[RouteState]
-        for (routeId <- routeIds if !localRoutes.contains(routeId)) {
-            val routeState = new RouteState(routeId, vt, log)
-            localRoutes += routeId -> routeState
-            addedRoutes += routeState
-        }
-        for (routeState <- addedRoutes) {
-            routesSubject onNext routeState.observable
+        // Update the local routes with the routes present in the router's
+        // configuration, and remove any local routes no longer part of it.
+        val removedRoutes = localRoutes.request(routeIds)
+        if (removedRoutes.nonEmpty) {
+            routingTableUpdated(RouteUpdates(EmptyRouteSet, removedRoutes))
         }
 
         // Update the router configuration.
@@ -717,8 +710,8 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
                   routeUpdates.removed)
         assertThread()
         // Update the current routes.
-        routes ++= routeUpdates.added
-        routes --= routeUpdates.removed
+        routingTable = routingTable.update(routeUpdates.added.asJava,
+                                           routeUpdates.removed.asJava)
         vt.tellBackChannel(InvalidateFlows(
             id, routeUpdates.added, routeUpdates.removed))
         config
@@ -769,12 +762,13 @@ final class RouterMapper(routerId: UUID, vt: VirtualTopology,
         val device = new SimulationRouter(
             routerId,
             config2,
-            new RouterRoutingTable(routes),
+            new RouterRoutingTable(routingTable),
             tagManager,
             vniToPort.asJava,
             arpCache,
             vt.config.fip64)
-        log.debug("Build router: {} {}", device, routes)
+        log.debug("Build router: {} with {} routes", device,
+                  Int.box(routingTable.size))
 
         device
     }
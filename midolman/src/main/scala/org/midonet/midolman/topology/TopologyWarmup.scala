@@ -0,0 +1,212 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.topology
+
+import java.util.UUID
+import java.util.concurrent.TimeoutException
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+import scala.concurrent.duration._
+import scala.concurrent.{Await, Future}
+import scala.util.control.NonFatal
+
+import org.midonet.cluster.models.Commons
+import org.midonet.cluster.models.Topology.{Chain => TopologyChain, Host => TopologyHost, IPAddrGroup => TopologyIPAddrGroup, Network => TopologyNetwork, Port => TopologyPort, PortGroup => TopologyPortGroup, Router => TopologyRouter, Rule => TopologyRule}
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.midolman.logging.MidolmanLogging
+import org.midonet.midolman.simulation.{Bridge, Chain, IPAddrGroup, Port, PortGroup, Router}
+import org.midonet.util.concurrent.CallingThreadExecutionContext
+
+object TopologyWarmup {
+
+    /** Maps the storage classes of the virtual topology devices to the
+      * corresponding device classes. The other storage classes, such as
+      * rules, are only traversed to find the devices they reference. */
+    private val DeviceClasses = Map[Class[_], Class[_ <: VirtualTopology.Device]](
+        classOf[TopologyPort] -> classOf[Port],
+        classOf[TopologyNetwork] -> classOf[Bridge],
+        classOf[TopologyRouter] -> classOf[Router],
+        classOf[TopologyChain] -> classOf[Chain],
+        classOf[TopologyPortGroup] -> classOf[PortGroup],
+        classOf[TopologyIPAddrGroup] -> classOf[IPAddrGroup])
+
+}
+
+/**
+  * Pre-loads in the virtual topology the devices reachable from the ports
+  * bound to the given host, such that the first packets after the agent
+  * starts do not wait in the waiting room for the device mappers. The
+  * warm-up runs in two phases:
+  *
+  *  1. It traverses the topology in storage breadth-first, starting from the
+  *     host's bound ports, following the references between ports, bridges,
+  *     routers, chains, rules, port groups and IP address groups. All objects
+  *     of a level are read concurrently, which is cheap when the storage is
+  *     backed by the initial topology snapshot.
+  *  2. It requests all discovered devices from the virtual topology at once,
+  *     such that their mappers load in parallel, and waits until all devices
+  *     are available, failed, or the timeout expires.
+  *
+  * The traversal stops after discovering `maxDevices` devices. Failures are
+  * logged and ignored, since the devices are loaded on demand anyway.
+  */
+class TopologyWarmup(vt: VirtualTopology, hostId: UUID, maxDevices: Int,
+                     timeout: Duration)
+    extends MidolmanLogging {
+
+    import TopologyWarmup._
+
+    override def logSource = "org.midonet.devices.warmup"
+
+    private implicit val ec = CallingThreadExecutionContext
+
+    private val visited = new mutable.HashSet[(Class[_], UUID)]
+    private var deviceCount = 0
+
+    /**
+      * Runs the warm-up, and returns the number of devices loaded in the
+      * virtual topology.
+      */
+    def run(): Int = {
+        val start = System.nanoTime()
+        val deadline = timeout.fromNow
+        try {
+            val devices = discover(deadline)
+            val discovered = System.nanoTime()
+            log.debug(s"Discovered ${devices.size} devices reachable from " +
+                      s"host $hostId in ${(discovered - start) / 1000000} ms")
+
+            val loaded = load(devices, deadline)
+            val time = System.nanoTime() - start
+            vt.metrics.warmup(loaded, time)
+            log.info(s"Topology warm-up loaded $loaded of ${devices.size} " +
+                     s"devices in ${time / 1000000} ms")
+            loaded
+        } catch {
+            case e: TimeoutException =>
+                log.warn(s"Topology warm-up did not complete in $timeout")
+                0
+            case NonFatal(e) =>
+                log.warn("Topology warm-up failed", e)
+                0
+        }
+    }
+
+    /** Traverses the topology in storage, and returns the devices reachable
+      * from the host. */
+    private def discover(deadline: Deadline)
+    : Seq[(Class[_ <: VirtualTopology.Device], UUID)] = {
+        val devices = new mutable.ArrayBuffer[(Class[_ <: VirtualTopology.Device], UUID)]
+        var level: Seq[(Class[_], UUID)] = Seq((classOf[TopologyHost], hostId))
+
+        while (level.nonEmpty) {
+            val objects = Await.result(Future.sequence(level.map {
+                case (clazz, id) =>
+                    vt.store.get(clazz.asInstanceOf[Class[Any]], id)
+                        .map[Option[Any]](Option(_)).recover {
+                            case NonFatal(e) =>
+                                log.debug(s"Cannot read " +
+                                          s"${clazz.getSimpleName} $id: " +
+                                          s"${e.getMessage}")
+                                None
+                        }
+            }), deadline.timeLeft)
+
+            val next = new mutable.ArrayBuffer[(Class[_], UUID)]
+            for (obj <- objects.flatten; ref <- references(obj)
+                 if !visited.contains(ref)) {
+                DeviceClasses.get(ref._1) match {
+                    case Some(deviceClass) if deviceCount < maxDevices =>
+                        visited += ref
+                        devices += deviceClass -> ref._2
+                        deviceCount += 1
+                        next += ref
+                    case Some(_) =>
+                    case None =>
+                        visited += ref
+                        next += ref
+                }
+            }
+            level = next
+        }
+        devices
+    }
+
+    /** Requests all devices from the virtual topology, and returns the number
+      * of devices loaded. */
+    private def load(devices: Seq[(Class[_ <: VirtualTopology.Device], UUID)],
+                     deadline: Deadline): Int = {
+        val futures = devices.map { case (clazz, id) =>
+            vt.get(clazz, id).map(_ => 1).recover {
+                case NonFatal(e) =>
+                    log.debug(s"Cannot load ${clazz.getSimpleName} $id: " +
+                              s"${e.getMessage}")
+                    0
+            }
+        }
+        Await.result(Future.sequence(futures), deadline.timeLeft).sum
+    }
+
+    /** Returns the objects referenced by a storage object, that may be
+      * required to simulate packets traversing that object. */
+    private def references(obj: Any): Seq[(Class[_], UUID)] = {
+        val refs = new mutable.ArrayBuffer[(Class[_], UUID)]
+        def add(clazz: Class[_], id: Commons.UUID): Unit = refs += clazz -> id.asJava
+        def addAll(clazz: Class[_], ids: java.util.List[Commons.UUID]): Unit =
+            ids.asScala.foreach(add(clazz, _))
+
+        obj match {
+            case host: TopologyHost =>
+                addAll(classOf[TopologyPort], host.getPortIdsList)
+            case port: TopologyPort =>
+                if (port.hasNetworkId) add(classOf[TopologyNetwork], port.getNetworkId)
+                if (port.hasRouterId) add(classOf[TopologyRouter], port.getRouterId)
+                if (port.hasPeerId) add(classOf[TopologyPort], port.getPeerId)
+                if (port.hasInboundFilterId) add(classOf[TopologyChain], port.getInboundFilterId)
+                if (port.hasOutboundFilterId) add(classOf[TopologyChain], port.getOutboundFilterId)
+                if (port.hasL2InsertionInfilterId) add(classOf[TopologyChain], port.getL2InsertionInfilterId)
+                if (port.hasL2InsertionOutfilterId) add(classOf[TopologyChain], port.getL2InsertionOutfilterId)
+                addAll(classOf[TopologyPortGroup], port.getPortGroupIdsList)
+            case network: TopologyNetwork =>
+                if (network.hasInboundFilterId) add(classOf[TopologyChain], network.getInboundFilterId)
+                if (network.hasOutboundFilterId) add(classOf[TopologyChain], network.getOutboundFilterId)
+                addAll(classOf[TopologyPort], network.getPortIdsList)
+            case router: TopologyRouter =>
+                if (router.hasInboundFilterId) add(classOf[TopologyChain], router.getInboundFilterId)
+                if (router.hasOutboundFilterId) add(classOf[TopologyChain], router.getOutboundFilterId)
+                if (router.hasLocalRedirectChainId) add(classOf[TopologyChain], router.getLocalRedirectChainId)
+                if (router.hasForwardChainId) add(classOf[TopologyChain], router.getForwardChainId)
+                addAll(classOf[TopologyPort], router.getPortIdsList)
+            case chain: TopologyChain =>
+                addAll(classOf[TopologyRule], chain.getRuleIdsList)
+            case rule: TopologyRule =>
+                if (rule.hasJumpRuleData && rule.getJumpRuleData.hasJumpChainId)
+                    add(classOf[TopologyChain], rule.getJumpRuleData.getJumpChainId)
+                if (rule.hasCondition) {
+                    val cond = rule.getCondition
+                    if (cond.hasIpAddrGroupIdSrc) add(classOf[TopologyIPAddrGroup], cond.getIpAddrGroupIdSrc)
+                    if (cond.hasIpAddrGroupIdDst) add(classOf[TopologyIPAddrGroup], cond.getIpAddrGroupIdDst)
+                    if (cond.hasPortGroupId) add(classOf[TopologyPortGroup], cond.getPortGroupId)
+                    if (cond.hasInPortGroupId) add(classOf[TopologyPortGroup], cond.getInPortGroupId)
+                    if (cond.hasOutPortGroupId) add(classOf[TopologyPortGroup], cond.getOutPortGroupId)
+                }
+            case _ =>
+        }
+        refs
+    }
+}
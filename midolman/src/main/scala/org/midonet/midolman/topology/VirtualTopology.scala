@@ -15,12 +15,14 @@
  */
 package org.midonet.midolman.topology
 
-import java.util.UUID
+import java.nio.file.Paths
+import java.util.{Date, UUID}
 import java.util.concurrent.atomic.AtomicLong
 import java.util.concurrent.{ConcurrentHashMap, ExecutorService, TimeUnit}
 
 import scala.collection.mutable
 import scala.concurrent.Future
+import scala.concurrent.duration._
 import scala.util.control.NonFatal
 
 import com.codahale.metrics.MetricRegistry
@@ -36,7 +38,8 @@ import org.midonet.cluster.data.storage.cached.{StorageWrapper, TopologyCacheCli
 import org.midonet.cluster.data.storage.{StateStorage, StateTableStorage, Storage}
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.services.discovery.{MidonetDiscoverySelector, MidonetServiceURI}
-import org.midonet.cluster.topology.snapshot.{TopologySnapshot, TopologySnapshotDeserializer}
+import org.midonet.cluster.topology.snapshot.{TopologySnapshot, TopologySnapshotDeserializer, TopologySnapshotStore}
+import org.midonet.conf.HostIdGenerator
 import org.midonet.midolman.SimulationBackChannel.BackChannelMessage
 import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.logging.MidolmanLogging
@@ -245,6 +248,12 @@ class VirtualTopology(val backend: MidonetBackend,
 
     private var snapshot: TopologySnapshot = _
 
+    private val snapshotStore = {
+        val path = config.initialStorageCache.persistentPath
+        if ((path eq null) || path.isEmpty) null
+        else new TopologySnapshotStore(Paths.get(path))
+    }
+
     private def snapshotAvailable = config.initialStorageCache.enabled &&
                                     (snapshot ne null)
 
@@ -257,37 +266,9 @@ class VirtualTopology(val backend: MidonetBackend,
     protected override def doStart(): Unit = {
         log.debug("Starting Virtual Topology service")
         snapshot = if (config.initialStorageCache.enabled) {
-            try {
-                val client = backend.discovery.getClient[MidonetServiceURI](
-                    serviceName = "topology-cache")
-                val discoverySelector = MidonetDiscoverySelector
-                    .roundRobin[MidonetServiceURI](client)
-                val cacheClient = new TopologyCacheClientDiscovery(
-                    discoverySelector,
-                    None)
-                val init = System.nanoTime()
-
-                retry(log.underlying, "Fetch topology snapshot from cluster") {
-                    val snapshotArray = cacheClient.fetch()
-                    val elapsedReceived = (System.nanoTime() - init) / 1000000
-                    log.debug("Topology snapshot received from cluster " +
-                              s"in $elapsedReceived ms.")
-
-                    val snapshotDecoded = new TopologySnapshotDeserializer()
-                        .deserialize(snapshotArray)
-                    val elapsedDecoded =
-                        ((System.nanoTime() - init) / 1000000) - elapsedReceived
-                    log.debug(s"Topology snapshot decoded in $elapsedDecoded ms.")
-                    snapshotDecoded
-                }
-            } catch {
-                case NonFatal(e) =>
-                    log.warn("Unable to get topology snapshot from cluster", e)
-                    null
-            }
+            loadSnapshot()
         } else null
 
-
         store = if (snapshotAvailable) {
             val wrapper = new StorageWrapper(config.initialStorageCache.ttlMs,
                                              backend.store,
@@ -303,6 +284,10 @@ class VirtualTopology(val backend: MidonetBackend,
         stateStore = backend.stateStore
 
         stateTables = backend.stateTableStore
+
+        if (snapshotAvailable && config.initialStorageCache.warmupEnabled) {
+            warmup()
+        }
         notifyStarted()
     }
 
@@ -310,6 +295,98 @@ class VirtualTopology(val backend: MidonetBackend,
         notifyStopped()
     }
 
+    /** Loads the initial topology snapshot. If the local copy of the snapshot
+      * is younger than the maximum age, the agent uses the local copy and it
+      * refreshes the copy from the cluster in the background. Otherwise, the
+      * agent requests the snapshot from the cluster, and it uses the local
+      * copy of any age only if the cluster cannot provide a snapshot. */
+    private[topology] def loadSnapshot(): TopologySnapshot = {
+        val local =
+            if (snapshotStore ne null) snapshotStore.read() else None
+        local match {
+            case Some(stored) if System.currentTimeMillis() - stored.timestamp <=
+                                 config.initialStorageCache.persistentMaxAgeMs =>
+                log.info("Using local topology snapshot from " +
+                         s"${new Date(stored.timestamp)}")
+                executeIo { fetchSnapshot() }
+                stored.snapshot
+            case _ =>
+                val fetched = fetchSnapshot()
+                if ((fetched eq null) && local.isDefined) {
+                    log.warn("Topology snapshot unavailable from cluster: " +
+                             "using local topology snapshot from " +
+                             s"${new Date(local.get.timestamp)}")
+                    local.get.snapshot
+                } else {
+                    fetched
+                }
+        }
+    }
+
+    /** Requests the topology snapshot from the cluster, and stores a local
+      * copy of the snapshot. Returns `null` if the cluster cannot provide a
+      * snapshot. */
+    protected def fetchSnapshot(): TopologySnapshot = {
+        try {
+            val client = backend.discovery.getClient[MidonetServiceURI](
+                serviceName = "topology-cache")
+            val discoverySelector = MidonetDiscoverySelector
+                .roundRobin[MidonetServiceURI](client)
+            val cacheClient = new TopologyCacheClientDiscovery(
+                discoverySelector,
+                None)
+            val init = System.nanoTime()
+
+            retry(log.underlying, "Fetch topology snapshot from cluster") {
+                val snapshotArray = cacheClient.fetch()
+                val elapsedReceived = (System.nanoTime() - init) / 1000000
+                log.debug("Topology snapshot received from cluster " +
+                          s"in $elapsedReceived ms.")
+
+                val snapshotDecoded = new TopologySnapshotDeserializer()
+                    .deserialize(snapshotArray)
+                val elapsedDecoded =
+                    ((System.nanoTime() - init) / 1000000) - elapsedReceived
+                log.debug(s"Topology snapshot decoded in $elapsedDecoded ms.")
+                storeSnapshot(snapshotArray)
+                snapshotDecoded
+            }
+        } catch {
+            case NonFatal(e) =>
+                log.warn("Unable to get topology snapshot from cluster", e)
+                null
+        }
+    }
+
+    /** Writes the local copy of a snapshot received from the cluster on the
+      * IO executor. */
+    private def storeSnapshot(data: Array[Byte]): Unit = {
+        if (snapshotStore ne null) {
+            executeIo {
+                try {
+                    snapshotStore.write(data, System.currentTimeMillis())
+                } catch {
+                    case NonFatal(e) =>
+                        log.warn("Unable to store local topology snapshot", e)
+                }
+            }
+        }
+    }
+
+    /** Loads the devices reachable from the ports bound to this host from
+      * the topology snapshot, before the agent starts processing packets. */
+    private def warmup(): Unit = {
+        try {
+            new TopologyWarmup(
+                this, HostIdGenerator.getHostId,
+                config.initialStorageCache.warmupMaxDevices,
+                config.initialStorageCache.warmupTimeoutMs millis).run()
+        } catch {
+            case NonFatal(e) =>
+                log.warn("Cannot warm-up the virtual topology", e)
+        }
+    }
+
     private def observableOf[D <: Device](clazz: Class[D], id: UUID)
     : Observable[D] = {
         val factory = factories.getOrElse(
@@ -42,7 +42,12 @@ import org.midonet.util.logging.Logger
  * distribute shards among threads in a way that results in no keyspace overlap.
  *
  * Gets, on the other hand, will fall back to the parent and the other shards
- * if a key is not found locally.
+ * if a key is not found locally. When `adoptsSharedEntries` is set, a ref on
+ * a shard for a key found only in another shard adopts the entry in the local
+ * shard, such that a connection whose packets move to a different thread
+ * keeps its state referenced by the flows of the new owner, while the
+ * previous owner releases its own entry when its flows expire. It should be
+ * set only when the packets of a connection may move between threads.
  *
  * unref() calls may require coordination, but they are meant to happen in an
  * external thread or pool, not a shard-owning thread.
@@ -53,6 +58,9 @@ abstract class BaseShardedFlowStateTable[K <: IdleExpiration, V >: Null]
     private val shards = new ArrayList[FlowStateShard]()
     private val SHARD_NONE: Int = -1
 
+    /** Whether a ref on a shard adopts the entries of the other shards. */
+    @volatile var adoptsSharedEntries = false
+
     private val defaultLogger =
         Logger(LoggerFactory.getLogger("org.midonet.state.table"))
 
@@ -91,7 +99,7 @@ abstract class BaseShardedFlowStateTable[K <: IdleExpiration, V >: Null]
     override def ref(key: K): V = {
         var i = 0
         while (i < shards.size) {
-            val v = shards.get(i).ref(key)
+            val v = shards.get(i).map.ref(key)
             if (v != null)
                 return v
             i += 1
@@ -179,8 +187,19 @@ abstract class BaseShardedFlowStateTable[K <: IdleExpiration, V >: Null]
         def shallowGet(key: K): V =
             map.get(key)
 
-        override def ref(key: K): V =
-            map.ref(key)
+        override def ref(key: K): V = {
+            val v = map.ref(key)
+            if ((v != null) || !adoptsSharedEntries) {
+                v
+            } else {
+                val shared = BaseShardedFlowStateTable.this.get(key, workerId)
+                if (shared != null) {
+                    log.debug(s"Adopting flow state key $key from another shard")
+                    map.putAndRef(key, shared)
+                }
+                shared
+            }
+        }
 
         override def getRefCount(key: K): Int =
             map.refCount(key)
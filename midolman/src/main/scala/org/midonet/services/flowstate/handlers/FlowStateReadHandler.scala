@@ -209,10 +209,12 @@ class FlowStateReadHandler(context: Context)
         var next = reader.read()
         while (next.isDefined) {
             val sbeRaw = next.get.flowStateBuffer.byteArray()
-            val f = writeAndFlushWithHeader(ctx, sbeRaw)
             outstandingBytes += sbeRaw.length
 
+            // Flush the socket once per MaxOutstandingBytes instead of once
+            // per message, and continue after the flushed data is written.
             if (outstandingBytes > MaxOutstandingBytes) {
+                val f = writeAndFlushWithHeader(ctx, sbeRaw)
                 f.addListener(
                     (f: GenFuture) => {
                         try {
@@ -227,6 +229,7 @@ class FlowStateReadHandler(context: Context)
                         })
                 return // don't write eof
             } else {
+                writeWithHeader(ctx, sbeRaw)
                 next = reader.read()
             }
         }
@@ -268,6 +271,14 @@ class FlowStateReadHandler(context: Context)
         }
     }
 
+    // Helper to write an array to the stream prepending its size, without
+    // flushing the stream
+    private def writeWithHeader(ctx: ChannelHandlerContext,
+                                data: Array[Byte]): ChannelFuture = {
+        ctx.write(copyInt(data.size))
+        ctx.write(copiedBuffer(data))
+    }
+
     // Helper to send an array through the stream prepending its size
     private def writeAndFlushWithHeader(ctx: ChannelHandlerContext,
                                         data: Array[Byte]): ChannelFuture = {
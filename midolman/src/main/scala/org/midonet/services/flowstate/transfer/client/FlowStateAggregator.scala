@@ -29,13 +29,19 @@ import org.midonet.packets.SbeEncoder
   * Translates flow state SbeEncoder responses to internally used FlowStateBatch
   * objects. For performance the object is constructed in a pipeline, and since
   * many keys could be repeated, we can also get better memory usage.
+  *
+  * When a chunk size is given, the aggregator hands the state to `onChunk`
+  * every time it holds that many entries and starts a new batch, such that
+  * the receiver can import the state incrementally while the transfer is in
+  * progress. The last, partial, chunk is returned by [[batch()]].
   */
-class FlowStateAggregator {
+class FlowStateAggregator(chunkSize: Int = Int.MaxValue,
+                          onChunk: FlowStateBatch => Unit = _ => ()) {
 
-    val strongConnTrack = new JHashSet[ConnTrackKey]()
-    val weakConnTrack = new JHashSet[ConnTrackKey]()
-    val strongNat = new JHashMap[NatKey, NatBinding]()
-    val weakNat = new JHashMap[NatKey, NatBinding]()
+    var strongConnTrack = new JHashSet[ConnTrackKey]()
+    var weakConnTrack = new JHashSet[ConnTrackKey]()
+    var strongNat = new JHashMap[NatKey, NatBinding]()
+    var weakNat = new JHashMap[NatKey, NatBinding]()
 
     def push(sbe: SbeEncoder): Unit = {
         val message = sbe.flowStateMessageDecoder
@@ -56,8 +62,19 @@ class FlowStateAggregator {
 
             strongNat.put(natKey, natBinding)
         }
+
+        if (size >= chunkSize) {
+            onChunk(batch())
+            strongConnTrack = new JHashSet[ConnTrackKey]()
+            weakConnTrack = new JHashSet[ConnTrackKey]()
+            strongNat = new JHashMap[NatKey, NatBinding]()
+            weakNat = new JHashMap[NatKey, NatBinding]()
+        }
     }
 
+    def size: Int =
+        strongConnTrack.size + weakConnTrack.size + strongNat.size + weakNat.size
+
     def batch() =
         FlowStateBatch(strongConnTrack, weakConnTrack, strongNat, weakNat)
 }
@@ -25,6 +25,7 @@ import scala.util.control.NonFatal
 
 import org.midonet.cluster.flowstate.FlowStateTransfer.{StateRequest, StateResponse}
 import org.midonet.cluster.util.UUIDUtil.fromProto
+import org.midonet.midolman.HostRequestProxy.FlowStateBatch
 import org.midonet.midolman.config.FlowStateConfig
 import org.midonet.packets.SbeEncoder
 import org.midonet.services.flowstate.transfer.StateTransferProtocolBuilder._
@@ -83,8 +84,17 @@ trait FlowStateRequestClient extends DefaultRetriable
 class FlowStateInternalClient(override val flowStateConfig: FlowStateConfig)
      extends FlowStateRequestClient {
 
-    def remoteFlowStateFrom(host: String, portId: UUID) = {
-        val aggregator = new FlowStateAggregator
+    /**
+      * Requests the flow state of a port previously owned by a remote host.
+      * The state is handed to `onChunk` in chunks of the configured transfer
+      * chunk size as it is received, and the remaining state is returned when
+      * the transfer completes. Since the request is retried from the start on
+      * failure, a chunk may be handed more than once.
+      */
+    def remoteFlowStateFrom(host: String, portId: UUID,
+                            onChunk: FlowStateBatch => Unit = _ => ()) = {
+        val aggregator = new FlowStateAggregator(
+            flowStateConfig.transferChunkSize, onChunk)
 
         try retry(log.underlying,
                   s"Request flow state to $host for port $portId") {
@@ -116,8 +126,15 @@ class FlowStateInternalClient(override val flowStateConfig: FlowStateConfig)
         aggregator.batch()
     }
 
-    def internalFlowStateFrom(portId: UUID) = {
-        val aggregator = new FlowStateAggregator
+    /**
+      * Requests the flow state of a port from the local flow state minion,
+      * handing the state to `onChunk` as it is received like
+      * [[remoteFlowStateFrom()]].
+      */
+    def internalFlowStateFrom(portId: UUID,
+                              onChunk: FlowStateBatch => Unit = _ => ()) = {
+        val aggregator = new FlowStateAggregator(
+            flowStateConfig.transferChunkSize, onChunk)
         var socket: Socket = null
 
         try retry(log.underlying,
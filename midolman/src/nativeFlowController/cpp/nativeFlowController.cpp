@@ -147,7 +147,8 @@ Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTagIndexerIndexFlowT
   auto indexer = reinterpret_cast<FlowTagIndexer*>(pointer);
   auto tagCount = env->GetArrayLength(tagsArray);
   jlong *elements = env->GetLongArrayElements(tagsArray, 0);
-  std::vector<FlowTag> tags(tagCount);
+  std::vector<FlowTag> tags;
+  tags.reserve(tagCount);
   for (int i = 0; i < tagCount; i++) {
     tags.push_back(elements[i]);
   }
@@ -162,32 +163,17 @@ Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTagIndexerRemoveFlow
   indexer->remove_flow(flow);
 }
 
-jlong
+jlongArray
 Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTagIndexerInvalidate
 (JNIEnv *env, jclass, jlong pointer, jlong tag) {
   auto indexer = reinterpret_cast<FlowTagIndexer*>(pointer);
-  auto invalids = new std::vector<FlowId>(indexer->invalidate(tag));
-  return reinterpret_cast<jlong>(invalids);
-}
-
-jlong
-Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTagIndexerInvalidFlowsCount
-(JNIEnv *env, jclass, jlong invalidPointer) {
-  auto invalids = reinterpret_cast<std::vector<FlowId>*>(invalidPointer);
-  return invalids->size();
-}
-
-jlong Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTagIndexerInvalidFlowsGet
-(JNIEnv *env, jclass, jlong invalidPointer, jint index) {
-  auto invalids = reinterpret_cast<std::vector<FlowId>*>(invalidPointer);
-  return invalids->at(index);
-}
-
-void
-Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowTagIndexerInvalidFlowsFree
-(JNIEnv *env, jclass, jlong invalidPointer) {
-  auto invalids = reinterpret_cast<std::vector<FlowId>*>(invalidPointer);
-  delete invalids;
+  auto invalids = indexer->invalidate(tag);
+  jlongArray ids = env->NewLongArray(invalids.size());
+  if (!invalids.empty()) {
+    env->SetLongArrayRegion(ids, 0, invalids.size(),
+                            reinterpret_cast<const jlong*>(invalids.data()));
+  }
+  return ids;
 }
 
 jlong
@@ -203,11 +189,18 @@ Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowExpirationIndexerEnq
   expirer->enqueue_flow_expiration(id, expiration, expirationType);
 }
 
-jlong
+jint
 Java_org_midonet_midolman_flows_NativeFlowControllerJNI_flowExpirationIndexerPollForExpired
-(JNIEnv *env, jclass, jlong pointer, jlong now) {
+(JNIEnv *env, jclass, jlong pointer, jlong now, jlongArray expiredArray) {
   auto expirer = reinterpret_cast<FlowExpirationIndexer*>(pointer);
-  return expirer->poll_for_expired(now);
+  auto max_count = env->GetArrayLength(expiredArray);
+  std::vector<FlowId> expired(max_count);
+  auto count = expirer->poll_for_expired(now, expired.data(), max_count);
+  if (count > 0) {
+    env->SetLongArrayRegion(expiredArray, 0, count,
+                            reinterpret_cast<const jlong*>(expired.data()));
+  }
+  return count;
 }
 
 jlong
@@ -39,6 +39,19 @@ FlowId FlowExpirationIndexer::poll_for_expired(long long now) {
   }
 }
 
+int FlowExpirationIndexer::poll_for_expired(long long now, FlowId* expired,
+                                            int max_count) {
+  int count = 0;
+  while (count < max_count) {
+    FlowId flow_id = poll_for_expired(now);
+    if (flow_id == NULL_ID) {
+      break;
+    }
+    expired[count++] = flow_id;
+  }
+  return count;
+}
+
 FlowId FlowExpirationIndexer::evict_flow() {
   return poll_for_expired(std::numeric_limits<long long>::max());
 }
@@ -109,3 +109,24 @@ TEST(FlowExpirationIndexer, test_evict_flows) {
   ASSERT_EQ(expirer->evict_flow(), 2);
   ASSERT_EQ(expirer->evict_flow(), NULL_ID);
 }
+
+TEST(FlowExpirationIndexer, test_poll_expired_batch) {
+  FlowExpirationIndexer *expirer = new FlowExpirationIndexer();
+  FlowId expired[2];
+
+  long long now = 0;
+
+  expirer->enqueue_flow_expiration(10, now+error_exp, error_type);
+  expirer->enqueue_flow_expiration(20, now+flow_exp, flow_type);
+  expirer->enqueue_flow_expiration(30, now+stateful_exp, stateful_type);
+  expirer->enqueue_flow_expiration(40, now+tunnel_exp, tunnel_type);
+
+  now += duration_cast<nanoseconds>(minutes(1)).count();
+
+  ASSERT_EQ(expirer->poll_for_expired(now, expired, 2), 2);
+  ASSERT_EQ(expired[0], 10);
+  ASSERT_EQ(expired[1], 20);
+  ASSERT_EQ(expirer->poll_for_expired(now, expired, 2), 1);
+  ASSERT_EQ(expired[0], 30);
+  ASSERT_EQ(expirer->poll_for_expired(now, expired, 2), 0);
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.cluster
+
+import java.util.UUID
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+
+import scala.collection.JavaConverters._
+import scala.concurrent.duration._
+import scala.util.Random
+
+import com.codahale.metrics.MetricRegistry
+import com.typesafe.config.ConfigFactory
+
+import org.apache.curator.framework.{CuratorFramework, CuratorFrameworkFactory}
+import org.apache.curator.retry.RetryNTimes
+import org.openjdk.jmh.annotations._
+import org.slf4j.LoggerFactory
+
+import rx.{Observable, Observer}
+
+import org.midonet.cluster.backend.zookeeper.SessionUnawareConnectionWatcher
+import org.midonet.cluster.data.storage.KeyType._
+import org.midonet.cluster.data.storage.metrics.StorageMetrics
+import org.midonet.cluster.data.storage.{StateResult, ZookeeperObjectMapper}
+import org.midonet.cluster.models.Topology.Port
+import org.midonet.cluster.services.MidonetBackend._
+import org.midonet.cluster.state.RoutingTableStorage._
+import org.midonet.cluster.storage.{CuratorZkConnection, MidonetBackendConfig}
+import org.midonet.cluster.topology.TopologyBuilder
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.midolman.layer3.Route
+import org.midonet.midolman.layer3.Route.NextHop
+import org.midonet.util.eventloop.CallingThreadReactor
+import org.midonet.util.reactivex._
+
+import ch.qos.logback.classic.Logger
+
+/**
+ * Measures the time until the learned routes of a router port converge, that
+ * is from the moment the routes are written to storage until an observer of
+ * the port routing table receives all routes. The routes are written in
+ * batches of `batchSize` routes, with at most `concurrentBatches` batches
+ * in flight, similar to the routing handler, either as one multi-operation
+ * per batch or as one storage operation per route.
+ */
+@BenchmarkMode(Array(Mode.SingleShotTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(0)
+@State(Scope.Benchmark)
+class RoutingTableConvergenceBenchmark extends TopologyBuilder {
+
+    private final val zkServer = "127.0.0.1:2181"
+    private final val zkRoot = "/midonet/benchmark"
+    private final val hostId = UUID.randomUUID()
+    private final val config = new MidonetBackendConfig(ConfigFactory.parseString(
+        s"""
+           |zookeeper.zookeeper.root_key=$zkRoot
+           |zookeeper.transaction_cache_size=0
+        """.stripMargin))
+
+    private val reactor = new CallingThreadReactor
+    private var curator: CuratorFramework = _
+    private var storage: ZookeeperObjectMapper = _
+
+    private val random = new Random
+    private val retryPolicy = new RetryNTimes(2, 1000)
+    private val cnxnTimeoutMs = 2000
+    private val sessionTimeoutMs = 30000
+    private final val benchmarkTimeout = 3600 seconds
+    private final val batchSize = 512
+    private final val concurrentBatches = 8
+
+    @Param(Array("100000", "800000"))
+    var count: Int = _
+
+    private class RoutesObserver(count: Int) extends Observer[Set[Route]] {
+
+        private val latch = new CountDownLatch(1)
+
+        override def onNext(routes: Set[Route]): Unit = {
+            if (routes.size == count) {
+                latch.countDown()
+            }
+        }
+        override def onCompleted(): Unit = {
+            latch.countDown()
+        }
+        override def onError(e: Throwable): Unit = {
+            latch.countDown()
+        }
+        def await(duration: Duration): Boolean = {
+            latch.await(duration.toMillis, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    @Setup
+    def setup(): Unit = {
+        System.setProperty("jute.maxbuffer", Integer.toString(40 * 1024 * 1024))
+        curator = CuratorFrameworkFactory.newClient(zkServer,
+                                                    sessionTimeoutMs,
+                                                    cnxnTimeoutMs,
+                                                    retryPolicy)
+        curator.start()
+        val connection = new CuratorZkConnection(curator, reactor)
+        val connectionWatcher = new SessionUnawareConnectionWatcher
+        connectionWatcher.setZkConnection(connection)
+        storage = new ZookeeperObjectMapper(config, hostId.toString, curator,
+                                            curator, null, reactor,
+                                            new StorageMetrics(new MetricRegistry))
+        storage.registerClass(classOf[Port])
+        storage.registerKey(classOf[Port], RoutesKey, Multiple)
+        storage.build()
+        def root = LoggerFactory.getLogger("org.midonet").asInstanceOf[Logger]
+        root.setLevel(ch.qos.logback.classic.Level.OFF)
+    }
+
+    @TearDown
+    def tearDown(): Unit = {
+        curator.close()
+    }
+
+    @Benchmark
+    def convergeBatchedRoutes(): Unit = {
+        converge { (routes, portId) =>
+            storage.addRoutes(routes, portId)
+        }
+    }
+
+    @Benchmark
+    def convergeSingleRoutes(): Unit = {
+        converge { (routes, portId) =>
+            Observable.merge[StateResult](routes.map(route =>
+                storage.addRoute(route, Some(portId))).asJava)
+        }
+    }
+
+    private def converge(write: (Seq[Route], UUID) => Observable[StateResult])
+    : Unit = {
+        val port = createRouterPort()
+        storage.create(port)
+        val portId = port.getId.asJava
+
+        val obs = new RoutesObserver(count)
+        storage.portRoutesObservable(portId, Observable.just(hostId))
+               .subscribe(obs)
+
+        val routes = for (_ <- 0 until count) yield createPortRoute(portId)
+        val writes = routes.grouped(batchSize).map(write(_, portId)).toSeq
+        Observable.merge[StateResult](Observable.from(writes.asJava),
+                                      concurrentBatches)
+                  .toList
+                  .await(benchmarkTimeout)
+
+        obs.await(benchmarkTimeout)
+
+        storage.delete(classOf[Port], portId)
+    }
+
+    private def createPortRoute(portId: UUID) = {
+        new Route(random.nextInt(), 24, random.nextInt(), 24, NextHop.PORT,
+                  portId, random.nextInt(), random.nextInt(), "",
+                  UUID.randomUUID, true)
+    }
+
+}
@@ -68,6 +68,7 @@ class RoutingTableStorageBenchmark extends TopologyBuilder {
     private final val config = new MidonetBackendConfig(ConfigFactory.parseString(
         s"""
            |zookeeper.zookeeper.root_key=$zkRoot
+           |zookeeper.transaction_cache_size=0
         """.stripMargin))
 
     private val reactor = new CallingThreadReactor
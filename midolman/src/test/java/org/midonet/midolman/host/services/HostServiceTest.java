@@ -403,7 +403,7 @@ public class HostServiceTest {
         MockInterfaceScanner scanner = getInterfaceScanner();
         scanner.addInterface(new InterfaceDescription("eth0", 1));
 
-        hostState = getHostState(hostId);
+        hostState = eventuallyGetHostState(hostId, 1);
         assertNotNull(hostState);
         assertTrue(hostState.hasHostId());
         assertEquals(UUIDUtil.fromProto(hostState.getHostId()), hostId);
@@ -412,7 +412,7 @@ public class HostServiceTest {
 
         scanner.removeInterface("eth0");
 
-        hostState = getHostState(hostId);
+        hostState = eventuallyGetHostState(hostId, 0);
         assertNotNull(hostState);
         assertTrue(hostState.hasHostId());
         assertEquals(UUIDUtil.fromProto(hostState.getHostId()), hostId);
@@ -421,6 +421,22 @@ public class HostServiceTest {
         stopService(hostService);
     }
 
+    @Test
+    public void hostServiceCoalescesInterfaceUpdates() throws Throwable {
+        TestableHostService hostService = startService();
+
+        MockInterfaceScanner scanner = getInterfaceScanner();
+        for (int index = 0; index < 10; index++) {
+            scanner.addInterface(new InterfaceDescription("tap" + index, index));
+        }
+
+        State.HostState hostState = eventuallyGetHostState(hostId, 10);
+        assertNotNull(hostState);
+        assertEquals(hostState.getInterfacesCount(), 10);
+
+        stopService(hostService);
+    }
+
     @Test
     public void hostServiceDoesNotUpdateHostInterfacesWhenStopped()
         throws Throwable {
@@ -467,6 +483,21 @@ public class HostServiceTest {
         return builder.build();
     }
 
+    private State.HostState eventuallyGetHostState(UUID hostId,
+                                                   int interfaceCount)
+        throws Exception {
+        State.HostState hostState = null;
+        for (byte attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            hostState = getHostState(hostId);
+            if (hostState != null &&
+                hostState.getInterfacesCount() == interfaceCount) {
+                return hostState;
+            }
+            Thread.sleep(WAIT_MILLIS);
+        }
+        return hostState;
+    }
+
     private void eventuallyAssertHostState() throws Exception {
         for (byte attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
             try { assertHostState(); return; }
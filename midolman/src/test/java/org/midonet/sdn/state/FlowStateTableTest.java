@@ -323,6 +323,34 @@ public class FlowStateTableTest {
         refCountTest(global);
     }
 
+    @Test
+    public void testRefAdoptsKeyFromOtherShard() {
+        global.adoptsSharedEntries_$eq(true);
+        shards.get(0).putAndRef(keys[0], vals[0]);
+
+        assertThat(shards.get(1).ref(keys[0]), equalTo(vals[0]));
+        assertThat(shards.get(1).getRefCount(keys[0]), equalTo(1));
+        assertThat(shards.get(0).getRefCount(keys[0]), equalTo(1));
+
+        shards.get(0).unref(keys[0]);
+        clock.time_$eq(clock.time() + IDLE_EXPIRATION.toNanos() + 1);
+        global.expireIdleEntries();
+
+        assertThat(shards.get(1).get(keys[0]), equalTo(vals[0]));
+        assertThat(shards.get(2).ref(keys[1]), nullValue());
+        assertThat(shards.get(2).getRefCount(keys[1]), equalTo(0));
+    }
+
+    @Test
+    public void testRefDoesNotAdoptKeyFromOtherShardByDefault() {
+        shards.get(0).putAndRef(keys[0], vals[0]);
+
+        assertThat(shards.get(1).ref(keys[0]), nullValue());
+        assertThat(shards.get(1).getRefCount(keys[0]), equalTo(0));
+        assertThat(shards.get(1).get(keys[0]), equalTo(vals[0]));
+        assertThat(shards.get(0).getRefCount(keys[0]), equalTo(1));
+    }
+
     @Test
     public void testTouchExpirationReset() {
         FlowStateTable<TestKey, Integer> table = shards.get(0);
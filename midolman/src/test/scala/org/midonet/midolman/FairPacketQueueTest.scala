@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, Matchers}
+
+import org.midonet.odp.{FlowMatch, FlowMatches, Packet}
+import org.midonet.packets._
+import org.midonet.packets.util.PacketBuilder._
+
+@RunWith(classOf[JUnitRunner])
+class FairPacketQueueTest extends FeatureSpec with Matchers {
+
+    private val srcMac = MAC.fromString("02:00:00:00:00:01")
+    private val dstMac = MAC.fromString("02:00:00:00:00:02")
+
+    private def packet(port: Int, frame: Ethernet): Packet = {
+        new Packet(frame, FlowMatches.fromEthernetPacket(frame)
+                              .setInputPortNumber(port))
+    }
+
+    private def tcpPacket(port: Int, flags: TCP.Flag*): Packet = {
+        val list = new java.util.ArrayList[TCP.Flag]
+        flags.foreach(list.add)
+        packet(port, { eth src srcMac dst dstMac } <<
+                     { ip4 src "10.0.0.1" dst "10.0.0.2" } <<
+                     { tcp src 1000 dst 80 flags TCP.Flag.allOf(list) } <<
+                     payload("data"))
+    }
+
+    private def dataPacket(port: Int): Packet = tcpPacket(port, TCP.Flag.Ack)
+
+    private def arpPacket(port: Int): Packet = {
+        packet(port, { eth addr srcMac -> eth_bcast } <<
+                     { arp.req mac srcMac -> eth_zero ip "10.0.0.1" --> "10.0.0.2" })
+    }
+
+    private def dhcpPacket(port: Int): Packet = {
+        packet(port, { eth addr srcMac -> eth_bcast } <<
+                     { ip4 src "0.0.0.0" dst "255.255.255.255" } <<
+                     { udp ports 68 ---> 67 } <<
+                     payload("dhcp"))
+    }
+
+    /** Returns two ports that are assigned to different buckets. */
+    private def distinctPorts(queue: FairPacketQueue): (Int, Int) = {
+        val bucket = queue.bucketOf(dataPacket(1))
+        (1, (2 until 1000).find(p => queue.bucketOf(dataPacket(p)) != bucket).get)
+    }
+
+    private def drain(queue: FairPacketQueue): Seq[Packet] = {
+        Iterator.continually(queue.poll()).takeWhile(_ ne null).toList
+    }
+
+    private def inputPort(packet: Packet): Int = {
+        val fmatch: FlowMatch = packet.getMatch
+        fmatch.doNotTrackSeenFields()
+        try fmatch.getInputPortNumber
+        finally fmatch.doTrackSeenFields()
+    }
+
+    feature("Queue classifies the packets") {
+        scenario("Conversation start packets are express") {
+            FairPacketQueue.isExpress(arpPacket(1)) shouldBe true
+            FairPacketQueue.isExpress(dhcpPacket(1)) shouldBe true
+            FairPacketQueue.isExpress(tcpPacket(1, TCP.Flag.Syn)) shouldBe true
+        }
+
+        scenario("Other packets are not express") {
+            FairPacketQueue.isExpress(dataPacket(1)) shouldBe false
+            FairPacketQueue.isExpress(
+                tcpPacket(1, TCP.Flag.Syn, TCP.Flag.Ack)) shouldBe false
+        }
+
+        scenario("Classification does not mark the match fields as seen") {
+            val queue = new FairPacketQueue(buckets = 8, depth = 16, quantum = 4)
+            val p = dataPacket(1)
+            p.getMatch.clearSeenFields()
+            queue.offer(p) shouldBe true
+            p.getMatch.getSeenFields shouldBe 0L
+        }
+    }
+
+    feature("Queue serves the ports fairly") {
+        scenario("A flood does not delay the packets of another port") {
+            val queue = new FairPacketQueue(buckets = 8, depth = 64, quantum = 2)
+            val (flood, other) = distinctPorts(queue)
+
+            for (_ <- 0 until 20) queue.offer(dataPacket(flood)) shouldBe true
+            queue.offer(dataPacket(other)) shouldBe true
+            queue.size shouldBe 21
+
+            val ports = drain(queue).map(inputPort)
+            ports should have size 21
+            ports.indexOf(other) should be < 3
+            queue.size shouldBe 0
+        }
+
+        scenario("Ports are served in rounds of quantum packets") {
+            val queue = new FairPacketQueue(buckets = 8, depth = 64, quantum = 3)
+            val (port1, port2) = distinctPorts(queue)
+
+            for (_ <- 0 until 6) {
+                queue.offer(dataPacket(port1))
+                queue.offer(dataPacket(port2))
+            }
+
+            val ports = drain(queue).map(inputPort)
+            ports.grouped(3).map(_.distinct.size).toSet shouldBe Set(1)
+            ports.grouped(3).map(_.head).toList.sliding(2)
+                 .forall(g => g.head != g.last) shouldBe true
+        }
+    }
+
+    feature("Queue serves express packets first") {
+        scenario("Express packets jump ahead of their port's flood") {
+            val queue = new FairPacketQueue(buckets = 4, depth = 64, quantum = 4)
+
+            for (_ <- 0 until 10) queue.offer(dataPacket(1))
+            val syn = tcpPacket(1, TCP.Flag.Syn)
+            val arpReq = arpPacket(1)
+            queue.offer(syn)
+            queue.offer(arpReq)
+            queue.expressSize shouldBe 2
+
+            val packets = drain(queue)
+            packets.take(2) shouldBe Seq(syn, arpReq)
+            queue.expressSize shouldBe 0
+        }
+    }
+
+    feature("Queue tracks the completed packets") {
+        scenario("Fence is reached when the packets before it complete") {
+            val queue = new FairPacketQueue(buckets = 8, depth = 16, quantum = 1)
+            val (port1, port2) = distinctPorts(queue)
+            queue.offer(dataPacket(port1))
+            queue.offer(arpPacket(port2))
+
+            val fence = queue.fence()
+            queue.offer(dataPacket(port1))
+            fence() shouldBe false
+
+            // The ports are served alternately with a quantum of one packet.
+            queue.poll() should not be null
+            fence() shouldBe false
+            queue.complete()
+            fence() shouldBe false
+
+            queue.poll() should not be null
+            queue.complete()
+            fence() shouldBe true
+        }
+    }
+
+    feature("Queue bounds the depth of every port") {
+        scenario("Packets exceeding the depth are rejected") {
+            val queue = new FairPacketQueue(buckets = 8, depth = 4, quantum = 2)
+            val (flood, other) = distinctPorts(queue)
+
+            for (_ <- 0 until 4) queue.offer(dataPacket(flood)) shouldBe true
+            queue.offer(dataPacket(flood)) shouldBe false
+
+            // Other ports and the express band are not affected.
+            queue.offer(dataPacket(other)) shouldBe true
+            queue.offer(arpPacket(flood)) shouldBe true
+            queue.size shouldBe 6
+        }
+    }
+}
@@ -141,7 +141,8 @@ class MockMidolmanModule(override val hostId: UUID,
                                                       insights: Insights,
                                                       counter: StatisticalCounter,
                                                       actorSystem: ActorSystem,
-                                                      preallocation: FlowTablePreallocation)
+                                                      preallocation: FlowTablePreallocation,
+                                                      tbPolicy: TokenBucketPolicy)
             : PacketWorkersService =
         new PacketWorkersService() {
             override def workers: IndexedSeq[PacketWorker] = IndexedSeq()
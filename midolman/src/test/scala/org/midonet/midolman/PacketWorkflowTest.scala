@@ -20,6 +20,8 @@ import java.util.UUID
 import scala.collection.JavaConverters._
 import scala.concurrent.Promise
 
+import com.typesafe.config.{Config, ConfigFactory}
+
 import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
 
@@ -65,11 +67,21 @@ class PacketWorkflowTest extends MidolmanSpec {
         createPacketWorkflow()
     }
 
+    override protected def fillConfig(config: Config) = {
+        super.fillConfig(config.withFallback(ConfigFactory.parseString(
+            """
+              |agent.midolman.packet_stage_sampling = 4
+              |agent.midolman.device_profiling_sampling = 4
+            """.stripMargin)))
+    }
+
     def createPacketWorkflow(simulationExpireMillis: Long = 5000L,
                              custom: Boolean = true,
                              overlayVxlanPort: Int = 10,
                              vtepVxlanPort: Int = 11,
-                             fip64VxlanPort: Int = 12): Unit = {
+                             fip64VxlanPort: Int = 12,
+                             cookieGen: CookieGenerator =
+                                 new CookieGenerator(1, 1)): Unit = {
         val dpState = new DatapathStateDriver(new Datapath(0, "midonet"))
         dpState.tunnelOverlayGrePort = new GreTunnelPort("overlay-gre")
         dpState.tunnelOverlayVxLanPort = new VxLanTunnelPort("overlay-vxlan", 4700,
@@ -79,7 +91,7 @@ class PacketWorkflowTest extends MidolmanSpec {
         dpState.tunnelFip64VxLanPort = new VxLanTunnelPort("fip64-vxlan", 4702,
                                                            fip64VxlanPort)
 
-        packetWorkflow = new TestablePacketWorkflow(new CookieGenerator(1, 1),
+        packetWorkflow = new TestablePacketWorkflow(cookieGen,
                                                     mockDpChannel,
                                                     dpState,
                                                     (x: Int) => { packetsOut += x },
@@ -390,6 +402,23 @@ class PacketWorkflowTest extends MidolmanSpec {
         }
     }
 
+    feature("Packet workflow samples packets") {
+        scenario("Packets are sampled by the number of packets per worker") {
+            Given("A packet workflow of one out of four workers")
+            createPacketWorkflow(cookieGen = new CookieGenerator(3, 4))
+
+            When("Eight packets are fed to the packet workflow")
+            packetWorkflow.handlePackets((1 to 8).map(i => makePacket(i.toShort)):_*)
+
+            Then("The workflow times the fourth and the eighth packet")
+            packetsSeen map (_.cookie) should be (3 to 31 by 4)
+            packetWorkflow.stageTimed shouldBe List(15, 31)
+
+            And("The workflow profiles the same packets")
+            packetWorkflow.deviceProfiled shouldBe List(15, 31)
+        }
+    }
+
     feature("Packet Context pooling") {
         scenario("Successful contexts are returned to the pool") {
             Given("A successful simulation")
@@ -769,6 +798,8 @@ class PacketWorkflowTest extends MidolmanSpec {
         var result: SimulationResult = _
         var flow: ManagedFlow = _
         var packetRecorded: Boolean = false
+        var stageTimed = List[Int]()
+        var deviceProfiled = List[Int]()
 
         def completeWithGenerated(actions: List[FlowAction],
                                   generatedPacket: GeneratedPacket): Unit = {
@@ -820,6 +851,10 @@ class PacketWorkflowTest extends MidolmanSpec {
             }
 
             pktCtx.runs += 1
+            if (pktCtx.runs == 1 && pktCtx.stageTimed)
+                stageTimed = stageTimed :+ pktCtx.cookie
+            if (pktCtx.runs == 1 && pktCtx.deviceProfiled)
+                deviceProfiled = deviceProfiled :+ pktCtx.cookie
             if (error ne null) {
                 throw error
             }
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.io
+
+import java.util.concurrent.Executors
+
+import scala.collection.mutable
+
+import org.junit.runner.RunWith
+import org.scalatest.concurrent.Eventually._
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.time.{Seconds, Span}
+import org.scalatest.{FeatureSpec, Matchers}
+
+import org.midonet.midolman.PacketWorker
+import org.midonet.odp.Packet
+import org.midonet.util.concurrent.MockClock
+
+@RunWith(classOf[JUnitRunner])
+class PacketWorkerBalancerTest extends FeatureSpec with Matchers {
+
+    private class TestPacketWorker extends PacketWorker {
+        var depth = 0
+        @volatile var fenceReached = true
+        val packets = new mutable.ArrayBuffer[Int]
+        val fencedBuckets = new mutable.ArrayBuffer[Int]
+        override def submit(packet: Packet): Boolean = {
+            packets += packet.packetLen
+            true
+        }
+        override def queueDepth: Int = depth
+        override def fence(bucket: Int): PacketWorker.Fence = {
+            fencedBuckets += bucket
+            new PacketWorker.Fence {
+                override def isReached: Boolean = fenceReached
+            }
+        }
+    }
+
+    private def newBalancer(workers: IndexedSeq[TestPacketWorker]) =
+        new PacketWorkerBalancer(workers, intervalNanos = 1000L,
+                                 queueThreshold = 100)
+
+    /** Creates a packet identified by its length. */
+    private def packet(id: Int): Packet = new Packet(null, null, id)
+
+    private def submit(balancer: PacketWorkerBalancer, hash: Int,
+                       count: Int): Unit = {
+        for (_ <- 0 until count) balancer.submit(hash, packet(0))
+    }
+
+    /** Returns two hashes of different buckets assigned to worker 0. */
+    private def hashesOfFirstWorker(balancer: PacketWorkerBalancer)
+    : (Int, Int) = {
+        val hash1 = (0 until 256).find(balancer.workerFor(_) == 0).get
+        val hash2 = (0 until 256).find(h => balancer.workerFor(h) == 0 &&
+                                            h != hash1).get
+        (hash1, hash2)
+    }
+
+    /** Submits the packets such that the bucket of `hash2` is the best
+      * candidate to move from worker 0 to worker 1. */
+    private def submitSkewed(balancer: PacketWorkerBalancer,
+                             hash1: Int, hash2: Int): Unit = {
+        submit(balancer, hash1, 10)
+        submit(balancer, hash2, 5)
+        submit(balancer, (0 until 256).find(balancer.workerFor(_) == 1).get, 3)
+    }
+
+    /** Starts moving the bucket of `hash2` from worker 0 to worker 1. */
+    private def startMove(balancer: PacketWorkerBalancer,
+                          workers: IndexedSeq[TestPacketWorker],
+                          hash1: Int, hash2: Int): Unit = {
+        submitSkewed(balancer, hash1, hash2)
+        workers(0).depth = 200
+        balancer.rebalance(0L)
+    }
+
+    feature("Balancer maps hashes to workers") {
+        scenario("Hashes are distributed across all workers") {
+            val workers = IndexedSeq.fill(4)(new TestPacketWorker)
+            val balancer = newBalancer(workers)
+
+            (0 until 256).map(balancer.workerFor).toSet shouldBe Set(0, 1, 2, 3)
+        }
+
+        scenario("The same hash always maps to the same worker") {
+            val workers = IndexedSeq.fill(4)(new TestPacketWorker)
+            val balancer = newBalancer(workers)
+
+            val worker = balancer.workerFor(12345)
+            for (_ <- 0 until 100) {
+                balancer.submit(12345, packet(0)) shouldBe true
+                balancer.workerFor(12345) shouldBe worker
+            }
+            workers(worker).packets should have size 100
+        }
+    }
+
+    feature("Balancer moves buckets on queue skew") {
+        scenario("No bucket is moved below the threshold") {
+            val workers = IndexedSeq.fill(2)(new TestPacketWorker)
+            val balancer = newBalancer(workers)
+            val (hash1, hash2) = hashesOfFirstWorker(balancer)
+
+            submit(balancer, hash1, 10)
+            submit(balancer, hash2, 5)
+            workers(0).depth = 50
+
+            balancer.rebalance(0L)
+
+            balancer.isMoving shouldBe false
+            balancer.workerFor(hash1) shouldBe 0
+            balancer.workerFor(hash2) shouldBe 0
+        }
+
+        scenario("A bucket is moved from the busiest worker") {
+            val workers = IndexedSeq.fill(2)(new TestPacketWorker)
+            val balancer = newBalancer(workers)
+            val (hash1, hash2) = hashesOfFirstWorker(balancer)
+
+            startMove(balancer, workers, hash1, hash2)
+            balancer.isMoving shouldBe true
+            balancer.maybeRebalance(10L)
+
+            balancer.isMoving shouldBe false
+            balancer.workerFor(hash1) shouldBe 0
+            balancer.workerFor(hash2) shouldBe 1
+        }
+
+        scenario("A single heavy bucket is not moved") {
+            val workers = IndexedSeq.fill(2)(new TestPacketWorker)
+            val balancer = newBalancer(workers)
+            val hash = (0 until 256).find(balancer.workerFor(_) == 0).get
+
+            submit(balancer, hash, 10)
+            workers(0).depth = 200
+
+            balancer.rebalance(0L)
+
+            balancer.isMoving shouldBe false
+            balancer.workerFor(hash) shouldBe 0
+        }
+
+        scenario("A moved bucket is not moved back immediately") {
+            val workers = IndexedSeq.fill(2)(new TestPacketWorker)
+            val balancer = newBalancer(workers)
+            val (hash1, hash2) = hashesOfFirstWorker(balancer)
+
+            startMove(balancer, workers, hash1, hash2)
+            balancer.maybeRebalance(10L)
+            balancer.workerFor(hash2) shouldBe 1
+
+            val hash3 = (0 until 256).find(balancer.workerFor(_) == 1).get
+            submit(balancer, hash3, 10)
+            submit(balancer, hash2, 5)
+            workers(0).depth = 0
+            workers(1).depth = 200
+            balancer.rebalance(20L)
+
+            balancer.workerFor(hash2) shouldBe 1
+        }
+
+        scenario("Rebalancing is throttled by the interval") {
+            val workers = IndexedSeq.fill(2)(new TestPacketWorker)
+            val balancer = newBalancer(workers)
+            val (hash1, hash2) = hashesOfFirstWorker(balancer)
+
+            balancer.maybeRebalance(0L)
+
+            submitSkewed(balancer, hash1, hash2)
+            workers(0).depth = 200
+
+            balancer.maybeRebalance(500L)
+            balancer.isMoving shouldBe false
+            balancer.workerFor(hash2) shouldBe 0
+
+            balancer.maybeRebalance(1000L)
+            balancer.isMoving shouldBe true
+            balancer.maybeRebalance(1001L)
+            balancer.workerFor(hash2) shouldBe 1
+        }
+    }
+
+    feature("Balancer hands off moved buckets") {
+        scenario("Packets are held until the previous worker is fenced") {
+            val workers = IndexedSeq.fill(2)(new TestPacketWorker)
+            val balancer = newBalancer(workers)
+            val (hash1, hash2) = hashesOfFirstWorker(balancer)
+            startMove(balancer, workers, hash1, hash2)
+            workers(0).fenceReached = false
+            workers.foreach(_.packets.clear())
+
+            balancer.submit(hash2, packet(1)) shouldBe true
+            balancer.submit(hash2, packet(2)) shouldBe true
+            balancer.maybeRebalance(10L)
+            balancer.submit(hash1, packet(3)) shouldBe true
+
+            balancer.workerFor(hash2) shouldBe -1
+            workers(0).packets shouldBe Seq(3)
+            workers(1).packets shouldBe empty
+
+            workers(0).fenceReached = true
+            balancer.maybeRebalance(20L)
+
+            balancer.workerFor(hash2) shouldBe 1
+            workers(1).packets shouldBe Seq(1, 2)
+
+            balancer.submit(hash2, packet(4)) shouldBe true
+            workers(1).packets shouldBe Seq(1, 2, 4)
+        }
+
+        scenario("Only the moved bucket is fenced") {
+            val workers = IndexedSeq.fill(2)(new TestPacketWorker)
+            val balancer = newBalancer(workers)
+            val (hash1, hash2) = hashesOfFirstWorker(balancer)
+            startMove(balancer, workers, hash1, hash2)
+
+            balancer.maybeRebalance(10L)
+
+            workers(0).fencedBuckets shouldBe Seq(balancer.bucketOf(hash2))
+            workers(1).fencedBuckets shouldBe empty
+        }
+
+        scenario("A move is advanced by the timer without upcalls") {
+            val workers = IndexedSeq.fill(2)(new TestPacketWorker)
+            val timer = Executors.newSingleThreadScheduledExecutor()
+            val balancer = new PacketWorkerBalancer(
+                workers, intervalNanos = 1000L, queueThreshold = 100,
+                timer, new MockClock)
+            try {
+                val (hash1, hash2) = hashesOfFirstWorker(balancer)
+                workers(0).fenceReached = false
+                startMove(balancer, workers, hash1, hash2)
+                workers.foreach(_.packets.clear())
+
+                balancer.submit(hash2, packet(1)) shouldBe true
+                balancer.isMoving shouldBe true
+
+                workers(0).fenceReached = true
+
+                eventually (timeout(Span(2, Seconds))) {
+                    balancer.workerFor(hash2) shouldBe 1
+                }
+                balancer.isMoving shouldBe false
+                workers(1).packets shouldBe Seq(1)
+            } finally {
+                timer.shutdownNow()
+            }
+        }
+
+        scenario("A move that is not fenced in time is cancelled") {
+            val workers = IndexedSeq.fill(2)(new TestPacketWorker)
+            val balancer = newBalancer(workers)
+            val (hash1, hash2) = hashesOfFirstWorker(balancer)
+            startMove(balancer, workers, hash1, hash2)
+            workers(0).fenceReached = false
+            workers.foreach(_.packets.clear())
+
+            balancer.submit(hash2, packet(1)) shouldBe true
+            balancer.maybeRebalance(999L)
+            balancer.isMoving shouldBe true
+
+            balancer.maybeRebalance(1000L)
+
+            balancer.isMoving shouldBe false
+            balancer.workerFor(hash2) shouldBe 0
+            workers(0).packets shouldBe Seq(1)
+            workers(1).packets shouldBe empty
+        }
+
+        scenario("Packets are dropped when too many are held") {
+            val workers = IndexedSeq.fill(2)(new TestPacketWorker)
+            val balancer = newBalancer(workers)
+            val (hash1, hash2) = hashesOfFirstWorker(balancer)
+            startMove(balancer, workers, hash1, hash2)
+            workers(0).fenceReached = false
+
+            for (_ <- 0 until PacketWorkerBalancer.MaxHeldPackets) {
+                balancer.submit(hash2, packet(1)) shouldBe true
+            }
+            balancer.submit(hash2, packet(1)) shouldBe false
+        }
+    }
+}
@@ -23,6 +23,7 @@ import org.scalatest.junit.JUnitRunner
 import org.scalatest.{OneInstancePerTest, ShouldMatchers, BeforeAndAfter, FeatureSpec}
 
 import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.odp.DpPort
 import org.midonet.odp.ports.{NetDevPort, VxLanTunnelPort, GreTunnelPort}
 import org.midonet.util._
 
@@ -103,6 +104,59 @@ class TokenBucketPolicyTest extends FeatureSpec
         }
     }
 
+    feature("Buckets are charged for the simulation cost") {
+        val confStr =
+            """
+              |agent.datapath.global_incoming_burst_capacity = 1
+              |agent.datapath.tunnel_incoming_burst_capacity = 8
+            """.stripMargin
+
+        def drain(bucket: Bucket): Unit =
+            while (bucket.consumeToken()) { }
+
+        scenario("Only bound ports are charged") {
+            val rate = new TokenBucketTestRate
+            val policy = new TokenBucketPolicy(
+                MidolmanConfig.forTests(confStr), rate, 1,
+                new Bucket(_, 1, null, 0, false))
+            val port = DpPort.fakeFrom(new GreTunnelPort("gre"), 5)
+            policy link (port, OverlayTunnel)
+
+            policy.charge(5, 3) should be (0)
+            policy bind port
+            policy.charge(5, 3) should be (3)
+            policy.charge(6, 3) should be (0)
+
+            // The charge is limited to the capacity of the bucket.
+            policy.charge(5, 100) should be (8)
+
+            policy unlink port
+            policy.charge(5, 3) should be (0)
+        }
+
+        scenario("A charged bucket pays the charge before admitting packets") {
+            val rate = new TokenBucketTestRate
+            val policy = new TokenBucketPolicy(
+                MidolmanConfig.forTests(confStr), rate, 1,
+                new Bucket(_, 1, null, 0, false))
+            val port = DpPort.fakeFrom(new GreTunnelPort("gre"), 5)
+            val bucket = policy link (port, OverlayTunnel)
+            policy bind port
+            drain(bucket)
+
+            policy.charge(5, 3)
+            rate.setNewTokens(2)
+            bucket.consumeToken() should be (false)
+
+            rate.setNewTokens(2)
+            bucket.consumeToken() should be (true)
+            bucket.consumeToken() should be (false)
+
+            rate.setNewTokens(1)
+            bucket.consumeToken() should be (true)
+        }
+    }
+
     feature("Full system simulation") {
         scenario("Token bucket simulation") {
             val confStr =
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.layer3
+
+import java.util.UUID
+
+import scala.collection.JavaConverters._
+import scala.util.Random
+
+import org.junit.runner.RunWith
+import org.scalatest.{FeatureSpec, Matchers}
+import org.scalatest.junit.JUnitRunner
+import org.slf4j.LoggerFactory
+
+import org.midonet.midolman.layer3.Route.NextHop
+import org.midonet.packets.IPv4Addr
+
+@RunWith(classOf[JUnitRunner])
+class PersistentRoutingTableTest extends FeatureSpec with Matchers {
+
+    private val random = new Random()
+    private val log = LoggerFactory.getLogger(getClass)
+
+    private def mask(length: Int): Int =
+        if (length == 0) 0 else -1 << (32 - length)
+
+    private def randomRoute(): Route = {
+        // Use few prefixes with few distinct bits, such that routes share
+        // destination prefixes and the trie has branch nodes.
+        val dstLength = random.nextInt(33)
+        val dst = (0x0a000000 | random.nextInt(0x100) << 16 |
+                   random.nextInt(4)) & mask(dstLength)
+        val srcLength = if (random.nextBoolean()) 0 else 16
+        val src = 0x0b000000 & mask(srcLength)
+        new Route(src, srcLength, dst, dstLength, NextHop.PORT,
+                  UUID.randomUUID(), 0, random.nextInt(3), null, null)
+    }
+
+    private def randomAddress(): Int = {
+        0x0a000000 | random.nextInt(0x100) << 16 | random.nextInt(4)
+    }
+
+    private def lookup(table: PersistentRoutingTable, src: Int, dst: Int)
+    : Set[Route] = {
+        table.lookup(src, dst, log).asScala.toSet
+    }
+
+    /** Looks up the routes by scanning all routes: the routes with the
+      * longest matching destination prefix that have at least one route
+      * matching the source, with the minimum weight. */
+    private def lookup(routes: Set[Route], src: Int, dst: Int): Set[Route] = {
+        val matching = routes.filter { route =>
+            (dst & mask(route.dstNetworkLength)) == route.dstNetworkAddr &&
+            (src & mask(route.srcNetworkLength)) == route.srcNetworkAddr
+        }
+        if (matching.isEmpty) {
+            Set.empty
+        } else {
+            val length = matching.map(_.dstNetworkLength).max
+            val longest = matching.filter(_.dstNetworkLength == length)
+            val weight = longest.map(_.weight).min
+            longest.filter(_.weight == weight)
+        }
+    }
+
+    private def assertSameLookups(table: PersistentRoutingTable,
+                                  routes: Set[Route]): Unit = {
+        for (_ <- 0 until 1000) {
+            val src = if (random.nextBoolean()) 0x0b000001 else 0x0c000001
+            val dst = randomAddress()
+            lookup(table, src, dst) shouldBe lookup(routes, src, dst)
+        }
+    }
+
+    feature("Persistent routing table lookups") {
+        scenario("Empty table") {
+            val table = PersistentRoutingTable.EMPTY
+            table.size shouldBe 0
+            table.lookup(IPv4Addr.random, IPv4Addr.random) shouldBe empty
+        }
+
+        scenario("Lookups select the longest prefix and minimum weight") {
+            var routes = Seq.fill(500)(randomRoute()).toSet
+            var table = PersistentRoutingTable.EMPTY
+            for (route <- routes) {
+                table = table.add(route)
+            }
+            table.size shouldBe routes.size
+            assertSameLookups(table, routes)
+
+            for (route <- Random.shuffle(routes.toSeq).take(routes.size / 2)) {
+                table = table.remove(route)
+                routes -= route
+            }
+            table.size shouldBe routes.size
+            assertSameLookups(table, routes)
+        }
+
+        scenario("Removing all routes returns an empty table") {
+            val routes = Seq.fill(100)(randomRoute()).distinct
+            val table = PersistentRoutingTable.EMPTY.update(
+                routes.asJava, Seq.empty[Route].asJava)
+            val cleared = table.update(Seq.empty[Route].asJava,
+                                       Random.shuffle(routes).asJava)
+            cleared.size shouldBe 0
+            for (_ <- 0 until 100) {
+                lookup(cleared, 0, randomAddress()) shouldBe empty
+            }
+        }
+    }
+
+    feature("Persistent routing table updates") {
+        scenario("Updates do not modify the previous table") {
+            val route1 = new Route(0, 0, 0x0a000000, 8, NextHop.PORT,
+                                   UUID.randomUUID(), 0, 100, null, null)
+            val route2 = new Route(0, 0, 0x0a010000, 16, NextHop.PORT,
+                                   UUID.randomUUID(), 0, 100, null, null)
+
+            val table1 = PersistentRoutingTable.EMPTY.add(route1)
+            val table2 = table1.add(route2)
+            val table3 = table2.remove(route1)
+
+            lookup(table1, 0, 0x0a010001) shouldBe Set(route1)
+            lookup(table2, 0, 0x0a010001) shouldBe Set(route2)
+            lookup(table2, 0, 0x0a020001) shouldBe Set(route1)
+            lookup(table3, 0, 0x0a020001) shouldBe empty
+            lookup(table3, 0, 0x0a010001) shouldBe Set(route2)
+        }
+
+        scenario("Adding an existing route or removing a missing route") {
+            val route = new Route(0, 0, 0x0a000000, 8, NextHop.PORT,
+                                  UUID.randomUUID(), 0, 100, null, null)
+            val other = new Route(0, 0, 0x0a000000, 8, NextHop.PORT,
+                                  UUID.randomUUID(), 0, 100, null, null)
+
+            val table = PersistentRoutingTable.EMPTY.add(route)
+            (table.add(route) eq table) shouldBe true
+            (table.remove(other) eq table) shouldBe true
+            table.size shouldBe 1
+        }
+
+        scenario("Routes with the same prefix and different weights") {
+            val route1 = new Route(0, 0, 0x0a000000, 8, NextHop.PORT,
+                                   UUID.randomUUID(), 0, 100, null, null)
+            val route2 = new Route(0, 0, 0x0a000000, 8, NextHop.PORT,
+                                   UUID.randomUUID(), 0, 200, null, null)
+            val route3 = new Route(0, 0, 0x0a000000, 8, NextHop.PORT,
+                                   UUID.randomUUID(), 0, 100, null, null)
+
+            val table = PersistentRoutingTable.EMPTY
+                .add(route1).add(route2).add(route3)
+            lookup(table, 0, 0x0a000001) shouldBe Set(route1, route3)
+            lookup(table.remove(route1).remove(route3), 0,
+                   0x0a000001) shouldBe Set(route2)
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.logging.rule
+
+import scala.concurrent.duration._
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class RuleLogAggregationTest extends RuleLoggerTestBase {
+
+    override protected def aggregationInterval: Duration = 1 minute
+
+    private def counter(clazz: Class[_], name: String): Long =
+        metrics.getCounters.get(s"${clazz.getName}.$name").getCount
+
+    feature("Rule log events are aggregated") {
+        scenario("Identical events are written as a single record") {
+            val (chain, rule, logger) = makeLogger(metadata = defaultMetadata())
+            val ctx = makePktCtx()
+            for (_ <- 1 to 10) {
+                logger.logAccept(ctx, chain, rule)
+            }
+            handlerClock.time += 1000
+            logger.logAccept(ctx, chain, rule)
+            eventChannel.flush()
+
+            val deserializer = makeDeserializer
+            deserializer.hasNext shouldBe true
+            val event = deserializer.next()
+            checkEvent(event, ctx.wcmatch, chain, rule, logger.id, "ACCEPT",
+                       count = 11)
+            (event.lastTime - event.time) shouldBe 1000L
+            deserializer.hasNext shouldBe false
+
+            counter(classOf[RuleLogEventHandler], "events.aggregated") shouldBe 10
+            counter(classOf[RuleLogEventHandler], "records.written") shouldBe 1
+            counter(classOf[RuleLogEventChannel], "events.handedOff") shouldBe 11
+            counter(classOf[RuleLogEventChannel], "events.dropped") shouldBe 0
+        }
+
+        scenario("Different flows and results are written as separate records") {
+            val (chain, rule, logger) = makeLogger()
+            val ctx1 = makePktCtx()
+            val ctx2 = makePktCtx()
+
+            logger.logAccept(ctx1, chain, rule)
+            logger.logAccept(ctx2, chain, rule)
+            logger.logDrop(ctx1, chain, rule)
+            logger.logAccept(ctx1, chain, rule)
+            eventChannel.flush()
+
+            val deserializer = makeDeserializer
+            checkEvent(deserializer.next(), ctx1.wcmatch, chain, rule,
+                       logger.id, "ACCEPT", count = 2)
+            checkEvent(deserializer.next(), ctx2.wcmatch, chain, rule,
+                       logger.id, "ACCEPT")
+            checkEvent(deserializer.next(), ctx1.wcmatch, chain, rule,
+                       logger.id, "DROP")
+            deserializer.hasNext shouldBe false
+        }
+
+        scenario("Records are written at the end of the interval") {
+            val (chain, rule, logger) = makeLogger()
+            val ctx1 = makePktCtx()
+            val ctx2 = makePktCtx()
+
+            logger.logAccept(ctx1, chain, rule)
+            logger.logAccept(ctx1, chain, rule)
+            eventually {
+                counter(classOf[RuleLogEventHandler],
+                        "events.aggregated") shouldBe 1
+            }
+            counter(classOf[RuleLogEventHandler], "records.written") shouldBe 0
+
+            // The next event after the interval writes the previous records.
+            handlerClock.time += 60000
+            logger.logAccept(ctx2, chain, rule)
+            eventually {
+                counter(classOf[RuleLogEventHandler],
+                        "records.written") shouldBe 1
+            }
+
+            eventChannel.flush()
+            val deserializer = makeDeserializer
+            checkEvent(deserializer.next(), ctx1.wcmatch, chain, rule,
+                       logger.id, "ACCEPT", count = 2)
+            checkEvent(deserializer.next(), ctx2.wcmatch, chain, rule,
+                       logger.id, "ACCEPT")
+            deserializer.hasNext shouldBe false
+        }
+    }
+}
@@ -33,7 +33,7 @@ class RuleLoggerTest extends RuleLoggerTestBase {
             logger.logAccept(ctx, chain, rule)
             eventChannel.flush()
 
-            checkFile(82)
+            checkFile(94)
 
             val deserializer = makeDeserializer
             deserializer.hasNext shouldBe true
@@ -22,8 +22,11 @@ import java.util.{Properties, UUID}
 
 import scala.annotation.tailrec
 import scala.collection.JavaConversions._
+import scala.concurrent.duration.Duration
 import scala.util.Random
 
+import com.codahale.metrics.MetricRegistry
+
 import org.apache.commons.io.FileUtils
 import org.scalatest.{BeforeAndAfter, BeforeAndAfterAll, FeatureSpec, Matchers}
 
@@ -53,11 +56,19 @@ class RuleLoggerTestBase extends FeatureSpec
         override def maxFiles: Int = 3
         override def logDirectory: String = logDirPath
         override def rotationFrequency: String = "1kb"
+        override def aggregationInterval: Duration =
+            RuleLoggerTestBase.this.aggregationInterval
+        override def bufferCapacity: Int = 256
     }
 
+    /** The aggregation interval of the rule log events, disabled by default
+      * such that every event is written as a record. */
+    protected def aggregationInterval: Duration = Duration.Zero
+
     protected var eventChannel: DisruptorRuleLogEventChannel = _
     protected var eventHandler: FileRuleLogEventHandler = _
     protected var handlerClock: MockUnixClock = _
+    protected var metrics: MetricRegistry = _
 
     private val rand = new Random
 
@@ -77,7 +88,9 @@ class RuleLoggerTestBase extends FeatureSpec
     }
 
     before {
-        eventChannel = DisruptorRuleLogEventChannel(256, ruleLogConfig)
+        metrics = new MetricRegistry
+        eventChannel = DisruptorRuleLogEventChannel(
+            ruleLogConfig.bufferCapacity, ruleLogConfig, metrics)
         eventHandler =
             getFieldValue[FileRuleLogEventHandler](eventChannel, "eventHandler")
         handlerClock = getFieldValue[MockUnixClock](eventHandler, "clock")
@@ -130,7 +143,8 @@ class RuleLoggerTestBase extends FeatureSpec
 
     protected def checkEvent(e: DeserializedRuleLogEvent, fm: FlowMatch,
                              chain: Chain, rule: Rule,
-                             loggerId: UUID, result: String): Unit = {
+                             loggerId: UUID, result: String,
+                             count: Long = 1): Unit = {
         e.srcIp shouldBe fm.getNetworkSrcIP
         e.dstIp shouldBe fm.getNetworkDstIP
         e.srcPort shouldBe fm.getSrcPort
@@ -138,6 +152,8 @@ class RuleLoggerTestBase extends FeatureSpec
         e.nwProto shouldBe fm.getNetworkProto
         e.result shouldBe result
         (System.currentTimeMillis - e.time) should be < 5000L
+        e.lastTime should be >= e.time
+        e.count shouldBe count
         e.loggerId shouldBe loggerId
         e.chainId shouldBe chain.id
         e.ruleId shouldBe rule.id
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.management
+
+import java.io.{BufferedWriter, StringWriter}
+import java.util.UUID
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FeatureSpec, Matchers}
+
+import org.midonet.midolman.monitoring.DeviceProfiler
+import org.midonet.midolman.simulation.PacketContext
+import org.midonet.sdn.flows.FlowTagger
+import org.midonet.sdn.flows.FlowTagger.DeviceTag
+
+@RunWith(classOf[JUnitRunner])
+class DeviceProfilingTest extends FeatureSpec with BeforeAndAfter
+                          with Matchers {
+
+    before {
+        DeviceProfiling.unregisterAll()
+    }
+
+    after {
+        DeviceProfiling.unregisterAll()
+    }
+
+    private def bridgeTag() =
+        FlowTagger.tagForBridge(UUID.randomUUID()).asInstanceOf[DeviceTag]
+
+    private def chainTag() =
+        FlowTagger.tagForChain(UUID.randomUUID()).asInstanceOf[DeviceTag]
+
+    feature("The device profiler records the devices of a simulation") {
+        scenario("Devices entered by a profiled packet are recorded") {
+            val profiler = new DeviceProfiler(100)
+            val bridge = bridgeTag()
+            val chain = chainTag()
+
+            val context = new PacketContext
+            context.deviceProfiled = true
+            context.beginDeviceProfile()
+            context.addFlowTag(bridge)
+            context.addFlowTag(FlowTagger.tagForBroadcast(bridge.device))
+            context.addFlowTag(chain)
+            context.addFlowTag(bridge)
+            context.endDeviceProfile()
+            profiler.record(context)
+
+            val devices = profiler.devices.toArray(
+                new Array[DeviceProfiler.DeviceStats](0))
+            devices.map(d => (d.deviceId, d.deviceType, d.invocations))
+                .toSet shouldBe Set((bridge.device, "Bridge", 2L),
+                                    (chain.device, "Chain", 1L))
+            devices.foreach(_.nanos should be >= 0L)
+        }
+
+        scenario("Devices of a packet not profiled are not recorded") {
+            val profiler = new DeviceProfiler(100)
+            val context = new PacketContext
+            context.beginDeviceProfile()
+            context.addFlowTag(bridgeTag())
+            context.endDeviceProfile()
+            profiler.record(context)
+
+            profiler.devices shouldBe empty
+        }
+
+        scenario("The profiler tracks a limited number of devices") {
+            val profiler = new DeviceProfiler(2)
+            for (_ <- 0 until 5) profiler.record(bridgeTag(), 10)
+            profiler.devices should have size 2
+        }
+    }
+
+    feature("Device profiling aggregates the costs of all workers") {
+        scenario("Top devices are sorted by time") {
+            val profiler1 = new DeviceProfiler(100)
+            val profiler2 = new DeviceProfiler(100)
+            DeviceProfiling.registerAsMXBean(profiler1)
+            DeviceProfiling.registerAsMXBean(profiler2)
+
+            val chain = chainTag()
+            val bridge = bridgeTag()
+            val router = FlowTagger.tagForRouter(UUID.randomUUID())
+                .asInstanceOf[DeviceTag]
+            profiler1.record(chain, 500)
+            profiler2.record(chain, 700)
+            profiler1.record(bridge, 1000)
+            profiler2.record(router, 100)
+
+            val top = DeviceProfiling.getTopDevices(2)
+            top shouldBe Array(
+                new DeviceCost(chain.device.toString, "Chain", 2, 1200),
+                new DeviceCost(bridge.device.toString, "Bridge", 1, 1000))
+            DeviceProfiling.getDevices should have size 3
+
+            val writer = new StringWriter
+            val buffered = new BufferedWriter(writer)
+            DeviceProfiling.toTextTable(buffered, count = 1)
+            buffered.flush()
+            writer.toString shouldBe s"Chain\t${chain.device}\t2\t1200\t600\n"
+
+            DeviceProfiling.reset()
+            DeviceProfiling.getDevices shouldBe empty
+        }
+
+        scenario("Unregistered profilers are not aggregated") {
+            val profiler1 = new DeviceProfiler(100)
+            val profiler2 = new DeviceProfiler(100)
+            DeviceProfiling.registerAsMXBean(profiler1, profiler2)
+            profiler1.record(chainTag(), 500)
+            profiler2.record(bridgeTag(), 700)
+            DeviceProfiling.getDevices should have size 2
+
+            DeviceProfiling.unregister(profiler2)
+            DeviceProfiling.getDevices should have size 1
+            DeviceProfiling.getDevices.head.getDeviceType shouldBe "Chain"
+        }
+    }
+}
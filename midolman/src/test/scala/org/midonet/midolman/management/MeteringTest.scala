@@ -17,9 +17,11 @@ package org.midonet.midolman.management
 
 import java.io.{BufferedWriter,StringWriter}
 import java.util.{ArrayList, UUID}
+import java.util.concurrent.TimeUnit
 
 import scala.collection.JavaConverters._
 
+import com.codahale.metrics.MetricRegistry
 import com.typesafe.scalalogging.Logger
 
 import org.junit.runner.RunWith
@@ -29,6 +31,7 @@ import org.scalatest.{Matchers, FeatureSpec}
 import org.slf4j.LoggerFactory
 
 import org.midonet.midolman.monitoring.MeterRegistry
+import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
 import org.midonet.odp.FlowMatch
 import org.midonet.sdn.flows.FlowTagger
 
@@ -75,5 +78,32 @@ midonet_packets_bytes{key="meters:device:27c9bc2e-2378-4319-aa3a-f59771639daf",r
             writer.flush()
             s.toString() shouldBe expected
         }
+
+        scenario("prometheus compatible packet pipeline output") {
+            val registry = new MetricRegistry
+            val metrics = new PacketPipelineMetrics(registry, 0)
+            metrics.simulationLatency.update(10, TimeUnit.MICROSECONDS)
+
+            val s = new StringWriter()
+            val writer = new BufferedWriter(s)
+            PrometheusPacketPipelineMetering.toPrometheusMetrics(registry,
+                                                                 writer)
+            writer.flush()
+
+            val lines = s.toString.split('\n')
+            lines(0) shouldBe "# HELP midonet_packet_pipeline_latency_seconds " +
+                              "Latency of the packet pipeline stages."
+            lines(1) shouldBe "# TYPE midonet_packet_pipeline_latency_seconds " +
+                              "summary"
+            lines should contain ("midonet_packet_pipeline_latency_seconds_count" +
+                                  "{metric=\"worker-0.stages.simulation\"} 1")
+            lines should contain ("midonet_packet_pipeline_latency_seconds_count" +
+                                  "{metric=\"worker-0.stages.workerQueue\"} 0")
+            lines.filter(_.startsWith(
+                "midonet_packet_pipeline_latency_seconds{metric=\"" +
+                "worker-0.stages.simulation\",quantile=\"0.5\"}"))
+                .map(_.split(' ')(1).toDouble)
+                .head shouldBe 1.0E-5 +- 1.0E-7
+        }
     }
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.management
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FeatureSpec, Matchers}
+
+import org.midonet.midolman.simulation.PacketContext
+import org.midonet.odp.FlowMatch
+import org.midonet.odp.FlowMatch.Field
+import org.midonet.packets.{IPv4, IPv4Addr, MAC}
+
+@RunWith(classOf[JUnitRunner])
+class PacketTracingTest extends FeatureSpec with BeforeAndAfter
+                        with Matchers {
+
+    before {
+        PacketTracing.flush()
+    }
+
+    after {
+        PacketTracing.flush()
+    }
+
+    private def flowMatch(srcIp: String = "10.0.0.1",
+                          dstPort: Int = 80): FlowMatch = {
+        new FlowMatch()
+            .setEthSrc(MAC.fromString("02:00:00:00:00:01"))
+            .setEthDst(MAC.fromString("02:00:00:00:00:02"))
+            .setEtherType(IPv4.ETHERTYPE)
+            .setNetworkSrc(IPv4Addr.fromString(srcIp))
+            .setNetworkDst(IPv4Addr.fromString("10.0.0.2"))
+            .setNetworkProto(6.toByte)
+            .setSrcPort(12345)
+            .setDstPort(dstPort)
+    }
+
+    private def tracer(ipSrc: String = null, dstPort: Integer = null,
+                       level: LogLevel = LogLevel.TRACE,
+                       limit: Int = 10): PacketTracer =
+        PacketTracer(null, null, null, null, ipSrc, null, null, dstPort,
+                     level, limit)
+
+    feature("Packet tracing selects the logger of a flow") {
+        scenario("Flows are not traced without tracers") {
+            val fmatch = flowMatch()
+            PacketTracing.loggerFor(fmatch) shouldBe PacketContext.defaultLog
+            fmatch.getSeenFields shouldBe 0L
+        }
+
+        scenario("Flows matching a tracer use the tracer logger") {
+            PacketTracing.addTracer(tracer(ipSrc = "10.0.0.1", dstPort = 80))
+            PacketTracing.addTracer(tracer(dstPort = 22,
+                                           level = LogLevel.DEBUG))
+
+            PacketTracing.loggerFor(flowMatch()) shouldBe PacketContext.traceLog
+            PacketTracing.loggerFor(flowMatch(dstPort = 22)) shouldBe
+                PacketContext.debugLog
+            PacketTracing.loggerFor(flowMatch(srcIp = "10.0.0.3")) shouldBe
+                PacketContext.defaultLog
+        }
+
+        scenario("Only the fields of the tracers are seen") {
+            PacketTracing.addTracer(tracer(dstPort = 80))
+
+            val fmatch = flowMatch()
+            PacketTracing.loggerFor(fmatch) shouldBe PacketContext.traceLog
+            fmatch.getSeenFields shouldBe (1L << Field.DstPort.ordinal())
+        }
+
+        scenario("Tracers stop matching after their limit") {
+            val t = tracer(dstPort = 80, limit = 2)
+            PacketTracing.addTracer(t)
+
+            PacketTracing.loggerFor(flowMatch()) shouldBe PacketContext.traceLog
+            PacketTracing.loggerFor(flowMatch()) shouldBe PacketContext.traceLog
+            PacketTracing.loggerFor(flowMatch()) shouldBe PacketContext.defaultLog
+
+            PacketTracing.getLiveTracers shouldBe empty
+            PacketTracing.flushDeadTracers() shouldBe 1
+            PacketTracing.getTracers shouldBe empty
+        }
+
+        scenario("Removed tracers no longer match") {
+            val t = tracer(dstPort = 80)
+            PacketTracing.addTracer(t)
+            PacketTracing.removeTracer(t) shouldBe 1
+
+            PacketTracing.loggerFor(flowMatch()) shouldBe PacketContext.defaultLog
+        }
+    }
+}
@@ -21,6 +21,8 @@ import akka.actor.ActorSystem
 import akka.testkit.TestActorRef
 import java.util.UUID
 
+import com.codahale.metrics.MetricRegistry
+
 import org.junit.runner.RunWith
 import org.mockito.Matchers.any
 import org.mockito.Matchers.{eq => mockEq}
@@ -208,7 +210,8 @@ class TestableMetadataServiceManagerActor(
         backend,
         config,
         plumber,
-        datapathInterface
+        datapathInterface,
+        new MetricRegistry
     ) {
 
     override def preStart() = {
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.openstack.metadata
+
+import java.net.{InetAddress, InetSocketAddress}
+import java.util.UUID
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+import javax.servlet.http.{HttpServletRequest, HttpServletResponse}
+
+import scala.concurrent.duration._
+import scala.concurrent.{Await, Future}
+
+import com.codahale.metrics.MetricRegistry
+import com.sun.jersey.api.client.UniformInterfaceException
+
+import org.eclipse.jetty.server.handler.AbstractHandler
+import org.eclipse.jetty.server.{Request, Server, ServerConnector}
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FeatureSpec, Matchers}
+
+@RunWith(classOf[JUnitRunner])
+class NovaMetadataClientTest extends FeatureSpec with Matchers
+                             with BeforeAndAfter {
+
+    private val remoteAddr = "169.254.0.2"
+    private val portId = UUID.randomUUID()
+    private val info = InstanceInfo("10.0.0.1", "fa:16:3e:a8:9f:15", portId,
+                                    "tenant", "instance")
+
+    private var server: Server = _
+    private var url: String = _
+    private val requests = new AtomicInteger
+    @volatile private var release = new CountDownLatch(0)
+    @volatile private var status = HttpServletResponse.SC_OK
+
+    private class NovaHandler extends AbstractHandler {
+        override def handle(target: String, baseReq: Request,
+                            request: HttpServletRequest,
+                            response: HttpServletResponse): Unit = {
+            baseReq setHandled true
+            requests.incrementAndGet()
+            release.await(10, TimeUnit.SECONDS)
+            if (status == HttpServletResponse.SC_OK) {
+                response.getWriter print
+                    s"${request.getHeader("X-Instance-ID")}:${request.getPathInfo}"
+            } else {
+                response.sendError(status)
+            }
+        }
+    }
+
+    before {
+        requests.set(0)
+        release = new CountDownLatch(0)
+        status = HttpServletResponse.SC_OK
+        server = new Server(new InetSocketAddress(InetAddress.getLoopbackAddress, 0))
+        server.setHandler(new NovaHandler)
+        server.start()
+        val port = server.getConnectors()(0).asInstanceOf[ServerConnector]
+                         .getLocalPort
+        url = s"http://127.0.0.1:$port"
+        InstanceInfoMap.put(remoteAddr, portId, info)
+    }
+
+    after {
+        InstanceInfoMap removeByPortId portId
+        server.stop()
+        server.join()
+    }
+
+    private def client(ttl: Duration, metrics: MetricRegistry = new MetricRegistry) =
+        new NovaMetadataClient(url, "secret", ttl, metrics)
+
+    private def get(client: NovaMetadataClient, path: String): String =
+        client.proxyRequest("GET", path, null, remoteAddr)
+
+    feature("The client caches the responses") {
+        scenario("GET responses are served from the cache") {
+            val metrics = new MetricRegistry
+            val c = client(1 minute, metrics)
+            get(c, "/latest/meta-data/") shouldBe "instance:/latest/meta-data/"
+            get(c, "/latest/meta-data/") shouldBe "instance:/latest/meta-data/"
+            get(c, "/latest/user-data") shouldBe "instance:/latest/user-data"
+            requests.get shouldBe 2
+
+            val prefix = classOf[NovaMetadataClient].getName
+            metrics.getMeters.get(s"$prefix.cache.hits").getCount shouldBe 1
+            metrics.getMeters.get(s"$prefix.cache.misses").getCount shouldBe 2
+            metrics.getTimers.get(s"$prefix.upstream.latency").getCount shouldBe 2
+            c.close()
+        }
+
+        scenario("A zero TTL disables the cache") {
+            val c = client(Duration.Zero)
+            get(c, "/latest/meta-data/")
+            get(c, "/latest/meta-data/")
+            requests.get shouldBe 2
+            c.close()
+        }
+
+        scenario("Invalidating an instance drops its responses") {
+            val c = client(1 minute)
+            get(c, "/latest/meta-data/")
+            c invalidate info
+            get(c, "/latest/meta-data/")
+            requests.get shouldBe 2
+            c.close()
+        }
+
+        scenario("Error responses are not cached") {
+            val c = client(1 minute)
+            status = HttpServletResponse.SC_NOT_FOUND
+            val e = intercept[UniformInterfaceException] {
+                get(c, "/missing")
+            }
+            e.getResponse.getStatus shouldBe HttpServletResponse.SC_NOT_FOUND
+            status = HttpServletResponse.SC_OK
+            get(c, "/missing") shouldBe "instance:/missing"
+            requests.get shouldBe 2
+            c.close()
+        }
+
+        scenario("Requests from unknown addresses are rejected") {
+            val c = client(1 minute)
+            intercept[NovaMetadataClientException] {
+                c.proxyRequest("GET", "/", null, "169.254.0.3")
+            }
+            requests.get shouldBe 0
+            c.close()
+        }
+    }
+
+    feature("The client coalesces concurrent requests") {
+        scenario("Concurrent GET requests for the same path") {
+            import scala.concurrent.ExecutionContext.Implicits.global
+            val c = client(Duration.Zero)
+            release = new CountDownLatch(1)
+            val first = Future { get(c, "/latest/meta-data/") }
+            while (requests.get == 0) Thread.sleep(10)
+            val second = Future { get(c, "/latest/meta-data/") }
+            Thread.sleep(100)
+            release.countDown()
+
+            Await.result(first, 10 seconds) shouldBe "instance:/latest/meta-data/"
+            Await.result(second, 10 seconds) shouldBe "instance:/latest/meta-data/"
+            requests.get shouldBe 1
+            c.close()
+        }
+    }
+}
@@ -60,7 +60,8 @@ class RoutingHandlerTest extends FeatureSpecLike
     def vty = bgpd.vty
     var routingHandler: ActorRef = _
     var invalidations = List[FlowTag]()
-    val config = MidolmanConfig.forTests
+    val config = MidolmanConfig.forTests(
+        "agent.router.bgp_route_batch_delay : 0s")
     implicit var as: ActorSystem = _
     val peerRouteToPortAccount = mutable.Map[PeerRoute, UUID]()
 
@@ -437,6 +438,78 @@ class RoutingHandlerTest extends FeatureSpecLike
         }
     }
 
+    feature("batches learned routes") {
+        def batchingHandler(config: String): ActorRef = {
+            val handler = TestActorRef(new TestableRoutingHandler(
+                rport, invalidations ::= _, routingStorage,
+                MidolmanConfig.forTests(config), new MockBgpdProcess, false,
+                mutable.Map[PeerRoute, UUID]()))
+            handler ! rport
+            handler
+        }
+
+        def path(gw: String): Set[ZebraPath] = {
+            Set(ZebraPath(RIBType.BGP, IPv4Addr.fromString(gw), 100))
+        }
+
+        scenario("routes are written after the batch delay") {
+            val handler = batchingHandler(
+                "agent.router.bgp_route_batch_delay : 1h")
+            val dst1 = "10.10.10.0/24"
+            val dst2 = "10.10.20.0/24"
+            val gw = "192.168.80.254"
+
+            handler ! RoutingHandler.AddPeerRoutes(IPv4Subnet.fromCidr(dst1),
+                                                   path(gw))
+            handler ! RoutingHandler.AddPeerRoutes(IPv4Subnet.fromCidr(dst2),
+                                                   path(gw))
+            handler ! RoutingHandler.RemovePeerRoute(RIBType.BGP,
+                                                     IPv4Subnet.fromCidr(dst2))
+            verify(routingStorage, never()).addRoute(anyObject(), anyObject())
+
+            handler ! RoutingHandler.FlushLearnedRoutes
+            verify(routingStorage).addRoute(argThat(matchRoute(dst1, gw)),
+                                            Eq(rport.id))
+            verify(routingStorage, never()).addRoute(
+                argThat(matchRoute(dst2, gw)), anyObject())
+
+            // A route withdrawn and announced again is not removed.
+            handler ! RoutingHandler.RemovePeerRoute(RIBType.BGP,
+                                                     IPv4Subnet.fromCidr(dst1))
+            handler ! RoutingHandler.AddPeerRoutes(IPv4Subnet.fromCidr(dst1),
+                                                   path(gw))
+            handler ! RoutingHandler.FlushLearnedRoutes
+            verify(routingStorage, never()).removeRoute(anyObject(),
+                                                        anyObject())
+            verify(routingStorage, times(1)).addRoute(anyObject(), anyObject())
+
+            as.stop(handler)
+        }
+
+        scenario("routes are written when the batch is full") {
+            val handler = batchingHandler(
+                """agent.router.bgp_route_batch_delay : 1h
+                   agent.router.bgp_route_batch_size : 2""")
+            val dst1 = "10.10.10.0/24"
+            val dst2 = "10.10.20.0/24"
+            val gw = "192.168.80.254"
+
+            handler ! RoutingHandler.AddPeerRoutes(IPv4Subnet.fromCidr(dst1),
+                                                   path(gw))
+            verify(routingStorage, never()).addRoute(anyObject(), anyObject())
+
+            handler ! RoutingHandler.AddPeerRoutes(IPv4Subnet.fromCidr(dst2),
+                                                   path(gw))
+            verify(routingStorage).addRoutes(anyObject(), Eq(rport.id))
+            verify(routingStorage).addRoute(argThat(matchRoute(dst1, gw)),
+                                            Eq(rport.id))
+            verify(routingStorage).addRoute(argThat(matchRoute(dst2, gw)),
+                                            Eq(rport.id))
+
+            as.stop(handler)
+        }
+    }
+
     feature("reacts to changes in the bgp session configuration") {
         scenario("a new peer is added or removed") {
             val update = BgpRouter(asNumber, rport.portAddress4.getAddress,
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.topology
+
+import java.util.UUID
+
+import scala.concurrent.duration._
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.cluster.data.storage.{CreateOp, Storage}
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.topology.TopologyBuilder
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.midolman.util.MidolmanSpec
+
+@RunWith(classOf[JUnitRunner])
+class TopologyWarmupTest extends MidolmanSpec with TopologyBuilder {
+
+    private var vt: VirtualTopology = _
+    private var store: Storage = _
+
+    private val timeout = 5 seconds
+
+    protected override def beforeTest(): Unit = {
+        vt = injector.getInstance(classOf[VirtualTopology])
+        store = injector.getInstance(classOf[MidonetBackend]).store
+    }
+
+    feature("The warm-up loads the devices reachable from the host") {
+        scenario("Ports, bridges, routers and chains") {
+            Given("A host with a port bound to a bridge connected to a router")
+            val host = createHost()
+            val chain1 = createChain()
+            val chain2 = createChain()
+            val rule = createJumpRuleBuilder(UUID.randomUUID(),
+                                             chainId = Some(chain1.getId),
+                                             jumpChainId = Some(chain2.getId))
+                .build()
+            val bridge = createBridge(inboundFilterId = Some(chain1.getId))
+            val router = createRouter()
+            val boundPort = createBridgePort(bridgeId = Some(bridge.getId),
+                                             hostId = Some(host.getId))
+            val routerPort = createRouterPort(routerId = Some(router.getId))
+            val interiorPort = createBridgePort(bridgeId = Some(bridge.getId),
+                                                peerId = Some(routerPort.getId))
+            val unrelatedBridge = createBridge()
+            store.multi(Seq(CreateOp(host), CreateOp(chain1), CreateOp(chain2),
+                            CreateOp(rule), CreateOp(bridge), CreateOp(router),
+                            CreateOp(boundPort), CreateOp(routerPort),
+                            CreateOp(interiorPort), CreateOp(unrelatedBridge)))
+
+            When("Running the warm-up")
+            val loaded = new TopologyWarmup(vt, host.getId, 100, timeout).run()
+
+            Then("All reachable devices are in the virtual topology")
+            loaded shouldBe 7
+            for (id <- Seq(boundPort.getId, interiorPort.getId,
+                           routerPort.getId, bridge.getId, router.getId,
+                           chain1.getId, chain2.getId)) {
+                vt.devices.containsKey(id.asJava) shouldBe true
+            }
+
+            And("The unrelated devices are not loaded")
+            vt.devices.containsKey(unrelatedBridge.getId.asJava) shouldBe false
+        }
+
+        scenario("The warm-up is bounded by the maximum number of devices") {
+            Given("A host with a port bound to a bridge")
+            val host = createHost()
+            val bridge = createBridge()
+            val ports = for (_ <- 0 until 10) yield
+                createBridgePort(bridgeId = Some(bridge.getId),
+                                 hostId = Some(host.getId))
+            store.multi(Seq(CreateOp(host), CreateOp(bridge)) ++
+                        ports.map(CreateOp))
+
+            When("Running the warm-up with a limit of 5 devices")
+            val loaded = new TopologyWarmup(vt, host.getId, 5, timeout).run()
+
+            Then("Only 5 devices are loaded")
+            loaded shouldBe 5
+        }
+
+        scenario("A missing host does not fail the warm-up") {
+            new TopologyWarmup(vt, UUID.randomUUID(), 100, timeout)
+                .run() shouldBe 0
+        }
+    }
+}
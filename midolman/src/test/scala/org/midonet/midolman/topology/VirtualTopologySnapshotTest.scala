@@ -0,0 +1,178 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.topology
+
+import java.io.File
+import java.nio.file.Files
+import java.util
+
+import com.codahale.metrics.MetricRegistry
+import com.typesafe.config.ConfigFactory
+
+import org.apache.commons.io.FileUtils
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.topology.snapshot._
+import org.midonet.conf.MidoTestConfigurator
+import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.midolman.util.MidolmanSpec
+import org.midonet.midolman.util.mock.MockRuleLogEventChannel
+import org.midonet.util.concurrent.SameThreadButAfterExecutorService
+
+@RunWith(classOf[JUnitRunner])
+class VirtualTopologySnapshotTest extends MidolmanSpec {
+
+    private val maxAgeMs = 60000L
+
+    private var dir: File = _
+    private var path: File = _
+
+    /** A virtual topology that returns the specified snapshot instead of
+      * requesting it from the cluster, and counts the requests. */
+    private class TestableVirtualTopology(fetched: TopologySnapshot)
+        extends VirtualTopology(
+            injector.getInstance(classOf[MidonetBackend]),
+            snapshotConfig,
+            simBackChannel,
+            new MockRuleLogEventChannel,
+            new MetricRegistry,
+            new SameThreadButAfterExecutorService,
+            new SameThreadButAfterExecutorService,
+            () => true,
+            cbRegistry) {
+
+        var fetches = 0
+
+        protected override def fetchSnapshot(): TopologySnapshot = {
+            fetches += 1
+            fetched
+        }
+    }
+
+    protected override def beforeTest(): Unit = {
+        dir = Files.createTempDirectory("snapshot").toFile
+        path = new File(dir, "topology.snapshot")
+    }
+
+    protected override def afterTest(): Unit = {
+        FileUtils.deleteDirectory(dir)
+    }
+
+    private def snapshotConfig: MidolmanConfig = {
+        val conf = MidoTestConfigurator.forAgents(fillConfig(
+            ConfigFactory.parseString(
+                s"""
+                   |agent.midolman.initial_storage_cache.enabled = true
+                   |agent.midolman.initial_storage_cache.persistent_path = "$path"
+                   |agent.midolman.initial_storage_cache.persistent_max_age_ms = $maxAgeMs
+                """.stripMargin)))
+        new MidolmanConfig(conf, ConfigFactory.empty())
+    }
+
+    private def newSnapshot(): TopologySnapshot = {
+        TopologySnapshot(new ObjectSnapshot, new StateSnapshot)
+    }
+
+    private def writeLocalSnapshot(timestamp: Long): Unit = {
+        val array = new Array[Byte](64 * 1024)
+        val length = new TopologySnapshotSerializer().serialize(
+            array, newSnapshot())
+        new TopologySnapshotStore(path.toPath)
+            .write(util.Arrays.copyOf(array, length), timestamp)
+    }
+
+    feature("The topology loads the initial snapshot at start-up") {
+        scenario("A fresh local copy is refreshed in the background") {
+            Given("A local copy younger than the maximum age")
+            writeLocalSnapshot(System.currentTimeMillis())
+
+            And("A topology with a snapshot in the cluster")
+            val fetched = newSnapshot()
+            val vt = new TestableVirtualTopology(fetched)
+
+            When("Loading the snapshot")
+            val snapshot = vt.loadSnapshot()
+
+            Then("The topology uses the local copy")
+            snapshot should not be null
+            snapshot should not be theSameInstanceAs (fetched)
+
+            And("The topology refreshes the copy from the cluster")
+            vt.fetches shouldBe 1
+        }
+
+        scenario("A stale local copy is used when the cluster fails") {
+            Given("A local copy older than the maximum age")
+            writeLocalSnapshot(System.currentTimeMillis() - 2 * maxAgeMs)
+
+            And("A topology without a snapshot in the cluster")
+            val vt = new TestableVirtualTopology(null)
+
+            When("Loading the snapshot")
+            val snapshot = vt.loadSnapshot()
+
+            Then("The topology requested the snapshot from the cluster")
+            vt.fetches shouldBe 1
+
+            And("The topology uses the local copy")
+            snapshot should not be null
+        }
+
+        scenario("A stale local copy is not used when the cluster succeeds") {
+            Given("A local copy older than the maximum age")
+            writeLocalSnapshot(System.currentTimeMillis() - 2 * maxAgeMs)
+
+            And("A topology with a snapshot in the cluster")
+            val fetched = newSnapshot()
+            val vt = new TestableVirtualTopology(fetched)
+
+            When("Loading the snapshot")
+            val snapshot = vt.loadSnapshot()
+
+            Then("The topology uses the snapshot from the cluster")
+            vt.fetches shouldBe 1
+            snapshot shouldBe theSameInstanceAs (fetched)
+        }
+
+        scenario("The topology uses the cluster without a local copy") {
+            Given("A topology with a snapshot in the cluster")
+            val fetched = newSnapshot()
+            val vt = new TestableVirtualTopology(fetched)
+
+            When("Loading the snapshot")
+            val snapshot = vt.loadSnapshot()
+
+            Then("The topology uses the snapshot from the cluster")
+            vt.fetches shouldBe 1
+            snapshot shouldBe theSameInstanceAs (fetched)
+        }
+
+        scenario("The topology has no snapshot without the cluster") {
+            Given("A topology without a snapshot in the cluster")
+            val vt = new TestableVirtualTopology(null)
+
+            When("Loading the snapshot")
+            val snapshot = vt.loadSnapshot()
+
+            Then("The topology has no snapshot")
+            vt.fetches shouldBe 1
+            snapshot shouldBe null
+        }
+    }
+}
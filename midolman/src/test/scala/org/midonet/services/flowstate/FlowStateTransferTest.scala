@@ -30,7 +30,7 @@ import org.scalatest.junit.JUnitRunner
 
 import org.midonet.cluster.topology.TopologyBuilder
 import org.midonet.midolman.HostRequestProxy.FlowStateBatch
-import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.midolman.config.{FlowStateConfig, MidolmanConfig}
 import org.midonet.services.flowstate.handlers._
 import org.midonet.services.flowstate.stream.{ByteBufferBlockReader, Context, FlowStateBlock, FlowStateManager}
 import org.midonet.services.flowstate.transfer.client._
@@ -147,6 +147,30 @@ class FlowStateTransferTest extends FlowStateBaseTest with TopologyBuilder {
             sn should not be empty
         }
 
+        scenario("A chunked internal flow state request") {
+            Given("A previous port id of the server agent")
+            val portId = handler.validPortId
+            And("A client importing the flow state in chunks of one entry")
+            val chunkConfig = new FlowStateConfig(configAlt.flowState.conf,
+                                                  configAlt.flowState.schema) {
+                override def transferChunkSize: Int = 1
+            }
+            val chunkClient = new FlowStateInternalClient(chunkConfig)
+            val chunks = new collection.mutable.ArrayBuffer[FlowStateBatch]()
+
+            When("The flow state is requested by the TCP client")
+            val last = chunkClient.internalFlowStateFrom(portId, chunks += _)
+
+            Then("The flow state was received in several chunks")
+            chunks.size should be > 1
+            chunks.foreach(_.size() should be > 0)
+            last.size() shouldBe 0
+
+            And("The chunks contain conntrack and NAT entries")
+            chunks.flatMap(_.strongConnTrack.asScala) should not be empty
+            chunks.flatMap(_.strongNat.asScala) should not be empty
+        }
+
         scenario("A remote flow state request between minion and agent") {
             Given("A flow state read message handler")
             val localPorts = Seq.empty
@@ -183,6 +183,8 @@ class ContainersConfig(val conf: Config) extends MinionConfig[ContainerService]
     def schedulerRetryMs = conf.getDuration(s"$prefix.scheduler_retry", TimeUnit.MILLISECONDS)
     def schedulerMaxRetries = conf.getInt(s"$prefix.scheduler_max_retries")
     def schedulerBadHostLifetimeMs = conf.getDuration(s"$prefix.scheduler_bad_host_lifetime", TimeUnit.MILLISECONDS)
+    def schedulerBatchIntervalMs = conf.getDuration(s"$prefix.scheduler_batch_interval", TimeUnit.MILLISECONDS)
+    def schedulerRescheduleRate = conf.getDouble(s"$prefix.scheduler_reschedule_rate")
 }
 
 class StateProxyConfig(val conf: Config) extends MinionConfig[StateProxy] {
@@ -193,6 +195,8 @@ class StateProxyConfig(val conf: Config) extends MinionConfig[StateProxy] {
         conf.getInt(s"$prefix.initial_subscriber_queue_size")
     def notifyBatchSize =
         conf.getInt(s"$prefix.notify_batch_size")
+    def maxSubscriberQueueSize =
+        conf.getInt(s"$prefix.max_subscriber_queue_size")
     def cacheThreads = conf.getInt(s"$prefix.cache_threads")
     def serverAddress = conf.getString(s"$prefix.server.address")
     def serverPort = conf.getInt(s"$prefix.server.port")
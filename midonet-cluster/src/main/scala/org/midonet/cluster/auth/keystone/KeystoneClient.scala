@@ -48,7 +48,7 @@ object KeystoneClient {
       * This ensures that clock difference between the client and the Keystone
       * server does not cause the client to use an expired token.
       */
-    private val TokenExpirationGuard = 1 minute
+    private[keystone] val TokenExpirationGuard = 1 minute
 
     /**
       * Contains information about an administrative token.
@@ -106,6 +106,8 @@ class KeystoneClient(config: KeystoneConfig) {
     clientConfig.getSingletons.add(jsonProvider)
 
     private val client = Client.create(clientConfig)
+    client.setConnectTimeout(config.requestTimeout.toMillis.toInt)
+    client.setReadTimeout(config.requestTimeout.toMillis.toInt)
     client.addFilter(new LoggingFilter(
         Logger.getLogger("org.midonet.cluster.auth.keystone")))
 
@@ -16,6 +16,10 @@
 
 package org.midonet.cluster.auth.keystone
 
+import java.util.concurrent.TimeUnit
+
+import scala.concurrent.duration._
+
 import com.typesafe.config.Config
 
 import org.midonet.cluster.AuthConfig
@@ -33,5 +37,12 @@ class KeystoneConfig(conf: Config) extends AuthConfig(conf) {
     def host = conf.getString(s"$prefix.keystone.host")
     def port = conf.getInt(s"$prefix.keystone.port")
     def urlOverride = conf.getString(s"$prefix.keystone.url")
+    def requestTimeout = conf.getDuration(s"$prefix.keystone.request_timeout",
+                                          TimeUnit.MILLISECONDS) millis
+    def tokenCacheSize = conf.getInt(s"$prefix.keystone.token_cache_size")
+    def tokenCacheTtl = conf.getDuration(s"$prefix.keystone.token_cache_ttl",
+                                         TimeUnit.MILLISECONDS) millis
+    def tokenCacheRefresh = conf.getDuration(
+        s"$prefix.keystone.token_cache_refresh", TimeUnit.MILLISECONDS) millis
 
 }
@@ -17,9 +17,11 @@
 package org.midonet.cluster.auth.keystone
 
 import java.util.Date
+import java.util.concurrent.Executors
 
 import scala.collection.JavaConverters._
 
+import com.codahale.metrics.MetricRegistry
 import com.google.inject.Inject
 import com.typesafe.config.Config
 import com.typesafe.scalalogging.Logger
@@ -31,6 +33,7 @@ import org.midonet.cluster.auth
 import org.midonet.cluster.auth._
 import org.midonet.cluster.KeystoneLog
 import org.midonet.cluster.rest_api.models.Tenant
+import org.midonet.util.concurrent.NamedThreadFactory
 
 class KeystoneService @Inject()(config: Config) extends AuthService {
 
@@ -38,6 +41,23 @@ class KeystoneService @Inject()(config: Config) extends AuthService {
     private val keystoneConfig = new KeystoneConfig(config)
     private val keystoneClient = new KeystoneClient(keystoneConfig)
 
+    private[keystone] val tokenCache =
+        if (keystoneConfig.tokenCacheSize > 0) {
+            new KeystoneTokenCache(
+                keystoneClient.validate(_), keystoneConfig.tokenCacheSize,
+                keystoneConfig.tokenCacheTtl, keystoneConfig.tokenCacheRefresh,
+                keystoneConfig.requestTimeout,
+                Executors.newSingleThreadExecutor(new NamedThreadFactory(
+                    "keystone-token-refresh", isDaemon = true)))
+        } else null
+
+    /** Exposes the token cache metrics, when the service is created by an
+      * injector providing the cluster metric registry. */
+    @Inject(optional = true)
+    def registerMetrics(metrics: MetricRegistry): Unit = {
+        if (tokenCache ne null) tokenCache.registerMetrics(metrics)
+    }
+
     /**
       * Authenticates the user with the specified credentials. If the tenant
       * argument is set, the user is authenticated in the context of the
@@ -69,7 +89,10 @@ class KeystoneService @Inject()(config: Config) extends AuthService {
         if (StringUtils.isBlank(token))
             throw new InvalidCredentialsException("No token was passed in.")
 
-        val identity = identityOf(keystoneClient.validate(token))
+        val response =
+            if (tokenCache ne null) tokenCache.get(token)
+            else keystoneClient.validate(token)
+        val identity = identityOf(response)
 
         log info s"Token $token authorized as $identity"
 
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.auth.keystone
+
+import java.util.concurrent.atomic.{AtomicBoolean, LongAdder}
+import java.util.concurrent.{ConcurrentHashMap, Executor, TimeoutException}
+import java.util.{Map => JMap}
+
+import scala.annotation.tailrec
+import scala.collection.JavaConverters._
+import scala.concurrent.duration._
+import scala.concurrent.{Await, Promise}
+import scala.util.Success
+import scala.util.control.NonFatal
+
+import com.codahale.metrics.{Gauge, Metric, MetricRegistry, MetricSet}
+import com.typesafe.scalalogging.Logger
+
+import org.slf4j.LoggerFactory
+
+import org.midonet.cluster.KeystoneLog
+import org.midonet.cluster.auth.AuthException
+import org.midonet.cluster.auth.keystone.KeystoneClient.{TokenExpirationGuard, parseExpiresAt}
+
+/**
+  * A bounded cache of token validations, used to avoid a round-trip to the
+  * Keystone server for every request that reuses the same client token.
+  *
+  * A validation is cached until the earliest of the token expiration time,
+  * minus the [[KeystoneClient]] clock guard, and the `ttl` after the
+  * validation. Once a cached validation is older than `refreshAfter`, the
+  * first request using the token schedules a new validation on the given
+  * executor, while the current and subsequent requests continue to use the
+  * cached validation. If the refresh finds the token is no longer valid, the
+  * token is removed from the cache.
+  *
+  * Concurrent requests for a token that is not cached are collapsed into a
+  * single validation performed by the first request: the other requests wait
+  * for its result, for at most the given `timeout`. Failed validations are
+  * not cached.
+  */
+class KeystoneTokenCache(validator: String => AuthResponse,
+                         maxSize: Int, ttl: Duration, refreshAfter: Duration,
+                         timeout: Duration, executor: Executor) {
+
+    private val log = Logger(LoggerFactory.getLogger(KeystoneLog))
+
+    /** A cache entry, which completes with the validation of the token. */
+    private final class Entry(val token: String) {
+        val promise = Promise[AuthResponse]()
+        @volatile var expiresAt = 0L
+        @volatile var refreshAt = 0L
+        val refreshing = new AtomicBoolean()
+
+        def complete(response: AuthResponse, now: Long): Unit = {
+            val tokenExpiresAt =
+                if (response.token eq null) Long.MaxValue
+                else parseExpiresAt(response.token.expiresAt)
+            expiresAt = Math.min(tokenExpiresAt - TokenExpirationGuard.toMillis,
+                                 now + ttl.toMillis)
+            refreshAt = now + refreshAfter.toMillis
+            promise.success(response)
+        }
+    }
+
+    private val entries = new ConcurrentHashMap[String, Entry]()
+
+    private val hitCount = new LongAdder
+    private val missCount = new LongAdder
+    private val collapsedCount = new LongAdder
+    private val refreshCount = new LongAdder
+    private val evictionCount = new LongAdder
+
+    /** The number of requests served from the cache. */
+    def hits: Long = hitCount.sum()
+
+    /** The number of requests that validated the token with Keystone. */
+    def misses: Long = missCount.sum()
+
+    /** The number of requests that waited for the validation of the same
+      * token by a concurrent request. */
+    def collapsed: Long = collapsedCount.sum()
+
+    /** The number of background validations of cached tokens. */
+    def refreshes: Long = refreshCount.sum()
+
+    /** The number of tokens removed from the cache because the cache was
+      * full. */
+    def evictions: Long = evictionCount.sum()
+
+    /** The number of cached tokens. */
+    def size: Int = entries.size()
+
+    /** Exposes the cache counters in the given metric registry. */
+    def registerMetrics(registry: MetricRegistry): Unit = {
+        registry.register("keystoneTokenCache", new MetricSet {
+            private def gauge(value: => Long): Metric = new Gauge[Long] {
+                override def getValue: Long = value
+            }
+            override def getMetrics: JMap[String, Metric] = Map(
+                "hits" -> gauge(hits),
+                "misses" -> gauge(misses),
+                "collapsed" -> gauge(collapsed),
+                "refreshes" -> gauge(refreshes),
+                "evictions" -> gauge(evictions),
+                "size" -> gauge(size)).asJava
+        })
+    }
+
+    /**
+      * Returns the validation of the given token, either from the cache or by
+      * validating the token with the Keystone server.
+      */
+    @throws[AuthException]
+    def get(token: String): AuthResponse = {
+        get(token, currentTimeMillis)
+    }
+
+    /** Removes all tokens from the cache. */
+    def clear(): Unit = {
+        entries.clear()
+    }
+
+    protected def currentTimeMillis: Long = System.currentTimeMillis()
+
+    @tailrec
+    private def get(token: String, now: Long): AuthResponse = {
+        val entry = entries.get(token)
+        if (entry eq null) {
+            val newEntry = new Entry(token)
+            if (entries.putIfAbsent(token, newEntry) eq null) {
+                missCount.increment()
+                load(newEntry, now)
+            } else {
+                get(token, now)
+            }
+        } else entry.promise.future.value match {
+            case Some(Success(response)) if now < entry.expiresAt =>
+                hitCount.increment()
+                if (now >= entry.refreshAt &&
+                    entry.refreshing.compareAndSet(false, true)) {
+                    refresh(entry)
+                }
+                response
+            case Some(_) =>
+                // The cached validation expired: validate again.
+                entries.remove(token, entry)
+                get(token, now)
+            case None =>
+                collapsedCount.increment()
+                try Await.result(entry.promise.future, timeout)
+                catch {
+                    case e: TimeoutException =>
+                        throw new KeystoneConnectionException(null, e)
+                }
+        }
+    }
+
+    /** Validates the token of a new entry on the current thread. The entry
+      * is removed and its waiters fail if the validation fails for any
+      * reason, including an invalid expiration time. */
+    private def load(entry: Entry, now: Long): AuthResponse = {
+        try {
+            evict(now)
+            val response = validator(entry.token)
+            entry.complete(response, now)
+            response
+        } catch {
+            case NonFatal(e) =>
+                entries.remove(entry.token, entry)
+                entry.promise.tryFailure(e)
+                throw e
+        }
+    }
+
+    /** Validates the token of a cached entry in the background, and replaces
+      * the entry if the validation succeeds. */
+    private def refresh(entry: Entry): Unit = {
+        executor.execute(new Runnable {
+            override def run(): Unit = {
+                refreshCount.increment()
+                try {
+                    val response = validator(entry.token)
+                    val newEntry = new Entry(entry.token)
+                    newEntry.complete(response, currentTimeMillis)
+                    entries.replace(entry.token, entry, newEntry)
+                } catch {
+                    case e: KeystoneConnectionException =>
+                        // Keep the current validation until it expires.
+                        log.debug(s"Refreshing token ${entry.token} failed: " +
+                                  s"${e.getMessage}")
+                        entry.refreshing.set(false)
+                    case NonFatal(e) =>
+                        log.debug(s"Token ${entry.token} is no longer valid: " +
+                                  s"${e.getMessage}")
+                        entries.remove(entry.token, entry)
+                }
+            }
+        })
+    }
+
+    /** Removes the expired tokens when the cache exceeds its maximum size,
+      * and then any other tokens until the cache is three quarters full, such
+      * that the eviction cost is amortized over several misses. */
+    private def evict(now: Long): Unit = {
+        if (entries.size() <= maxSize) {
+            return
+        }
+        var iterator = entries.values().iterator()
+        while (iterator.hasNext) {
+            val entry = iterator.next()
+            if (entry.promise.isCompleted && now >= entry.expiresAt) {
+                iterator.remove()
+            }
+        }
+        iterator = entries.values().iterator()
+        while (iterator.hasNext && entries.size() > maxSize * 3 / 4) {
+            if (iterator.next().promise.isCompleted) {
+                iterator.remove()
+                evictionCount.increment()
+            }
+        }
+    }
+
+}
@@ -22,6 +22,7 @@ import javax.sql.DataSource
 
 import scala.util.control.NonFatal
 
+import com.codahale.metrics.MetricRegistry
 import com.google.inject.Inject
 import com.google.protobuf.Message
 
@@ -29,7 +30,11 @@ import org.apache.curator.framework.CuratorFramework
 import org.apache.curator.framework.recipes.leader.LeaderLatch
 import org.slf4j.LoggerFactory
 
+import rx.Subscription
+
+import org.midonet.cluster.cache.{ObjectCache, ZoomPaths}
 import org.midonet.cluster.data.neutron.{DataStateUpdater, SqlNeutronImporter, importer}
+import org.midonet.cluster.data.storage.ZookeeperObjectMapper
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.services.c3po.C3POStorageManager._
 import org.midonet.cluster.services.c3po.NeutronDeserializer.toMessage
@@ -50,6 +55,8 @@ import org.midonet.minion.{Context, MinionService, ScheduledMinion}
   * @param backend The MidoNet backend service
   * @param curator API for access to ZK for internal uses of the C3PO service
   * @param backendCfg the Backend configuration
+  * @param metrics the metric registry, used by the object cache that notifies
+  *                the transaction cache of the backend storage, if enabled
   */
 @MinionService(name = "neutron-importer", runsOn = TargetNode.CLUSTER)
 class C3POMinion @Inject()(nodeContext: Context,
@@ -57,7 +64,8 @@ class C3POMinion @Inject()(nodeContext: Context,
                            dataSrc: DataSource,
                            backend: MidonetBackend,
                            curator: CuratorFramework,
-                           backendCfg: MidonetBackendConfig)
+                           backendCfg: MidonetBackendConfig,
+                           metrics: MetricRegistry)
     extends ScheduledMinion(nodeContext, config.c3po) {
 
     protected override val log = LoggerFactory.getLogger(C3poLog)
@@ -74,9 +82,13 @@ class C3POMinion @Inject()(nodeContext: Context,
     private val leaderLatch = new LeaderLatch(curator, LEADER_LATCH_PATH,
                                               nodeContext.nodeId.toString)
 
+    private var objectCache: ObjectCache = _
+    private var objectCacheSubscription: Subscription = _
+
     override def isEnabled = config.c3po.isEnabled
 
     override def doStart(): Unit = {
+        startObjectCache()
         leaderLatch.start()
         super.doStart()
     }
@@ -87,9 +99,40 @@ class C3POMinion @Inject()(nodeContext: Context,
             log.info("Non leader shutting down, removing myself from pool")
         }
         leaderLatch.close()
+        stopObjectCache()
         super.doStop()
     }
 
+    /** Starts an object cache that notifies the transaction cache of the
+      * backend storage, if enabled, of the current version of all NSDB
+      * objects. The translators do not otherwise observe the objects that
+      * they read, and without the object cache the transaction cache would
+      * never serve them. */
+    private def startObjectCache(): Unit = {
+        if (backendCfg.transactionCacheSize <= 0) {
+            return
+        }
+        backend.store match {
+            case zoom: ZookeeperObjectMapper =>
+                objectCache = new ObjectCache(curator, new ZoomPaths(backendCfg),
+                                              metrics)
+                objectCache.startAsync().awaitRunning()
+                objectCacheSubscription = zoom.observeObjectCache(objectCache)
+            case _ =>
+        }
+    }
+
+    private def stopObjectCache(): Unit = {
+        if (objectCacheSubscription ne null) {
+            objectCacheSubscription.unsubscribe()
+            objectCacheSubscription = null
+        }
+        if (objectCache ne null) {
+            objectCache.stopAsync().awaitTerminated()
+            objectCache = null
+        }
+    }
+
     // Delegates to a static method to enable testing without creating a
     // C3POMinion instance.
     override protected def validateConfig(): Unit =
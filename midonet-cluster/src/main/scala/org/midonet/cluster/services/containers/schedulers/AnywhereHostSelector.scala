@@ -17,6 +17,7 @@
 package org.midonet.cluster.services.containers.schedulers
 
 import java.util.UUID
+import java.util.concurrent.TimeUnit
 
 import scala.concurrent.ExecutionContext
 import scala.util.Success
@@ -37,8 +38,14 @@ import org.midonet.util.functors._
 /**
   * Implements a host selector, where the hosts are selected from all available
   * hosts that exist in the topology store.
+  *
+  * If the batch interval is positive, the selector emits at most one
+  * notification per interval with the last state of all hosts, such that the
+  * changes of several hosts during the interval, for example when a host is
+  * flapping, trigger a single scheduling decision for each container.
   */
-class AnywhereHostSelector(context: Context) extends HostSelector {
+class AnywhereHostSelector(context: Context, batchIntervalMs: Long = 0L)
+    extends HostSelector {
 
     private implicit val ec = ExecutionContext.fromExecutor(context.executor)
 
@@ -70,11 +77,11 @@ class AnywhereHostSelector(context: Context) extends HostSelector {
     // Handles the host notifications internally. Subscribers do not subscribe
     // to this observable directly to allow us to prime the host set with the list
     // fetched by `getAll` and to emit the initial state to each new subscriber.
-    private val internalObservable = Observable
+    private val internalObservable = batch(Observable
         .combineLatest[HostsEvent, Host, HostsEvent](
             hostsTracker.observable,
             hostsObservable,
-            makeFunc2(buildEvent))
+            makeFunc2(buildEvent)))
         .distinctUntilChanged()
         .filter(makeFunc1(_ => isReady))
         .takeUntil(mark)
@@ -137,6 +144,19 @@ class AnywhereHostSelector(context: Context) extends HostSelector {
         hostsTracker add hostId
     }
 
+    /** Emits the last hosts notification at the end of every batch interval,
+      * if the batch interval is positive.
+      */
+    private def batch(observable: Observable[HostsEvent])
+    : Observable[HostsEvent] = {
+        if (batchIntervalMs > 0) {
+            observable.throttleLast(batchIntervalMs, TimeUnit.MILLISECONDS,
+                                    context.scheduler)
+        } else {
+            observable
+        }
+    }
+
     /** Updates the internal state with the hosts emitted by this selector.
       */
     private def buildEvent(hosts: HostsEvent, host: Host): HostsEvent = {
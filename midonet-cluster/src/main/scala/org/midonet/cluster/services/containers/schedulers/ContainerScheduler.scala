@@ -89,13 +89,15 @@ object ContainerScheduler {
 
     /** The feedback notification stream is used to process changes to the
       * container status as [[StatusFeedback]], and notifications from the
-      * scheduler to itself, such as scheduling timeouts [[TimeoutFeedback]]
-      * and scheduling retries [[RetryFeedback]].
+      * scheduler to itself, such as scheduling timeouts [[TimeoutFeedback]],
+      * scheduling retries [[RetryFeedback]] and reschedulings deferred by the
+      * rate limiter [[RescheduleFeedback]].
       */
     trait Feedback
     case object StatusFeedback extends Feedback
     case object TimeoutFeedback extends Feedback
     case object RetryFeedback extends Feedback
+    case object RescheduleFeedback extends Feedback
 
     private case class ContainerSelector(portId: UUID, groupId: UUID)
 
@@ -136,6 +138,13 @@ object ContainerScheduler {
   * of failed attempts. Bad hosts are cleared after they spent a configured
   * interval in the bad hosts list, or when their status has changed.
   *
+  * If a rate limiter is specified, it limits the rate at which a container
+  * is moved from its current host to a different host because the host set
+  * has changed. When the limit is reached, the rescheduling is deferred until
+  * the retry interval expires. The limiter is usually shared by the
+  * schedulers of all containers, to prevent a rescheduling storm when a host
+  * with many containers fails or flaps.
+  *
   * The notification flow is the following:
   *
   * +-----------+   +-----------+
@@ -152,7 +161,8 @@ object ContainerScheduler {
   */
 class ContainerScheduler(containerId: UUID, context: Context,
                          config: ContainersConfig,
-                         selectorProvider: HostSelectorProvider)
+                         selectorProvider: HostSelectorProvider,
+                         rescheduleLimiter: RescheduleLimiter = null)
     extends ObjectTracker[SchedulerEvent] with Logging {
 
     override def logSource = ContainersLog
@@ -169,6 +179,10 @@ class ContainerScheduler(containerId: UUID, context: Context,
 
     private val badHosts = new mutable.HashMap[UUID, BadHost]
 
+    // The subscription to the timer of a rescheduling deferred by the rate
+    // limiter.
+    private var deferSubscription = Subscriptions.unsubscribed()
+
     private var groupReady = false
     private var hostsReady = false
     private var portReady = false
@@ -630,6 +644,16 @@ class ContainerScheduler(containerId: UUID, context: Context,
                 selectHost(availableHosts, group.getPolicy).orNull
             }
 
+        // Defer moving the container to a different host if the rescheduling
+        // rate limit has been reached.
+        if ((state.hostId ne null) && (selectedHostId ne null) &&
+            selectedHostId != state.hostId && !tryReschedule()) {
+            log info s"Rescheduling from host ${state.hostId} exceeds the " +
+                     "rescheduling rate limit: retrying in " +
+                     s"${config.schedulerRetryMs} milliseconds"
+            return Observable.from(events)
+        }
+
         if ((selectedHostId ne null) || (namespaceId ne null)){
             namespaceId = selectedHostId
             namespaceSubject onNext selectedHostId.asNullableString
@@ -710,6 +734,26 @@ class ContainerScheduler(containerId: UUID, context: Context,
         Observable.from(events)
     }
 
+    /** Acquires a permit from the rescheduling rate limiter, if any. If the
+      * limit has been reached, the method subscribes to a timer observable
+      * that triggers a new scheduling after the retry interval, and returns
+      * `false`.
+      */
+    private def tryReschedule(): Boolean = {
+        if ((rescheduleLimiter eq null) || rescheduleLimiter.tryAcquire()) {
+            deferSubscription.unsubscribe()
+            true
+        } else {
+            if (deferSubscription.isUnsubscribed) {
+                deferSubscription = retryObservable
+                    .take(1)
+                    .map[Feedback](makeFunc1(_ => RescheduleFeedback))
+                    .subscribe(feedbackObserver)
+            }
+            false
+        }
+    }
+
     /** Handles the expiration of the timeout interval when scheduling a
       * container at a specified host. The method returns `true` if the timeout
       * expiration should re-trigger a rescheduling, `false` otherwise.
@@ -941,6 +985,7 @@ class ContainerScheduler(containerId: UUID, context: Context,
       */
     private def cleanup(subscriber: Subscriber[_ >: SchedulerEvent]): Unit = {
         statusSubscription.unsubscribe()
+        deferSubscription.unsubscribe()
         state match {
             case ScheduledState(id, container, sub) =>
                 log info s"Cancel scheduling at host $id because the " +
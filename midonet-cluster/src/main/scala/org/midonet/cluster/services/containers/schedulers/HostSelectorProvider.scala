@@ -22,9 +22,10 @@ import org.midonet.containers.Context
 /**
   * Builds the correct type of [[HostSelector]] given a service container group.
   */
-class HostSelectorProvider(context: Context) {
+class HostSelectorProvider(context: Context, batchIntervalMs: Long = 0L) {
 
-    private lazy val anywhereHostSelector = new AnywhereHostSelector(context)
+    private lazy val anywhereHostSelector =
+        new AnywhereHostSelector(context, batchIntervalMs)
 
     /**
       * Returns a host selector for the specified service container group.
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.containers.schedulers
+
+import java.util.concurrent.TimeUnit
+
+import com.google.common.base.Ticker
+
+/**
+  * Limits the rate at which the containers are moved between hosts to `rate`
+  * reschedulings per second. The limiter is a token bucket that accumulates
+  * at most one second worth of permits, and that starts with a single permit,
+  * such that the first rescheduling is never deferred.
+  *
+  * Unlike a blocking rate limiter, the limiter never waits for a permit, and
+  * it reads the time from the specified ticker, such that the time can be
+  * controlled explicitly.
+  */
+class RescheduleLimiter(rate: Double, ticker: Ticker = Ticker.systemTicker()) {
+
+    require(rate > 0, "The rescheduling rate must be positive")
+
+    private val permitNanos = TimeUnit.SECONDS.toNanos(1) / rate
+    private val maxPermits = math.max(1.0, rate)
+
+    private var permits = 1.0
+    private var lastNanos = ticker.read()
+
+    /** Acquires a permit if one is available without waiting, and returns
+      * `true`. Otherwise, the method returns `false`.
+      */
+    def tryAcquire(): Boolean = synchronized {
+        val nanos = ticker.read()
+        permits = math.min(maxPermits,
+                           permits + (nanos - lastNanos) / permitNanos)
+        lastNanos = nanos
+        if (permits >= 1.0) {
+            permits -= 1.0
+            true
+        } else {
+            false
+        }
+    }
+
+}
@@ -63,7 +63,15 @@ class ServiceScheduler(context: Context, config: ContainersConfig)
     private val containers = new mutable.HashMap[UUID, ContainerScheduler]
 
     // A provider that returns a host selection for a given scheduling policy.
-    private val selectorProvider = new HostSelectorProvider(context)
+    private val selectorProvider =
+        new HostSelectorProvider(context, config.schedulerBatchIntervalMs)
+
+    // Limits the rate at which containers are moved between hosts, for all
+    // containers.
+    private val rescheduleLimiter =
+        if (config.schedulerRescheduleRate > 0)
+            new RescheduleLimiter(config.schedulerRescheduleRate)
+        else null
 
     private val containersObservable = context.store
         .observable(classOf[ServiceContainer])
@@ -103,7 +111,8 @@ class ServiceScheduler(context: Context, config: ContainersConfig)
     : Observable[SchedulerEvent] = {
         log info s"New service container ${container.getId.asJava}"
         val scheduler = new ContainerScheduler(container.getId, context,
-                                               config, selectorProvider)
+                                               config, selectorProvider,
+                                               rescheduleLimiter)
         containers += container.getId.asJava -> scheduler
         scheduler.observable
                  .doOnCompleted(makeAction0(containerCompleted(container.getId)))
@@ -62,8 +62,12 @@ object StateTableCache {
         @volatile private var version = -1L
         // The queue is volatile such that it can be nulled during unsubscribe.
         @volatile private var queue =
-            new util.ArrayDeque[Notify](cache.initialSubscriberQueueSize)
+            new util.ArrayDeque[Update](cache.initialSubscriberQueueSize)
         private var sending = false
+        // The number of differential updates in the queue, which excludes the
+        // snapshot updates, such that the queue bound applies only to the
+        // updates accumulated because the subscriber does not keep up.
+        private var pendingDiffs = 0
 
         /**
           * @see [[StateTableSubscription.unsubscribe()]]
@@ -115,6 +119,7 @@ object StateTableCache {
             val currentQueue = queue
             if (currentQueue ne null) {
                 currentQueue.clear()
+                pendingDiffs = 0
                 version = currentVersion
                 enqueue(updates)
             }
@@ -133,9 +138,29 @@ object StateTableCache {
             val currentQueue = queue
             if (currentQueue ne null) {
                 if (version == lastVersion) {
-                    version = currentVersion
-                    if (updates.length > 0) {
-                        enqueue(updates)
+                    if (pendingDiffs + updates.length >
+                        cache.maxSubscriberQueueSize) {
+                        // The subscriber does not keep up with the changes
+                        // to the table: rather than growing the queue, we
+                        // discard the pending updates and replace them with
+                        // a snapshot, which is bounded by the table size.
+                        // The snapshot updates are not counted, such that a
+                        // table larger than the queue size does not replace
+                        // every change with a new snapshot.
+                        Log.debug(s"(${cache.logId}) Notification queue for " +
+                                  s"subscription $id is full: replacing " +
+                                  s"$pendingDiffs pending updates with a " +
+                                  "snapshot")
+                        currentQueue.clear()
+                        pendingDiffs = 0
+                        version = -1L
+                        refresh(None)
+                    } else {
+                        version = currentVersion
+                        if (updates.length > 0) {
+                            pendingDiffs += updates.length
+                            enqueue(updates)
+                        }
                     }
                 } else {
                     refresh(None)
@@ -144,56 +169,98 @@ object StateTableCache {
         }
 
         /**
-          * Enqueues the array of updates on the notification queue with the
-          * current subscription number.
+          * Enqueues the array of updates on the notification queue. If no
+          * notification is in progress, the first update is sent immediately.
+          * This method is always called on the cache dispatcher thread and
+          * therefore the queue and sending flag need not be synchronized.
           */
         private def enqueue(updates: Array[Update]): Unit = {
-            var index = 0
-            while (index < updates.length) {
-                enqueue(Notify.newBuilder()
-                            .setSubscriptionId(id)
-                            .setUpdate(updates(index))
-                            .build())
-                index += 1
+            val currentQueue = queue
+            if (currentQueue ne null) {
+                var index = 0
+                while (index < updates.length) {
+                    currentQueue.offer(updates(index))
+                    index += 1
+                }
+                if (!sending) {
+                    sending = true
+                    sendNext()
+                }
             }
         }
 
         /**
-          * Enqueues a message to send to the observer. If the queue is empty
-          * the message is sent immediately. This method is always called on
-          * the cache dispatcher thread and therefore the queue and sending
-          * flag need not be synchronized.
+          * Sends to the observer the next notification from the queue, if
+          * any. Consecutive differential updates that accumulated in the
+          * queue while the previous notification was in progress are
+          * coalesced into a single notification. This method is always
+          * called on the cache dispatcher thread.
           */
-        private def enqueue(notify: Notify): Unit = {
+        private def sendNext(): Unit = {
             val currentQueue = queue
-            if (currentQueue ne null) {
-                if (sending) {
-                    currentQueue.offer(notify)
-                } else {
-                    sending = true
-                    send(notify)
-                }
+            if (currentQueue eq null) {
+                return
+            }
+            val update = coalesce(currentQueue)
+            if (update eq null) {
+                sending = false
+                return
             }
+            send(Notify.newBuilder()
+                       .setSubscriptionId(id)
+                       .setUpdate(update)
+                       .build())
+        }
+
+        /**
+          * Polls the next update from the queue. If the update is a
+          * differential update, this method merges into it the following
+          * differential updates from the queue, as long as the number of
+          * entries does not exceed the notification batch size. The entries
+          * are merged in order, such that the client applies them in the same
+          * sequence as if they were sent separately. Snapshot updates are
+          * never coalesced, since they must preserve the begin and end
+          * markers.
+          */
+        private def coalesce(currentQueue: util.ArrayDeque[Update]): Update = {
+            val first = currentQueue.poll()
+            if ((first ne null) && first.getType == Update.Type.RELATIVE) {
+                pendingDiffs -= 1
+            }
+            if ((first eq null) || !canCoalesce(first, currentQueue.peek(),
+                                                first.getEntriesCount)) {
+                return first
+            }
+            val builder = first.toBuilder
+            var next = currentQueue.peek()
+            do {
+                currentQueue.poll()
+                pendingDiffs -= 1
+                builder.addAllEntries(next.getEntriesList)
+                       .setCurrentVersion(next.getCurrentVersion)
+                       .setEnd(next.getEnd)
+                next = currentQueue.peek()
+            } while (canCoalesce(first, next, builder.getEntriesCount))
+            builder.build()
+        }
+
+        private def canCoalesce(first: Update, next: Update,
+                                entriesCount: Int): Boolean = {
+            (next ne null) &&
+            first.getType == Update.Type.RELATIVE &&
+            next.getType == Update.Type.RELATIVE &&
+            entriesCount + next.getEntriesCount <= cache.notifyBatchSize
         }
 
         /**
           * Sends a notification message to the observer immediately.
           */
         private def send(notify: Notify): Unit = {
-            if (notify eq null) {
-                // We only get here for messages polled from the queue, which
-                // is done on the dispatcher thread.
-                sending = false
-                return
-            }
             try {
                 observer.next(notify).onComplete { result =>
                     // Accessing the observer queue on the cache dispatcher
                     // thread.
-                    val currentQueue = queue
-                    if (currentQueue ne null) {
-                        send(currentQueue.poll())
-                    }
+                    sendNext()
                 }(cache.dispatcher)
             } catch {
                 case NonFatal(e) =>
@@ -201,10 +268,7 @@ object StateTableCache {
                              s"notification for subscription $id", e)
                     // Sending the next message on the cache dispatcher thread.
                     cache.dispatcher.execute(makeRunnable {
-                        val currentQueue = queue
-                        if (currentQueue ne null) {
-                            send(currentQueue.poll())
-                        }
+                        sendNext()
                     })
             }
         }
@@ -365,6 +429,8 @@ class StateTableCache(val config: StateProxyConfig,
         config.initialSubscriberQueueSize
     private[state] val notifyBatchSize =
         config.notifyBatchSize
+    private[state] val maxSubscriberQueueSize =
+        config.maxSubscriberQueueSize
 
     // The local cache map.
     @volatile private var cache = new TableEntries
@@ -19,6 +19,7 @@ package org.midonet.southbound.vtep
 import java.util.UUID
 import java.util.concurrent.{ConcurrentHashMap, Executor}
 
+import scala.collection.mutable
 import scala.concurrent.{ExecutionContext, Future, Promise}
 import scala.util.{Failure, Success}
 
@@ -30,11 +31,59 @@ import rx.schedulers.Schedulers
 
 import org.midonet.cluster.VxgwVtepLog
 import org.midonet.cluster.data.vtep.model.VtepEntry
+import org.midonet.southbound.vtep.OvsdbCachedTable.Index
 import org.midonet.southbound.vtep.OvsdbOperations.MaxBackpressureBuffer
 import org.midonet.southbound.vtep.OvsdbUtil._
 import org.midonet.southbound.vtep.schema.Table
 import org.midonet.util.logging.Logging
 
+object OvsdbCachedTable {
+
+    /**
+     * A secondary index of the entries of an [[OvsdbCachedTable]], which maps
+     * every key returned by `keysOf` for an entry to the set of entries with
+     * that key. The index is updated together with the table, such that
+     * lookups by key do not scan all the entries of the table.
+     */
+    final class Index[K, E <: VtepEntry] private[vtep](keysOf: E => Iterable[K]) {
+
+        // The entries are identified by their OVSDB identifier, since the
+        // equality of some entries ignores the identifier.
+        private val entries = new mutable.HashMap[K, mutable.Map[UUID, E]]
+
+        /** Returns the entries for the given key. */
+        def get(key: K): Iterable[E] = synchronized {
+            entries.get(key) match {
+                case Some(map) => map.values.toList
+                case None => Nil
+            }
+        }
+
+        /** Returns any entry for the given key. */
+        def find(key: K): Option[E] = synchronized {
+            entries.get(key).flatMap(_.values.headOption)
+        }
+
+        private[vtep] def add(entry: E): Unit = synchronized {
+            for (key <- keysOf(entry)) {
+                entries.getOrElseUpdate(key, new mutable.HashMap[UUID, E])
+                    .put(entry.uuid, entry)
+            }
+        }
+
+        private[vtep] def remove(entry: E): Unit = synchronized {
+            for (key <- keysOf(entry); map <- entries.get(key)) {
+                map -= entry.uuid
+                if (map.isEmpty) entries -= key
+            }
+        }
+
+        private[vtep] def clear(): Unit = synchronized {
+            entries.clear()
+        }
+    }
+}
+
 /**
  * A local mirror of a VTEP cache
  *
@@ -55,6 +104,7 @@ class OvsdbCachedTable[E <: VtepEntry](val client: OvsdbClient,
     private val monitor = new OvsdbTableMonitor[E](client, table)(eventExecutor)
 
     protected[vtep] val entryMap = new ConcurrentHashMap[UUID, E]()
+    @volatile private var indices = List.empty[Index[_, E]]
 
     monitor.observable
         .onBackpressureBuffer(MaxBackpressureBuffer, panicAlert(log))
@@ -65,26 +115,53 @@ class OvsdbCachedTable[E <: VtepEntry](val client: OvsdbClient,
                 filled.tryFailure(
                     new IllegalStateException("vtep monitor closed"))
                 entryMap.clear()
+                indices.foreach(_.clear())
             }
             override def onError(e: Throwable): Unit = {
                 log.warn("VTEP monitor failed", e)
                 filled.tryFailure(e)
                 entryMap.clear()
+                indices.foreach(_.clear())
             }
             override def onNext(u: VtepTableUpdate[E]): Unit = u match {
                 case VtepTableReady() =>
                     filled.success(true)
                 case VtepEntryUpdate(row, null) if row != null =>
                     log.debug("VTEP table entry deleted: {}", row)
-                    entryMap.remove(row.uuid)
+                    removeIndexed(entryMap.remove(row.uuid))
                 case VtepEntryUpdate(_, row) if row != null =>
                     // Data from VTEP is authoritative
                     log.debug("VTEP table entry added: {}", row)
-                    entryMap.put(row.uuid, row)
+                    removeIndexed(entryMap.put(row.uuid, row))
+                    indices.foreach(_.add(row))
                 case _ => // ignore
             }
     })
 
+    private def removeIndexed(entry: E): Unit = {
+        if (entry != null) {
+            indices.foreach(_.remove(entry))
+        }
+    }
+
+    /** Creates a secondary index of the entries of this table by the keys
+      * returned by `keysOf`. The index includes the current entries, and it
+      * is updated with the table. */
+    final def index[K](keysOf: E => Iterable[K]): Index[K, E] = {
+        val index = new Index[K, E](keysOf)
+        synchronized {
+            indices = index :: indices
+        }
+        vtepExecutor.execute(new Runnable {
+            override def run(): Unit = {
+                index.clear()
+                val it = entryMap.values.iterator()
+                while (it.hasNext) index.add(it.next())
+            }
+        })
+        index
+    }
+
     final def get(id: UUID): Option[E] = Option(entryMap.get(id))
 
     /** A view of all the entries */
@@ -22,8 +22,10 @@ import java.util.concurrent.Executor
 import scala.collection.Iterable
 import scala.collection.JavaConversions._
 import scala.collection.JavaConverters._
+import scala.collection.mutable
 import scala.collection.mutable.ArrayBuffer
 import scala.concurrent.{ExecutionContext, Future}
+import scala.util.control.NonFatal
 import scala.util.{Failure, Success}
 
 import org.opendaylight.ovsdb.lib.OvsdbClient
@@ -38,9 +40,10 @@ import org.midonet.cluster.VxgwVtepLog
 import org.midonet.cluster.data.vtep.model._
 import org.midonet.cluster.data.vtep.{VtepConfigException, VtepStateException}
 import org.midonet.packets.IPv4Addr
+import org.midonet.southbound.vtep.OvsdbCachedTable.Index
 import org.midonet.southbound.vtep.OvsdbOperations._
 import org.midonet.southbound.vtep.OvsdbUtil.panicAlert
-import org.midonet.southbound.vtep.OvsdbVtepData.{NamedLocatorId, NamedLocatorSetId}
+import org.midonet.southbound.vtep.OvsdbVtepData.{MacUpdateWindow, NamedLocatorId, NamedLocatorSetId}
 import org.midonet.southbound.vtep.schema.Table.OvsdbOperation
 import org.midonet.southbound.vtep.schema._
 import org.midonet.util.concurrent._
@@ -52,6 +55,7 @@ object OvsdbVtepData {
     private[vtep] final val NamedLocatorId = "locator_id"
     private[vtep] final val NamedLocatorSetId = "locator_set_id"
     private val MaxBackpressureBuffer = 100000
+    private[vtep] final val MacUpdateWindow = 256
 
 }
 
@@ -88,6 +92,15 @@ class OvsdbVtepData(val client: OvsdbClient, val dbSchema: DatabaseSchema,
     private val mLocalTable = cachedTable(new McastMacsLocalTable(dbSchema))
     private val mRemoteTable = cachedTable(new McastMacsRemoteTable(dbSchema))
 
+    private val lsByName = lsTable.index[String](ls => Seq(ls.name))
+    private val locByIp = locTable.index[IPv4Addr](loc => Seq(loc.dstIp))
+    private val locSetByLocator =
+        locSetTable.index[String](locSet => locSet.locatorIds)
+    private val uRemoteByMac =
+        uRemoteTable.index[(UUID, VtepMAC)](e => Seq((e.ls, e.macAddr)))
+    private val mRemoteByMac =
+        mRemoteTable.index[(UUID, VtepMAC)](e => Seq((e.ls, e.macAddr)))
+
     private val uLocalMonitor = new OvsdbTableMonitor[UcastMac](
         client, uLocalTable.table)(eventExecutor)
     private val mLocalMonitor = new OvsdbTableMonitor[McastMac](
@@ -136,7 +149,7 @@ class OvsdbVtepData(val client: OvsdbClient, val dbSchema: DatabaseSchema,
 
     /** Gets the logical switch with the specified name. */
     override def logicalSwitch(name: String): Future[Option[LogicalSwitch]] = {
-        onReady { lsTable.getAll.find(_.name == name) }
+        onReady { lsByName.find(name) }
     }
 
     /** Creates a new logical switch with the specified name and VNI. If a
@@ -265,7 +278,8 @@ class OvsdbVtepData(val client: OvsdbClient, val dbSchema: DatabaseSchema,
     /** Returns an [[Observer]] that will write updates to the remote MACs in
       * the `Ucast_Mac_Remote` or `Mcast_Mac_Remote` tables. */
     override def macRemoteUpdater: Future[Observer[MacLocation]] = {
-        macUpdater(new MacUpdater("remote", uRemoteTable, mRemoteTable))
+        macUpdater(new MacUpdater("remote", uRemoteTable, mRemoteTable,
+                                  uRemoteByMac, mRemoteByMac))
     }
 
     /** Provides a snapshot of the `Ucast_Mac_Local` and `Mcast_Mac_Local`
@@ -280,12 +294,37 @@ class OvsdbVtepData(val client: OvsdbClient, val dbSchema: DatabaseSchema,
         currentMac(uRemoteTable, mRemoteTable)
     }
 
+    /**
+      * Writes the MAC updates to the unicast and multicast MAC tables of the
+      * given type. The updater requests the MAC updates in windows of
+      * [[MacUpdateWindow]] updates, and writes all MAC updates received
+      * while the previous transaction is in progress in a single OVSDB
+      * transaction. The transactions are executed sequentially, such that
+      * the MAC updates are written in order. If a transaction fails, the
+      * MAC updates of the transaction are retried one by one, such that an
+      * invalid MAC update does not prevent writing the other updates.
+      *
+      * The indices of the MAC tables by logical switch and MAC address are
+      * owned by the [[OvsdbVtepData]], such that they are created once and
+      * shared by all updaters of the same tables.
+      *
+      * All methods execute on the VTEP thread.
+      */
     private class MacUpdater(`type`: String,
                              ucastTable: OvsdbCachedTable[UcastMac],
-                             mcastTable: OvsdbCachedTable[McastMac])
+                             mcastTable: OvsdbCachedTable[McastMac],
+                             ucastIndex: Index[(UUID, VtepMAC), UcastMac],
+                             mcastIndex: Index[(UUID, VtepMAC), McastMac])
         extends Subscriber[MacLocation] {
 
-        override def onStart(): Unit = request(1)
+        private val pending = new ArrayBuffer[MacLocation]
+        private var writing = false
+
+        private val writeRunnable = new Runnable {
+            override def run(): Unit = write()
+        }
+
+        override def onStart(): Unit = request(MacUpdateWindow)
         override def onCompleted(): Unit = {
             log.debug("Closed stream of {} MAC updates", `type`)
             unsubscribe()
@@ -297,173 +336,245 @@ class OvsdbVtepData(val client: OvsdbClient, val dbSchema: DatabaseSchema,
         override def onNext(ml: MacLocation): Unit = {
             log.debug("Publishing {} MAC to VTEP: {}", `type`, ml)
             if (ml != null) {
-                applyMac(ml) onComplete { result =>
-                    result match {
-                        case Success(s) =>
-                            log.trace("MAC {} tables updated successfully: {}",
-                                      `type`, s)
-                        case Failure(e) =>
-                            log.warn("Updating {} MAC tables failed", `type`, e)
-                    }
-                    request(1)
+                pending += ml
+                // Write the MAC updates after the scheduler delivered all
+                // updates available in the current window.
+                if (!writing) {
+                    writing = true
+                    vtepExecutor.execute(writeRunnable)
                 }
             } else {
                 request(1)
             }
         }
 
-        private def applyMac(ml: MacLocation): Future[Seq[OperationResult]] = {
-            logicalSwitch(ml.logicalSwitchName) map {
-                case None =>
-                    log.warn("Unknown logical switch for {} MAC update: {}",
-                             `type`, ml.logicalSwitchName)
-                    Seq.empty
-
-                case Some(ls) if ml.vxlanTunnelEndpoint == null =>
-                    deleteMac(ml, ls)
-
-                case Some(ls) if ml.mac.isUcast =>
-                    addUcastMac(ml, ls)
-
-                case Some(ls) =>
-                    addMcastMac(ml, ls)
-            } flatMap {
-                OvsdbOperations.multiOp(client, dbSchema, _)
+        /** Writes the pending MAC updates in one transaction, and writes the
+          * MAC updates received in the meantime when the transaction
+          * completes. */
+        private def write(): Unit = {
+            val macs = pending.toList
+            pending.clear()
+            val start = System.nanoTime()
+            applyMacs(macs) recoverWith {
+                case e if macs.size > 1 =>
+                    log.warn("Updating {} MAC tables with {} MACs failed: " +
+                             "retrying each MAC", `type`,
+                             Int.box(macs.size), e)
+                    macs.foldLeft(Future.successful(Seq.empty[OperationResult])) {
+                        (future, ml) => future flatMap { results =>
+                            applyMacs(Seq(ml)) recover { case NonFatal(t) =>
+                                log.warn("Updating {} MAC tables failed for {}",
+                                         `type`, ml, t)
+                                Seq.empty
+                            } map { results ++ _ }
+                        }
+                    }
+            } onComplete { result =>
+                result match {
+                    case Success(s) =>
+                        log.debug("MAC {} tables updated with {} MACs in {} " +
+                                  "ms", `type`, Int.box(macs.size),
+                                  Long.box((System.nanoTime() - start) / 1000000))
+                        log.trace("MAC {} tables updated successfully: {}",
+                                  `type`, s)
+                    case Failure(e) =>
+                        log.warn("Updating {} MAC tables failed", `type`, e)
+                }
+                request(macs.size)
+                if (pending.nonEmpty) write()
+                else writing = false
             }
         }
 
-        /** Returns the OVSDB operations to add a unicast MAC entry. If a
-          * locator already exist for the tunnel IP address, the method will use
-          * that locator to INSERT the MAC entry. Otherwise, the method will
-          * INSERT a new locator with a named-UUID, and INSERT the MAC
-          * referencing the new locator (both operations are executed in the
-          * same transaction).
-          *
-          * If an entry for the same MAC address already exists, the method
-          * removes the previous one and replaces it with the new one.
-          *
-          * Note: It is important that the locator and MAC entry are created
-          * in the same transaction. Otherwise, the locator is automatically
-          * deleted because there is no MAC entry referencing it. */
-        private def addUcastMac(ml: MacLocation, ls: LogicalSwitch)
-        : Seq[Table.OvsdbOperation] = {
-            var ops = Seq.empty[OvsdbOperation]
-
-            // Get or create the locator ID for the VXLAN tunnel end-point.
-            val locatorId = getOrCreateLocator(ml.vxlanTunnelEndpoint,
-                                               op => ops = ops :+ op)
-            // If the MAC entry for the same location already exists,
-            // return no ops.
-            if (ucastTable.getAll.exists(e => e.ls == ls.uuid &&
-                                              e.macAddr == ml.mac &&
-                                              e.ipAddr == ml.ipAddr &&
-                                              e.locatorId == locatorId)) {
-                return Seq.empty
-            }
+        /** Writes the given MAC updates in one OVSDB transaction. */
+        private def applyMacs(macs: Seq[MacLocation])
+        : Future[Seq[OperationResult]] = {
+            val tx = new MacTransaction
+            for (ml <- macs) {
+                lsByName.find(ml.logicalSwitchName) match {
+                    case None =>
+                        log.warn("Unknown logical switch for {} MAC update: {}",
+                                 `type`, ml.logicalSwitchName)
 
-            // Remove all other MAC entries for the same logical switch and MAC.
-            // Note: Disable this to allow multiple MAC entries for the same
-            // logical switch.
-            ops = ops ++: ucastTable.getAll
-                .filter(e => e.ls == ls.uuid && e.macAddr == ml.mac)
-                .map(e => ucastTable.table.delete(
-                    UcastMac(ls.uuid, ml.mac, e.ipAddr, loc = null)))
-                .toSeq
+                    case Some(ls) if ml.vxlanTunnelEndpoint == null =>
+                        tx.deleteMac(ml, ls)
 
-            // Insert the new MAC entry.
-            ops = ops :+ ucastTable.table.insert(
-                UcastMac(ls.uuid, ml.mac, ml.ipAddr, locatorId), null /* ID */)
+                    case Some(ls) if ml.mac.isUcast =>
+                        tx.addUcastMac(ml, ls)
 
-            ops
+                    case Some(ls) =>
+                        tx.addMcastMac(ml, ls)
+                }
+            }
+            if (tx.ops.isEmpty) Future.successful(Seq.empty)
+            else OvsdbOperations.multiOp(client, dbSchema, tx.ops)
         }
 
-        /** Returns the OVSDB operations to add a multicast MAC entry. If a
-          * locator and locator set already exist for the tunnel IP address,
-          * the method will use that locator and locator set. Otherwise, the
-          * method will INSERT a new locator and locator set as needed in the
-          * same transaction that creates the MAC entry.
-          *
-          * If an entry for the same MAC address already exists, the method
-          * removes the previous one and replaces it with the new one.
+        /**
+          * Accumulates the OVSDB operations for several MAC updates in the
+          * same transaction. Since the operations of a transaction are
+          * applied in order, the transaction tracks the MAC entries, locators
+          * and locator sets that its own operations add or remove, on top of
+          * the cached tables, such that every MAC update sees the changes of
+          * the previous updates. New locators and locator sets receive a
+          * distinct named UUID in the transaction.
           */
-        private def addMcastMac(ml: MacLocation, ls: LogicalSwitch)
-        : Seq[Table.OvsdbOperation] = {
-            var ops = Seq.empty[OvsdbOperation]
-
-            // Get or create the locator ID for the VXLAN tunnel end-point.
-            val locatorId = getOrCreateLocator(ml.vxlanTunnelEndpoint,
-                                               op => ops = ops :+ op)
-
-            // Get or create the locator set ID for the previous locator.
-            val locatorSetId = getOrCreateLocatorSet(locatorId,
-                                                     op => ops = ops :+ op)
-
-            // If the MAC entry for the same location already exists,
-            // return no ops.
-            if (mcastTable.getAll.exists(e => e.ls == ls.uuid &&
-                                              e.macAddr == ml.mac &&
-                                              e.ipAddr == ml.ipAddr &&
-                                              e.locatorId == locatorId)) {
-                return Seq.empty
+        private class MacTransaction {
+
+            val ops = new ArrayBuffer[OvsdbOperation]
+
+            private val locators = new mutable.HashMap[IPv4Addr, String]
+            private val insertedLocators = new mutable.HashSet[String]
+            private val locatorSets = new mutable.HashMap[String, String]
+            private val ucastMacs =
+                new mutable.HashMap[(UUID, VtepMAC), Iterable[UcastMac]]
+            private val mcastMacs =
+                new mutable.HashMap[(UUID, VtepMAC), Iterable[McastMac]]
+
+            /** Adds the OVSDB operations to add a unicast MAC entry. If a
+              * locator already exist for the tunnel IP address, the method
+              * will use that locator to INSERT the MAC entry. Otherwise, the
+              * method will INSERT a new locator with a named-UUID, and INSERT
+              * the MAC referencing the new locator.
+              *
+              * If an entry for the same MAC address already exists, the
+              * method removes the previous one and replaces it with the new
+              * one.
+              *
+              * Note: It is important that the locator and MAC entry are
+              * created in the same transaction. Otherwise, the locator is
+              * automatically deleted because there is no MAC entry
+              * referencing it. */
+            def addUcastMac(ml: MacLocation, ls: LogicalSwitch): Unit = {
+                val key = (ls.uuid, ml.mac)
+                val entries = ucastMacs.getOrElse(key, ucastIndex.get(key))
+
+                // Get the locator ID for the VXLAN tunnel end-point.
+                val locatorId = locator(ml.vxlanTunnelEndpoint)
+
+                // If the MAC entry for the same location already exists,
+                // add no ops.
+                if (entries.exists(e => e.ipAddr == ml.ipAddr &&
+                                        e.locatorId == locatorId)) {
+                    return
+                }
+                insertLocator(ml.vxlanTunnelEndpoint, locatorId)
+
+                // Remove all other MAC entries for the same logical switch
+                // and MAC.
+                // Note: Disable this to allow multiple MAC entries for the
+                // same logical switch.
+                for (e <- entries) {
+                    ops += ucastTable.table.delete(
+                        UcastMac(ls.uuid, ml.mac, e.ipAddr, loc = null))
+                }
+
+                // Insert the new MAC entry.
+                val entry = UcastMac(ls.uuid, ml.mac, ml.ipAddr, locatorId)
+                ops += ucastTable.table.insert(entry, null /* ID */)
+                ucastMacs(key) = Seq(entry)
             }
 
-            // Remove all other MAC entries for the same logical switch and MAC.
-            // Note: Disable this to allow multiple MAC entries for the same
-            // logical switch.
-            ops = ops ++: mcastTable.getAll
-                .filter(e => e.ls == ls.uuid && e.macAddr == ml.mac)
-                .map(e => mcastTable.table.delete(
-                    McastMac(ls.uuid, ml.mac, e.ipAddr, loc = null)))
-                .toSeq
+            /** Adds the OVSDB operations to add a multicast MAC entry. If a
+              * locator and locator set already exist for the tunnel IP
+              * address, the method will use that locator and locator set.
+              * Otherwise, the method will INSERT a new locator and locator
+              * set as needed in the same transaction that creates the MAC
+              * entry.
+              *
+              * If an entry for the same MAC address already exists, the
+              * method removes the previous one and replaces it with the new
+              * one.
+              */
+            def addMcastMac(ml: MacLocation, ls: LogicalSwitch): Unit = {
+                val key = (ls.uuid, ml.mac)
+                val entries = mcastMacs.getOrElse(key, mcastIndex.get(key))
+
+                // Get the locator ID for the VXLAN tunnel end-point.
+                val locatorId = locator(ml.vxlanTunnelEndpoint)
+
+                // If the MAC entry for the same location already exists,
+                // add no ops.
+                if (entries.exists(e => e.ipAddr == ml.ipAddr &&
+                                        e.locatorId == locatorId)) {
+                    return
+                }
+                insertLocator(ml.vxlanTunnelEndpoint, locatorId)
+
+                // Get or create the locator set ID for the locator.
+                val locatorSetId = locatorSet(locatorId)
+
+                // Remove all other MAC entries for the same logical switch
+                // and MAC.
+                // Note: Disable this to allow multiple MAC entries for the
+                // same logical switch.
+                for (e <- entries) {
+                    ops += mcastTable.table.delete(
+                        McastMac(ls.uuid, ml.mac, e.ipAddr, loc = null))
+                }
 
-            // Insert the new MAC entry.
-            ops = ops :+ mcastTable.table.insert(
-                McastMac(ls.uuid, ml.mac, ml.ipAddr, locatorSetId), null /* ID */)
+                // Insert the new MAC entry.
+                val entry = McastMac(ls.uuid, ml.mac, ml.ipAddr, locatorSetId)
+                ops += mcastTable.table.insert(entry, null /* ID */)
+                mcastMacs(key) = Seq(entry)
+            }
 
-            ops
-        }
+            /** Adds the OVSDB operation to delete a unicast or multicast MAC
+              * entry from MAC tables (local or remote) of this
+              * [[MacUpdater]] */
+            def deleteMac(ml: MacLocation, ls: LogicalSwitch): Unit = {
+                val key = (ls.uuid, ml.mac)
+                if (ml.mac.isUcast) {
+                    ops += ucastTable.table.delete(
+                        UcastMac(ls.uuid, ml.mac, ml.ipAddr, loc = null))
+                    ucastMacs(key) = ucastMacs.getOrElse(key, ucastIndex.get(key))
+                        .filterNot(_.ipAddr == ml.ipAddr)
+                } else {
+                    ops += mcastTable.table.delete(
+                        McastMac(ls.uuid, ml.mac, ml.ipAddr, loc = null))
+                    mcastMacs(key) = mcastMacs.getOrElse(key, mcastIndex.get(key))
+                        .filterNot(_.ipAddr == ml.ipAddr)
+                }
+            }
 
-        /** Returns the OVSDB operations to delete a unicast or multicast MAC
-          * entry from MAC tables (local or remote) of this [[MacUpdater]] */
-        private def deleteMac(ml: MacLocation, ls: LogicalSwitch)
-        : Seq[Table.OvsdbOperation] = {
-            if (ml.mac.isUcast) {
-                Seq(ucastTable.table.delete(
-                    UcastMac(ls.uuid, ml.mac, ml.ipAddr, loc = null)))
-            } else {
-                Seq(mcastTable.table.delete(
-                    McastMac(ls.uuid, ml.mac, ml.ipAddr, loc = null)))
+            /** Gets the locator identifier for the specified tunnel IP
+              * address. If the locator does not exist, the method returns a
+              * named identifier for a new locator, which is inserted by
+              * [[insertLocator]]. */
+            private def locator(tunnelIp: IPv4Addr): String = {
+                locByIp.find(tunnelIp) match {
+                    case Some(locator) => locator.uuid.toString
+                    case None => locators.getOrElseUpdate(
+                        tunnelIp, s"${NamedLocatorId}_${locators.size}")
+                }
             }
-        }
 
-        /** Gets the locator identifier for the specified tunnel IP address. If
-          * the locator does not exist, the method creates a new OVSDB insert
-          * operation for the new locator, and returns its named identifier. */
-        private def getOrCreateLocator(tunnelIp: IPv4Addr,
-                                       updater: (OvsdbOperation) => Unit)
-        : String = {
-            locTable.getAll.find(_.dstIp == tunnelIp) match {
-                case Some(locator) => locator.uuid.toString
-                case None =>
-                    updater(locTable.table.insert(
-                        PhysicalLocator(tunnelIp), NamedLocatorId))
-                    NamedLocatorId
+            /** Adds the OVSDB insert operation for a new locator, if the
+              * locator identifier is a named identifier that has not been
+              * inserted in this transaction. */
+            private def insertLocator(tunnelIp: IPv4Addr,
+                                      locatorId: String): Unit = {
+                if (locators.get(tunnelIp).contains(locatorId) &&
+                    insertedLocators.add(locatorId)) {
+                    ops += locTable.table.insert(PhysicalLocator(tunnelIp),
+                                                 locatorId)
+                }
             }
-        }
 
-        /** Gets the locator set identifier that contains the given locator
-          * identifier. If the locator set does not exist, the method creates
-          * a new OVSDB insert operation for the new locator set, and returns
-          * its named identifier. */
-        private def getOrCreateLocatorSet(locatorId: String,
-                                          updater: (OvsdbOperation) => Unit)
-        : String = {
-            locSetTable.getAll.find(_.locatorIds.contains(locatorId)) match {
-                case Some(locatorSet) => locatorSet.uuid.toString
-                case None =>
-                    updater(locSetTable.table.insert(
-                        PhysicalLocatorSet(locatorId), NamedLocatorSetId))
-                    NamedLocatorSetId
+            /** Gets the locator set identifier that contains the given
+              * locator identifier. If the locator set does not exist, the
+              * method adds an OVSDB insert operation for the new locator set,
+              * and returns its named identifier. */
+            private def locatorSet(locatorId: String): String = {
+                locSetByLocator.find(locatorId) match {
+                    case Some(locatorSet) => locatorSet.uuid.toString
+                    case None => locatorSets.getOrElseUpdate(locatorId, {
+                        val id = s"${NamedLocatorSetId}_${locatorSets.size}"
+                        ops += locSetTable.table.insert(
+                            PhysicalLocatorSet(locatorId), id)
+                        id
+                    })
+                }
             }
         }
     }
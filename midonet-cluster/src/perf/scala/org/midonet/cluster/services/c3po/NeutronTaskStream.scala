@@ -0,0 +1,279 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.c3po
+
+import java.util.UUID
+
+import scala.collection.mutable.ListBuffer
+import scala.io.Source
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.node.JsonNodeFactory
+import com.google.protobuf.Message
+
+import org.midonet.cluster.data.neutron.NeutronResourceType._
+import org.midonet.cluster.data.neutron.{NeutronResourceType, TaskType, importer}
+import org.midonet.cluster.models.Neutron.NeutronPort.DeviceOwner
+import org.midonet.packets.MAC
+
+/**
+ * Builds streams of Neutron tasks, grouped in Neutron transactions, as
+ * imported by the C3PO from the Neutron database.
+ */
+object NeutronTaskStream {
+
+    private val nodeFactory = new JsonNodeFactory(true)
+
+    /**
+     * Loads a recorded task stream from a file. The file contains one task
+     * per line with the tab-separated columns of the `midonet_tasks` table,
+     * in the order used by the `SqlNeutronImporter`:
+     *
+     * id, type, data_type, resource_id, transaction_id, data
+     *
+     * such as the output of:
+     *
+     * mysql -B -N -e "select id, type, data_type, resource_id,
+     *                 transaction_id, data from midonet_tasks order by id"
+     *
+     * The `NULL` values are interpreted as nulls, and the flush tasks are
+     * ignored.
+     */
+    def load(path: String): List[importer.Transaction] = {
+        val source = Source.fromFile(path, "UTF-8")
+        try {
+            val rows = source.getLines().filter(_.trim.nonEmpty).map { line =>
+                val columns = line.split("\t", 6).map { column =>
+                    if (column == "NULL") null else unescape(column)
+                }
+                val taskId = columns(0).toInt
+                val rsrcType = NeutronResourceType.valueOf(columns(2))
+                val task = TaskType.valueOf(columns(1)) match {
+                    case TaskType.Create =>
+                        importer.Create(taskId, rsrcType, columns(5))
+                    case TaskType.Update =>
+                        importer.Update(taskId, rsrcType, columns(5))
+                    case TaskType.Delete =>
+                        importer.Delete(taskId, rsrcType,
+                                        UUID.fromString(columns(3)))
+                    case TaskType.Flush =>
+                        importer.Flush(taskId)
+                }
+                (columns(4), task)
+            }
+            group(rows.filterNot(_._2.isInstanceOf[importer.Flush]).toList)
+        } finally {
+            source.close()
+        }
+    }
+
+    /**
+     * Generates a synthetic task stream for a number of tenants. For every
+     * tenant, the stream creates `networks` networks connected to a tenant
+     * router, where every network has one subnet and `ports` VIF ports. The
+     * stream then updates all networks and ports, and finally deletes all
+     * resources in the order used by Neutron.
+     */
+    def generate(tenants: Int, networks: Int, ports: Int)
+    : List[importer.Transaction] = {
+        require(ports <= 250, "At most 250 ports per network")
+        val creates = new ListBuffer[(String, importer.Task)]
+        val updates = new ListBuffer[(String, importer.Task)]
+        val deletes = new ListBuffer[(String, importer.Task)]
+        var taskId = 0
+
+        def create(txnId: String, rsrcType: NeutronResourceType[_ <: Message],
+                   json: JsonNode): Unit = {
+            taskId += 1
+            creates += txnId -> importer.Create(taskId, rsrcType, json.toString)
+        }
+        def update(txnId: String, rsrcType: NeutronResourceType[_ <: Message],
+                   json: JsonNode): Unit = {
+            taskId += 1
+            updates += txnId -> importer.Update(taskId, rsrcType, json.toString)
+        }
+        def delete(txnId: String, rsrcType: NeutronResourceType[_ <: Message],
+                   id: UUID): Unit = {
+            taskId += 1
+            deletes += txnId -> importer.Delete(taskId, rsrcType, id)
+        }
+
+        var networkIndex = 0
+        for (tenant <- 0 until tenants) {
+            val tenantId = s"tenant-$tenant"
+            val routerId = UUID.randomUUID()
+            create(routerId.toString, Router,
+                   routerJson(routerId, tenantId))
+
+            for (_ <- 0 until networks) {
+                val prefix = s"10.${(networkIndex >> 8) & 0xFF}." +
+                             s"${networkIndex & 0xFF}"
+                networkIndex += 1
+
+                val networkId = UUID.randomUUID()
+                val subnetId = UUID.randomUUID()
+                val routerPortId = UUID.randomUUID()
+                create(networkId.toString, Network,
+                       networkJson(networkId, tenantId, "network"))
+                create(subnetId.toString, Subnet,
+                       subnetJson(subnetId, networkId, tenantId,
+                                  s"$prefix.0/24", s"$prefix.1"))
+                val txnId = routerPortId.toString
+                create(txnId, Port,
+                       portJson(routerPortId, networkId, tenantId, "router",
+                                subnetId, s"$prefix.1",
+                                DeviceOwner.ROUTER_INTERFACE, routerId))
+                create(txnId, RouterInterface,
+                       routerInterfaceJson(routerId, routerPortId, subnetId,
+                                           tenantId))
+
+                val portIds = for (index <- 0 until ports) yield {
+                    val portId = UUID.randomUUID()
+                    create(portId.toString, Port,
+                           portJson(portId, networkId, tenantId, "port",
+                                    subnetId, s"$prefix.${index + 2}",
+                                    DeviceOwner.COMPUTE, UUID.randomUUID()))
+                    portId
+                }
+
+                update(networkId.toString, Network,
+                       networkJson(networkId, tenantId, "network-updated"))
+                for ((portId, index) <- portIds.zipWithIndex) {
+                    update(portId.toString, Port,
+                           portJson(portId, networkId, tenantId, "port-updated",
+                                    subnetId, s"$prefix.${index + 2}",
+                                    DeviceOwner.COMPUTE, UUID.randomUUID()))
+                }
+
+                for (portId <- portIds) {
+                    delete(portId.toString, Port, portId)
+                }
+                delete(routerPortId.toString, Port, routerPortId)
+                delete(subnetId.toString, Subnet, subnetId)
+                delete(networkId.toString, Network, networkId)
+            }
+            delete(routerId.toString, Router, routerId)
+        }
+
+        group((creates ++ updates ++ deletes).toList)
+    }
+
+    /** Reverts the escaping of the special characters by the MySQL batch
+      * output. */
+    private def unescape(column: String): String = {
+        if (column.indexOf('\\') < 0) return column
+        val builder = new StringBuilder(column.length)
+        var index = 0
+        while (index < column.length) {
+            val c = column.charAt(index)
+            if (c == '\\' && index + 1 < column.length) {
+                index += 1
+                builder += (column.charAt(index) match {
+                    case 't' => '\t'
+                    case 'n' => '\n'
+                    case '0' => 0.toChar
+                    case other => other
+                })
+            } else {
+                builder += c
+            }
+            index += 1
+        }
+        builder.toString
+    }
+
+    /** Groups consecutive tasks with the same transaction identifier into
+      * Neutron transactions. */
+    private def group(tasks: List[(String, importer.Task)])
+    : List[importer.Transaction] = {
+        val txns = new ListBuffer[importer.Transaction]
+        var rest = tasks
+        while (rest.nonEmpty) {
+            val txnId = rest.head._1
+            val (txnTasks, tail) = rest.span(_._1 == txnId)
+            txns += new importer.Transaction(txnId, txnTasks.map(_._2))
+            rest = tail
+        }
+        txns.toList
+    }
+
+    private def networkJson(id: UUID, tenantId: String, name: String)
+    : JsonNode = {
+        val n = nodeFactory.objectNode
+        n.put("id", id.toString)
+        n.put("tenant_id", tenantId)
+        n.put("name", name)
+        n.put("admin_state_up", true)
+        n.put("external", false)
+        n
+    }
+
+    private def subnetJson(id: UUID, networkId: UUID, tenantId: String,
+                           cidr: String, gatewayIp: String): JsonNode = {
+        val s = nodeFactory.objectNode
+        s.put("id", id.toString)
+        s.put("network_id", networkId.toString)
+        s.put("tenant_id", tenantId)
+        s.put("cidr", cidr)
+        s.put("ip_version", 4)
+        s.put("gateway_ip", gatewayIp)
+        s.put("enable_dhcp", true)
+        s
+    }
+
+    private def portJson(id: UUID, networkId: UUID, tenantId: String,
+                         name: String, subnetId: UUID, ipAddress: String,
+                         deviceOwner: DeviceOwner, deviceId: UUID): JsonNode = {
+        val p = nodeFactory.objectNode
+        p.put("id", id.toString)
+        p.put("network_id", networkId.toString)
+        p.put("tenant_id", tenantId)
+        p.put("name", name)
+        p.put("admin_state_up", true)
+        p.put("mac_address", MAC.random().toString)
+        p.put("port_security_enabled", true)
+        p.put("device_owner", deviceOwner.toString)
+        p.put("device_id", deviceId.toString)
+        val ip = nodeFactory.objectNode
+        ip.put("ip_address", ipAddress)
+        ip.put("subnet_id", subnetId.toString)
+        p.putArray("fixed_ips").add(ip)
+        p
+    }
+
+    private def routerJson(id: UUID, tenantId: String): JsonNode = {
+        val r = nodeFactory.objectNode
+        r.put("id", id.toString)
+        r.put("tenant_id", tenantId)
+        r.put("name", s"router-$id")
+        r.put("admin_state_up", true)
+        r
+    }
+
+    private def routerInterfaceJson(routerId: UUID, portId: UUID,
+                                    subnetId: UUID, tenantId: String)
+    : JsonNode = {
+        val ri = nodeFactory.objectNode
+        ri.put("id", routerId.toString)
+        ri.put("port_id", portId.toString)
+        ri.put("subnet_id", subnetId.toString)
+        ri.put("tenant_id", tenantId)
+        ri.putArray("subnet_ids").add(subnetId.toString)
+        ri
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.c3po
+
+import java.util.concurrent.TimeUnit
+
+import scala.concurrent.Future
+
+import com.typesafe.config.ConfigFactory
+
+import org.mockito.Matchers.any
+import org.mockito.Mockito
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.cluster.ClusterConfig
+import org.midonet.cluster.data.neutron.importer
+import org.midonet.cluster.storage.MidonetTestBackend
+import org.midonet.cluster.util.SequenceDispenser
+
+/**
+ * Replays a Neutron task stream through the Neutron translators on an
+ * in-memory storage. Every invocation replays the whole stream on a new
+ * storage, and the benchmark reports the replay time of the stream. At the
+ * end of the trial, the benchmark prints the statistics of the last
+ * iteration for every resource and task type: translation and commit
+ * latency, storage reads and writes, and allocated memory per task. Run
+ * with `-prof gc` to also measure the overall allocation rate.
+ *
+ * By default, the benchmark generates a synthetic stream with `tenants`
+ * tenants, each with `networks` networks of `ports` ports. To replay a
+ * stream recorded from the `midonet_tasks` table of the Neutron database,
+ * set the `stream` parameter to the path of the recording (see
+ * [[NeutronTaskStream.load]]), for example:
+ *
+ * ./gradlew :midonet-cluster:benchmarks
+ *     '-Pjmh=.*NeutronTranslation.* -p stream=/tmp/midonet_tasks.tsv'
+ */
+@BenchmarkMode(Array(Mode.SingleShotTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = Array("-Xms4g", "-Xmx4g"))
+@State(Scope.Benchmark)
+@org.openjdk.jmh.annotations.Threads(1)
+class NeutronTranslationBenchmark {
+
+    @Param(Array("synthetic"))
+    var stream: String = _
+
+    @Param(Array("10"))
+    var tenants: Int = _
+
+    @Param(Array("10"))
+    var networks: Int = _
+
+    @Param(Array("20"))
+    var ports: Int = _
+
+    var config: ClusterConfig = _
+    var sequenceDispenser: SequenceDispenser = _
+    var txns: List[importer.Transaction] = _
+    var backend: MidonetTestBackend = _
+    var replay: NeutronTranslationReplay = _
+
+    @JmhSetup(Level.Trial)
+    def setup(): Unit = {
+        config = ClusterConfig.forTests(ConfigFactory.empty())
+        sequenceDispenser = Mockito.mock(classOf[SequenceDispenser])
+        Mockito.when(sequenceDispenser.next(any()))
+            .thenReturn(Future.successful(1))
+        Mockito.when(sequenceDispenser.current(any()))
+            .thenReturn(Future.successful(1))
+        txns = stream match {
+            case "synthetic" => NeutronTaskStream.generate(tenants, networks,
+                                                           ports)
+            case path => NeutronTaskStream.load(path)
+        }
+    }
+
+    @JmhSetup(Level.Invocation)
+    def setupStorage(): Unit = {
+        backend = new MidonetTestBackend()
+        backend.startAsync().awaitRunning()
+        replay = new NeutronTranslationReplay(config, backend,
+                                              sequenceDispenser)
+    }
+
+    @TearDown(Level.Invocation)
+    def teardownStorage(): Unit = {
+        backend.stopAsync().awaitTerminated()
+    }
+
+    @TearDown(Level.Trial)
+    def teardown(): Unit = {
+        println()
+        println(s"Replayed ${txns.map(_.tasks.size).sum} tasks in " +
+                s"${txns.size} transactions")
+        println(replay.report)
+    }
+
+    @Benchmark
+    def replayStream(): Unit = {
+        replay.replay(txns)
+    }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.c3po
+
+import java.lang.management.ManagementFactory
+
+import scala.collection.mutable
+import scala.util.control.NonFatal
+
+import com.google.protobuf.Message
+
+import org.slf4j.LoggerFactory
+
+import org.midonet.cluster.ClusterConfig
+import org.midonet.cluster.data.ZoomMetadata.ZoomOwner
+import org.midonet.cluster.data.neutron.importer
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.services.c3po.NeutronTranslatorManager.{Create, Delete, Operation, Update}
+import org.midonet.cluster.util.SequenceDispenser
+import org.midonet.cluster.util.UUIDUtil
+
+object NeutronTranslationReplay {
+
+    /** The statistics of the tasks for a resource and task type. */
+    class TaskStats(val name: String) {
+        var tasks = 0L
+        var failures = 0L
+        var translateNanos = 0L
+        var commitNanos = 0L
+        var reads = 0L
+        var writes = 0L
+        var allocatedBytes = 0L
+
+        private def perTask(value: Long): Double =
+            if (tasks == 0) 0d else value.toDouble / tasks
+
+        override def toString: String = {
+            f"$name%-28s $tasks%8d $failures%6d " +
+            f"${perTask(translateNanos) / 1000}%12.1f " +
+            f"${perTask(commitNanos) / 1000}%12.1f " +
+            f"${perTask(reads)}%8.1f ${perTask(writes)}%8.1f " +
+            f"${perTask(allocatedBytes) / 1024}%10.1f"
+        }
+    }
+
+    private val threads = ManagementFactory.getThreadMXBean match {
+        case bean: com.sun.management.ThreadMXBean
+            if bean.isThreadAllocatedMemorySupported =>
+            bean.setThreadAllocatedMemoryEnabled(true)
+            bean
+        case _ => null
+    }
+
+    /** Returns the number of bytes allocated by the current thread, or zero
+      * if the JVM does not support measuring the thread allocation. */
+    private def allocatedBytes(): Long = {
+        if (threads eq null) 0L
+        else threads.getThreadAllocatedBytes(Thread.currentThread().getId)
+    }
+
+}
+
+/**
+ * Replays a stream of Neutron tasks through the [[NeutronTranslatorManager]],
+ * and collects for every resource and task type the translation latency,
+ * the latency of the storage commit, the number of storage reads and writes
+ * per task, and the number of bytes allocated by the translation.
+ *
+ * Every task is translated and committed in its own storage transaction,
+ * as done by the [[C3POStorageManager]]. In dry-run mode the transactions
+ * are not committed, such that the replay does not modify the storage: this
+ * is useful to measure the individual tasks of a stream against an existing
+ * topology, while the subsequent tasks that depend on them will fail.
+ *
+ * The flush tasks, which clear the whole topology rather than translate a
+ * Neutron resource, are skipped.
+ */
+class NeutronTranslationReplay(config: ClusterConfig,
+                               backend: MidonetBackend,
+                               sequenceDispenser: SequenceDispenser,
+                               dryRun: Boolean = false) {
+
+    import NeutronTranslationReplay._
+
+    private val log = LoggerFactory.getLogger(classOf[NeutronTranslationReplay])
+
+    private val manager =
+        new NeutronTranslatorManager(config, backend, sequenceDispenser)
+    private val stats = new mutable.LinkedHashMap[String, TaskStats]
+
+    /** Replays the specified Neutron transactions. */
+    def replay(txns: Seq[importer.Transaction]): Unit = {
+        for (txn <- txns; task <- txn.tasks) task match {
+            case importer.Flush(_) =>
+                log.debug(s"Skipping flush task ${task.taskId}")
+            case _ =>
+                replay(task)
+        }
+    }
+
+    /** Clears the statistics collected so far. */
+    def reset(): Unit = stats.clear()
+
+    /** Returns the statistics for every resource and task type. */
+    def statistics: Iterable[TaskStats] = stats.values
+
+    /** Returns a report with the statistics for every resource and task type,
+      * sorted by the total translation time. */
+    def report: String = {
+        val header = f"${"task"}%-28s ${"count"}%8s ${"failed"}%6s " +
+                     f"${"translate-us"}%12s ${"commit-us"}%12s " +
+                     f"${"reads"}%8s ${"writes"}%8s ${"alloc-KiB"}%10s"
+        (header +: stats.values.toSeq.sortBy(-_.translateNanos).map(_.toString))
+            .mkString("\n")
+    }
+
+    private def replay(task: importer.Task): Unit = {
+        val (name, op) = operationOf(task)
+        val taskStats = stats.getOrElseUpdate(name, new TaskStats(name))
+        val tx = new ProfilingTransaction(
+            backend.store.transaction(ZoomOwner.ClusterNeutron))
+        try {
+            val allocatedStart = allocatedBytes()
+            val translateStart = System.nanoTime()
+            manager.translate(tx, op)
+            val translateEnd = System.nanoTime()
+            taskStats.allocatedBytes += allocatedBytes() - allocatedStart
+            if (!dryRun) {
+                tx.commit()
+                taskStats.commitNanos += System.nanoTime() - translateEnd
+            }
+            taskStats.translateNanos += translateEnd - translateStart
+            taskStats.reads += tx.reads
+            taskStats.writes += tx.writes
+            taskStats.tasks += 1
+        } catch {
+            case NonFatal(e) =>
+                log.debug(s"Failed to replay task ${task.taskId}", e)
+                taskStats.failures += 1
+        } finally {
+            tx.close()
+        }
+    }
+
+    private def operationOf(task: importer.Task)
+    : (String, Operation[_ <: Message]) = task match {
+        case importer.Create(_, rsrcType, json) =>
+            (s"${rsrcType.id} CREATE",
+                Create(NeutronDeserializer.toMessage(json, rsrcType.clazz)))
+        case importer.Update(_, rsrcType, json) =>
+            (s"${rsrcType.id} UPDATE",
+                Update(NeutronDeserializer.toMessage(json, rsrcType.clazz)))
+        case importer.Delete(_, rsrcType, id) =>
+            (s"${rsrcType.id} DELETE",
+                Delete(rsrcType.clazz, UUIDUtil.toProto(id)))
+        case importer.Flush(_) =>
+            throw new IllegalArgumentException(
+                s"Cannot replay flush task ${task.taskId}")
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.c3po
+
+import org.midonet.cluster.data.{Obj, ObjId}
+import org.midonet.cluster.data.storage.{Transaction, UpdateValidator}
+
+/**
+ * A [[Transaction]] that delegates to an underlying transaction and counts
+ * the number of storage reads and writes performed through it. A read is
+ * counted for every object read, such that a `getAll` for N identifiers
+ * counts as N reads.
+ */
+class ProfilingTransaction(tx: Transaction) extends Transaction {
+
+    var reads = 0
+    var writes = 0
+
+    override def get[T](clazz: Class[T], id: ObjId): T = {
+        reads += 1
+        tx.get(clazz, id)
+    }
+
+    override def getAll[T](clazz: Class[T]): Seq[T] = {
+        val objs = tx.getAll(clazz)
+        reads += objs.size
+        objs
+    }
+
+    override def getAll[T](clazz: Class[T], ids: Seq[ObjId]): Seq[T] = {
+        reads += ids.size
+        tx.getAll(clazz, ids)
+    }
+
+    override def exists(clazz: Class[_], id: ObjId): Boolean = {
+        reads += 1
+        tx.exists(clazz, id)
+    }
+
+    override def create(obj: Obj): Unit = {
+        writes += 1
+        tx.create(obj)
+    }
+
+    override def update(obj: Obj, validator: UpdateValidator[Obj]): Unit = {
+        writes += 1
+        tx.update(obj, validator)
+    }
+
+    override def delete(clazz: Class[_], id: ObjId, ignoresNeo: Boolean): Unit = {
+        writes += 1
+        tx.delete(clazz, id, ignoresNeo)
+    }
+
+    override def createNode(path: String, value: String): Unit = {
+        writes += 1
+        tx.createNode(path, value)
+    }
+
+    override def updateNode(path: String, value: String): Unit = {
+        writes += 1
+        tx.updateNode(path, value)
+    }
+
+    override def deleteNode(path: String, idempotent: Boolean): Unit = {
+        writes += 1
+        tx.deleteNode(path, idempotent)
+    }
+
+    override def commit(): Unit = tx.commit()
+
+    override def close(): Unit = tx.close()
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.containers.schedulers
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import scala.util.Random
+
+import com.typesafe.config.ConfigFactory
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+import org.slf4j.helpers.NOPLogger
+
+import rx.Observer
+import rx.schedulers.Schedulers
+
+import org.midonet.cluster.ContainersConfig
+import org.midonet.cluster.data.storage.InMemoryStorage
+import org.midonet.cluster.models.State.ContainerServiceStatus
+import org.midonet.cluster.models.Topology.{Host, ServiceContainer, ServiceContainerGroup}
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.services.MidonetBackend._
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.containers.Context
+import org.midonet.util.concurrent.SameThreadButAfterExecutorService
+import org.midonet.util.logging.Logger
+import org.midonet.util.reactivex._
+
+/**
+ * Measures the cost of scheduling `containers` service containers across
+ * `hosts` hosts with the [[ServiceScheduler]]. Every operation flaps the
+ * container service of a host, such that the containers scheduled at that
+ * host are rescheduled at the other hosts, and the state of the host is
+ * delivered to the schedulers of all containers.
+ *
+ * The setup prints the heap retained by the scheduler after the initial
+ * scheduling of all containers. Run with `-prof gc` to also measure the
+ * allocation rate of the rescheduling.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = Array("-Xms4g", "-Xmx4g"))
+@State(Scope.Benchmark)
+@org.openjdk.jmh.annotations.Threads(1)
+class ContainerSchedulingBenchmark {
+
+    @Param(Array("1000", "10000"))
+    var containers: Int = _
+
+    @Param(Array("100"))
+    var hosts: Int = _
+
+    var store: InMemoryStorage = _
+    var scheduler: ServiceScheduler = _
+    var hostIds: Array[UUID] = _
+    var events = 0L
+    val random = new Random(42)
+
+    @JmhSetup
+    def setup(): Unit = {
+        val executor = new SameThreadButAfterExecutorService
+        val log = Logger(NOPLogger.NOP_LOGGER)
+        store = new InMemoryStorage
+        MidonetBackend.setupBindings(store, store)
+        val context = Context(store, store, executor, Schedulers.from(executor),
+                              log)
+        val config = new ContainersConfig(ConfigFactory.parseString(
+            """
+              |cluster.containers.enabled : true
+              |cluster.containers.scheduler_timeout : 10s
+              |cluster.containers.scheduler_retry : 15s
+              |cluster.containers.scheduler_max_retries : 3
+              |cluster.containers.scheduler_bad_host_lifetime : 300s
+              |cluster.containers.scheduler_batch_interval : 0ms
+              |cluster.containers.scheduler_reschedule_rate : 0
+            """.stripMargin))
+
+        hostIds = Array.fill(hosts)(UUID.randomUUID())
+        for (hostId <- hostIds) {
+            store create Host.newBuilder().setId(hostId.asProto).build()
+            setStatus(hostId)
+        }
+
+        val group = ServiceContainerGroup.newBuilder()
+            .setId(UUID.randomUUID().asProto)
+            .build()
+        store create group
+        for (_ <- 0 until containers) {
+            store create ServiceContainer.newBuilder()
+                .setId(UUID.randomUUID().asProto)
+                .setServiceGroupId(group.getId)
+                .build()
+        }
+
+        val runtime = Runtime.getRuntime
+        System.gc()
+        val before = runtime.totalMemory() - runtime.freeMemory()
+
+        scheduler = new ServiceScheduler(context, config)
+        scheduler.observable subscribe new Observer[SchedulerEvent] {
+            override def onNext(event: SchedulerEvent): Unit = events += 1
+            override def onError(e: Throwable): Unit = { }
+            override def onCompleted(): Unit = { }
+        }
+
+        System.gc()
+        val after = runtime.totalMemory() - runtime.freeMemory()
+        println(s"Scheduler for $containers containers and $hosts hosts: " +
+                s"${(after - before) / 1024} KiB heap, " +
+                s"${scheduler.containerIds.size} containers, " +
+                s"$events events")
+    }
+
+    @Benchmark
+    def flapHost(): Long = {
+        val hostId = hostIds(random.nextInt(hostIds.length))
+        store.removeValueAs(hostId.toString, classOf[Host], hostId,
+                            ContainerKey, value = null).await()
+        setStatus(hostId)
+        events
+    }
+
+    private def setStatus(hostId: UUID): Unit = {
+        val status = ContainerServiceStatus.newBuilder()
+            .setWeight(1)
+            .setQuota(-1)
+            .build()
+        store.addValueAs(hostId.toString, classOf[Host], hostId,
+                         ContainerKey, status.toString).await()
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.auth.keystone
+
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{CountDownLatch, Executor, Executors, TimeUnit}
+
+import scala.concurrent.duration._
+
+import com.codahale.metrics.MetricRegistry
+import com.typesafe.config.ConfigFactory
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{GivenWhenThen, Matchers}
+
+import org.midonet.cluster.auth.keystone.KeystoneTest.DateFormat
+import org.midonet.conf.MidoTestConfigurator
+
+@RunWith(classOf[JUnitRunner])
+class KeystoneTokenCacheTest extends KeystoneTest with Matchers
+                             with GivenWhenThen {
+
+    private class TestableCache(validator: String => AuthResponse,
+                                maxSize: Int)
+        extends KeystoneTokenCache(validator, maxSize, 5 minutes, 1 minute,
+                                   10 seconds, new Executor {
+                                       override def execute(r: Runnable) = r.run()
+                                   }) {
+        var now = System.currentTimeMillis()
+        protected override def currentTimeMillis: Long = now
+    }
+
+    private val validations = new AtomicInteger
+
+    private def client(): KeystoneClient = {
+        val configStr =
+            s"""
+               |cluster.auth.keystone.version : 2
+               |cluster.auth.keystone.protocol : $keystoneProtocol
+               |cluster.auth.keystone.host : $keystoneHost
+               |cluster.auth.keystone.port : $keystonePort
+               |cluster.auth.keystone.admin_token : $keystoneToken
+            """.stripMargin
+        val config = ConfigFactory.parseString(configStr)
+            .withFallback(MidoTestConfigurator.forClusters())
+        new KeystoneClient(new KeystoneConfig(config))
+    }
+
+    private def cache(client: KeystoneClient, maxSize: Int = 16)
+    : TestableCache = {
+        validations.set(0)
+        dateFormat = DateFormat.Iso8601
+        currentTime = System.currentTimeMillis()
+        new TestableCache(token => {
+            validations.incrementAndGet()
+            client.validate(token)
+        }, maxSize)
+    }
+
+    private def newToken(client: KeystoneClient): String = {
+        client.authenticate(keystoneTenant, keystoneUser, keystonePassword)
+              .token.id
+    }
+
+    "Cache" should "validate a token only once" in {
+        val keystone = client()
+        val tokens = cache(keystone)
+        val token = newToken(keystone)
+
+        for (_ <- 0 until 10) {
+            tokens.get(token).user.name shouldBe keystoneUser
+        }
+        validations.get shouldBe 1
+        tokens.misses shouldBe 1
+        tokens.hits shouldBe 9
+    }
+
+    "Cache" should "collapse concurrent validations of the same token" in {
+        val keystone = client()
+        val token = newToken(keystone)
+        val latch = new CountDownLatch(1)
+        validations.set(0)
+        val tokens = new KeystoneTokenCache(t => {
+            validations.incrementAndGet()
+            latch.await(5, TimeUnit.SECONDS)
+            keystone.validate(t)
+        }, 16, 5 minutes, 1 minute, 10 seconds,
+           Executors.newSingleThreadExecutor())
+
+        val executor = Executors.newFixedThreadPool(8)
+        val done = new CountDownLatch(8)
+        for (_ <- 0 until 8) {
+            executor.execute(new Runnable {
+                override def run(): Unit = {
+                    tokens.get(token)
+                    done.countDown()
+                }
+            })
+        }
+        while (tokens.misses + tokens.collapsed < 8) Thread.sleep(10)
+        latch.countDown()
+
+        done.await(5, TimeUnit.SECONDS) shouldBe true
+        executor.shutdown()
+        validations.get shouldBe 1
+        tokens.collapsed shouldBe 7
+    }
+
+    "Cache" should "not cache a token past its expiration time" in {
+        val keystone = client()
+        val tokens = cache(keystone)
+        tokenLifetime = 3 * 60 * 1000L
+        val token = try newToken(keystone) finally tokenLifetime = 30 * 60 * 1000L
+
+        tokens.get(token)
+        tokens.now += (30 seconds).toMillis
+        tokens.get(token)
+        validations.get shouldBe 1
+
+        // The token expires in less than the expiration guard.
+        tokens.now += (90 seconds).toMillis + 1
+        tokens.get(token)
+        validations.get shouldBe 2
+    }
+
+    "Cache" should "validate a token again after the cache time" in {
+        val keystone = client()
+        val tokens = cache(keystone)
+        val token = newToken(keystone)
+
+        tokens.get(token)
+        tokens.now += (5 minutes).toMillis
+        tokens.get(token)
+        validations.get shouldBe 2
+        tokens.misses shouldBe 2
+    }
+
+    "Cache" should "refresh a token in the background" in {
+        val keystone = client()
+        val tokens = cache(keystone)
+        val token = newToken(keystone)
+
+        tokens.get(token)
+        tokens.now += (1 minute).toMillis
+        tokens.get(token)
+        validations.get shouldBe 2
+        tokens.refreshes shouldBe 1
+        tokens.hits shouldBe 1
+
+        And("The refreshed token is served from the cache")
+        tokens.get(token)
+        validations.get shouldBe 2
+    }
+
+    "Cache" should "not cache invalid tokens" in {
+        val keystone = client()
+        val tokens = cache(keystone)
+
+        for (_ <- 0 until 2) {
+            intercept[KeystoneException] {
+                tokens.get("no-token")
+            }
+        }
+        validations.get shouldBe 2
+        tokens.size shouldBe 0
+    }
+
+    "Cache" should "be bounded" in {
+        val keystone = client()
+        val tokens = cache(keystone, maxSize = 4)
+
+        for (_ <- 0 until 10) {
+            tokens.get(newToken(keystone))
+            tokens.size should be <= 4
+        }
+        tokens.evictions should be > 0L
+    }
+
+    "Cache" should "fail the waiting requests when a validation fails" in {
+        val started = new CountDownLatch(1)
+        val latch = new CountDownLatch(1)
+        val tokens = new KeystoneTokenCache(t => {
+            started.countDown()
+            latch.await(5, TimeUnit.SECONDS)
+            AuthResponse(t, r3 = v3.Token(id = t, expiresAt = "no-time"))
+        }, 16, 5 minutes, 1 minute, 10 seconds,
+           Executors.newSingleThreadExecutor())
+
+        val executor = Executors.newSingleThreadExecutor()
+        val loader = executor.submit(new Runnable {
+            override def run(): Unit = tokens.get("token")
+        })
+        started.await(5, TimeUnit.SECONDS) shouldBe true
+
+        val waiter = new Thread() {
+            @volatile var error: Throwable = null
+            override def run(): Unit = {
+                try tokens.get("token")
+                catch { case e: Throwable => error = e }
+            }
+        }
+        waiter.start()
+        while (tokens.collapsed < 1) Thread.sleep(10)
+        latch.countDown()
+
+        Then("Both requests fail and the token is not cached")
+        intercept[java.util.concurrent.ExecutionException] {
+            loader.get(5, TimeUnit.SECONDS)
+        }
+        waiter.join(5000)
+        waiter.isAlive shouldBe false
+        waiter.error should not be null
+        tokens.size shouldBe 0
+        executor.shutdown()
+    }
+
+    "Cache" should "bound the wait for a concurrent validation" in {
+        val latch = new CountDownLatch(1)
+        val tokens = new KeystoneTokenCache(t => {
+            latch.await(5, TimeUnit.SECONDS)
+            AuthResponse(t, r3 = v3.Token(id = t))
+        }, 16, 5 minutes, 1 minute, 100 millis,
+           Executors.newSingleThreadExecutor())
+
+        val executor = Executors.newSingleThreadExecutor()
+        executor.execute(new Runnable {
+            override def run(): Unit = tokens.get("token")
+        })
+        while (tokens.misses < 1) Thread.sleep(10)
+
+        try {
+            intercept[KeystoneConnectionException] {
+                tokens.get("token")
+            }
+        } finally {
+            latch.countDown()
+            executor.shutdown()
+        }
+    }
+
+    "Cache" should "expose its counters as metrics" in {
+        val keystone = client()
+        val tokens = cache(keystone)
+        val token = newToken(keystone)
+        val registry = new MetricRegistry
+        tokens.registerMetrics(registry)
+
+        tokens.get(token)
+        tokens.get(token)
+        val gauges = registry.getGauges
+        gauges.get("keystoneTokenCache.hits").getValue shouldBe 1L
+        gauges.get("keystoneTokenCache.misses").getValue shouldBe 1L
+        gauges.get("keystoneTokenCache.evictions").getValue shouldBe 0L
+        gauges.get("keystoneTokenCache.size").getValue shouldBe 1L
+    }
+}
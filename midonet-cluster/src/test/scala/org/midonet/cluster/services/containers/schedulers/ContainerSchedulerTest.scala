@@ -19,6 +19,7 @@ package org.midonet.cluster.services.containers.schedulers
 import java.util
 import java.util.UUID
 
+import com.google.common.base.Ticker
 import com.typesafe.config.ConfigFactory
 
 import org.junit.runner.RunWith
@@ -46,8 +47,10 @@ class ContainerSchedulerTest extends FeatureSpec with SchedulersTest
     class TestScheduler(containerId: UUID,
                         context: Context,
                         config: ContainersConfig,
-                        provider: HostSelectorProvider)
-        extends ContainerScheduler(containerId, context, config, provider) {
+                        provider: HostSelectorProvider,
+                        limiter: RescheduleLimiter = null)
+        extends ContainerScheduler(containerId, context, config, provider,
+                                   limiter) {
         var time = 0L
         var timer = PublishSubject.create[java.lang.Long]
         protected override def timeoutObservable = timer
@@ -69,8 +72,9 @@ class ContainerSchedulerTest extends FeatureSpec with SchedulersTest
         provider = new HostSelectorProvider(context)
     }
 
-    private def newScheduler(containerId: UUID): TestScheduler = {
-        new TestScheduler(containerId, context, config, provider)
+    private def newScheduler(containerId: UUID,
+                             limiter: RescheduleLimiter = null): TestScheduler = {
+        new TestScheduler(containerId, context, config, provider, limiter)
     }
 
     feature("Scheduler handles container notifications") {
@@ -2682,6 +2686,82 @@ class ContainerSchedulerTest extends FeatureSpec with SchedulersTest
         }
     }
 
+    feature("Scheduler limits the rescheduling rate") {
+        scenario("Rescheduling is deferred when the rate limit is reached") {
+            Given("Two containers with anywhere policy")
+            val group = createGroup()
+            val container1 = createContainer(group.getId)
+            val container2 = createContainer(group.getId)
+
+            And("A host with container service")
+            val host1 = createHost()
+            createHostStatus(host1.getId, weight = 1)
+
+            And("Two container schedulers sharing a rate limiter")
+            var nanos = 0L
+            val ticker = new Ticker {
+                override def read(): Long = nanos
+            }
+            val limiter = new RescheduleLimiter(2.0, ticker)
+            val scheduler1 = newScheduler(container1.getId, limiter)
+            val scheduler2 = newScheduler(container2.getId, limiter)
+
+            And("Two scheduler observers")
+            val obs1 = new TestObserver[SchedulerEvent]
+            val obs2 = new TestObserver[SchedulerEvent]
+
+            When("The observers subscribe to the schedulers")
+            scheduler1.observable subscribe obs1
+            scheduler2.observable subscribe obs2
+
+            And("The containers are reported running")
+            createContainerStatus(container1.getId, Code.RUNNING, host1.getId)
+            createContainerStatus(container2.getId, Code.RUNNING, host1.getId)
+
+            Then("The observers should receive the up notifications")
+            obs1.getOnNextEvents should have size 2
+            obs2.getOnNextEvents should have size 2
+
+            When("Starting another host")
+            val host2 = createHost()
+            createHostStatus(host2.getId, weight = 1)
+
+            And("The selected host is no longer eligible")
+            deleteHostStatus(host1.getId)
+
+            Then("Only one container should be rescheduled")
+            val (moved, deferred) =
+                if (obs1.getOnNextEvents.size > 2)
+                    ((container1, obs1), (container2, obs2, scheduler2))
+                else ((container2, obs2), (container1, obs1, scheduler1))
+            moved._2.getOnNextEvents should have size 5
+            moved._2.getOnNextEvents.get(4) shouldBeScheduleFor(
+                moved._1, host2.getId)
+            deferred._2.getOnNextEvents should have size 2
+            deferred._3.schedulerState shouldBeUpFor(deferred._1, host1.getId)
+
+            When("The retry interval expires before the limiter has a permit")
+            nanos = 400000000L
+            deferred._3.timer onNext 0L
+
+            Then("The container should not be rescheduled")
+            deferred._2.getOnNextEvents should have size 2
+
+            When("The retry interval expires after the limiter has a permit")
+            nanos = 600000000L
+            deferred._3.timer onNext 0L
+
+            Then("The deferred container should be rescheduled")
+            deferred._2.getOnNextEvents should have size 5
+            deferred._2.getOnNextEvents.get(2) shouldBeDownFor(
+                deferred._1, host1.getId)
+            deferred._2.getOnNextEvents.get(3) shouldBeUnscheduleFor(
+                deferred._1, host1.getId)
+            deferred._2.getOnNextEvents.get(4) shouldBeScheduleFor(
+                deferred._1, host2.getId)
+        }
+    }
+
     feature("Scheduler supports manual scheduling") {
         scenario("Unschedule scheduled container") {
             Given("A host with the container service")
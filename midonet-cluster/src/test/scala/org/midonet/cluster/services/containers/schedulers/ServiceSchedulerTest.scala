@@ -43,6 +43,8 @@ class ServiceSchedulerTest extends FeatureSpec with SchedulersTest
           |cluster.containers.scheduler_retry : 15s
           |cluster.containers.scheduler_max_retries : 3
           |cluster.containers.scheduler_bad_host_lifetime : 300s
+          |cluster.containers.scheduler_batch_interval : 0ms
+          |cluster.containers.scheduler_reschedule_rate : 0
         """.stripMargin))
 
     private def newScheduler(): ServiceScheduler = {
@@ -149,6 +149,7 @@ class StateTableCacheTest extends FeatureSpec with Matchers with GivenWhenThen
         proxyConfig = new StateProxyConfig(ConfigFactory.parseString(
             s"""
                |cluster.state_proxy.initial_subscriber_queue_size : 16
+               |cluster.state_proxy.max_subscriber_queue_size : 8
                |cluster.state_proxy.notify_batch_size : 4
              """.stripMargin))
     }
@@ -882,6 +883,147 @@ class StateTableCacheTest extends FeatureSpec with Matchers with GivenWhenThen
 
             cache.close()
         }
+
+        scenario("Cache coalesces updates during back-pressure") {
+            Given("A state table cache")
+            var closed = false
+            val id = UUID.randomUUID()
+            val cache = newCache(create = true, id) { closed = true }
+
+            And("A first entry")
+            val key1 = MAC.random()
+            val value1 = UUID.randomUUID()
+            addEntry(id, key1, value1)
+
+            And("An observer with back-pressure and an observer without")
+            val observer1 = new TestObserver(auto = false)
+            val observer2 = new TestObserver
+
+            When("The observers subscribe")
+            cache.subscribe(observer1, lastVersion = None)
+            cache.subscribe(observer2, lastVersion = None)
+
+            Then("Both observers receive a snapshot with the entry")
+            observer1.awaitOnNext(1, timeout) shouldBe true
+            observer2.awaitOnNext(1, timeout) shouldBe true
+
+            When("Adding a second and a third entry")
+            val key2 = MAC.random()
+            val value2 = UUID.randomUUID()
+            addEntry(id, key2, value2)
+            observer2.awaitOnNext(2, timeout) shouldBe true
+
+            val key3 = MAC.random()
+            val value3 = UUID.randomUUID()
+            addEntry(id, key3, value3)
+            observer2.awaitOnNext(3, timeout) shouldBe true
+
+            Then("The first observer does not receive the updates")
+            observer1.getOnNextEvents.size() shouldBe 1
+
+            When("The first observer completes its first promise")
+            observer1.promise.trySuccess(None)
+
+            Then("The first observer receives a single coalesced update")
+            observer1.awaitOnNext(2, timeout) shouldBe true
+            observer1.getOnNextEvents.get(1) shouldBeUpdateFor(begin = true,
+                end = true, key2 -> value2, key3 -> value3)
+
+            cache.close()
+        }
+
+        scenario("Cache replaces a full queue with a snapshot") {
+            Given("A state table cache")
+            var closed = false
+            val id = UUID.randomUUID()
+            val cache = newCache(create = true, id) { closed = true }
+
+            And("A first entry")
+            addEntry(id, MAC.random(), UUID.randomUUID())
+
+            And("An observer with back-pressure and an observer without")
+            val observer1 = new TestObserver(auto = false)
+            val observer2 = new TestObserver
+
+            When("The observers subscribe")
+            cache.subscribe(observer1, lastVersion = None)
+            cache.subscribe(observer2, lastVersion = None)
+
+            Then("Both observers receive a snapshot with the entry")
+            observer1.awaitOnNext(1, timeout) shouldBe true
+            observer2.awaitOnNext(1, timeout) shouldBe true
+
+            When("Adding more entries than the subscriber queue size")
+            for (index <- 1 to 9) {
+                addEntry(id, MAC.random(), UUID.randomUUID())
+                observer2.awaitOnNext(index + 1, timeout) shouldBe true
+            }
+
+            And("The first observer completes its first promise")
+            observer1.promise.trySuccess(None)
+
+            Then("The first observer receives a snapshot of the table")
+            observer1.awaitOnNext(4, timeout) shouldBe true
+            observer1.getOnNextEvents.get(1) shouldBeSnapshotFor(begin = true,
+                end = false, 4)
+            observer1.getOnNextEvents.get(2) shouldBeSnapshotFor(begin = false,
+                end = false, 4)
+            observer1.getOnNextEvents.get(3) shouldBeSnapshotFor(begin = false,
+                end = true, 2)
+
+            cache.close()
+        }
+
+        scenario("Cache does not count the snapshot against the queue size") {
+            Given("A state table cache")
+            var closed = false
+            val id = UUID.randomUUID()
+            val cache = newCache(create = true, id) { closed = true }
+
+            And("More entries than fit in the subscriber queue size")
+            for (index <- 0 until 40) {
+                addEntry(id, MAC.random(), UUID.randomUUID())
+            }
+
+            And("An observer with back-pressure and an observer without")
+            val observer1 = new TestObserver(auto = false)
+            val observer2 = new TestObserver
+
+            When("The observers subscribe")
+            cache.subscribe(observer1, lastVersion = None)
+            cache.subscribe(observer2, lastVersion = None)
+
+            Then("The first observer receives the first snapshot message")
+            observer1.awaitOnNext(1, timeout) shouldBe true
+            observer2.awaitOnNext(10, timeout) shouldBe true
+
+            When("Adding an entry")
+            val key = MAC.random()
+            val value = UUID.randomUUID()
+            addEntry(id, key, value)
+            observer2.awaitOnNext(11, timeout) shouldBe true
+
+            And("The first observer completes its first promise")
+            observer1.promise.trySuccess(None)
+
+            Then("The first observer receives the snapshot and the update")
+            observer1.awaitOnNext(11, timeout) shouldBe true
+            observer1.getOnNextEvents.get(0) shouldBeSnapshotFor(begin = true,
+                end = false, 4)
+            for (index <- 1 until 9) {
+                observer1.getOnNextEvents.get(index) shouldBeSnapshotFor(
+                    begin = false, end = false, 4)
+            }
+            observer1.getOnNextEvents.get(9) shouldBeSnapshotFor(begin = false,
+                end = true, 4)
+            observer1.getOnNextEvents.get(10) shouldBeUpdateFor(begin = true,
+                end = true, key -> value)
+
+            And("The first observer does not receive another snapshot")
+            observer1.getOnNextEvents.size() shouldBe 11
+
+            cache.close()
+        }
     }
 
     feature("Cache handles connection changes") {
@@ -91,6 +91,7 @@ class StateTableManagerTest extends FeatureSpec with Matchers
            |cluster.state_proxy.cache_threads : 1
            |cluster.state_proxy.server.shutdown_timeout : 10ms
            |cluster.state_proxy.initial_subscriber_queue_size : 4
+           |cluster.state_proxy.max_subscriber_queue_size : 8
            |cluster.state_proxy.notify_batch_size : 16
          """.stripMargin))
 
@@ -114,4 +114,16 @@ class OvsdbVtepBuilder(val vtep: InMemoryOvsdbVtep) extends AnyVal {
         vtep.putEntry(uLocalTable, uMac)
         uMac
     }
+
+    def createPhysicalLocator(ip: IPv4Addr = IPv4Addr.random)
+    : PhysicalLocator = {
+        val locTable = new PhysicalLocatorTable(schema)
+        val loc = PhysicalLocator(UUID.randomUUID, ip)
+        vtep.putEntry(locTable, loc)
+        loc
+    }
+
+    def remoteUcastMacs: Iterable[UcastMac] = {
+        vtep.getTable(new UcastMacsRemoteTable(schema)).values
+    }
 }
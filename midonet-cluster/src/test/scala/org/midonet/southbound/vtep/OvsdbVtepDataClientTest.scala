@@ -26,7 +26,8 @@ import org.scalatest.junit.JUnitRunner
 import org.scalatest.{BeforeAndAfter, FeatureSpec, GivenWhenThen, Matchers}
 
 import org.midonet.cluster.data.vtep.VtepStateException
-import org.midonet.cluster.data.vtep.model.MacLocation
+import org.midonet.cluster.data.vtep.model.{MacLocation, VtepMAC}
+import org.midonet.packets.{IPv4Addr, MAC}
 import org.midonet.southbound.vtep.OvsdbVtepBuilder._
 import org.midonet.southbound.vtep.mock.InMemoryOvsdbVtep
 import org.midonet.util.concurrent.toFutureOps
@@ -438,4 +439,73 @@ class OvsdbVtepDataClientTest extends FeatureSpec with BeforeAndAfter
         }
     }
 
+    feature("Client batches the remote MAC updates") {
+        scenario("Many MAC updates are written in few transactions") {
+            Given("A logical switch and a locator")
+            val ls = vtep.createLogicalSwitch()
+            val loc = vtep.createPhysicalLocator()
+
+            And("A ready VTEP client")
+            val client = createVtep()
+            vtep.goReady()
+            val updater = Await.result(client.macRemoteUpdater, timeout)
+            val transactions = vtep.transactionCount
+
+            When("Publishing many MAC updates")
+            val count = 2000
+            val macs = for (_ <- 0 until count) yield MAC.random()
+            val start = System.nanoTime()
+            for (mac <- macs) {
+                updater onNext MacLocation(mac, IPv4Addr.random, ls.name,
+                                           loc.dstIp)
+            }
+
+            Then("The VTEP should contain all MACs")
+            val deadline = timeout.fromNow
+            while (vtep.remoteUcastMacs.size < count && deadline.hasTimeLeft) {
+                Thread.sleep(10)
+            }
+            vtep.remoteUcastMacs.map(_.mac).toSet shouldBe
+                macs.map(VtepMAC.fromMac).toSet
+            info(s"Synchronized $count MACs in " +
+                 s"${(System.nanoTime() - start) / 1000000} ms and " +
+                 s"${vtep.transactionCount - transactions} transactions")
+
+            And("The MACs should be written in batches")
+            vtep.transactionCount - transactions should be < count / 10
+        }
+
+        scenario("Updates of the same MAC in a batch are applied in order") {
+            Given("A logical switch and a locator")
+            val ls = vtep.createLogicalSwitch()
+            val loc = vtep.createPhysicalLocator()
+
+            And("A ready VTEP client")
+            val client = createVtep()
+            vtep.goReady()
+            val updater = Await.result(client.macRemoteUpdater, timeout)
+
+            When("Publishing several locations for the same MAC")
+            val mac = MAC.random()
+            val ips = for (_ <- 0 until 10) yield IPv4Addr.random
+            for (ip <- ips) {
+                updater onNext MacLocation(mac, ip, ls.name, loc.dstIp)
+            }
+
+            And("Publishing another MAC that is then deleted")
+            val deleted = MAC.random()
+            updater onNext MacLocation(deleted, ips.head, ls.name, loc.dstIp)
+            updater onNext MacLocation(deleted, ips.head, ls.name, null)
+
+            Then("The VTEP should contain the last location of the MAC")
+            val deadline = timeout.fromNow
+            while (!vtep.remoteUcastMacs.exists(_.ip == ips.last) &&
+                   deadline.hasTimeLeft) {
+                Thread.sleep(10)
+            }
+            vtep.remoteUcastMacs.map(m => (m.mac, m.ip)).toList shouldBe
+                List((VtepMAC.fromMac(mac), ips.last))
+        }
+    }
+
 }
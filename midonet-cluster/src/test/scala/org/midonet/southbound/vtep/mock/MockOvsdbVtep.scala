@@ -18,6 +18,7 @@ package org.midonet.southbound.vtep.mock
 
 import java.lang.{Long => JavaLong}
 import java.util
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.{Objects, UUID}
 
 import scala.collection.JavaConversions._
@@ -244,6 +245,9 @@ class InMemoryOvsdbVtep(mgmtIp: IPv4Addr = IPv4Addr.random,
     /** publish the requested operations */
     def operationRequests = operationSubject.asObservable()
 
+    /** the number of executed transactions */
+    def transactionCount: Int = transactions.get
+
     /** Retrieve a supported database schema */
     def getDbSchema(name: String): DatabaseSchema =
         if (name != MockOvsdbVtep.DB_HARDWARE_VTEP) null else databaseSchema
@@ -318,10 +322,12 @@ class InMemoryOvsdbVtep(mgmtIp: IPv4Addr = IPv4Addr.random,
     }
 
     // Transaction support
+    private val transactions = new AtomicInteger()
     private val transactionEngine = new TransactionEngine {
         override def execute(trans: TransactBuilder)
         : ListenableFuture[util.List[OperationResult]] =
             tables.synchronized[ListenableFuture[util.List[OperationResult]]] {
+                transactions.incrementAndGet()
                 val results = new util.ArrayList[OperationResult]()
                 for (op <- trans.getRequests.toIterable) {
                     operationSubject.onNext(op)
@@ -16,6 +16,8 @@
 
 package org.midonet.util;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,6 +42,10 @@ public class Bucket {
     private final int index;
     private final boolean atomic;
     private int tokens;
+    /* Tokens charged to this bucket, possibly by another thread, that are
+     * paid before the bucket can consume any other token.
+     */
+    private final AtomicInteger charged = new AtomicInteger();
 
     public Bucket(TokenBucket tb, int multiplier,
                   StatisticalCounter counter, int index,
@@ -62,6 +68,9 @@ public class Bucket {
      * false accordingly.
      */
     public boolean consumeToken() {
+        if (charged.get() > 0 && !payCharged())
+            return false;
+
         if (tokens > 0) {
             tokens -= 1;
             if (isTraceEnabled) {
@@ -86,6 +95,40 @@ public class Bucket {
         tokens += 1;
     }
 
+    /* Charges the specified amount of tokens to this bucket, in addition to
+     * the ones already consumed, for example to account for the cost of the
+     * packets admitted by this bucket. The charged tokens are paid when the
+     * bucket next consumes a token. This method is thread-safe.
+     */
+    public void charge(int tokens) {
+        if (tokens > 0)
+            charged.addAndGet(tokens);
+    }
+
+    /* Pays the charged tokens with the tokens of this bucket, returning
+     * whether all charged tokens were paid.
+     */
+    private boolean payCharged() {
+        int owed = charged.getAndSet(0);
+        int paid = Math.min(owed, tokens);
+        tokens -= paid;
+        owed -= paid;
+
+        if (owed > 0) {
+            int acquired = tb.tryGet((owed + multiplier - 1) / multiplier)
+                           * multiplier;
+            paid = Math.min(owed, acquired);
+            tokens += acquired - paid;
+            owed -= paid;
+        }
+
+        if (owed > 0) {
+            charged.addAndGet(owed);
+            return false;
+        }
+        return true;
+    }
+
     /* Signals that the caller is done consuming tokens. It returns any
      * unconsumed tokens back to the system.
      */
@@ -112,5 +155,8 @@ public class Bucket {
 
         @Override
         public final void done() { }
+
+        @Override
+        public final void charge(int tokens) { }
     };
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.util.collection
+
+import java.util.UUID
+
+/**
+ * Constructs a MaglevSelector for a traversable collection of objects
+ * with weights and stable identifiers.
+ *
+ * Throws an IllegalArgumentException if ts has no element with a positive
+ * weight, or if the table size is not larger than the number of elements.
+ */
+object MaglevSelector {
+
+    /**
+     * Default lookup table size. It must be a prime number, and should be
+     * much larger than the number of elements so that each element gets a
+     * share of the table close to its weight.
+     */
+    final val DefaultTableSize = 16381
+
+    def apply[T <: HasWeight](ts: Traversable[T], id: T => UUID,
+                              tableSize: Int = DefaultTableSize)
+    : MaglevSelector[T] = {
+        // Sort the elements by identifier, such that the table does not
+        // depend on the order in which they were given.
+        val objs = ts.filter(_.weight > 0).toSeq
+                     .sortWith((a, b) => id(a).compareTo(id(b)) < 0)
+                     .toArray[Any].asInstanceOf[Array[T]]
+        if (objs.isEmpty)
+            throw new IllegalArgumentException(
+                "Ts must have at least one element with weight > 0.")
+        if (tableSize <= objs.length)
+            throw new IllegalArgumentException(
+                s"Table size $tableSize must be larger than the number of " +
+                s"elements ${objs.length}.")
+        new MaglevSelector[T](objs, populate(objs, id, tableSize))
+    }
+
+    /**
+     * Fills the lookup table as described in the Maglev paper: every element
+     * walks its own permutation of the table slots, determined only by its
+     * identifier, and claims the next free slot in its turn. Elements take
+     * as many turns per round as their weight, so that the share of each
+     * element is proportional to its weight. Because the permutation of an
+     * element does not depend on the other elements, adding or removing one
+     * element only moves a small fraction of the slots.
+     */
+    private def populate[T <: HasWeight](objs: Array[T], id: T => UUID,
+                                         tableSize: Int): Array[Int] = {
+        val count = objs.length
+        val offsets = new Array[Int](count)
+        val skips = new Array[Int](count)
+        val next = new Array[Int](count)
+        var i = 0
+        while (i < count) {
+            val uuid = id(objs(i))
+            offsets(i) = (mix(uuid.getMostSignificantBits,
+                              uuid.getLeastSignificantBits) %
+                          tableSize).toInt
+            skips(i) = (mix(uuid.getLeastSignificantBits,
+                            uuid.getMostSignificantBits) %
+                        (tableSize - 1)).toInt + 1
+            i += 1
+        }
+
+        val table = new Array[Int](tableSize)
+        java.util.Arrays.fill(table, -1)
+        var filled = 0
+        while (filled < tableSize) {
+            i = 0
+            while (i < count && filled < tableSize) {
+                var turns = objs(i).weight
+                while (turns > 0 && filled < tableSize) {
+                    var slot = ((offsets(i).toLong +
+                                 next(i).toLong * skips(i)) % tableSize).toInt
+                    while (table(slot) >= 0) {
+                        next(i) += 1
+                        slot = ((offsets(i).toLong +
+                                 next(i).toLong * skips(i)) % tableSize).toInt
+                    }
+                    table(slot) = i
+                    next(i) += 1
+                    filled += 1
+                    turns -= 1
+                }
+                i += 1
+            }
+        }
+        table
+    }
+
+    /**
+     * Returns a non-negative 64-bit hash of the two words, using the
+     * MurmurHash3 finalizer. The result is independent of the JVM so that
+     * every agent computes the same table for the same elements.
+     */
+    private def mix(a: Long, b: Long): Long = {
+        var h = a * 0x9E3779B97F4A7C15L ^ b
+        h ^= h >>> 33
+        h *= 0xFF51AFD7ED558CCDL
+        h ^= h >>> 33
+        h *= 0xC4CEB93FE1A85B9BL
+        h ^= h >>> 33
+        h & Long.MaxValue
+    }
+}
+
+/**
+ * Performs consistent-hash selection from a Maglev lookup table. Unlike the
+ * [[WeightedSelector]], the selection is a deterministic function of the
+ * given hash, such that different hosts with the same set of elements
+ * select the same element for the same hash. Constructor is private; use
+ * companion object to create instances.
+ */
+class MaglevSelector[T] private (objs: Array[T], table: Array[Int]) {
+
+    val tableSize = table.length
+
+    /**
+     * Selects the element corresponding to the given hash. The hash is
+     * scrambled before the lookup, such that callers may pass plain
+     * combinations of packet fields.
+     */
+    def select(hash: Int): T = {
+        var h = hash
+        h ^= h >>> 16
+        h *= 0x85EBCA6B
+        h ^= h >>> 13
+        h *= 0xC2B2AE35
+        h ^= h >>> 16
+        objs(table((h & Int.MaxValue) % table.length))
+    }
+}
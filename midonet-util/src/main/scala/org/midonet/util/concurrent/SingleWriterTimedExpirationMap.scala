@@ -0,0 +1,325 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util.concurrent
+
+import java.util.{HashMap => JHashMap}
+
+import scala.concurrent.duration.Duration
+
+import org.midonet.util.collection.Reducer
+import org.midonet.util.logging.Logger
+
+object SingleWriterTimedExpirationMap {
+
+    /** The number of bits of the slot index of a wheel level. */
+    private final val SlotBits = 6
+    /** The number of slots of a wheel level. */
+    private final val Slots = 1 << SlotBits
+    private final val SlotMask = Slots - 1
+    /** The number of wheel levels, enough to cover any positive delay in
+      * milliseconds. */
+    private final val Levels = (63 + SlotBits - 1) / SlotBits
+
+}
+
+/**
+ * A [[TimedExpirationMap]] for a single thread, where the idle entries are
+ * scheduled for expiration in a hierarchical timing wheel.
+ *
+ * The map stores every key in an entry node, which is also a node of an
+ * intrusive doubly-linked list. When the reference count of an entry drops
+ * to zero, the node is linked into a slot of the timing wheel, and when the
+ * entry is referenced again the node is unlinked, such that neither
+ * operation allocates. The wheel has several levels of 64 slots each, where
+ * the slot of level `L` spans 64^L milliseconds: a node is linked at the
+ * lowest level whose slots cover its expiration time, relative to the
+ * current time of the wheel.
+ *
+ * The obliterateIdleEntries() operation advances the current time of the
+ * wheel through the non-empty slots whose start time is due, found with a
+ * per-level bitmap of non-empty slots. The nodes of a slot at level 0 are
+ * expired, while the nodes of a slot at a higher level cascade into the
+ * lower levels. Since a node cascades at most once per level, the cost of
+ * the operation is proportional to the number of expired entries.
+ *
+ * Unlike the [[OnHeapTimedExpirationMap]], this map is NOT thread-safe: all
+ * operations, including reads, must be called from the same thread, or be
+ * otherwise serialized by the caller.
+ */
+final class SingleWriterTimedExpirationMap[K <: AnyRef, V >: Null]
+    (log: Logger, expirationFor: K => Duration)
+    extends TimedExpirationMap[K, V] {
+
+    import SingleWriterTimedExpirationMap._
+
+    private final class Node(val key: K, var value: V) {
+        var refCount = 1
+        var expiration = Long.MaxValue
+        var prev: Node = null
+        var next: Node = null
+        /** The index of the list containing the node, or -1 if unlinked. */
+        var list = -1
+    }
+
+    private val entries = new JHashMap[K, Node]()
+
+    /* The slot lists of all wheel levels, where the list of slot `S` of
+     * level `L` is at index `L * Slots + S`, followed by the list of the
+     * nodes that were already expired when scheduled, and the list of the
+     * nodes being expired. */
+    private val DueList = Levels * Slots
+    private val Processing = DueList + 1
+    private val heads = new Array[Node](DueList + 2)
+    /* The bitmap of non-empty slots for every level. */
+    private val occupied = new Array[Long](Levels)
+    private var currentTime = 0L
+    private var scheduled = 0
+
+    private def logger = log.wrapper
+
+    override def putAndRef(key: K, value: V): V = {
+        val node = entries.get(key)
+        if ((node eq null) || node.refCount < 0) {
+            insert(key, value)
+            null
+        } else {
+            val oldValue = node.value
+            ref(node)
+            node.value = value
+            oldValue
+        }
+    }
+
+    override def putIfAbsentAndRef(key: K, value: V): Int = {
+        val node = entries.get(key)
+        if ((node eq null) || node.refCount < 0) {
+            insert(key, value)
+            1
+        } else {
+            ref(node)
+        }
+    }
+
+    override def get(key: K): V = {
+        val node = entries.get(key)
+        if ((node eq null) || node.refCount < 0) null
+        else node.value
+    }
+
+    override def fold[U](seed: U, func: Reducer[K, V, U]): U = {
+        var acc = seed
+        val it = entries.values().iterator()
+        while (it.hasNext) {
+            val node = it.next()
+            acc = func.apply(acc, node.key, node.value)
+        }
+        acc
+    }
+
+    override def ref(key: K): V = {
+        val node = entries.get(key)
+        if ((node eq null) || node.refCount < 0) {
+            null
+        } else {
+            ref(node)
+            node.value
+        }
+    }
+
+    override def refAndGetCount(key: K): Int = {
+        val node = entries.get(key)
+        if ((node eq null) || node.refCount < 0) 0
+        else ref(node)
+    }
+
+    override def refCount(key: K): Int = {
+        val node = entries.get(key)
+        if (node eq null) 0 else node.refCount
+    }
+
+    override def unref(key: K, currentTimeMillis: Long): V = {
+        val node = entries.get(key)
+        if (node eq null) {
+            null
+        } else if (node.refCount <= 0) {
+            logger.error(log.marker, s"Decrement a ref count past 0 for $key")
+            node.value
+        } else {
+            node.refCount -= 1
+            logger.debug(log.marker,
+                         s"Decrementing reference count of $key to ${node.refCount}")
+            if (node.refCount == 0) {
+                logger.debug(log.marker, s"Scheduling removal of $key")
+                node.expiration =
+                    currentTimeMillis + expirationFor(key).toMillis
+                if (scheduled == 0 && currentTimeMillis > currentTime) {
+                    currentTime = currentTimeMillis
+                }
+                schedule(node)
+            }
+            node.value
+        }
+    }
+
+    override def obliterateIdleEntries[U](currentTimeMillis: Long): Unit =
+        obliterateIdleEntries(currentTimeMillis, (), identityReducer)
+
+    override def obliterateIdleEntries[U](currentTimeMillis: Long, seed: U,
+                                          reducer: Reducer[K, V, U]): U = {
+        // Expire the nodes that were due when scheduled.
+        var acc = process(DueList, currentTimeMillis, seed, reducer)
+
+        // Advance the wheel through the due slots.
+        var slotStart = nextSlot()
+        while (slotStart <= currentTimeMillis) {
+            currentTime = slotStart
+            acc = process(dueSlotIndex, currentTimeMillis, acc, reducer)
+            slotStart = nextSlot()
+        }
+        if (currentTimeMillis > currentTime) {
+            currentTime = currentTimeMillis
+        }
+        acc
+    }
+
+    /** Expires the nodes of the given list whose expiration time is due, and
+      * schedules the other nodes again. The nodes are first moved to the
+      * processing list, such that the reducer can reference or unreference
+      * any entry. */
+    private def process[U](list: Int, currentTimeMillis: Long, seed: U,
+                           reducer: Reducer[K, V, U]): U = {
+        var node = heads(list)
+        heads(list) = null
+        if (list < DueList) {
+            occupied(list / Slots) &= ~(1L << (list & SlotMask))
+        }
+        heads(Processing) = node
+        while (node ne null) {
+            node.list = Processing
+            node = node.next
+        }
+
+        var acc = seed
+        while (heads(Processing) ne null) {
+            node = heads(Processing)
+            unlink(node)
+            if (node.expiration <= currentTimeMillis) {
+                acc = expire(node, acc, reducer)
+            } else {
+                schedule(node)
+            }
+        }
+        acc
+    }
+
+    private def insert(key: K, value: V): Unit = {
+        entries.put(key, new Node(key, value))
+        logger.debug(log.marker, s"Incrementing reference count of $key to 1")
+    }
+
+    private def ref(node: Node): Int = {
+        node.refCount += 1
+        logger.debug(log.marker,
+                     s"Incrementing ref count of ${node.key} to ${node.refCount}")
+        if (node.refCount == 1) {
+            logger.debug(log.marker, s"Unscheduling removal of ${node.key}")
+            if (node.list >= 0) {
+                unlink(node)
+            }
+        }
+        node.refCount
+    }
+
+    /** Expires an idle entry. The entry cannot be referenced while the
+      * reducer is called. */
+    private def expire[U](node: Node, acc: U, reducer: Reducer[K, V, U]): U = {
+        logger.debug(log.marker, s"Forgetting entry ${node.key}")
+        node.refCount = -1
+        val result = reducer(acc, node.key, node.value)
+        entries.remove(node.key, node)
+        result
+    }
+
+    /** Links a node into the lowest wheel level whose slots cover its
+      * expiration time, or into the list of due nodes. */
+    private def schedule(node: Node): Unit = {
+        if (node.expiration <= currentTime) {
+            link(node, DueList)
+        } else {
+            var level = 0
+            while ((node.expiration >>> (level * SlotBits)) -
+                   (currentTime >>> (level * SlotBits)) >= Slots) {
+                level += 1
+            }
+            val slot = (node.expiration >>> (level * SlotBits)).toInt & SlotMask
+            occupied(level) |= 1L << slot
+            link(node, level * Slots + slot)
+        }
+        scheduled += 1
+    }
+
+    /** The index of the slot selected by the last call to [[nextSlot]]. */
+    private var dueSlotIndex = 0
+
+    /** Returns the start time of the earliest non-empty slot of the wheel,
+      * or `Long.MaxValue` if the wheel is empty. */
+    private def nextSlot(): Long = {
+        var earliest = Long.MaxValue
+        var level = 0
+        while (level < Levels) {
+            val bitmap = occupied(level)
+            if (bitmap != 0L) {
+                val shift = level * SlotBits
+                val current = currentTime >>> shift
+                // The slots after the current one, in time order.
+                val first = (current + 1).toInt & SlotMask
+                val offset = java.lang.Long.numberOfTrailingZeros(
+                    java.lang.Long.rotateRight(bitmap, first))
+                val start = (current + 1 + offset) << shift
+                if (start < earliest) {
+                    earliest = start
+                    dueSlotIndex = level * Slots + ((first + offset) & SlotMask)
+                }
+            }
+            level += 1
+        }
+        earliest
+    }
+
+    private def link(node: Node, list: Int): Unit = {
+        val head = heads(list)
+        node.list = list
+        node.prev = null
+        node.next = head
+        if (head ne null) head.prev = node
+        heads(list) = node
+    }
+
+    private def unlink(node: Node): Unit = {
+        val list = node.list
+        if (node.prev ne null) node.prev.next = node.next
+        else heads(list) = node.next
+        if (node.next ne null) node.next.prev = node.prev
+        if ((heads(list) eq null) && list < DueList) {
+            occupied(list / Slots) &= ~(1L << (list & SlotMask))
+        }
+        node.prev = null
+        node.next = null
+        node.list = -1
+        scheduled -= 1
+    }
+}
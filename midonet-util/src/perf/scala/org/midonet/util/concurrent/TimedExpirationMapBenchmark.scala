@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util.concurrent
+
+import java.util.concurrent.TimeUnit
+
+import scala.concurrent.duration._
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+import org.slf4j.helpers.NOPLogger
+
+import org.midonet.util.logging.Logger
+
+/**
+ * Compares the [[OnHeapTimedExpirationMap]] and the
+ * [[SingleWriterTimedExpirationMap]] in a steady state where `size` entries
+ * are idle. Every operation references a new entry and unreferences it,
+ * and the clock advances one millisecond every 1000 operations, when the
+ * idle entries are expired. The expiration period is such that the number
+ * of idle entries remains equal to `size`.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = Array("-Xms8g", "-Xmx8g"))
+@State(Scope.Benchmark)
+@org.openjdk.jmh.annotations.Threads(1)
+class TimedExpirationMapBenchmark {
+
+    private final val OpsPerMillis = 1000
+
+    @Param(Array("onheap", "wheel"))
+    var impl: String = _
+
+    @Param(Array("1000000", "10000000"))
+    var size: Int = _
+
+    var map: TimedExpirationMap[java.lang.Integer, AnyRef] = _
+    var keys: Array[java.lang.Integer] = _
+    var index = 0L
+    var time = 0L
+
+    @JmhSetup
+    def setup(): Unit = {
+        val log = Logger(NOPLogger.NOP_LOGGER)
+        val expiration = (size / OpsPerMillis) millis
+        map = impl match {
+            case "onheap" =>
+                new OnHeapTimedExpirationMap[java.lang.Integer, AnyRef](
+                    log, _ => expiration)
+            case "wheel" =>
+                new SingleWriterTimedExpirationMap[java.lang.Integer, AnyRef](
+                    log, _ => expiration)
+        }
+        // Twice as many keys as idle entries, such that a key is expired
+        // before it is referenced again.
+        keys = Array.tabulate(2 * size)(Int.box)
+        index = 0L
+        time = 0L
+        while (index < size) {
+            churn()
+        }
+    }
+
+    @Benchmark
+    def refUnrefExpire(): Int = {
+        churn()
+    }
+
+    private def churn(): Int = {
+        val key = keys((index % keys.length).toInt)
+        val count = map.putIfAbsentAndRef(key, key)
+        map.unref(key, time)
+        index += 1
+        if (index % OpsPerMillis == 0) {
+            time += 1
+            map.obliterateIdleEntries(time)
+        }
+        count
+    }
+}
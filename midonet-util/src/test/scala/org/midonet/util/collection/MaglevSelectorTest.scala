@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.util.collection
+
+import java.util.UUID
+
+import scala.collection.mutable
+import scala.util.Random
+
+import org.junit.runner.RunWith
+import org.scalatest.{FeatureSpec, Matchers}
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class MaglevSelectorTest extends FeatureSpec with Matchers {
+
+    private class WeightedObject(val id: UUID, val weight: Int)
+        extends HasWeight
+    private object WeightedObject {
+        def apply(weight: Int) = new WeightedObject(UUID.randomUUID(), weight)
+    }
+
+    private val idOf = (obj: WeightedObject) => obj.id
+
+    feature("Construction") {
+        scenario("Attempt to create a MaglevSelector with an empty list") {
+            intercept[IllegalArgumentException] {
+                MaglevSelector(List[WeightedObject](), idOf)
+            }
+        }
+
+        scenario("Attempt to create a MaglevSelector with zero weights") {
+            intercept[IllegalArgumentException] {
+                MaglevSelector(List(WeightedObject(0)), idOf)
+            }
+        }
+
+        scenario("Attempt to create a MaglevSelector with a small table") {
+            intercept[IllegalArgumentException] {
+                MaglevSelector(List.fill(7)(WeightedObject(1)), idOf, 7)
+            }
+        }
+    }
+
+    feature("Deterministic selection") {
+        scenario("One object is always selected") {
+            val obj = WeightedObject(1)
+            val ms = MaglevSelector(List(obj), idOf)
+            (0 until 1000) foreach { _ =>
+                ms.select(Random.nextInt()) should be theSameInstanceAs obj
+            }
+        }
+
+        scenario("Objects with zero weight are never selected") {
+            val objs = List(WeightedObject(1), WeightedObject(0))
+            val ms = MaglevSelector(objs, idOf)
+            (0 until 1000) foreach { _ =>
+                ms.select(Random.nextInt()) should be theSameInstanceAs objs.head
+            }
+        }
+
+        scenario("Selection does not depend on the order of the objects") {
+            val objs = List.fill(10)(WeightedObject(Random.nextInt(5) + 1))
+            val ms1 = MaglevSelector(objs, idOf)
+            val ms2 = MaglevSelector(Random.shuffle(objs), idOf)
+            (0 until 10000) foreach { _ =>
+                val hash = Random.nextInt()
+                ms1.select(hash) should be theSameInstanceAs ms2.select(hash)
+            }
+        }
+    }
+
+    feature("Distribution") {
+        scenario("Objects are selected in proportion to their weight") {
+            val objs = List.fill(10)(WeightedObject(Random.nextInt(5) + 1))
+            val ms = MaglevSelector(objs, idOf)
+            val totalWeight = objs.foldLeft(0)(_ + _.weight)
+
+            val frequencies = mutable.Map[WeightedObject, Int]()
+            objs.foreach(frequencies(_) = 0)
+            val iterations = 1000000
+            (0 until iterations) foreach { hash =>
+                frequencies(ms.select(hash)) += 1
+            }
+
+            frequencies foreach { case (obj, timesSeen) =>
+                val expectedTimesSeen =
+                    obj.weight.toDouble * iterations / totalWeight
+                timesSeen.toDouble should (be > 0.9 * expectedTimesSeen and
+                                           be < 1.1 * expectedTimesSeen)
+            }
+        }
+
+        scenario("Removing an object only remaps the hashes of that object") {
+            val objs = List.fill(10)(WeightedObject(1))
+            val removed = objs.head
+            val ms1 = MaglevSelector(objs, idOf)
+            val ms2 = MaglevSelector(objs.tail, idOf)
+
+            val iterations = 100000
+            var moved = 0
+            (0 until iterations) foreach { hash =>
+                val before = ms1.select(hash)
+                val after = ms2.select(hash)
+                if ((before ne removed) && (before ne after)) moved += 1
+            }
+
+            // Maglev trades a small amount of disruption for balance, such
+            // that some hashes of the remaining objects may also move.
+            moved.toDouble / iterations should be < 0.05
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util.concurrent
+
+import scala.concurrent.duration._
+import scala.util.Random
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, Matchers}
+import org.slf4j.helpers.NOPLogger
+
+import org.midonet.util.collection.Reducer
+import org.midonet.util.logging.Logger
+
+@RunWith(classOf[JUnitRunner])
+class SingleWriterTimedExpirationMapTest extends FeatureSpec with Matchers {
+
+    private val log = Logger(NOPLogger.NOP_LOGGER)
+
+    private def newMap(expiration: String => Duration)
+    : SingleWriterTimedExpirationMap[String, String] = {
+        new SingleWriterTimedExpirationMap[String, String](log, expiration)
+    }
+
+    private def expired(map: TimedExpirationMap[String, String],
+                        time: Long): Set[String] = {
+        map.obliterateIdleEntries(time, Set.empty[String],
+                                  new Reducer[String, String, Set[String]] {
+            override def apply(acc: Set[String], key: String,
+                               value: String): Set[String] = acc + key
+        })
+    }
+
+    feature("Normal operations") {
+        scenario("Reference counting") {
+            val map = newMap(_ => 0 millis)
+            map.putAndRef("A", "X") shouldBe null
+            map.putAndRef("A", "Y") shouldBe "X"
+            map.putIfAbsentAndRef("A", "Z") shouldBe 3
+            map.ref("A") shouldBe "Y"
+            map.refAndGetCount("A") shouldBe 5
+            map.refCount("A") shouldBe 5
+            map.unref("A", 0) shouldBe "Y"
+            map.refCount("A") shouldBe 4
+            map.ref("B") shouldBe null
+            map.unref("B", 0) shouldBe null
+        }
+
+        scenario("Entries expire after their expiration period") {
+            val map = newMap(_ => 100 millis)
+            map.putAndRef("A", "X")
+            map.unref("A", 1000)
+
+            expired(map, 1099) shouldBe empty
+            map.get("A") shouldBe "X"
+            expired(map, 1100) shouldBe Set("A")
+            map.get("A") shouldBe null
+            map.refCount("A") shouldBe 0
+        }
+
+        scenario("Referenced entries do not expire") {
+            val map = newMap(_ => 100 millis)
+            map.putAndRef("A", "X")
+            map.unref("A", 0)
+            map.ref("A") shouldBe "X"
+
+            expired(map, 1000) shouldBe empty
+            map.get("A") shouldBe "X"
+
+            map.unref("A", 1000)
+            expired(map, 1099) shouldBe empty
+            expired(map, 1100) shouldBe Set("A")
+        }
+
+        scenario("A key with a long expiration does not prevent other keys " +
+                 "from expiring") {
+            val map = newMap(key => if (key == "high") 5 days else 0 millis)
+            map.putAndRef("high", "Y")
+            map.putAndRef("A", "X")
+            map.unref("high", 0)
+            map.unref("A", 0)
+
+            expired(map, 1) shouldBe Set("A")
+            map.get("high") shouldBe "Y"
+            expired(map, (5 days).toMillis - 1) shouldBe empty
+            expired(map, (5 days).toMillis) shouldBe Set("high")
+        }
+
+        scenario("The reducer can reference the expired and other entries") {
+            val map = newMap(_ => 10 millis)
+            map.putAndRef("A", "X")
+            map.putAndRef("B", "Y")
+            map.unref("A", 0)
+            map.unref("B", 0)
+
+            map.obliterateIdleEntries(10, 0, new Reducer[String, String, Int] {
+                override def apply(acc: Int, key: String, value: String): Int = {
+                    map.ref(key) shouldBe null
+                    map.putAndRef("C", "Z")
+                    map.unref("C", 10)
+                    acc + 1
+                }
+            }) shouldBe 2
+            map.get("A") shouldBe null
+            map.get("B") shouldBe null
+            map.get("C") shouldBe "Z"
+            expired(map, 20) shouldBe Set("C")
+        }
+
+        scenario("An entry added by the reducer replaces the expired entry") {
+            val map = newMap(_ => 10 millis)
+            map.putAndRef("A", "X")
+            map.unref("A", 0)
+
+            map.obliterateIdleEntries(10, (), new Reducer[String, String, Unit] {
+                override def apply(acc: Unit, key: String, value: String): Unit = {
+                    map.putAndRef("A", "Y") shouldBe null
+                }
+            })
+            map.get("A") shouldBe "Y"
+            map.refCount("A") shouldBe 1
+        }
+    }
+
+    feature("Timing wheel") {
+        scenario("Entries expire in order across all wheel levels") {
+            val periods = Seq(1L, 63L, 64L, 65L, 4095L, 4096L, 4097L,
+                              262143L, 262144L, (1 hour).toMillis,
+                              (30 days).toMillis, 1L << 40)
+            val map = newMap(key => periods(key.toInt) millis)
+            for (index <- periods.indices) {
+                map.putAndRef(index.toString, "X")
+                map.unref(index.toString, 12345)
+            }
+            for ((period, index) <- periods.zipWithIndex) {
+                expired(map, 12345 + period - 1) shouldBe empty
+                expired(map, 12345 + period) shouldBe Set(index.toString)
+            }
+        }
+
+        scenario("Entries unreferenced in the past expire") {
+            val map = newMap(_ => 10 millis)
+            map.putAndRef("A", "X")
+            map.putAndRef("B", "Y")
+            map.unref("A", 1000)
+            expired(map, 1000) shouldBe empty
+
+            map.unref("B", 500)
+            expired(map, 509) shouldBe empty
+            expired(map, 510) shouldBe Set("B")
+            expired(map, 1010) shouldBe Set("A")
+        }
+
+        scenario("The wheel matches the concurrent map") {
+            val random = new Random(42)
+            val periods = Seq(0L, 1L, 100L, 5000L, 60000L)
+            val expiration = (key: String) => periods(key.length % periods.size) millis
+            val wheel = newMap(expiration)
+            val reference = new OnHeapTimedExpirationMap[String, String](
+                log, expiration)
+            val keys = (0 until 500).map(i => "k" * (1 + i % 7) + i)
+
+            var time = 0L
+            for (_ <- 0 until 200000) {
+                val key = keys(random.nextInt(keys.size))
+                random.nextInt(10) match {
+                    case 0 | 1 | 2 | 3 =>
+                        wheel.putAndRef(key, "X") shouldBe
+                            reference.putAndRef(key, "X")
+                    case 4 | 5 | 6 =>
+                        if (reference.refCount(key) > 0) {
+                            wheel.unref(key, time) shouldBe
+                                reference.unref(key, time)
+                        }
+                    case 7 =>
+                        wheel.ref(key) shouldBe reference.ref(key)
+                    case 8 =>
+                        time += random.nextInt(2000)
+                    case 9 =>
+                        expired(wheel, time) shouldBe expired(reference, time)
+                }
+                wheel.refCount(key) shouldBe reference.refCount(key)
+            }
+        }
+    }
+}
@@ -48,6 +48,11 @@ public class Packet {
     // ignored in equals() and hashCode()
     public long startTimeNanos = 0;
 
+    // user field used by midolman packet pipeline to track the hash bucket
+    // of the packet worker balancer, or -1 if the packet was not submitted
+    // through the balancer, ignored in equals() and hashCode()
+    public int workerBucket = -1;
+
     public Packet(Ethernet eth, FlowMatch match, int len) {
         this.eth = eth;
         this.match = match;
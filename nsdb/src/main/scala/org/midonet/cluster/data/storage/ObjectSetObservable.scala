@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data.storage
+
+import scala.collection.mutable
+
+import rx.Observable.OnSubscribe
+import rx.functions.Action0
+import rx.subscriptions.Subscriptions
+import rx.{Observable, Scheduler, Subscriber}
+
+import org.midonet.cluster.data.ObjId
+import org.midonet.util.functors.makeAction0
+
+/**
+  * A batch of notifications for the objects of an [[ObjectSetObservable]]:
+  * the last version of every object updated since the previous batch, the
+  * objects that were deleted, and the objects whose observable emitted an
+  * error. An object appears in at most one of the three collections.
+  */
+case class ObjectUpdates[T](updated: Map[ObjId, T],
+                            deleted: Set[ObjId],
+                            failed: Map[ObjId, Throwable]) {
+    def isEmpty: Boolean = updated.isEmpty && deleted.isEmpty && failed.isEmpty
+    override def toString = s"[updated=${updated.keys} deleted=$deleted " +
+                            s"failed=${failed.keys}]"
+}
+
+object ObjectSetObservable {
+
+    /**
+      * Creates an [[Observable]] that emits batched notifications for a set
+      * of objects of the given class. The set of objects is given by the
+      * `ids` observable, where every notification replaces the previous set:
+      * the objects no longer in the set are unsubscribed, and their pending
+      * notifications are discarded, while the objects added to the set are
+      * subscribed and emit their current version in a subsequent batch.
+      *
+      * The notifications from all objects are accumulated, keeping only the
+      * last version of each object, and are emitted as one
+      * [[ObjectUpdates]] batch on the given scheduler. A batch is scheduled
+      * when the first notification arrives after the previous batch was
+      * emitted, such that all notifications arriving until the scheduler
+      * runs the batch are coalesced.
+      *
+      * The observable completes, or emits an error, after the `ids`
+      * observable completes, or emits an error, respectively.
+      */
+    def create[T](store: Storage, clazz: Class[T],
+                  ids: Observable[_ <: Iterable[ObjId]],
+                  scheduler: Scheduler): Observable[ObjectUpdates[T]] = {
+        Observable.create(new OnSubscribeObjectSet[T](store, clazz, ids,
+                                                      scheduler))
+    }
+
+    private class OnSubscribeObjectSet[T](store: Storage, clazz: Class[T],
+                                          ids: Observable[_ <: Iterable[ObjId]],
+                                          scheduler: Scheduler)
+        extends OnSubscribe[ObjectUpdates[T]] {
+
+        override def call(child: Subscriber[_ >: ObjectUpdates[T]]): Unit = {
+            val state = new ObjectSetState[T](store, clazz, scheduler, child)
+            child.add(state.worker)
+            child.add(Subscriptions.create(makeAction0(state.close())))
+            child.add(ids.subscribe(state.idsSubscriber))
+        }
+    }
+
+    /**
+      * The state of an [[ObjectSetObservable]] subscriber. The object
+      * subscribers and the pending notifications are guarded by `lock`, and
+      * the batches are emitted only from the scheduler worker, such that
+      * the child subscriber receives serialized notifications. The object
+      * observables are subscribed and unsubscribed outside the lock, to
+      * avoid any lock ordering with the storage notification threads.
+      */
+    private class ObjectSetState[T](store: Storage, clazz: Class[T],
+                                    scheduler: Scheduler,
+                                    child: Subscriber[_ >: ObjectUpdates[T]]) {
+
+        private val lock = new Object
+        private val entries = new mutable.HashMap[ObjId, Entry]
+        private val updated = new mutable.HashMap[ObjId, T]
+        private val deleted = new mutable.HashSet[ObjId]
+        private val failed = new mutable.HashMap[ObjId, Throwable]
+        private var scheduled = false
+        private var closed = false
+
+        val worker = scheduler.createWorker()
+
+        private val drainAction = new Action0 {
+            override def call(): Unit = drain()
+        }
+
+        /** Subscribes to the object of a set entry, and accumulates its
+          * notifications while the entry belongs to the set. */
+        private class Entry(id: ObjId) extends Subscriber[T] {
+            var active = true
+
+            override def onNext(obj: T): Unit = enqueue(this) {
+                updated.put(id, obj)
+            }
+
+            override def onCompleted(): Unit = enqueue(this) {
+                updated.remove(id)
+                deleted += id
+            }
+
+            override def onError(e: Throwable): Unit = enqueue(this) {
+                updated.remove(id)
+                failed.put(id, e)
+            }
+        }
+
+        val idsSubscriber = new Subscriber[Iterable[ObjId]] {
+            override def onNext(ids: Iterable[ObjId]): Unit = idsUpdated(ids)
+
+            override def onCompleted(): Unit = {
+                close()
+                worker.schedule(makeAction0 { drain(); child.onCompleted() })
+            }
+
+            override def onError(e: Throwable): Unit = {
+                close()
+                worker.schedule(makeAction0 { drain(); child.onError(e) })
+            }
+        }
+
+        /** Unsubscribes from all objects. */
+        def close(): Unit = {
+            val removed = lock.synchronized {
+                closed = true
+                val removed = entries.values.toList
+                removed.foreach(_.active = false)
+                entries.clear()
+                removed
+            }
+            removed.foreach(_.unsubscribe())
+        }
+
+        private def idsUpdated(ids: Iterable[ObjId]): Unit = {
+            val idSet = ids.toSet
+            val removed = new mutable.ArrayBuffer[Entry]
+            val added = new mutable.ArrayBuffer[(ObjId, Entry)]
+            lock.synchronized {
+                if (closed) return
+                for ((id, entry) <- entries.toList if !idSet.contains(id)) {
+                    entry.active = false
+                    entries -= id
+                    updated -= id
+                    deleted -= id
+                    failed -= id
+                    removed += entry
+                }
+                for (id <- idSet if !entries.contains(id)) {
+                    val entry = new Entry(id)
+                    entries += id -> entry
+                    added += id -> entry
+                }
+            }
+            removed.foreach(_.unsubscribe())
+            for ((id, entry) <- added) {
+                store.observable(clazz, id).subscribe(entry)
+            }
+        }
+
+        /** Applies a notification of an active entry to the pending batch,
+          * and schedules the batch if not already scheduled. */
+        private def enqueue(entry: Entry)(f: => Unit): Unit = {
+            val schedule = lock.synchronized {
+                if (entry.active) {
+                    f
+                    val schedule = !scheduled
+                    scheduled = true
+                    schedule
+                } else false
+            }
+            if (schedule) {
+                worker.schedule(drainAction)
+            }
+        }
+
+        private def drain(): Unit = {
+            val batch = lock.synchronized {
+                scheduled = false
+                val batch = ObjectUpdates(updated.toMap, deleted.toSet,
+                                          failed.toMap)
+                updated.clear()
+                deleted.clear()
+                failed.clear()
+                batch
+            }
+            if (!batch.isEmpty && !child.isUnsubscribed) {
+                child.onNext(batch)
+            }
+        }
+    }
+
+}
@@ -16,9 +16,11 @@
 
 package org.midonet.cluster.data.storage
 
+import scala.collection.breakOut
 import scala.concurrent.Future
 
 import org.midonet.cluster.data.ObjId
+import org.midonet.util.concurrent.CallingThreadExecutionContext
 
 /**
  * A trait defining the read-only storage service API.
@@ -54,4 +56,30 @@ trait ReadOnlyStorage {
      * storage.
      */
     def exists(clazz: Class[_], id: ObjId): Future[Boolean]
+
+    /**
+     * Asynchronously gets the objects with the specified classes and
+     * identifiers, together with the objects they reference, transitively,
+     * as returned by the `references` function. The objects are read in
+     * batches, one batch per level of references, and the future completes
+     * with a [[ReadSnapshot]] of all objects read. Objects that do not exist
+     * are not included in the snapshot.
+     *
+     * The default implementation reads every object individually, and the
+     * snapshot may be inconsistent if the objects are modified during the
+     * read. Implementations backed by a remote store should override this
+     * method to return a consistent snapshot.
+     */
+    def getAllMulti(ids: Seq[(Class[_], ObjId)],
+                    references: AnyRef => Seq[(Class[_], ObjId)] =
+                        ReadSnapshot.NoReferences)
+    : Future[ReadSnapshot] = {
+        ReadSnapshot.load(ids, references) { batch =>
+            Future.sequence(batch.map { case (clazz, id) =>
+                get(clazz.asInstanceOf[Class[AnyRef]], id).recover {
+                    case _: NotFoundException => null
+                }(CallingThreadExecutionContext)
+            })(breakOut, CallingThreadExecutionContext)
+        }
+    }
 }
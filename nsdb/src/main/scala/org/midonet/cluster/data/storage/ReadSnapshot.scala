@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data.storage
+
+import scala.collection.mutable
+import scala.concurrent.{Future, Promise}
+import scala.util.control.NonFatal
+import scala.util.{Failure, Success}
+
+import org.midonet.cluster.data.ObjId
+import org.midonet.cluster.data.storage.TransactionManager.{Key, getKey}
+import org.midonet.util.concurrent.CallingThreadExecutionContext
+
+object ReadSnapshot {
+
+    /** A function returning no references, used to read only the requested
+      * objects. */
+    final val NoReferences: AnyRef => Seq[(Class[_], ObjId)] = _ => Seq.empty
+
+    final val Empty = new ReadSnapshot(Map.empty)
+
+    /**
+      * Loads the specified objects and the objects they reference,
+      * transitively, as returned by the `references` function. The objects are
+      * loaded in batches, where each batch contains the objects referenced by
+      * the previous batch that have not been loaded yet. The `read` function
+      * reads a batch and returns the objects in the same order, or `null` for
+      * the objects that do not exist.
+      */
+    private[storage] def load(ids: Seq[(Class[_], ObjId)],
+                              references: AnyRef => Seq[(Class[_], ObjId)])
+                             (read: Seq[(Class[_], ObjId)] => Future[Seq[AnyRef]])
+    : Future[ReadSnapshot] = {
+        val objects = new mutable.HashMap[Key, AnyRef]
+        val promise = Promise[ReadSnapshot]()
+
+        def loadBatch(batch: Seq[(Class[_], ObjId)]): Unit = {
+            val future =
+                try read(batch)
+                catch { case NonFatal(e) => Future.failed(e) }
+            future.onComplete {
+                case Success(values) =>
+                    try {
+                        val next = new mutable.LinkedHashMap[Key, (Class[_], ObjId)]
+                        for ((ref, value) <- batch zip values) {
+                            objects.put(getKey(ref._1, ref._2), value)
+                        }
+                        for (value <- values if value ne null;
+                             ref <- references(value)) {
+                            val key = getKey(ref._1, ref._2)
+                            if (!objects.contains(key)) {
+                                next.put(key, ref)
+                            }
+                        }
+                        if (next.isEmpty) {
+                            promise.trySuccess(new ReadSnapshot(
+                                objects.filter(_._2 ne null).toMap))
+                        } else {
+                            loadBatch(next.values.toSeq)
+                        }
+                    } catch {
+                        case NonFatal(e) => promise.tryFailure(e)
+                    }
+                case Failure(e) => promise.tryFailure(e)
+            }(CallingThreadExecutionContext)
+        }
+
+        val batch = distinct(ids)
+        if (batch.isEmpty) {
+            promise.trySuccess(Empty)
+        } else {
+            loadBatch(batch)
+        }
+        promise.future
+    }
+
+    private def distinct(ids: Seq[(Class[_], ObjId)])
+    : Seq[(Class[_], ObjId)] = {
+        val refs = new mutable.LinkedHashMap[Key, (Class[_], ObjId)]
+        for (ref <- ids) {
+            refs.getOrElseUpdate(getKey(ref._1, ref._2), ref)
+        }
+        refs.values.toSeq
+    }
+
+}
+
+/**
+ * An immutable set of objects returned by a single
+ * [[ReadOnlyStorage.getAllMulti]] operation. Objects that did not exist when
+ * read are not included in the snapshot.
+ */
+final class ReadSnapshot private[storage](objects: Map[Key, AnyRef]) {
+
+    /** Returns the object with the specified class and identifier, or throws
+      * a [[NotFoundException]] if the snapshot does not contain the object. */
+    @throws[NotFoundException]
+    def get[T](clazz: Class[T], id: ObjId): T = {
+        objects.getOrElse(getKey(clazz, id),
+                          throw new NotFoundException(clazz, id))
+               .asInstanceOf[T]
+    }
+
+    /** Returns the object with the specified class and identifier, if the
+      * snapshot contains the object. */
+    def find[T](clazz: Class[T], id: ObjId): Option[T] = {
+        objects.get(getKey(clazz, id)).asInstanceOf[Option[T]]
+    }
+
+    /** Returns the objects with the specified class and identifiers, in the
+      * same order, or throws a [[NotFoundException]] if the snapshot does not
+      * contain any of the objects. */
+    @throws[NotFoundException]
+    def getAll[T](clazz: Class[T], ids: Seq[_ <: ObjId]): Seq[T] = {
+        ids.map(get(clazz, _))
+    }
+
+    /** Returns all objects of the specified class in the snapshot. */
+    def getAll[T](clazz: Class[T]): Seq[T] = {
+        objects.collect {
+            case (key, obj) if key.clazz == clazz => obj.asInstanceOf[T]
+        }.toSeq
+    }
+
+    def contains(clazz: Class[_], id: ObjId): Boolean = {
+        objects.contains(getKey(clazz, id))
+    }
+
+    def size: Int = objects.size
+
+    override def toString: String = s"ReadSnapshot[size=$size]"
+
+}
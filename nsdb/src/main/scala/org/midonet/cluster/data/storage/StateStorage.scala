@@ -16,13 +16,14 @@
 
 package org.midonet.cluster.data.storage
 
+import scala.collection.JavaConverters._
 import scala.collection.mutable
 
 import rx.Observable
 
 import org.midonet.cluster.data.ObjId
 import org.midonet.cluster.data.storage.KeyType.KeyType
-import org.midonet.cluster.data.storage.StateStorage.{StateInfo, StateMap}
+import org.midonet.cluster.data.storage.StateStorage.{NoOwnerId, StateInfo, StateMap}
 
 /**
  * The [[KeyType]] enumeration defines how values can be written to a state
@@ -177,6 +178,36 @@ trait StateStorage extends Storage {
     def removeValue(clazz: Class[_], id: ObjId, key: String, value: String)
     : Observable[StateResult]
 
+    /** Adds a batch of values to a key for the object with the specified
+      * class and identifier to the state for the current namespace. The
+      * method is asynchronous, returning an observable that when subscribed
+      * to will execute the add and will emit one notification when all values
+      * have been added. The default implementation adds the values one at a
+      * time. */
+    @throws[ServiceUnavailableException]
+    @throws[IllegalArgumentException]
+    def addValues(clazz: Class[_], id: ObjId, key: String, values: Seq[String])
+    : Observable[StateResult] = {
+        Observable.merge[StateResult](
+            values.map(addValue(clazz, id, key, _)).asJava)
+                  .lastOrDefault(StateResult(NoOwnerId))
+    }
+
+    /** Removes a batch of values from a key for the object with the specified
+      * class and identifier from the state of the current namespace. The
+      * method is asynchronous, returning an observable that when subscribed
+      * to will execute the remove and will emit one notification when all
+      * values have been removed. The default implementation removes the
+      * values one at a time. */
+    @throws[ServiceUnavailableException]
+    @throws[IllegalArgumentException]
+    def removeValues(clazz: Class[_], id: ObjId, key: String,
+                     values: Seq[String]): Observable[StateResult] = {
+        Observable.merge[StateResult](
+            values.map(removeValue(clazz, id, key, _)).asJava)
+                  .lastOrDefault(StateResult(NoOwnerId))
+    }
+
     /** Gets the set of values corresponding to a state key from the state of
       * the current namespace. The method is asynchronous, returning an
       * observable that when subscribed to will execute the get and will emit
@@ -26,7 +26,7 @@ import com.google.protobuf.Message
 
 import org.apache.commons.lang.StringUtils
 
-import rx.Observable
+import rx.{Observable, Scheduler}
 
 import org.midonet.cluster.data.ZoomMetadata.ZoomOwner
 import org.midonet.cluster.data.storage.FieldBinding.DeleteAction
@@ -316,6 +316,22 @@ trait Storage extends ReadOnlyStorage {
      */
     def observable[T](clazz: Class[T]): Observable[Observable[T]]
 
+    /**
+      * Provides an observable that emits batched notifications for a changing
+      * set of objects of the given class, such that a consumer tracking a
+      * large number of objects, such as the routes of a router, subscribes
+      * to a single stream instead of one observable per object. Every
+      * notification of `ids` replaces the current set of objects, and the
+      * updates for all objects are coalesced and emitted as
+      * [[ObjectUpdates]] on the given scheduler. See [[ObjectSetObservable]].
+      */
+    def objectsObservable[T](clazz: Class[T],
+                             ids: Observable[_ <: Iterable[ObjId]],
+                             scheduler: Scheduler)
+    : Observable[ObjectUpdates[T]] = {
+        ObjectSetObservable.create(this, clazz, ids, scheduler)
+    }
+
     /**
       * Tries to execute a transaction using the current write and retry policy.
       */
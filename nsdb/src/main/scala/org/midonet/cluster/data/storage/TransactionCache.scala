@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data.storage
+
+import java.util.{HashMap => JHashMap, LinkedHashMap => JLinkedHashMap, Map => JMap}
+
+import org.apache.zookeeper.data.Stat
+
+import org.midonet.cluster.data.storage.TransactionCache.{CachedObject, ObservedObject}
+import org.midonet.cluster.data.storage.TransactionManager.Key
+
+object TransactionCache {
+
+    /** The serialized data and version of an object node, and of its
+      * provenance node, and the transaction identifier that created the
+      * object node. The provenance data is `null` if the node does not
+      * exist. */
+    case class CachedObject(data: Array[Byte], version: Int, czxid: Long,
+                            rawData: Array[Byte], rawVersion: Int)
+
+    /** The version and the transaction identifiers of an object node, as last
+      * notified by the object observable. */
+    private case class ObservedObject(version: Int, czxid: Long, mzxid: Long)
+
+}
+
+/**
+ * A cache of the serialized objects read and written by the storage
+ * transactions, shared by all transactions of the same storage, such that a
+ * transaction can read an object without a round-trip to the backend. The
+ * cache holds at most `capacity` objects, and it evicts the least recently
+ * used objects first.
+ *
+ * A version check alone does not prove that a cached object is current,
+ * because an object deleted and created again restarts at the same node
+ * version. Therefore, the cache only serves an object while the storage
+ * watches it, either with a live object observable or with an
+ * [[org.midonet.cluster.cache.ObjectCache]], and while the creation
+ * transaction and the version of the cached object match the ones last
+ * notified by the watcher, such that a deleted or re-created object is never
+ * served. The transactions still validate the version of every object read
+ * from the cache when committing, to detect the modifications not yet
+ * notified by the watcher.
+ */
+class TransactionCache(capacity: Int) {
+
+    private val entries =
+        new JLinkedHashMap[Key, CachedObject](16, 0.75f, true) {
+            override def removeEldestEntry(eldest: JMap.Entry[Key, CachedObject])
+            : Boolean = size() > capacity
+        }
+
+    // The objects watched by a live object observable or by the object cache.
+    // The map is bounded by the number of watched objects.
+    private val observed = new JHashMap[Key, ObservedObject]
+
+    /** Returns the cached object for the given key, or `null` if the object
+      * is not cached, if it does not match the object last notified by its
+      * observable, or if it was modified after the given transaction
+      * identifier. */
+    def get(key: Key, zxid: Long): CachedObject = synchronized {
+        val cached = entries.get(key)
+        if (cached eq null) {
+            return null
+        }
+        val current = observed.get(key)
+        if ((current ne null) && current.czxid == cached.czxid &&
+            current.version == cached.version && current.mzxid <= zxid) {
+            cached
+        } else null
+    }
+
+    /** Caches an object read from the backend, unless the cache already
+      * contains a newer version of the object. */
+    def read(key: Key, obj: CachedObject): Unit = synchronized {
+        val cached = entries.get(key)
+        if ((cached eq null) || cached.czxid < obj.czxid ||
+            (cached.czxid == obj.czxid && cached.version < obj.version)) {
+            entries.put(key, obj)
+        }
+    }
+
+    /** Caches an object written to the backend. */
+    def write(key: Key, obj: CachedObject): Unit = synchronized {
+        entries.put(key, obj)
+    }
+
+    /** Removes an object from the cache. */
+    def invalidate(key: Key): Unit = synchronized {
+        entries.remove(key)
+    }
+
+    /** Records the current state of an object notified by its observable, and
+      * removes the cached object if it was re-created or if the current
+      * version is newer. */
+    def observe(key: Key, stat: Stat): Unit = synchronized {
+        observed.put(key, ObservedObject(stat.getVersion, stat.getCzxid,
+                                         stat.getMzxid))
+        val cached = entries.get(key)
+        if ((cached ne null) && (cached.czxid != stat.getCzxid ||
+                                 cached.version < stat.getVersion)) {
+            entries.remove(key)
+        }
+    }
+
+    /** Removes an object from the cache when the object is deleted or when
+      * its observable is closed, such that the object is no longer served
+      * until observed again. */
+    def unobserve(key: Key): Unit = synchronized {
+        observed.remove(key)
+        entries.remove(key)
+    }
+
+    /** Returns the number of cached objects. */
+    def size: Int = synchronized {
+        entries.size()
+    }
+
+}
@@ -18,7 +18,7 @@ package org.midonet.cluster.data.storage
 import java.util.ConcurrentModificationException
 import java.util.concurrent.Executors._
 import java.util.concurrent.TimeUnit
-import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
 
 import scala.annotation.tailrec
 import scala.collection.JavaConverters._
@@ -33,6 +33,7 @@ import com.google.common.util.concurrent.SettableFuture
 import org.apache.curator.framework.CuratorFramework
 import org.apache.curator.framework.api.transaction.CuratorTransactionFinal
 import org.apache.curator.framework.api.{BackgroundCallback, CuratorEvent, CuratorEventType}
+import org.apache.curator.framework.recipes.cache.ChildData
 import org.apache.curator.framework.recipes.locks.InterProcessSemaphoreMutex
 import org.apache.curator.utils.ZKPaths
 import org.apache.zookeeper.KeeperException._
@@ -43,9 +44,11 @@ import org.apache.zookeeper.data.Stat
 import org.slf4j.{Logger, LoggerFactory}
 
 import rx.Observable.OnSubscribe
-import rx.{Notification, Observable, Subscriber}
+import rx.{Notification, Observable, Observer, Subscriber, Subscription}
 
+import org.midonet.cluster.cache.{ObjectCache, ObjectNotification}
 import org.midonet.cluster.data.ZoomMetadata.ZoomOwner
+import org.midonet.cluster.data.storage.TransactionCache.CachedObject
 import org.midonet.cluster.data.storage.TransactionManager._
 import org.midonet.cluster.data.storage.ZoomSerializer._
 import org.midonet.cluster.data.storage.metrics.StorageMetrics
@@ -135,6 +138,11 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
     private val objectObservables = new TrieMap[Key, ObjectObservable]
     private val classObservables = new TrieMap[Class[_], ClassObservable]
 
+    private val transactionCache =
+        if (config.transactionCacheSize > 0)
+            new TransactionCache(config.transactionCacheSize)
+        else null
+
     private val topologyLockWatcher = new Watcher {
         override def process(event: WatchedEvent): Unit = {
             if (event.getType == EventType.NodeCreated ||
@@ -177,6 +185,8 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
         curator.getZookeeperClient.getZooKeeper.getState.toString
     private[storage] def failFastConnectionState: String =
         failFastCurator.getZookeeperClient.getZooKeeper.getState.toString
+    private[storage] def transactionCacheSize: Int =
+        if (transactionCache ne null) transactionCache.size else 0
 
     /* End of functions and variable used for JMX monitoring. */
 
@@ -190,6 +200,15 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
      * object loaded from Zookeeper will not have the first backreference
      * added. Since updates are not incremental, the first backreference will
      * be lost.
+     *
+     * If the storage has a [[TransactionCache]], the manager reads the objects
+     * from the cache first, and it adds a version check for every cached
+     * object that is not modified by the transaction, such that the commit
+     * fails if any of the cached objects is out-of-date. The cache only serves
+     * the objects that are watched by an object observable and that were not
+     * modified after the transaction started, and otherwise the object is
+     * read from ZooKeeper. The cache is updated with the objects modified by
+     * a successful commit.
      */
     private class ZoomTransactionManager(owner: ZoomOwner)
             extends TransactionManager(objectClasses, bindings)
@@ -200,6 +219,14 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
         // This is a transaction-local cache of the raw object data.
         private val raw = new mutable.HashMap[Key, ObjRaw]
 
+        // The versions of the objects read from the transaction cache.
+        private val cachedReads = new mutable.HashMap[Key, Int]
+
+        // The transaction identifier that created the objects read by this
+        // transaction, which identifies the objects written back to the
+        // transaction cache.
+        private val czxids = new mutable.HashMap[Key, Long]
+
         // Create an ephemeral node so that we can get Zookeeper's current
         // ZXID. This will allow us to determine if any of the nodes we read
         // have been modified since the TransactionManager was created, allowing
@@ -225,6 +252,21 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
         @throws[InternalObjectMapperException]
         protected override def getSnapshot(clazz: Class[_], id: ObjId)
         : ObjSnapshot = {
+            val key = TransactionManager.getKey(clazz, id)
+            if (transactionCache ne null) {
+                val cached = transactionCache.get(key, zxid)
+                if (cached ne null) {
+                    if (cached.rawData ne null) {
+                        raw.put(key, ObjRaw(cached.rawData, cached.rawVersion))
+                    }
+                    cachedReads.put(key, cached.version)
+                    czxids.put(key, cached.czxid)
+                    return ObjSnapshot(deserialize(cached.data, clazz)
+                                           .asInstanceOf[Obj],
+                                       cached.version)
+                }
+            }
+
             val objPath = objectPath(clazz, id)
             val rawPath = altObjectPath(clazz, id)
 
@@ -247,14 +289,24 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
                 // Backwards compatibility: ignore if the raw node does not
                 // exist.
                 if (rawEvent.getResultCode == Code.OK.intValue()) {
-                    raw.put(TransactionManager.getKey(clazz, id),
-                            ObjRaw(rawEvent.getData, rawEvent.getStat.getVersion))
+                    raw.put(key, ObjRaw(rawEvent.getData,
+                                        rawEvent.getStat.getVersion))
                 } else if (rawEvent.getResultCode != Code.NONODE.intValue()) {
                     throw new InternalObjectMapperException(
                         KeeperException.create(Code.get(rawEvent.getResultCode),
                                                rawPath))
                 }
 
+                if (transactionCache ne null) {
+                    val rawOk = rawEvent.getResultCode == Code.OK.intValue()
+                    czxids.put(key, objectEvent.getStat.getCzxid)
+                    transactionCache.read(key, CachedObject(
+                        objectEvent.getData, objectEvent.getStat.getVersion,
+                        objectEvent.getStat.getCzxid,
+                        if (rawOk) rawEvent.getData else null,
+                        if (rawOk) rawEvent.getStat.getVersion else 0))
+                }
+
                 ObjSnapshot(deserialize(objectEvent.getData, clazz)
                                 .asInstanceOf[Obj],
                             objectEvent.getStat.getVersion)
@@ -305,37 +357,56 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
             val txn =
                 curator.inTransaction().asInstanceOf[CuratorTransactionFinal]
 
+            // The objects written by this transaction, used to update the
+            // transaction cache after the commit. The created objects are not
+            // cached, since their creation transaction is not known until
+            // they are read.
+            val written = new mutable.ArrayBuffer[(Key, CachedObject)]
+            def cache(key: Key, data: Array[Byte], version: Int,
+                      rawData: Array[Byte], rawVersion: Int): Unit = {
+                for (czxid <- czxids.get(key)) {
+                    written += key -> CachedObject(data, version, czxid,
+                                                   rawData, rawVersion)
+                }
+            }
+
             for ((key, txOp) <- ops) txOp match {
                 case TxCreate(obj, change) =>
                     var path = objectPath(key.clazz, key.id)
+                    val data = serialize(obj)
                     Log.debug(s"Create: $path")
-                    txn.create.forPath(path, serialize(obj))
+                    txn.create.forPath(path, data)
 
                     path = altObjectPath(key.clazz, key.id)
+                    val rawData = createProvenance(owner, change, version = 0)
                     Log.debug(s"Create: $path")
-                    txn.create.forPath(path, createProvenance(owner, change,
-                                                              version = 0))
+                    txn.create.forPath(path, rawData)
                 case TxUpdate(obj, ver, change) =>
                     var path = objectPath(key.clazz, key.id)
+                    val data = serialize(obj)
                     Log.debug(s"Update ($ver): $path")
-                    txn.setData().withVersion(ver).forPath(path, serialize(obj))
+                    txn.setData().withVersion(ver).forPath(path, data)
 
                     path = altObjectPath(key.clazz, key.id)
                     raw.get(key) match {
-                        case Some(ObjRaw(data, v)) =>
-                            val d = updateProvenance(data, owner, change, ver + 1)
+                        case Some(ObjRaw(rawData, v)) =>
+                            val d = updateProvenance(rawData, owner, change,
+                                                     ver + 1)
                             // Returns null if the provenance data has not
                             // changed.
                             if (d ne null) {
                                 Log.debug(s"Update ($v): $path")
                                 txn.setData().withVersion(v).forPath(path, d)
+                                cache(key, data, ver + 1, d, v + 1)
                             } else {
                                 Log.debug(s"Skip update: $path")
+                                cache(key, data, ver + 1, rawData, v)
                             }
                         case None =>
+                            val d = createProvenance(owner, change, ver + 1)
                             Log.debug(s"Create: $path")
-                            txn.create.forPath(path, createProvenance(owner, change,
-                                                                  ver + 1))
+                            txn.create.forPath(path, d)
+                            cache(key, data, ver + 1, d, 0)
                     }
                 case TxDelete(ver, change) =>
                     var path = objectPath(key.clazz, key.id)
@@ -363,12 +434,29 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
                         "TxNodeExists should have been filtered by flattenOps.")
             }
 
+            // Validate the version of the objects read from the transaction
+            // cache and that are not modified by this transaction. The checks
+            // are added last, such that they do not change the index of the
+            // operations results.
+            val modified = ops.map(_._1).toSet
+            var checks = 0
+            for ((key, ver) <- cachedReads if !modified.contains(key)) {
+                val path = objectPath(key.clazz, key.id)
+                Log.debug(s"Check ($ver): $path")
+                txn.check().withVersion(ver).forPath(path)
+                checks += 1
+            }
+
             val startTime = System.nanoTime()
+            var committed = false
             try {
                 txn.commit()
+                committed = true
             } catch {
                 case bve: BadVersionException =>
                     throw new ConcurrentModificationException(bve)
+                case e: KeeperException if isCheckFailure(e, checks) =>
+                    throw new ConcurrentModificationException(e)
                 case e: KeeperException =>
                     rethrowException(ops, e)
                 case rce: ReferenceConflictException =>
@@ -377,11 +465,38 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
                     throw new InternalObjectMapperException(ex)
             } finally {
                 metrics.performance.addMultiLatency(System.nanoTime() - startTime)
+                if (transactionCache ne null) {
+                    updateCache(ops, written, committed)
+                }
             }
 
             deleteStateTables()
         }
 
+        /** Updates the transaction cache with the objects modified by this
+          * transaction if the commit succeeded, or otherwise removes from the
+          * cache all objects read or modified by this transaction, such that
+          * a retry reads them from the backend. */
+        private def updateCache(ops: Seq[(Key, TxOp)],
+                                written: Seq[(Key, CachedObject)],
+                                committed: Boolean): Unit = {
+            if (committed) {
+                for ((key, obj) <- written) {
+                    transactionCache.write(key, obj)
+                }
+                for ((key, _: TxDelete) <- ops) {
+                    transactionCache.invalidate(key)
+                }
+            } else {
+                for ((key, _) <- ops if key.clazz ne null) {
+                    transactionCache.invalidate(key)
+                }
+                for (key <- cachedReads.keys) {
+                    transactionCache.invalidate(key)
+                }
+            }
+        }
+
         protected override def nodeExists(path: String): Boolean = {
             val stat = curator.checkExists.forPath(path)
             if ((stat ne null) && stat.getMzxid > zxid) {
@@ -429,6 +544,24 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
         /** Get a string as bytes, or null if the string is null. */
         private def asBytes(s: String) = if (s != null) s.getBytes else null
 
+        /**
+         * Returns whether the given exception was generated by one of the
+         * version checks of the cached objects, which are the last `checks`
+         * operations of the transaction.
+         */
+        private def isCheckFailure(e: KeeperException, checks: Int): Boolean = {
+            val results = e.getResults
+            if (checks == 0 || (results eq null)) {
+                false
+            } else {
+                val index = results.asScala.indexWhere {
+                    case res: ErrorResult => res.getErr == e.code.intValue
+                    case _ => false
+                }
+                index >= results.size - checks
+            }
+        }
+
         /**
          * Returns the operation of this transaction that generated the given
          * exception.
@@ -738,6 +871,133 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
         p.future
     }
 
+    /**
+     * Gets a consistent snapshot of the specified objects and of the objects
+     * they reference. For every level of references, the objects are read
+     * with pipelined asynchronous requests, such that a batch takes a single
+     * round-trip to ZooKeeper.
+     *
+     * Once all objects are read, the method validates the snapshot with a
+     * second pipelined batch that checks the modification ZXID of every
+     * object, where the objects that did not exist must still not exist.
+     * Since all checks are sent after all reads completed, the snapshot
+     * reflects the state of the objects at the ZXID of the last read if no
+     * object was modified in between. Otherwise, the method reads the objects
+     * again, and fails with a [[ConcurrentModificationException]] if the
+     * snapshot is still inconsistent after several attempts.
+     */
+    @throws[ServiceUnavailableException]
+    override def getAllMulti(ids: Seq[(Class[_], ObjId)],
+                             references: AnyRef => Seq[(Class[_], ObjId)])
+    : Future[ReadSnapshot] = {
+        assertBuilt()
+        for ((clazz, _) <- ids) {
+            assertRegistered(clazz)
+        }
+        tryGetAllMulti(ids, references, MultiReadAttempts)
+    }
+
+    private def tryGetAllMulti(ids: Seq[(Class[_], ObjId)],
+                               references: AnyRef => Seq[(Class[_], ObjId)],
+                               attempts: Int): Future[ReadSnapshot] = {
+        val versions = new TrieMap[Key, Long]
+        ReadSnapshot.load(ids, references)(readBatch(_, versions)).flatMap {
+            snapshot =>
+                validateBatch(versions).flatMap { valid =>
+                    if (valid) {
+                        Future.successful(snapshot)
+                    } else if (attempts > 1) {
+                        tryGetAllMulti(ids, references, attempts - 1)
+                    } else {
+                        Future.failed(new ConcurrentModificationException(
+                            s"Objects were modified during the read after " +
+                            s"$MultiReadAttempts attempts"))
+                    }
+                }(CallingThreadExecutionContext)
+        }(CallingThreadExecutionContext)
+    }
+
+    /** Reads a batch of objects with pipelined requests, and records the
+      * modification ZXID of every object in `versions`, or [[NoVersion]] if
+      * the object does not exist. */
+    private def readBatch(batch: Seq[(Class[_], ObjId)],
+                          versions: TrieMap[Key, Long])
+    : Future[Seq[AnyRef]] = {
+        val promise = Promise[Seq[AnyRef]]()
+        val results = new Array[AnyRef](batch.size)
+        val remaining = new AtomicInteger(batch.size)
+        val start = System.nanoTime()
+        for (((clazz, id), index) <- batch.zipWithIndex) {
+            assertRegistered(clazz)
+            val key = getKey(clazz, id)
+            val cb = new BackgroundCallback {
+                override def processResult(client: CuratorFramework,
+                                           event: CuratorEvent): Unit = {
+                    metrics.performance.addLatency(event.getType,
+                                                   System.nanoTime() - start)
+                    try {
+                        if (event.getResultCode == Code.OK.intValue()) {
+                            results(index) = deserialize(event.getData, clazz)
+                                .asInstanceOf[AnyRef]
+                            versions.put(key, event.getStat.getMzxid)
+                        } else if (event.getResultCode == Code.NONODE.intValue()) {
+                            versions.put(key, NoVersion)
+                        } else {
+                            throw new InternalObjectMapperException(
+                                KeeperException.create(
+                                    Code.get(event.getResultCode),
+                                    event.getPath))
+                        }
+                        if (remaining.decrementAndGet() == 0) {
+                            promise.trySuccess(results)
+                        }
+                    } catch {
+                        case NonFatal(e) => promise.tryFailure(e)
+                    }
+                }
+            }
+            curator.getData.inBackground(cb).forPath(objectPath(clazz, id))
+        }
+        promise.future
+    }
+
+    /** Checks with pipelined requests that none of the objects read by
+      * [[readBatch]] has been modified, created or deleted. A single object
+      * does not require validation. */
+    private def validateBatch(versions: TrieMap[Key, Long])
+    : Future[Boolean] = {
+        if (versions.size <= 1) {
+            return Future.successful(true)
+        }
+        val promise = Promise[Boolean]()
+        val remaining = new AtomicInteger(versions.size)
+        for ((key, version) <- versions) {
+            val cb = new BackgroundCallback {
+                override def processResult(client: CuratorFramework,
+                                           event: CuratorEvent): Unit = {
+                    if (event.getResultCode != Code.OK.intValue() &&
+                        event.getResultCode != Code.NONODE.intValue()) {
+                        promise.tryFailure(new InternalObjectMapperException(
+                            KeeperException.create(
+                                Code.get(event.getResultCode), event.getPath)))
+                    } else {
+                        val current =
+                            if (event.getStat ne null) event.getStat.getMzxid
+                            else NoVersion
+                        if (current != version) {
+                            promise.trySuccess(false)
+                        } else if (remaining.decrementAndGet() == 0) {
+                            promise.trySuccess(true)
+                        }
+                    }
+                }
+            }
+            curator.checkExists().inBackground(cb)
+                   .forPath(objectPath(key.clazz, key.id))
+        }
+        promise.future
+    }
+
     /**
      * Executes multiple create, update, and/or delete operations atomically.
      */
@@ -829,10 +1089,13 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
             val nodeObservable = NodeObservable.create(
                 curator, path, metrics, completeOnDelete = true, {
                     objectObservables.remove(key, ObjectObservable(ref))
+                    if (transactionCache ne null) {
+                        transactionCache.unobserve(key)
+                    }
                     onClose
                 })
 
-            val objectObservable = nodeObservable
+            val objectObservable = observeCache(key, nodeObservable)
                 .map[Notification[T]](deserializerOf(clazz))
                 .dematerialize().asInstanceOf[Observable[T]]
                 .onErrorResumeNext(makeFunc1((t: Throwable) => t match {
@@ -853,6 +1116,76 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
         }).objectObservable.asInstanceOf[Observable[T]]
     }
 
+    /**
+     * Returns an observable that notifies the transaction cache, if any, of
+     * the current state of an object, such that the cache only serves the
+     * objects matching the current state, and removes the object when it is
+     * modified or deleted in the backend.
+     */
+    private def observeCache(key: Key, observable: Observable[ChildData])
+    : Observable[ChildData] = {
+        if (transactionCache eq null) {
+            observable
+        } else {
+            observable.doOnEach(new Observer[ChildData] {
+                override def onNext(data: ChildData): Unit = {
+                    if (data ne null) {
+                        transactionCache.observe(key, data.getStat)
+                    } else {
+                        transactionCache.unobserve(key)
+                    }
+                }
+                override def onCompleted(): Unit = {
+                    transactionCache.unobserve(key)
+                }
+                override def onError(e: Throwable): Unit = {
+                    transactionCache.unobserve(key)
+                }
+            })
+        }
+    }
+
+    /**
+     * Notifies the transaction cache, if any, of the current state of the
+     * objects watched by the given [[ObjectCache]]. This allows a node that
+     * does not observe the objects modified by its transactions, such as the
+     * Neutron importer, to serve them from the transaction cache. Returns
+     * the subscription to the object cache, or `null` if the storage does
+     * not have a transaction cache.
+     */
+    def observeObjectCache(objectCache: ObjectCache): Subscription = {
+        if (transactionCache eq null) {
+            return null
+        }
+        def observeUpdate(update: ObjectNotification.Update): Unit = {
+            val key = Key(update.objectClass, update.id.toString)
+            val data = update.childData
+            if (update.isDeleted || (data eq null) || (data.getStat eq null)) {
+                transactionCache.unobserve(key)
+            } else {
+                transactionCache.observe(key, data.getStat)
+            }
+        }
+        objectCache.observable.subscribe(new Observer[ObjectNotification] {
+            override def onNext(notification: ObjectNotification): Unit = {
+                notification match {
+                    case snapshot: ObjectNotification.Snapshot =>
+                        val iterator = snapshot.iterator()
+                        while (iterator.hasNext) {
+                            observeUpdate(iterator.next())
+                        }
+                    case update: ObjectNotification.Update =>
+                        observeUpdate(update)
+                    case _ =>
+                }
+            }
+            override def onCompleted(): Unit = { }
+            override def onError(e: Throwable): Unit = {
+                Log.warn("Object cache notifications failed", e)
+            }
+        })
+    }
+
     /**
      * Refer to the interface documentation for functionality.
      *
@@ -976,6 +1309,11 @@ object ZookeeperObjectMapper {
 
     private case class ObjRaw(data: Array[Byte], version: Int)
 
+    /** The number of attempts to read a consistent snapshot. */
+    private final val MultiReadAttempts = 10
+    /** The version of an object that does not exist. */
+    private final val NoVersion = -1L
+
     protected val Log = LoggerFactory.getLogger("org.midonet.nsdb")
     private val OnCloseDefault = { }
 
@@ -24,8 +24,10 @@ import scala.collection.concurrent.TrieMap
 import org.apache.curator.framework.CuratorFramework
 import org.apache.curator.framework.api.CuratorEvent
 import org.apache.curator.framework.recipes.cache.ChildData
-import org.apache.zookeeper.CreateMode
+import org.apache.curator.utils.ZKPaths
+import org.apache.zookeeper.AsyncCallback.MultiCallback
 import org.apache.zookeeper.KeeperException.Code
+import org.apache.zookeeper.{CreateMode, Op, OpResult}
 
 import rx.Observable.OnSubscribe
 import rx.functions.Func1
@@ -203,6 +205,100 @@ trait ZookeeperObjectState extends StateStorage with Storage with StorageInterna
         }
     }
 
+    /**
+     * For [[KeyType.Multiple]] key types, the values are added with a single
+     * ZooKeeper multi-operation, such that a batch of values requires one
+     * write to the ZooKeeper quorum. If the multi-operation fails, because
+     * the key node does not exist or because some of the values already
+     * exist, the method falls back to adding the values one at a time, with
+     * the same semantics as [[addValue]].
+     */
+    @throws[ServiceUnavailableException]
+    @throws[IllegalArgumentException]
+    override def addValues(clazz: Class[_], id: ObjId, key: String,
+                           values: Seq[String]): Observable[StateResult] = {
+        assertBuilt()
+
+        val keyType = getKeyType(clazz, key)
+        if (keyType.isSingle || values.size < 2) {
+            return super.addValues(clazz, id, key, values)
+        }
+
+        val ownerId = owner(curator)
+        val path = keyPath(namespace, clazz, id, key)
+
+        onObjectAndStateExist(clazz, id, key, value = null, path) flatMap makeFunc1 { event =>
+            if (event.getResultCode == Code.OK.intValue()) {
+                val ops = for (value <- values) yield {
+                    val valuePath = path + "/" + value
+                    Op.create(ZKPaths.fixForNamespace(curator.getNamespace,
+                                                      valuePath),
+                              value.getBytes(StringEncoding),
+                              curator.getACLProvider.getAclForPath(valuePath),
+                              CreateMode.EPHEMERAL)
+                }
+                multi(ops) flatMap makeFunc1 { result =>
+                    if (result == Code.OK.intValue()) {
+                        Observable.just(StateResult(ownerId))
+                    } else {
+                        super.addValues(clazz, id, key, values)
+                    }
+                }
+            } else {
+                super.addValues(clazz, id, key, values)
+            }
+        }
+    }
+
+    /**
+     * For [[KeyType.Multiple]] key types, the values owned by the caller are
+     * removed with a single ZooKeeper multi-operation. If any value has a
+     * different owner, or if the multi-operation fails because of a
+     * concurrent modification, the method falls back to removing the values
+     * one at a time, with the same semantics as [[removeValue]].
+     */
+    @throws[ServiceUnavailableException]
+    @throws[IllegalArgumentException]
+    override def removeValues(clazz: Class[_], id: ObjId, key: String,
+                              values: Seq[String]): Observable[StateResult] = {
+        assertBuilt()
+
+        val keyType = getKeyType(clazz, key)
+        if (keyType.isSingle || values.size < 2) {
+            return super.removeValues(clazz, id, key, values)
+        }
+
+        val ownerId = owner(curator)
+        val paths = values.map(valuePath(namespace, clazz, id, key, _))
+        val checks = paths.map(onPathExists(_, curator))
+
+        Observable.merge[CuratorEvent](checks.asJava).toList flatMap makeFunc1 { events =>
+            val existing = events.asScala.filter(
+                _.getResultCode == Code.OK.intValue())
+            if (existing.exists(_.getStat.getEphemeralOwner != ownerId) ||
+                events.asScala.exists(event =>
+                    event.getResultCode != Code.OK.intValue() &&
+                    event.getResultCode != Code.NONODE.intValue())) {
+                super.removeValues(clazz, id, key, values)
+            } else if (existing.isEmpty) {
+                Observable.just(StateResult(NoOwnerId))
+            } else {
+                val ops = for (event <- existing) yield {
+                    Op.delete(ZKPaths.fixForNamespace(curator.getNamespace,
+                                                      event.getPath),
+                              event.getStat.getVersion)
+                }
+                multi(ops) flatMap makeFunc1 { result =>
+                    if (result == Code.OK.intValue()) {
+                        Observable.just(StateResult(ownerId))
+                    } else {
+                        super.removeValues(clazz, id, key, values)
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Returns the value or values associated to a given key for the current
      * namespace. The method returns an observable that emits either a
@@ -573,6 +669,28 @@ trait ZookeeperObjectState extends StateStorage with Storage with StorageInterna
         }
     }
 
+    /** Executes the specified operations as a ZooKeeper multi-operation.
+      * The method returns an observable, which when subscribed to
+      * asynchronously executes the operations and emits the result code of
+      * the transaction. */
+    private def multi(ops: Seq[Op]): Observable[Int] = {
+        Observable.create(new OnSubscribe[Int] {
+            override def call(child: Subscriber[_ >: Int]): Unit = {
+                val callback = new MultiCallback {
+                    override def processResult(result: Int, path: String,
+                                               context: AnyRef,
+                                               results: java.util.List[OpResult])
+                    : Unit = {
+                        child.onNext(result)
+                        child.onCompleted()
+                    }
+                }
+                curator.getZookeeperClient.getZooKeeper
+                       .multi(ops.asJava, callback, null)
+            }
+        })
+    }
+
     /** Returns a node observable for the state path of the given object.
       * This observable is used to detect when an object is deleted, in
       * order to complete single-value key observables. */
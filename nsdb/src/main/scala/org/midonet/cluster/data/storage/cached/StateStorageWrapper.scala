@@ -51,6 +51,14 @@ class StateStorageWrapper(private val cacheTtlMs: Long,
                              value: String): Observable[StateResult] =
         validStateStore.removeValue(clazz, id, key, value)
 
+    override def addValues(clazz: Class[_], id: ObjId, key: String,
+                           values: Seq[String]): Observable[StateResult] =
+        validStateStore.addValues(clazz, id, key, values)
+
+    override def removeValues(clazz: Class[_], id: ObjId, key: String,
+                              values: Seq[String]): Observable[StateResult] =
+        validStateStore.removeValues(clazz, id, key, values)
+
     override def getKey(clazz: Class[_], id: ObjId,
                         key: String): Observable[StateKey] =
         validStateStore.getKey(clazz, id, key)
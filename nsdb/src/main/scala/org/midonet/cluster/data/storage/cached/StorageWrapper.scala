@@ -24,7 +24,7 @@ import rx.Observable
 import org.midonet.cluster.cache.ObjectNotification.{MappedSnapshot => ObjSnapshot}
 import org.midonet.cluster.data.ObjId
 import org.midonet.cluster.data.ZoomMetadata.ZoomOwner
-import org.midonet.cluster.data.storage.{PersistenceOp, Storage, Transaction}
+import org.midonet.cluster.data.storage.{PersistenceOp, ReadSnapshot, Storage, Transaction}
 import org.midonet.util.logging.Logger
 
 /**
@@ -78,4 +78,9 @@ class StorageWrapper(private val cacheTtlMs: Long,
 
     override def exists(clazz: Class[_], id: ObjId): Future[Boolean] =
         validStore.exists(clazz, id)
+
+    override def getAllMulti(ids: Seq[(Class[_], ObjId)],
+                             references: AnyRef => Seq[(Class[_], ObjId)])
+    : Future[ReadSnapshot] =
+        validStore.getAllMulti(ids, references)
 }
@@ -67,6 +67,7 @@ class MidonetBackendConfig(val conf: Config,
     def stateClient = new StateProxyClientConfig(conf)
     def lockTimeoutMs = conf.getDuration("zookeeper.lock_timeout", TimeUnit.MILLISECONDS)
     def transactionAttempts = conf.getInt("zookeeper.transaction_attempts")
+    def transactionCacheSize = conf.getInt("zookeeper.transaction_cache_size")
 }
 
 class CassandraConfig(val conf: Config) {
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.topology.snapshot
+
+import java.io.IOException
+import java.nio.channels.FileChannel
+import java.nio.channels.FileChannel.MapMode
+import java.nio.file.StandardOpenOption._
+import java.nio.file.{Files, NoSuchFileException, Path, StandardCopyOption}
+import java.nio.{ByteBuffer, ByteOrder}
+import java.util.zip.CRC32
+
+import scala.util.control.NonFatal
+
+import org.slf4j.LoggerFactory
+
+import org.midonet.util.logging.Logger
+
+object TopologySnapshotStore {
+
+    /** The magic number at the beginning of a snapshot file: "MNTS". */
+    final val Magic = 0x4D4E5453
+    /** The version of the snapshot file format. */
+    final val FormatVersion = 1
+    /** The size of the file header: the magic number, the format version,
+      * the timestamp, the length and the CRC-32 checksum of the data. */
+    final val HeaderSize = 24
+
+    /** A topology snapshot read from the local file, where `timestamp` is
+      * the time in milliseconds when the snapshot was written. */
+    case class StoredSnapshot(timestamp: Long, snapshot: TopologySnapshot)
+
+}
+
+/**
+  * Stores a local copy of the serialized [[TopologySnapshot]] received from
+  * the cluster in the specified file, such that an agent can load its
+  * topology at start-up without contacting the cluster.
+  *
+  * The file contains a fixed-size header followed by the snapshot data. The
+  * header includes the file format version and a CRC-32 checksum of the data,
+  * such that a file written by a different version, or a file that is
+  * truncated or corrupted, is ignored. The file is written to a temporary
+  * file that is then atomically moved to the destination path, and it is read
+  * by memory-mapping the file, where the decoder reads the snapshot directly
+  * from the mapped buffer.
+  */
+class TopologySnapshotStore(path: Path) {
+
+    import TopologySnapshotStore._
+
+    private val log = Logger(LoggerFactory.getLogger(
+        "org.midonet.nsdb.snapshot-store"))
+
+    /** Writes the serialized snapshot to the local file, replacing any
+      * previous snapshot. */
+    @throws[IOException]
+    def write(data: Array[Byte], timestamp: Long): Unit = {
+        val crc = new CRC32
+        crc.update(data)
+
+        val header = ByteBuffer.allocate(HeaderSize).order(ByteOrder.BIG_ENDIAN)
+        header.putInt(Magic)
+              .putInt(FormatVersion)
+              .putLong(timestamp)
+              .putInt(data.length)
+              .putInt(crc.getValue.toInt)
+              .flip()
+
+        val parent = path.toAbsolutePath.getParent
+        if (parent ne null) {
+            Files.createDirectories(parent)
+        }
+        val temp = path.resolveSibling(s"${path.getFileName}.tmp")
+        val channel = FileChannel.open(temp, CREATE, WRITE, TRUNCATE_EXISTING)
+        try {
+            val body = ByteBuffer.wrap(data)
+            while (header.hasRemaining || body.hasRemaining) {
+                channel.write(Array(header, body))
+            }
+            channel.force(true)
+        } finally {
+            channel.close()
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING)
+        log.debug(s"Topology snapshot of ${data.length} bytes written to $path")
+    }
+
+    /** Reads the snapshot from the local file. Returns `None` if the file
+      * does not exist, or if it is invalid or cannot be decoded. */
+    def read(): Option[StoredSnapshot] = {
+        try {
+            val channel = FileChannel.open(path, READ)
+            val buffer = try {
+                channel.map(MapMode.READ_ONLY, 0, channel.size())
+            } finally {
+                channel.close()
+            }
+            buffer.order(ByteOrder.BIG_ENDIAN)
+            validate(buffer) match {
+                case Some(error) =>
+                    log.warn(s"Ignoring topology snapshot at $path: $error")
+                    None
+                case None =>
+                    val timestamp = buffer.getLong(8)
+                    val data = buffer.duplicate()
+                    data.position(HeaderSize)
+                    val snapshot =
+                        new TopologySnapshotDeserializer().deserialize(data)
+                    Some(StoredSnapshot(timestamp, snapshot))
+            }
+        } catch {
+            case _: NoSuchFileException =>
+                log.debug(s"No topology snapshot at $path")
+                None
+            case NonFatal(e) =>
+                log.warn(s"Cannot read topology snapshot at $path", e)
+                None
+        }
+    }
+
+    /** Validates the header and the checksum of the mapped file, and returns
+      * the validation error if any. */
+    private def validate(buffer: ByteBuffer): Option[String] = {
+        if (buffer.limit() < HeaderSize) {
+            return Some(s"file too short (${buffer.limit()} bytes)")
+        }
+        if (buffer.getInt(0) != Magic) {
+            return Some("invalid magic number")
+        }
+        if (buffer.getInt(4) != FormatVersion) {
+            return Some(s"unsupported format version ${buffer.getInt(4)}")
+        }
+        val length = buffer.getInt(16)
+        if (length != buffer.limit() - HeaderSize) {
+            return Some(s"invalid length $length for a file of " +
+                        s"${buffer.limit()} bytes")
+        }
+        val data = buffer.duplicate()
+        data.position(HeaderSize)
+        val crc = new CRC32
+        crc.update(data)
+        if (crc.getValue.toInt != buffer.getInt(20)) {
+            return Some("checksum mismatch")
+        }
+        None
+    }
+
+}
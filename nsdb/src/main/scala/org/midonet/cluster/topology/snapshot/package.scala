@@ -17,6 +17,7 @@
 package org.midonet.cluster.topology
 
 import java.io.IOException
+import java.nio.ByteBuffer
 import java.util
 import java.util.UUID
 
@@ -350,8 +351,19 @@ package object snapshot {
         }
 
         def deserialize(byteArray: Array[Byte]): TopologySnapshot = {
-            // decode header
             snapshotBuffer.wrap(byteArray)
+            decode()
+        }
+
+        /** Deserializes the snapshot from the remaining bytes of the given
+          * buffer, which may be a direct or a memory-mapped buffer. */
+        def deserialize(buffer: ByteBuffer): TopologySnapshot = {
+            snapshotBuffer.wrap(buffer, buffer.position(), buffer.remaining())
+            decode()
+        }
+
+        private def decode(): TopologySnapshot = {
+            // decode header
             snapshotHeaderDecoder.wrap(snapshotBuffer, 0)
 
             validate(snapshotHeaderDecoder)
@@ -103,7 +103,8 @@ object BinaryLogTranslator extends App {
 
         fw.println(s"LOGGER=${e.loggerId} TIME=${e.time} SRC=${e.srcIp} " +
                    s"DST=${e.dstIp} SPT=${e.srcPort} DPT=${e.dstPort} " +
-                   s"PROTO=${e.nwProto} CHAIN=${e.chainId} RULE=${e.chainId} " +
+                   s"PROTO=${e.nwProto} CHAIN=${e.chainId} RULE=${e.ruleId} " +
+                   s"COUNT=${e.count} LAST=${e.lastTime} " +
                    s"MD=[$md] ${e.result}")
         fw.flush()
     }
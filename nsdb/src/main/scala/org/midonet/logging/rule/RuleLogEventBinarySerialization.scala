@@ -30,7 +30,7 @@ import org.agrona.concurrent.UnsafeBuffer
 import org.midonet.packets.{IPAddr, IPv4Addr, IPv6Addr}
 
 object RuleLogEventBinarySerialization {
-    val MessageTemplateVersion = 1
+    val MessageTemplateVersion = 2
     val BufferSize = 8 * 1024
 
     val Utf8 = Charset.forName("UTF-8")
@@ -69,11 +69,18 @@ object RuleLogEventBinarySerialization {
     }
 }
 
+/**
+  * A rule log record. The record aggregates `count` events of the same
+  * logger, rule, 5-tuple and result, where `time` and `lastTime` are the
+  * times of the first and last event. The records of version 1 files always
+  * contain a single event.
+  */
 case class DeserializedRuleLogEvent(srcIp: IPAddr, dstIp: IPAddr,
                                     srcPort: Int, dstPort: Int,
                                     nwProto: Byte, result: String, time: Long,
                                     loggerId: UUID, chainId: UUID, ruleId: UUID,
-                                    metadata: Seq[(String, String)]) {
+                                    metadata: Seq[(String, String)],
+                                    count: Long, lastTime: Long) {
 }
 
 private object RuleLogEventBinaryDeserializer {
@@ -148,14 +155,19 @@ class RuleLogEventBinaryDeserializer(path: String) {
         val chainId = new UUID(EventDecoder.chainId(0), EventDecoder.chainId(1))
         val ruleId = new UUID(EventDecoder.ruleId(0), EventDecoder.ruleId(1))
 
+        val time = EventDecoder.time
+        val (count, lastTime) =
+            if (header.version < 2) (1L, time)
+            else (EventDecoder.count, EventDecoder.lastTime)
+
         pos = EventDecoder.limit
 
         DeserializedRuleLogEvent(srcIp, dstIp,
                                  EventDecoder.srcPort, EventDecoder.dstPort,
                                  EventDecoder.nwProto.toByte,
                                  EventDecoder.result.toString,
-                                 EventDecoder.time,
-                                 loggerId, chainId, ruleId, metadata)
+                                 time, loggerId, chainId, ruleId, metadata,
+                                 count, lastTime)
     } catch {
         case ex: IndexOutOfBoundsException =>
             throw new IllegalArgumentException("Log file corrupt.")
@@ -86,7 +86,8 @@ public class ObjectCacheTest extends ZooKeeperTest {
         super.before();
 
         config = new MidonetBackendConfig(
-            ConfigFactory.parseString("zookeeper.root_key : " + ROOT),
+            ConfigFactory.parseString("zookeeper.root_key : " + ROOT + "\n" +
+                                      "zookeeper.transaction_cache_size : 0"),
             false, false, false);
         paths = new ZoomPaths(config);
         metricRegistry = new MetricRegistry();
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data.storage
+
+import java.util.UUID
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FeatureSpec, Matchers}
+
+import rx.observers.TestObserver
+import rx.schedulers.TestScheduler
+import rx.subjects.BehaviorSubject
+
+import org.midonet.cluster.data.storage.StorageTestClasses._
+import org.midonet.conf.HostIdGenerator
+
+@RunWith(classOf[JUnitRunner])
+class ObjectSetObservableTest extends FeatureSpec with BeforeAndAfter
+                              with Matchers {
+
+    HostIdGenerator.useTemporaryHostId()
+
+    private var storage: InMemoryStorage = _
+    private var scheduler: TestScheduler = _
+
+    before {
+        storage = new InMemoryStorage
+        storage.registerClass(classOf[PojoChain])
+        storage.build()
+        scheduler = new TestScheduler
+    }
+
+    private def createChains(count: Int): Seq[PojoChain] = {
+        val chains = for (index <- 0 until count)
+            yield new PojoChain(s"chain$index")
+        storage.multi(chains.map(CreateOp))
+        chains
+    }
+
+    private def subscribe(ids: Set[UUID])
+    : (BehaviorSubject[Set[UUID]], TestObserver[ObjectUpdates[PojoChain]]) = {
+        val subject = BehaviorSubject.create[Set[UUID]](ids)
+        val obs = new TestObserver[ObjectUpdates[PojoChain]]
+        storage.objectsObservable(classOf[PojoChain], subject, scheduler)
+               .subscribe(obs)
+        (subject, obs)
+    }
+
+    feature("Object set observable emits batched updates") {
+        scenario("The current objects are emitted in a single batch") {
+            val chains = createChains(100)
+            val (_, obs) = subscribe(chains.map(_.id).toSet)
+            obs.getOnNextEvents shouldBe empty
+
+            scheduler.triggerActions()
+            obs.getOnNextEvents should have size 1
+            val batch = obs.getOnNextEvents.get(0)
+            batch.updated.keySet shouldBe chains.map(_.id).toSet
+            batch.deleted shouldBe empty
+            batch.failed shouldBe empty
+        }
+
+        scenario("Updates of the same object are coalesced") {
+            val chains = createChains(2)
+            val (_, obs) = subscribe(chains.map(_.id).toSet)
+            scheduler.triggerActions()
+
+            for (index <- 1 to 5) {
+                chains.head.name = s"name$index"
+                storage.update(chains.head)
+            }
+            chains(1).name = "other"
+            storage.update(chains(1))
+            scheduler.triggerActions()
+
+            obs.getOnNextEvents should have size 2
+            val batch = obs.getOnNextEvents.get(1)
+            batch.updated.mapValues(_.name) shouldBe Map(
+                chains.head.id -> "name5", chains(1).id -> "other")
+        }
+
+        scenario("Deleted and missing objects") {
+            val chains = createChains(2)
+            val missingId = UUID.randomUUID()
+            val (_, obs) = subscribe(chains.map(_.id).toSet + missingId)
+            scheduler.triggerActions()
+
+            obs.getOnNextEvents should have size 1
+            obs.getOnNextEvents.get(0).failed.keySet shouldBe Set(missingId)
+
+            storage.delete(classOf[PojoChain], chains.head.id)
+            scheduler.triggerActions()
+
+            obs.getOnNextEvents should have size 2
+            obs.getOnNextEvents.get(1).deleted shouldBe Set(chains.head.id)
+            obs.getOnNextEvents.get(1).updated shouldBe empty
+        }
+    }
+
+    feature("Object set observable tracks the set of objects") {
+        scenario("Removed objects are unsubscribed") {
+            val chains = createChains(3)
+            val (subject, obs) = subscribe(Set(chains.head.id))
+            scheduler.triggerActions()
+
+            subject onNext Set(chains(1).id, chains(2).id)
+            chains.head.name = "removed"
+            storage.update(chains.head)
+            scheduler.triggerActions()
+
+            obs.getOnNextEvents should have size 2
+            obs.getOnNextEvents.get(1).updated.keySet shouldBe
+                Set(chains(1).id, chains(2).id)
+        }
+
+        scenario("Pending updates of removed objects are discarded") {
+            val chains = createChains(2)
+            val (subject, obs) = subscribe(chains.map(_.id).toSet)
+
+            subject onNext Set(chains(1).id)
+            scheduler.triggerActions()
+
+            obs.getOnNextEvents should have size 1
+            obs.getOnNextEvents.get(0).updated.keySet shouldBe Set(chains(1).id)
+        }
+
+        scenario("The observable completes when the set completes") {
+            val chains = createChains(1)
+            val (subject, obs) = subscribe(chains.map(_.id).toSet)
+
+            subject.onCompleted()
+            scheduler.triggerActions()
+
+            obs.getOnNextEvents should have size 1
+            obs.getOnCompletedEvents should have size 1
+
+            chains.head.name = "completed"
+            storage.update(chains.head)
+            scheduler.triggerActions()
+            obs.getOnNextEvents should have size 1
+        }
+    }
+}
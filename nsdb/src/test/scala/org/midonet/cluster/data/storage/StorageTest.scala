@@ -28,6 +28,7 @@ import org.scalatest.{BeforeAndAfter, FeatureSpec, Matchers}
 import rx.Observable
 import rx.observers.TestObserver
 
+import org.midonet.cluster.data.ObjId
 import org.midonet.cluster.data.storage.FieldBinding.DeleteAction
 import org.midonet.cluster.data.storage.FieldBinding.DeleteAction._
 import org.midonet.cluster.data.storage.StorageTestClasses._
@@ -587,6 +588,76 @@ abstract class StorageTest extends FeatureSpec with BeforeAndAfter
         }
     }
 
+    feature("Test multi-class reads") {
+        scenario("Read no objects") {
+            await(storage.getAllMulti(Seq.empty)).size shouldBe 0
+        }
+
+        scenario("Read existing and non-existing objects") {
+            val bridge = createPojoBridge()
+            val chain = createPojoChain()
+            storage.multi(Seq(CreateOp(bridge), CreateOp(chain)))
+            val missingId = UUID.randomUUID
+
+            val snapshot = await(storage.getAllMulti(Seq(
+                (classOf[PojoBridge], bridge.id),
+                (classOf[PojoChain], chain.id),
+                (classOf[PojoChain], missingId),
+                (classOf[PojoBridge], bridge.id))))
+
+            snapshot.size shouldBe 2
+            snapshot.get(classOf[PojoBridge], bridge.id) shouldBe bridge
+            snapshot.get(classOf[PojoChain], chain.id).id shouldBe chain.id
+            snapshot.find(classOf[PojoChain], missingId) shouldBe None
+            snapshot.contains(classOf[PojoChain], missingId) shouldBe false
+            intercept[NotFoundException] {
+                snapshot.get(classOf[PojoChain], missingId)
+            }
+        }
+
+        scenario("Read the references of the objects") {
+            val chain = createProtoChain()
+            val network = createProtoNetwork()
+            val router = createProtoRouter(inChainId = chain.getId.asJava)
+            val port1 = createProtoPort(networkId = network.getId.asJava)
+            val port2 = createProtoPort(routerId = router.getId.asJava)
+            val port3 = createProtoPort(routerId = router.getId.asJava,
+                                        peerId = port1.getId.asJava)
+            storage.multi(Seq(CreateOp(chain), CreateOp(network),
+                              CreateOp(router), CreateOp(port1),
+                              CreateOp(port2), CreateOp(port3)))
+
+            val references: AnyRef => Seq[(Class[_], ObjId)] = {
+                case r: Router =>
+                    r.getPortIdsList.asScala.map((classOf[Port], _)) :+
+                        ((classOf[Chain], r.getInboundFilterId))
+                case p: Port if p.hasPeerId =>
+                    Seq((classOf[Port], p.getPeerId))
+                case _ => Seq.empty
+            }
+            val snapshot = await(storage.getAllMulti(
+                Seq((classOf[Router], router.getId)), references))
+
+            snapshot.size shouldBe 5
+            snapshot.get(classOf[Router], router.getId) shouldBe
+                await(storage.get(classOf[Router], router.getId))
+            snapshot.get(classOf[Chain], chain.getId) shouldBe
+                await(storage.get(classOf[Chain], chain.getId))
+            snapshot.getAll(classOf[Port]) should contain theSameElementsAs
+                await(storage.getAll(classOf[Port], Seq(port1.getId,
+                                                        port2.getId,
+                                                        port3.getId)))
+            snapshot.contains(classOf[Network], network.getId) shouldBe false
+        }
+
+        scenario("Read objects of an unregistered class") {
+            intercept[IllegalArgumentException] {
+                await(storage.getAllMulti(Seq((classOf[LoadBalancer],
+                                               UUID.randomUUID))))
+            }
+        }
+    }
+
     feature("Test register") {
         scenario("Test register class with no ID field") {
             val st = createStorage
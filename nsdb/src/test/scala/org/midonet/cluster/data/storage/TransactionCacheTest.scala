@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data.storage
+
+import org.apache.zookeeper.data.Stat
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, Matchers}
+
+import org.midonet.cluster.data.storage.TransactionCache.CachedObject
+import org.midonet.cluster.data.storage.TransactionManager.Key
+
+@RunWith(classOf[JUnitRunner])
+class TransactionCacheTest extends FeatureSpec with Matchers {
+
+    private val key = Key(classOf[Object], "id")
+
+    private def stat(version: Int, czxid: Long, mzxid: Long): Stat = {
+        val stat = new Stat()
+        stat.setVersion(version)
+        stat.setCzxid(czxid)
+        stat.setMzxid(mzxid)
+        stat
+    }
+
+    private def cachedObject(version: Int, czxid: Long): CachedObject = {
+        CachedObject(Array[Byte](1), version, czxid, null, 0)
+    }
+
+    feature("Cache serves only the observed objects") {
+        scenario("An object that is not observed is not served") {
+            val cache = new TransactionCache(16)
+            cache.read(key, cachedObject(version = 0, czxid = 10))
+            cache.size shouldBe 1
+            cache.get(key, zxid = 100) shouldBe null
+        }
+
+        scenario("An object matching the observed object is served") {
+            val cache = new TransactionCache(16)
+            val obj = cachedObject(version = 2, czxid = 10)
+            cache.read(key, obj)
+            cache.observe(key, stat(version = 2, czxid = 10, mzxid = 20))
+            cache.get(key, zxid = 100) shouldBe obj
+        }
+
+        scenario("An object modified after the transaction is not served") {
+            val cache = new TransactionCache(16)
+            cache.read(key, cachedObject(version = 2, czxid = 10))
+            cache.observe(key, stat(version = 2, czxid = 10, mzxid = 20))
+            cache.get(key, zxid = 19) shouldBe null
+        }
+
+        scenario("An object no longer observed is not served") {
+            val cache = new TransactionCache(16)
+            cache.read(key, cachedObject(version = 0, czxid = 10))
+            cache.observe(key, stat(version = 0, czxid = 10, mzxid = 10))
+            cache.unobserve(key)
+            cache.get(key, zxid = 100) shouldBe null
+            cache.size shouldBe 0
+        }
+    }
+
+    feature("Cache identifies the objects by their creation") {
+        scenario("A re-created object at the same version is not served") {
+            val cache = new TransactionCache(16)
+            cache.read(key, cachedObject(version = 0, czxid = 10))
+            cache.observe(key, stat(version = 0, czxid = 30, mzxid = 30))
+            cache.get(key, zxid = 100) shouldBe null
+            cache.size shouldBe 0
+        }
+
+        scenario("A written object is served once observed") {
+            val cache = new TransactionCache(16)
+            cache.read(key, cachedObject(version = 0, czxid = 10))
+            cache.observe(key, stat(version = 0, czxid = 10, mzxid = 10))
+
+            val obj = cachedObject(version = 1, czxid = 10)
+            cache.write(key, obj)
+            cache.get(key, zxid = 100) shouldBe null
+
+            cache.observe(key, stat(version = 1, czxid = 10, mzxid = 40))
+            cache.get(key, zxid = 100) shouldBe obj
+        }
+
+        scenario("A read does not replace a newer object") {
+            val cache = new TransactionCache(16)
+            val obj = cachedObject(version = 0, czxid = 30)
+            cache.read(key, obj)
+            cache.read(key, cachedObject(version = 4, czxid = 10))
+            cache.observe(key, stat(version = 0, czxid = 30, mzxid = 30))
+            cache.get(key, zxid = 100) shouldBe obj
+        }
+    }
+}
@@ -17,9 +17,11 @@ package org.midonet.cluster.data.storage
 
 import java.util.{ConcurrentModificationException, UUID}
 
+import scala.collection.JavaConverters._
 import scala.concurrent.duration._
 
 import com.codahale.metrics.MetricRegistry
+import com.typesafe.config.ConfigFactory
 
 import org.apache.curator.utils.ZKPaths
 import org.junit.runner.RunWith
@@ -30,10 +32,14 @@ import org.scalatest.junit.JUnitRunner
 import rx.Observable
 import rx.observers.TestObserver
 
+import org.midonet.cluster.cache.{ObjectCache, ZoomPaths}
+import org.midonet.cluster.data.ObjId
 import org.midonet.cluster.data.ZoomMetadata.{ZoomChange, ZoomOwner}
 import org.midonet.cluster.data.storage.StorageTestClasses._
 import org.midonet.cluster.data.storage.metrics.StorageMetrics
+import org.midonet.cluster.models.Topology.Network
 import org.midonet.cluster.models.Zoom.ZoomObject
+import org.midonet.cluster.storage.MidonetBackendConfig
 import org.midonet.cluster.util.MidonetBackendTest
 import org.midonet.cluster.util.UUIDUtil._
 import org.midonet.util.reactivex.{AwaitableObserver, TestAwaitableObserver}
@@ -60,6 +66,17 @@ class ZookeeperObjectMapperTest extends StorageTest with MidonetBackendTest
                                   reactor, new StorageMetrics(new MetricRegistry))
     }
 
+    private def createCachedStorage(): ZookeeperObjectMapper = {
+        val cachedConfig = new MidonetBackendConfig(ConfigFactory.parseString(
+            "zookeeper.transaction_cache_size : 100").withFallback(config.conf))
+        val cached = new ZookeeperObjectMapper(cachedConfig, hostId, curator,
+                                               curator, stateTables, reactor,
+                                               new StorageMetrics(
+                                                   new MetricRegistry))
+        initAndBuildStorage(cached)
+        cached
+    }
+
     protected override def configParams =
         """
           |zookeeper.lock_timeout : 60s
@@ -924,6 +941,221 @@ class ZookeeperObjectMapperTest extends StorageTest with MidonetBackendTest
         }
     }
 
+    feature("Test multi-class reads") {
+        scenario("Read retries if an object is modified during the read") {
+            Given("A bridge with a port")
+            val bridge = createPojoBridge()
+            val port = createPojoPort(bridgeId = bridge.id)
+            zoom.multi(Seq(CreateOp(bridge), CreateOp(port)))
+            val path = zoom.objectPath(classOf[PojoBridge], bridge.id)
+            val data = curator.getData.forPath(path)
+
+            When("The bridge is modified while reading its ports")
+            var reads = 0
+            val references: AnyRef => Seq[(Class[_], ObjId)] = {
+                case b: PojoBridge =>
+                    reads += 1
+                    if (reads == 1) {
+                        curator.setData().inBackground().forPath(path, data)
+                    }
+                    b.portIds.asScala.map((classOf[PojoPort], _))
+                case _ => Seq.empty
+            }
+            val snapshot = await(zoom.getAllMulti(
+                Seq((classOf[PojoBridge], bridge.id)), references))
+
+            Then("The storage should read the objects again")
+            reads shouldBe 2
+            snapshot.size shouldBe 2
+            snapshot.get(classOf[PojoBridge], bridge.id).portIds should
+                contain only port.id
+            snapshot.get(classOf[PojoPort], port.id).bridgeId shouldBe bridge.id
+        }
+
+        scenario("Read fails if the objects are modified during every read") {
+            Given("A bridge with a port")
+            val bridge = createPojoBridge()
+            val port = createPojoPort(bridgeId = bridge.id)
+            zoom.multi(Seq(CreateOp(bridge), CreateOp(port)))
+            val path = zoom.objectPath(classOf[PojoBridge], bridge.id)
+            val data = curator.getData.forPath(path)
+
+            When("The bridge is modified during every read")
+            val references: AnyRef => Seq[(Class[_], ObjId)] = {
+                case b: PojoBridge =>
+                    curator.setData().inBackground().forPath(path, data)
+                    b.portIds.asScala.map((classOf[PojoPort], _))
+                case _ => Seq.empty
+            }
+
+            Then("The read should fail")
+            intercept[ConcurrentModificationException] {
+                await(zoom.getAllMulti(Seq((classOf[PojoBridge], bridge.id)),
+                                       references))
+            }
+        }
+    }
+
+    feature("Test transaction cache") {
+        scenario("Transactions read the cached objects") {
+            Given("A storage with a transaction cache")
+            val cached = createCachedStorage()
+
+            And("A bridge watched by an observer")
+            val bridge1 = createPojoBridge(name = "name-1")
+            cached.create(bridge1)
+            val observer = new TestAwaitableObserver[PojoBridge]
+            cached.observable(classOf[PojoBridge], bridge1.id) subscribe observer
+            observer.awaitOnNext(1, timeout)
+
+            When("A transaction reads the bridge")
+            val tx1 = cached.transaction()
+            tx1.get(classOf[PojoBridge], bridge1.id) shouldBe bridge1
+            tx1.close()
+
+            Then("The cache contains the bridge")
+            cached.transactionCacheSize shouldBe 1
+
+            When("Another transaction updates the bridge")
+            val bridge2 = createPojoBridge(id = bridge1.id, name = "name-2")
+            cached.tryTransaction(ZoomOwner.ClusterApi) { tx =>
+                tx.get(classOf[PojoBridge], bridge1.id) shouldBe bridge1
+                tx.update(bridge2)
+            }
+
+            Then("The storage contains the updated bridge")
+            await(zoom.get(classOf[PojoBridge], bridge1.id)) shouldBe bridge2
+
+            And("The provenance of the bridge is updated")
+            val path = zoom.altObjectPath(classOf[PojoBridge], bridge1.id)
+            val obj = ZoomObject.parseFrom(curator.getData.forPath(path))
+            obj.getProvenanceCount shouldBe 2
+            obj.getProvenance(1).getChangeOwner shouldBe ZoomOwner.ClusterApi.id
+            obj.getProvenance(1).getChangeVersion shouldBe 1
+
+            And("A new transaction reads the updated bridge")
+            val tx2 = cached.transaction()
+            tx2.get(classOf[PojoBridge], bridge1.id) shouldBe bridge2
+            tx2.close()
+
+            And("The bridge can be updated again")
+            val bridge3 = createPojoBridge(id = bridge1.id, name = "name-3")
+            cached.tryTransaction(ZoomOwner.ClusterApi) { _.update(bridge3) }
+            await(zoom.get(classOf[PojoBridge], bridge1.id)) shouldBe bridge3
+        }
+
+        scenario("Transactions do not read unwatched cached objects") {
+            Given("A storage with a transaction cache")
+            val cached = createCachedStorage()
+
+            And("A bridge read by a transaction")
+            val bridge1 = createPojoBridge(name = "name-1")
+            cached.create(bridge1)
+            val tx1 = cached.transaction()
+            tx1.get(classOf[PojoBridge], bridge1.id)
+            tx1.close()
+            cached.transactionCacheSize shouldBe 1
+
+            When("The bridge is modified by another storage")
+            val bridge2 = createPojoBridge(id = bridge1.id, name = "name-2")
+            zoom.update(bridge2)
+
+            Then("A transaction reads the current bridge")
+            val tx2 = cached.transaction()
+            tx2.get(classOf[PojoBridge], bridge1.id) shouldBe bridge2
+            tx2.close()
+        }
+
+        scenario("Transactions do not read re-created cached objects") {
+            Given("A storage with a transaction cache")
+            val cached = createCachedStorage()
+
+            And("A bridge watched by an observer and read by a transaction")
+            val bridge1 = createPojoBridge(name = "name-1")
+            cached.create(bridge1)
+            val observer = new TestAwaitableObserver[PojoBridge]
+            cached.observable(classOf[PojoBridge], bridge1.id) subscribe observer
+            observer.awaitOnNext(1, timeout)
+            val tx1 = cached.transaction()
+            tx1.get(classOf[PojoBridge], bridge1.id) shouldBe bridge1
+            tx1.close()
+
+            When("Another storage deletes and creates the bridge again")
+            zoom.delete(classOf[PojoBridge], bridge1.id)
+            observer.awaitCompletion(timeout)
+            val bridge2 = createPojoBridge(id = bridge1.id, name = "name-2")
+            zoom.create(bridge2)
+
+            Then("A transaction reads the new bridge at the same version")
+            val tx2 = cached.transaction()
+            tx2.get(classOf[PojoBridge], bridge1.id) shouldBe bridge2
+            tx2.close()
+
+            And("The new bridge can be updated")
+            val bridge3 = createPojoBridge(id = bridge1.id, name = "name-3")
+            cached.tryTransaction(ZoomOwner.ClusterApi) { _.update(bridge3) }
+            await(zoom.get(classOf[PojoBridge], bridge1.id)) shouldBe bridge3
+        }
+
+        scenario("Object observables remove modified objects from the cache") {
+            Given("A storage with a transaction cache")
+            val cached = createCachedStorage()
+
+            And("A bridge read by a transaction")
+            val bridge1 = createPojoBridge(name = "name-1")
+            cached.create(bridge1)
+            val tx = cached.transaction()
+            tx.get(classOf[PojoBridge], bridge1.id)
+            tx.close()
+            cached.transactionCacheSize shouldBe 1
+
+            And("An observer subscribed to the bridge")
+            val observer = new TestAwaitableObserver[PojoBridge]
+            cached.observable(classOf[PojoBridge], bridge1.id) subscribe observer
+            observer.awaitOnNext(1, timeout)
+
+            When("The bridge is modified by another storage")
+            zoom.update(createPojoBridge(id = bridge1.id, name = "name-2"))
+            observer.awaitOnNext(2, timeout)
+
+            Then("The bridge is removed from the cache")
+            cached.transactionCacheSize shouldBe 0
+        }
+
+        scenario("The object cache removes modified objects from the cache") {
+            Given("A storage with a transaction cache")
+            val cached = createCachedStorage()
+
+            And("An object cache notifying the transaction cache")
+            val objectCache = new ObjectCache(curator, new ZoomPaths(config),
+                                              new MetricRegistry)
+            objectCache.startAsync().awaitRunning()
+            val subscription = cached.observeObjectCache(objectCache)
+
+            And("A network read by a transaction")
+            val network1 = Network.newBuilder()
+                .setId(UUID.randomUUID().asProto)
+                .setName("name-1")
+                .build()
+            cached.create(network1)
+            val tx = cached.transaction()
+            tx.get(classOf[Network], network1.getId) shouldBe network1
+            tx.close()
+            cached.transactionCacheSize shouldBe 1
+
+            When("The network is modified by another storage")
+            zoom.update(network1.toBuilder.setName("name-2").build())
+
+            Then("The network is removed from the cache")
+            eventually {
+                cached.transactionCacheSize shouldBe 0
+            }
+
+            subscription.unsubscribe()
+            objectCache.stopAsync().awaitTerminated()
+        }
+    }
+
     feature("Test provenance") {
         scenario("Storage creates provenance nodes for new objects") {
             Given("A bridge with owner")
@@ -565,6 +565,118 @@ class ZookeeperObjectStateTest extends FeatureSpec with MidonetBackendTest
 
             curator2.close()
         }
+
+        scenario("Add, get, remove a batch of values for object") {
+            Given("An object in storage")
+            val obj = new State
+            storage.create(obj)
+
+            And("A first value added to create the key")
+            storage.addValue(classOf[State], obj.id, "multi", "1")
+                .await(timeout) shouldBe StateResult(ownerId)
+
+            When("Adding a batch of values")
+            val values = (2 to 100).map(_.toString)
+            storage.addValues(classOf[State], obj.id, "multi", values)
+                .await(timeout) shouldBe StateResult(ownerId)
+
+            Then("Reading the key should return all values")
+            storage.getKey(classOf[State], obj.id, "multi")
+                .await(timeout) shouldBe
+                MultiValueKey("multi", (1 to 100).map(_.toString).toSet)
+
+            And("The values should be owned by the current session")
+            val path = storage.valuePath(namespaceId, classOf[State], obj.id,
+                                         "multi", "100")
+            curator.checkExists().forPath(path)
+                .getEphemeralOwner shouldBe ownerId
+
+            When("Removing a batch of values")
+            storage.removeValues(classOf[State], obj.id, "multi", values)
+                .await(timeout) shouldBe StateResult(ownerId)
+
+            Then("Reading the key should return the remaining value")
+            storage.getKey(classOf[State], obj.id, "multi")
+                .await(timeout) shouldBe MultiValueKey("multi", Set("1"))
+        }
+
+        scenario("Adding a batch of values creates the key") {
+            Given("An object in storage")
+            val obj = new State
+            storage.create(obj)
+
+            When("Adding a batch of values")
+            storage.addValues(classOf[State], obj.id, "multi", Seq("1", "2"))
+                .await(timeout) shouldBe StateResult(ownerId)
+
+            Then("Reading the key should return all values")
+            storage.getKey(classOf[State], obj.id, "multi")
+                .await(timeout) shouldBe MultiValueKey("multi", Set("1", "2"))
+        }
+
+        scenario("Adding a batch of values with existing values") {
+            Given("An object in storage")
+            val obj = new State
+            storage.create(obj)
+
+            And("A second storage client")
+            val (curator2, ownerId2, _, storage2) = newStorage(sameNamespace = true)
+
+            When("Each client adds a value")
+            storage.addValue(classOf[State], obj.id, "multi", "1")
+                .await(timeout) shouldBe StateResult(ownerId)
+            storage2.addValue(classOf[State], obj.id, "multi", "2")
+                .await(timeout) shouldBe StateResult(ownerId2)
+
+            And("The first client adds a batch including both values")
+            storage.addValues(classOf[State], obj.id, "multi", Seq("1", "2", "3"))
+                .await(timeout) shouldBe StateResult(ownerId)
+
+            Then("Reading the key should return all values")
+            storage.getKey(classOf[State], obj.id, "multi")
+                .await(timeout) shouldBe MultiValueKey("multi", Set("1", "2", "3"))
+
+            And("All values should be owned by the first client")
+            for (value <- Seq("1", "2", "3")) {
+                val path = storage.valuePath(namespaceId, classOf[State],
+                                             obj.id, "multi", value)
+                curator.checkExists().forPath(path)
+                    .getEphemeralOwner shouldBe ownerId
+            }
+
+            curator2.close()
+        }
+
+        scenario("A client cannot remove a batch with values of another client") {
+            Given("An object in storage")
+            val obj = new State
+            storage.create(obj)
+
+            And("A second storage client")
+            val (curator2, ownerId2, _, storage2) = newStorage(sameNamespace = true)
+
+            When("Each client adds a value")
+            storage.addValue(classOf[State], obj.id, "multi", "1")
+                .await(timeout) shouldBe StateResult(ownerId)
+            storage2.addValue(classOf[State], obj.id, "multi", "2")
+                .await(timeout) shouldBe StateResult(ownerId2)
+
+            Then("The second client removing both values should fail")
+            val e = intercept[NotStateOwnerException] {
+                storage2.removeValues(classOf[State], obj.id, "multi",
+                                      Seq("1", "2")).await(timeout)
+            }
+            e.value shouldBe "1"
+            e.owner shouldBe ownerId
+
+            And("The value of the first client is not removed")
+            val path = storage.valuePath(namespaceId, classOf[State], obj.id,
+                                         "multi", "1")
+            curator.checkExists().forPath(path)
+                .getEphemeralOwner shouldBe ownerId
+
+            curator2.close()
+        }
     }
 
     feature("Test observables for single value") {
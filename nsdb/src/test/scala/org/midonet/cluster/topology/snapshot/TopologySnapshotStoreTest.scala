@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.topology.snapshot
+
+import java.io.File
+import java.nio.file.{Files, Path}
+import java.util
+import java.util.UUID
+
+import com.google.protobuf.Message
+
+import org.apache.commons.io.FileUtils
+import org.apache.curator.framework.recipes.cache.ChildData
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FeatureSpec, Matchers}
+
+import org.midonet.cluster.models.Topology
+
+@RunWith(classOf[JUnitRunner])
+class TopologySnapshotStoreTest extends FeatureSpec with Matchers
+                                with BeforeAndAfter {
+
+    import TopologySnapshotStore._
+
+    private var dir: File = _
+    private var path: Path = _
+
+    private class TestObjectUpdate(override val objectClass: Class[_],
+                                   override val id: UUID,
+                                   data: Array[Byte]) extends ObjectUpdate {
+        override def childData(): ChildData =
+            new ChildData(s"/tests/${objectClass.getName}/$id", null, data)
+        override def message(): Message = null
+        override def isDeleted: Boolean = false
+    }
+
+    before {
+        dir = Files.createTempDirectory("snapshot").toFile
+        path = new File(dir, "topology.snapshot").toPath
+    }
+
+    after {
+        FileUtils.deleteDirectory(dir)
+    }
+
+    private def serializedSnapshot(ids: UUID*): Array[Byte] = {
+        val objects = new util.HashMap[Object, Object]()
+        for (id <- ids) {
+            objects.put(id, new TestObjectUpdate(classOf[Topology.Network], id,
+                                                 id.toString.getBytes))
+        }
+        val snapshot = new ObjectSnapshot
+        snapshot.put(classOf[Topology.Network], objects)
+        val array = new Array[Byte](64 * 1024)
+        val length = new TopologySnapshotSerializer().serialize(
+            array, TopologySnapshot(snapshot, new StateSnapshot))
+        util.Arrays.copyOf(array, length)
+    }
+
+    private def networkData(stored: StoredSnapshot): Map[UUID, String] = {
+        val objects = stored.snapshot.objectSnapshot
+            .get(classOf[Topology.Network])
+        val data = Map.newBuilder[UUID, String]
+        val it = objects.entrySet().iterator()
+        while (it.hasNext) {
+            val entry = it.next()
+            data += entry.getKey.asInstanceOf[UUID] ->
+                    new String(entry.getValue.asInstanceOf[Array[Byte]])
+        }
+        data.result()
+    }
+
+    private def corrupt(offset: Int): Unit = {
+        val bytes = Files.readAllBytes(path)
+        bytes(offset) = (bytes(offset) ^ 0xFF).toByte
+        Files.write(path, bytes)
+    }
+
+    feature("Store writes and reads snapshots") {
+        scenario("Snapshot does not exist") {
+            new TopologySnapshotStore(path).read() shouldBe None
+        }
+
+        scenario("Snapshot is read after write") {
+            val id1 = UUID.randomUUID()
+            val id2 = UUID.randomUUID()
+            val store = new TopologySnapshotStore(path)
+            store.write(serializedSnapshot(id1, id2), 1234L)
+
+            val stored = new TopologySnapshotStore(path).read().get
+            stored.timestamp shouldBe 1234L
+            networkData(stored) shouldBe Map(id1 -> id1.toString,
+                                             id2 -> id2.toString)
+        }
+
+        scenario("Write replaces the previous snapshot") {
+            val id1 = UUID.randomUUID()
+            val id2 = UUID.randomUUID()
+            val store = new TopologySnapshotStore(path)
+            store.write(serializedSnapshot(id1), 1L)
+            store.write(serializedSnapshot(id2), 2L)
+
+            val stored = store.read().get
+            stored.timestamp shouldBe 2L
+            networkData(stored).keySet shouldBe Set(id2)
+            Files.exists(path.resolveSibling("topology.snapshot.tmp")) shouldBe false
+        }
+
+        scenario("Write creates the parent directories") {
+            val nested = new File(dir, "a/b/topology.snapshot").toPath
+            val store = new TopologySnapshotStore(nested)
+            store.write(serializedSnapshot(UUID.randomUUID()), 1L)
+            store.read() should not be None
+        }
+    }
+
+    feature("Store ignores invalid snapshots") {
+        scenario("Snapshot data is corrupted") {
+            val store = new TopologySnapshotStore(path)
+            store.write(serializedSnapshot(UUID.randomUUID()), 1L)
+            corrupt(Files.size(path).toInt - 1)
+            store.read() shouldBe None
+        }
+
+        scenario("Snapshot has a different format version") {
+            val store = new TopologySnapshotStore(path)
+            store.write(serializedSnapshot(UUID.randomUUID()), 1L)
+            corrupt(7)
+            store.read() shouldBe None
+        }
+
+        scenario("Snapshot is truncated") {
+            val store = new TopologySnapshotStore(path)
+            store.write(serializedSnapshot(UUID.randomUUID()), 1L)
+            val bytes = Files.readAllBytes(path)
+            Files.write(path, util.Arrays.copyOf(bytes, bytes.length - 10))
+            store.read() shouldBe None
+
+            Files.write(path, util.Arrays.copyOf(bytes, HeaderSize - 1))
+            store.read() shouldBe None
+        }
+    }
+}
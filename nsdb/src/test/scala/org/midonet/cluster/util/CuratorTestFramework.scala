@@ -55,6 +55,7 @@ trait CuratorTestFramework extends BeforeAndAfterEach
     protected val config = new MidonetBackendConfig(ConfigFactory.parseString(
         s"""
             |zookeeper.root_key=$zkRoot
+            |zookeeper.transaction_cache_size=0
             |$configParams
         """.stripMargin))
     protected var zk: TestingServer = _